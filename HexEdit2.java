@@ -27,20 +27,21 @@
   changes will be lost.  This may differ from what you expect with word
   processors or other types of editors.
 
-  File offsets are 8-digit hexadecimal numbers to show you where the start of a
-  row (dump line) is located from the beginning of the file.  Bytes are dumped
-  (displayed) as two hexadecimal digits.  The first digit is the high-order
-  digit in the byte; the second digit is the low-order digit.  All file bytes
-  contain two digits, although during editing, you may see an odd number of
-  nibbles in the file.  (A zero digit is appended if necessary when writing a
-  file.)  Bytes are not grouped in any way, because different computers and
-  programs have different ways of deciding which byte is the low-order byte in
-  a word.  The text region on the right is only an approximation; most binary
-  data is not text.  Bytes that are printable 7-bit ASCII characters are shown
-  as text; anything else has a replacement character (".").  This does not mean
-  that the program is limited to ASCII text.  You can copy and paste any text
-  in the local system's default encoding, even if that encoding uses 8-bit
-  bytes or multiple bytes.
+  File offsets are 8-digit hexadecimal numbers (more for files bigger than
+  four gigabytes) to show you where the start of a row (dump line) is located
+  from the beginning of the file.  Bytes are dumped (displayed) as two
+  hexadecimal digits.  The first digit is the high-order digit in the byte;
+  the second digit is the low-order digit.  All file bytes contain two
+  digits, although during editing, you may see an odd number of nibbles in
+  the file.  (A zero digit is appended if necessary when writing a file.)
+  Bytes are not grouped in any way, because different computers and programs
+  have different ways of deciding which byte is the low-order byte in a
+  word.  The text region on the right is only an approximation; most binary
+  data is not text.  Bytes that are printable 7-bit ASCII characters are
+  shown as text; anything else has a replacement character (".").  This does
+  not mean that the program is limited to ASCII text.  You can copy and paste
+  any text in the local system's default encoding, even if that encoding uses
+  8-bit bytes or multiple bytes.
 
   Other than the obvious scroll bar to move through the file, and the fun you
   can have resizing text by changing the number of bytes per line or the window
@@ -122,6 +123,9 @@
 
   Control-N   Finds the next occurrence of the search string.
 
+  Control-P   Finds the previous occurrence of the search string, before the
+              cursor or the current selection.
+
   Control-R   Replaces the current selection (if any) with the replacement
               string.
 
@@ -199,15 +203,20 @@
   click or move the mouse.
 
   To handle insertions and deletions, the entire data file is buffered in
-  memory as a split array of 4-bit "nibbles" (two data nibbles per 8-bit file
-  byte).  To view a file, the Java heap size must be at least twice the size of
-  the file.  To edit a file, it must be four times.  The default Java 1.4
-  virtual machine on Windows will allow editing of files over 10 megabytes, and
-  you may increase the maximum heap size with the "-Xmx" option on the Java
-  command line.  This program is not recommended for files larger than 100
-  megabytes unless you have a fast computer and disk drive.  The absolute
-  maximum file size is one gigabyte, because nibbles in the file are counted
-  with a signed 32-bit integer.
+  memory as 4-bit "nibbles" (packed two data nibbles per 8-bit byte, the same
+  as the file), and changes are kept separately in a "piece table".  To view
+  or edit a file, the Java heap size must be at least the size of the file,
+  plus a little more for changes.  The default Java 1.4 virtual machine on
+  Windows will allow editing of files over 20 megabytes, and you may increase
+  the maximum heap size with the "-Xmx" option on the Java command line.
+  Files of 16 megabytes or more are instead "mapped" into memory, where the
+  system reads only those parts of the file that are displayed, searched, or
+  saved.  Mapping is almost instant and uses very little of the Java heap.  A
+  mapped file should not be changed by other programs while it is open here.
+  See the -map and -nomap options.  Files bigger than two gigabytes are always
+  mapped.  File offsets and nibble counts are 64-bit integers, so there is no
+  practical limit on file size, but no more than one gigabyte may be inserted
+  or pasted during one editing session.
 
   Commentary: There Is A Reason
   -----------------------------
@@ -260,8 +269,12 @@
 import java.awt.*;                // older Java GUI support
 import java.awt.datatransfer.*;   // clipboard
 import java.awt.event.*;          // older Java GUI event support
+import java.awt.image.*;          // offscreen images for benchmark
 import java.io.*;                 // standard I/O
+import java.nio.*;                // byte buffers
+import java.nio.channels.*;       // file channels, mapped files
 import java.text.*;               // number formatting
+import java.util.*;               // random numbers
 import java.util.regex.*;         // regular expressions
 import javax.swing.*;             // newer Java GUI support
 import javax.swing.event.*;       // change listener
@@ -288,18 +301,24 @@ public class HexEdit2
   static final int HEX_IGNORE = -1; // special hex value for spaces, punctuation
   static final int HEX_INVALID = -2; // special hex value for illegal characters
   static final char LAST_CHAR = 0x7E; // last printable ASCII character
+  static final long MAP_SIZE = 0x1000000L; // map files this size or larger
   static final char MARKER_CHAR = '|'; // left and right ASCII text markers
-  static final String MARKER_STRING = Character.toString(MARKER_CHAR);
+  static final long MAX_COPY = 0x10000000L; // most nibbles copied to clipboard
   static final int MIN_FRAME = 200; // minimum window height or width in pixels
   static final int NIBBLE_MASK = 0x0000000F; // low-order four bits from integer
   static final int NIBBLE_SHIFT = 4; // number of bits to shift for one nibble
-  static final int OFFSET_DIGITS = 8; // hex digits in file offset (location)
+  static final int OFFSET_DIGITS = 8; // minimum hex digits in file offset
   static final String PROGRAM_TITLE =
     "Hexadecimal File Editor - by: Keith Fenske";
   static final char REPLACE_CHAR = '.'; // replacement character for unprintable
+  static final String[] SEARCH_ENCODINGS = {"default", "UTF-8", "UTF-16LE",
+    "UTF-16BE", "ISO-8859-1", "Cp037", "UTF-8, UTF-16LE, UTF-16BE",
+    "UTF-8, UTF-16LE, UTF-16BE, Cp037"}; // character sets for text searches
   static final String SYSTEM_FONT = "Dialog"; // this font is always available
   static final Insets TEXT_MARGINS = new Insets(2, 3, 2, 3);
                                   // default top, left, bottom, right margins
+  static final int TYPED_DELAY = 200; // milliseconds after typing to search
+  static final int TYPED_MATCHES = 4096; // candidates for search as you type
 
   /* class variables */
 
@@ -316,29 +335,57 @@ public class HexEdit2
   static JDialog gotoDialog;      // "Go To File Offset" dialog box
   static JTextField gotoOffsetText; // input text string with hex byte offset
   static JLabel gotoStatus;       // message string for "go to" information
+  static boolean indexFlag;       // true if files get an n-gram index
+  static JButton listCloseButton, listFindButton, listOpenButton;
+                                  // buttons in "Find List" dialog
+  static JDialog listDialog;      // "Find List" dialog box
+  static JLabel listStatus;       // message string for "Find List"
+  static JTextArea listText;      // search strings for "Find List", one per line
   static JFrame mainFrame;        // this application's window for GUI
+  static long mapSize;            // map input files this size or larger
   static JButton menuButton;      // "Edit Menu" button
   static JMenuItem menuCopyCursor, menuCopyDump, menuCopyHex, menuCopyText,
     menuDelete, menuFind, menuGotoOffset, menuNext, menuPasteHex,
-    menuPasteText, menuReplace, menuSelect; // menu items for <menuPopup>
+    menuPasteText, menuPrevious, menuReplace, menuSelect;
+                                  // menu items for <menuPopup>
   static JPopupMenu menuPopup;    // pop-up menu invoked by <menuButton>
   static boolean mswinFlag;       // true if running on Microsoft Windows
-  static int nibbleCount;         // total number of 4-bit data nibbles
+  static long nibbleCount;        // total number of 4-bit data nibbles
   static HexEdit2Data nibbleData; // two 4-bit nibbles for each 8-bit file byte
+  static HexEdit2Index nibbleIndex; // n-gram index of <nibbleData>, or null
+  static int offsetDigits;        // hex digits in file offset (location)
   static JButton openButton;      // "Open File" button to read data file
   static JCheckBox overDialog;    // graphical option for <overFlag>
   static boolean overFlag;        // true for overwrite mode, false for insert
+  static File patchFile;          // file with original data, or null
+  static long patchTime;          // last modification time of <patchFile>
+  static JButton resultsCloseButton; // "Close" button in results dialog
+  static JDialog resultsDialog;   // "Find All" results dialog box
+  static JList resultsList;       // list of matches from "Find All"
+  static JLabel resultsStatus;    // message string with number of matches
   static JButton saveButton;      // "Save File" button to write new file
-  static JCheckBox searchByteBound, searchIgnoreNulls; // search options
-  static JButton searchCloseButton, searchFindButton, searchNextButton,
-    searchReplaceButton;          // buttons in the search dialog
+  static JCheckBox searchByteBound, searchIgnoreCase, searchIgnoreNulls;
+                                  // search options
+  static JCheckBox searchAsYouType; // option to search while user types
+  static JCheckBox searchInRange; // option to search only in a range
+  static JButton searchAllButton, searchCloseButton, searchFindButton,
+    searchListButton, searchNextButton, searchPreviousButton,
+    searchReplaceAllButton, searchReplaceButton, searchStopButton;
+                                  // buttons in the search dialog
   static JDialog searchDialog;    // "Find or Replace" dialog box
+  static JComboBox searchEncoding; // character sets for text searches
   static JTextField searchFindText, searchReplaceText; // input text strings
+  static JTextField searchRangeText; // range of file offsets for searching
   static JRadioButton searchIsHex, searchIsText; // search options
+  static HexEdit2Search searchRunning; // background search, or null
+  static int searchThreads;       // most helper threads for one search
   static JLabel searchStatus;     // message string for search results
+  static javax.swing.Timer searchTimer; // shows progress of <searchRunning>
+  static HexEdit2Matches searchTyped; // candidates for search as you type
+  static javax.swing.Timer searchTypedTimer; // waits for user to stop typing
   static HexEdit2Text textPanel;  // displays hex dump and accepts user input
   static JScrollBar textScroll;   // vertical scroll bar beside <textPanel>
-  static ActionListener userActions; // our shared action listener
+  static HexEdit2User userActions; // our shared action listener
 
 /*
   main() method
@@ -348,6 +395,7 @@ public class HexEdit2
 */
   public static void main(String[] args)
   {
+    int benchSize;                // megabytes for -bench, or zero
     String fileName;              // first parameter that isn't an option
     int i;                        // index variable
     boolean maximizeFlag;         // true if we maximize our main window
@@ -358,18 +406,29 @@ public class HexEdit2
     /* Initialize global variables that may be affected by options on the
     command line. */
 
+    benchSize = 0;                // by default, run the graphical interface
     buttonFont = null;            // by default, don't use customized font
     clipString = null;            // no string copied to clipboard yet
     dumpWidth = DEFAULT_DUMP;     // default input bytes per dump line
     fileName = "";                // first parameter is name of a file to open
     fontName = "Monospaced";      // default font name for text area
     gotoDialog = null;            // explicitly declare dialog as "not defined"
+    indexFlag = false;            // by default, searches read all data
+    mapSize = MAP_SIZE;           // map big input files, read small files
     maximizeFlag = false;         // true if we maximize our main window
     mswinFlag = System.getProperty("os.name").startsWith("Windows");
     nibbleCount = 0;              // total number of 4-bit data nibbles (none)
     nibbleData = new HexEdit2Data(0); // allocate empty data object for nibbles
+    nibbleIndex = null;           // no n-gram index yet
+    offsetDigits = OFFSET_DIGITS; // hex digits in file offset (location)
     overFlag = false;             // by default, keyboard input has insert mode
+    patchFile = null;             // no file with original data yet
+    resultsDialog = null;         // explicitly declare dialog as "not defined"
     searchDialog = null;          // explicitly declare dialog as "not defined"
+    searchRunning = null;         // no background search yet
+    searchTyped = null;           // no search as you type yet
+    searchThreads = Runtime.getRuntime().availableProcessors();
+                                  // one search thread per processor
     windowHeight = DEFAULT_HEIGHT; // default window position and size
     windowLeft = DEFAULT_LEFT;
     windowTop = DEFAULT_TOP;
@@ -401,6 +460,32 @@ public class HexEdit2
         System.exit(0);           // exit application after printing help
       }
 
+      else if (word.startsWith("-bench") || (mswinFlag
+        && word.startsWith("/bench")))
+      {
+        /* This option runs a benchmark without the graphical interface, and
+        may be followed by the size in megabytes of a generated file.  A file
+        name on the command line is used instead of a generated file. */
+
+        benchSize = -1;           // default value for size
+        try                       // try to parse remainder as unsigned integer
+        {
+          benchSize = (word.length() == 6) ? HexEdit2Bench.DEFAULT_FILE
+            : Integer.parseInt(word.substring(6));
+        }
+        catch (NumberFormatException nfe) // if not a number or bad syntax
+        {
+          benchSize = -1;         // set result to an illegal value
+        }
+        if ((benchSize < 1) || (benchSize > 1024))
+        {
+          System.err.println("Benchmark file size must be from 1 to 1024 MB: "
+            + args[i]);           // notify user of our arbitrary limits
+          showHelp();             // show help summary
+          System.exit(-1);        // exit application after printing help
+        }
+      }
+
       else if (word.equals("-d4") || (mswinFlag && word.equals("/d4")))
         dumpWidth = 4;            // user wants 4 input bytes per dump line
       else if (word.equals("-d8") || (mswinFlag && word.equals("/d8")))
@@ -414,12 +499,45 @@ public class HexEdit2
       else if (word.equals("-d32") || (mswinFlag && word.equals("/d32")))
         dumpWidth = 32;
 
+      else if (word.equals("-index") || (mswinFlag && word.equals("/index")))
+        indexFlag = true;         // index files for repeated searches
+
       else if (word.equals("-ins") || (mswinFlag && word.equals("/ins")))
         overFlag = false;         // input starts in insert mode
 
+      else if (word.equals("-map") || (mswinFlag && word.equals("/map")))
+        mapSize = 0;              // map all input files into memory
+
+      else if (word.equals("-nomap") || (mswinFlag && word.equals("/nomap")))
+        mapSize = Long.MAX_VALUE; // read all input files into memory
+
       else if (word.equals("-over") || (mswinFlag && word.equals("/over")))
         overFlag = true;          // input starts in overwrite mode
 
+      else if (word.startsWith("-t") || (mswinFlag && word.startsWith("/t")))
+      {
+        /* This option is followed by the number of threads used to search big
+        files.  The default is the number of processors. */
+
+        int count = -1;           // default value for number of threads
+        try                       // try to parse remainder as unsigned integer
+        {
+          count = Integer.parseInt(word.substring(2));
+        }
+        catch (NumberFormatException nfe) // if not a number or bad syntax
+        {
+          count = -1;             // set result to an illegal value
+        }
+        if ((count < 1) || (count > 99))
+        {
+          System.err.println("Number of search threads must be from 1 to 99: "
+            + args[i]);           // notify user of our arbitrary limits
+          showHelp();             // show help summary
+          System.exit(-1);        // exit application after printing help
+        }
+        searchThreads = count;    // number of threads for big searches
+      }
+
       else if (word.startsWith("-u") || (mswinFlag && word.startsWith("/u")))
       {
         /* This option is followed by a font point size that will be used for
@@ -495,6 +613,15 @@ public class HexEdit2
       }
     }
 
+    /* A benchmark runs without the graphical interface, so that it works on
+    computers without a display. */
+
+    if (benchSize > 0)            // does the user want a benchmark?
+    {
+      HexEdit2Bench.runWorkloads(fileName, benchSize);
+      System.exit(0);             // exit application after benchmark
+    }
+
     /* Open the graphical user interface (GUI).  The standard Java style is the
     most reliable, but you can switch to something closer to the local system,
     if you want. */
@@ -603,6 +730,11 @@ public class HexEdit2
     if (buttonFont != null) menuNext.setFont(buttonFont);
     menuNext.setMnemonic(KeyEvent.VK_N);
 
+    menuPrevious = new JMenuItem("Find Previous");
+    menuPrevious.addActionListener(userActions);
+    if (buttonFont != null) menuPrevious.setFont(buttonFont);
+    menuPrevious.setMnemonic(KeyEvent.VK_P);
+
     menuPasteHex = new JMenuItem("Paste Hex");
     menuPasteHex.addActionListener(userActions);
     if (buttonFont != null) menuPasteHex.setFont(buttonFont);
@@ -709,15 +841,8 @@ public class HexEdit2
     else                          // no file name given
     {
       byte[] array = COPYRIGHT_NOTICE.getBytes(); // use copyright string
-      nibbleData = new HexEdit2Data(array.length * 2);
-                                  // allocate data object to hold nibbles
-      for (i = 0; i < array.length; i ++) // do all bytes in copyright string
-      {
-        nibbleData.append((array[i] >> NIBBLE_SHIFT) & NIBBLE_MASK);
-                                  // high-order nibble in byte
-        nibbleData.append(array[i] & NIBBLE_MASK);
-                                  // low-order nibble in byte
-      }
+      nibbleData = new HexEdit2Data(array, array.length);
+                                  // copyright string becomes original data
       refreshDataSize();          // set to correct number of data nibbles
     }
     textPanel.beginFile();        // display file from the beginning
@@ -803,6 +928,25 @@ public class HexEdit2
   } // end of charHexValue() method
 
 
+/*
+  checkCopySize() method
+
+  Return true if a selection is small enough to be copied to the clipboard as
+  a string.  Otherwise, tell the user and return false.  Java strings can't be
+  longer than two billion characters, and the clipboard is usually much more
+  limited than that.
+*/
+  static boolean checkCopySize(long beginIndex, long endIndex)
+  {
+    if ((endIndex - beginIndex) <= MAX_COPY) // is selection small enough?
+      return(true);
+    JOptionPane.showMessageDialog(mainFrame, ("Selection has "
+      + formatComma.format(endIndex - beginIndex) + " nibbles.\nCan't copy more"
+      + " than " + formatComma.format(MAX_COPY) + " nibbles to the clipboard."));
+    return(false);
+  }
+
+
 /*
   copyCursor() method
 
@@ -815,9 +959,9 @@ public class HexEdit2
   {
     String text;                  // text string in middle of hex conversion
 
-    text = "00000000" + Integer.toHexString(textPanel.cursorDot / 2)
+    text = "0000000000000000" + Long.toHexString(textPanel.cursorDot / 2)
       .toUpperCase();             // current cursor nibble as hex byte offset
-    setClipboard(text.substring(text.length() - OFFSET_DIGITS));
+    setClipboard(text.substring(text.length() - offsetDigits));
   }
 
 
@@ -831,22 +975,26 @@ public class HexEdit2
 */
   static void copyDump()
   {
-    int beginIndex, endIndex, thisIndex; // nibble index variables
+    long beginIndex, endIndex, thisIndex; // nibble index variables
     int byteValue;                // byte value combined from two nibbles
+    int[] chunk;                  // nibbles fetched from data in blocks
+    int chunkUsed;                // next nibble to take from <chunk>
     int i;                        // index variable
     StringBuffer lineBuffer;      // where we create each dump line
     int lineLength;               // total number of characters each dump line
     int lineNibbles;              // maximum number of hex digits per dump line
     int lineUsed;                 // number of nibbles placed on this line
     int nextHex, nextText;        // indexes for placing next nibble, byte
+    int prevNibble, thisNibble;   // nibble values, previous and current
     StringBuffer result;          // string created from selected dump lines
-    int shiftedOffset;            // copy of file offset that we manipulate
+    long shiftedOffset;           // copy of file offset that we manipulate
 
     beginIndex = Math.min(textPanel.cursorDot, textPanel.cursorMark);
     endIndex = Math.max(textPanel.cursorDot, textPanel.cursorMark);
-    if (beginIndex < endIndex)    // only if there is a selection
+    if ((beginIndex < endIndex)   // only if there is a selection
+      && checkCopySize(beginIndex, endIndex)) // that isn't too big
     {
-      lineLength = OFFSET_DIGITS + (4 * dumpWidth) + 5;
+      lineLength = offsetDigits + (4 * dumpWidth) + 5;
                                   // number of printable chars each dump line
       lineBuffer = new StringBuffer(lineLength + 1);
                                   // allocate line buffer, ends with newline
@@ -855,9 +1003,23 @@ public class HexEdit2
       lineNibbles = 2 * dumpWidth; // maximum number of nibbles per dump line
       lineUsed = -1;              // force initialization of a new dump line
       nextHex = nextText = -1;    // just to keep compiler happy
+      chunk = new int[BUFFER_SIZE]; // fetch nibbles in blocks
+      chunkUsed = chunk.length;   // force fetching the first block
+      prevNibble = thisNibble = 0; // no previous nibble yet
       result = new StringBuffer(); // start with an empty string buffer
       for (thisIndex = beginIndex; thisIndex < endIndex; thisIndex ++)
       {
+        /* Fetch the next block of nibbles when the current block is used. */
+
+        if (chunkUsed >= chunk.length) // have we used all fetched nibbles?
+        {
+          nibbleData.getRange(thisIndex, chunk, 0, (int) Math.min(chunk.length,
+            (endIndex - thisIndex)));
+          chunkUsed = 0;          // start at beginning of new block
+        }
+        prevNibble = thisNibble;  // remember nibble for previous index
+        thisNibble = chunk[chunkUsed ++]; // get nibble for this index
+
         /* If the current dump line is full, then copy it to our result. */
 
         if (lineUsed >= lineNibbles) // is the current dump line full?
@@ -876,16 +1038,18 @@ public class HexEdit2
                                   // insert left marker for ASCII text
           lineBuffer.setCharAt((lineLength - 1), MARKER_CHAR); // right marker
           shiftedOffset = (thisIndex / lineNibbles) * dumpWidth;
-          for (i = (OFFSET_DIGITS - 1); i >= 0; i --)
+          for (i = (offsetDigits - 1); i >= 0; i --)
                                   // extract digits starting with low-order
           {
-            lineBuffer.setCharAt(i, HEX_DIGITS[shiftedOffset & NIBBLE_MASK]);
+            lineBuffer.setCharAt(i, HEX_DIGITS[(int) (shiftedOffset
+              & NIBBLE_MASK)]);
                                   // convert nibble to hex text digit
             shiftedOffset = shiftedOffset >> NIBBLE_SHIFT;
                                   // shift down next higher-order nibble
           }
-          lineUsed = thisIndex % lineNibbles; // ignore leading unused digits
-          nextHex = lineUsed + (lineUsed / 2) + OFFSET_DIGITS + 2;
+          lineUsed = (int) (thisIndex % lineNibbles);
+                                  // ignore leading unused digits
+          nextHex = lineUsed + (lineUsed / 2) + offsetDigits + 2;
                                   // where next hex digit goes
           nextText = lineLength - dumpWidth - 1 + (lineUsed / 2);
                                   // where next ASCII text goes
@@ -893,9 +1057,8 @@ public class HexEdit2
 
         /* Place the hexadecimal digit for this nibble. */
 
-        lineBuffer.setCharAt((nextHex ++),
-          HEX_DIGITS[nibbleData.get(thisIndex)]);
-        nextHex += thisIndex % 2; // insert extra space after second nibble
+        lineBuffer.setCharAt((nextHex ++), HEX_DIGITS[thisNibble]);
+        nextHex += (int) (thisIndex % 2); // extra space after second nibble
         lineUsed ++;              // one more nibble placed on this dump line
 
         /* Place the ASCII text for a whole byte (two nibbles). */
@@ -906,8 +1069,8 @@ public class HexEdit2
             byteValue = REPLACE_CHAR; // incomplete byte means unprintable
           else                    // we have first and second nibble
           {
-            byteValue = (nibbleData.get(thisIndex - 1) << NIBBLE_SHIFT)
-              | nibbleData.get(thisIndex); // construct byte from two nibbles
+            byteValue = (prevNibble << NIBBLE_SHIFT) | thisNibble;
+                                  // construct byte from two nibbles
             if ((byteValue < FIRST_CHAR) || (byteValue > LAST_CHAR))
               byteValue = REPLACE_CHAR; // replace unprintable character
           }
@@ -933,90 +1096,73 @@ public class HexEdit2
 */
   static void copyHex()
   {
-    int beginIndex, endIndex, thisIndex; // nibble index variables
-    StringBuffer result;          // string created from selected hex digits
+    long beginIndex, endIndex;    // nibble index variables
 
     beginIndex = Math.min(textPanel.cursorDot, textPanel.cursorMark);
     endIndex = Math.max(textPanel.cursorDot, textPanel.cursorMark);
-    if (beginIndex < endIndex)    // only if there is a selection
+    if ((beginIndex < endIndex)   // only if there is a selection
+      && checkCopySize(beginIndex, endIndex)) // that isn't too big
     {
-      result = new StringBuffer(); // start with an empty string buffer
-      for (thisIndex = beginIndex; thisIndex < endIndex; thisIndex ++)
-        result.append(HEX_DIGITS[nibbleData.get(thisIndex)]);
-                                  // convert binary nibble to hex character
-      setClipboard(result.toString()); // and buffer becomes clipboard string
+      setClipboard(getHexString(beginIndex, endIndex));
+    }
+  }
+
+
+/*
+  copyPermissions() method
+
+  Give a new file the same permissions as an old file, before the new file
+  replaces the old file.  Java 7 and later can read and set POSIX permissions
+  (owner, group, and others), which we find by name, since we are compiled for
+  Java 1.4.  Nothing happens on older Java, on systems without POSIX
+  permissions (Windows), or if the old file doesn't exist.
+*/
+  static void copyPermissions(File oldFile, File newFile)
+  {
+    Class filesClass;             // java.nio.file.Files
+    Object linkOptions;           // empty array of java.nio.file.LinkOption
+    Class pathClass;              // java.nio.file.Path
+    Object permissions;           // set of permissions from <oldFile>
+    java.lang.reflect.Method toPath; // File.toPath()
+
+    if (oldFile.exists() == false) // is there anything to copy?
+      return;
+    try                           // any failure leaves default permissions
+    {
+      filesClass = Class.forName("java.nio.file.Files");
+      pathClass = Class.forName("java.nio.file.Path");
+      linkOptions = java.lang.reflect.Array.newInstance(Class.forName(
+        "java.nio.file.LinkOption"), 0);
+      toPath = File.class.getMethod("toPath", new Class[0]);
+      permissions = filesClass.getMethod("getPosixFilePermissions",
+        new Class[] {pathClass, linkOptions.getClass()}).invoke(null,
+        new Object[] {toPath.invoke(oldFile, new Object[0]), linkOptions});
+      filesClass.getMethod("setPosixFilePermissions", new Class[] {pathClass,
+        Set.class}).invoke(null, new Object[] {toPath.invoke(newFile,
+        new Object[0]), permissions});
     }
-  } // end of copyHex() method
+    catch (Exception e) { /* keep default permissions */ }
+  }
 
 
 /*
   copyText() method
 
   Copy the currently selected portion of our nibble data to the clipboard as
-  text (that is, a string).  To be consistent with pasteText(), first we create
-  a byte array, then we convert the bytes to a string using the local system's
-  default encoding.  No attempt is made to align the selected nibbles on a byte
-  boundary; this may produce unexpected results.
+  text (that is, a string).  The text is created by getTextString().
 */
   static void copyText()
   {
-    byte[] array;                 // array of bytes obtained from a string
-    int beginIndex, endIndex, thisIndex; // nibble index variables
-    int byteValue;                // for creating shifted sum of two nibbles
-    char ch;                      // one character from decoded string
-    boolean crFound;              // true if previous char was carriage return
-    String decoded;               // intermediate copy of decoded string
-    int i;                        // index variable
-    int length;                   // length of decoded string in characters
-    StringBuffer result;          // string created from selected hex digits
+    long beginIndex, endIndex;    // nibble index variables
 
     beginIndex = Math.min(textPanel.cursorDot, textPanel.cursorMark);
     endIndex = Math.max(textPanel.cursorDot, textPanel.cursorMark);
-    if (beginIndex < endIndex)    // only if there is a selection
+    if ((beginIndex < endIndex)   // only if there is a selection
+      && checkCopySize(beginIndex, endIndex)) // that isn't too big
     {
-      array = new byte[(endIndex - beginIndex + 1) / 2]; // round up byte size
-      thisIndex = beginIndex;     // first nibble is high-order of first byte
-      for (i = 0; i < array.length; i ++) // create each byte from two nibbles
-      {
-        byteValue = nibbleData.get(thisIndex ++) << NIBBLE_SHIFT;
-                                  // can always get high-order nibble
-        if (thisIndex < endIndex) // there may not be a low-order nibble
-          byteValue |= nibbleData.get(thisIndex ++);
-        array[i] = (byte) byteValue; // copy summed nibbles to byte array
-      }
-
-      /* The Windows clipboard (and possibly others) will truncate a string if
-      certain characters such as nulls are found.  Recognize a single carriage
-      return (CR), a single line feed (LF), or a CR/LF pair as being equivalent
-      to a standard newline character (NL).  Note: the binary value of LF is
-      the same as NL. */
-
-      crFound = false;            // previous character was not carriage return
-      decoded = new String(array); // decode byte array, default character set
-      length = decoded.length();  // get number of characters in decoded string
-      result = new StringBuffer(length); // assume maximum capacity for buffer
-      for (i = 0; i < length; i ++) // check all characters in decoded string
-      {
-        ch = decoded.charAt(i);   // get one character from decoded string
-        if (crFound && (ch != '\n')) // carriage return without line feed?
-          result.append('\n');    // yes, previous CR becomes newline character
-        crFound = false;          // previous character is no longer important
-        if (ch == '\n')           // accept newline character (DOS LF, UNIX NL)
-          result.append(ch);
-        else if (ch == '\r')      // delay action for carriage return (CR)
-          crFound = true;
-        else if (ch == '\t')      // accept horizontal tab character (HT)
-          result.append(ch);
-        else if ((ch <= 0x1F) || ((ch >= 0x7F) && (ch <= 0x9F)))
-          { /* ignore all other control codes */ }
-        else
-          result.append(ch);      // otherwise, this character is acceptable
-      }
-      if (crFound)                // if last character was a carriage return
-        result.append('\n');      // then end copied string with a newline
-      setClipboard(result.toString()); // and buffer becomes clipboard string
+      setClipboard(getTextString(beginIndex, endIndex));
     }
-  } // end of copyText() method
+  }
 
 
 /*
@@ -1029,14 +1175,14 @@ public class HexEdit2
 */
   static void deleteSelected()
   {
-    int beginIndex, endIndex, thisIndex; // nibble index variables
+    long beginIndex, endIndex;    // nibble index variables
 
     beginIndex = Math.min(textPanel.cursorDot, textPanel.cursorMark);
     endIndex = Math.max(textPanel.cursorDot, textPanel.cursorMark);
     if (beginIndex < endIndex)    // only if there is a selection
     {
-      for (thisIndex = beginIndex; thisIndex < endIndex; thisIndex ++)
-        nibbleData.delete(beginIndex); // delete shuffles, always <beginIndex>
+      nibbleData.deleteRange(beginIndex, (endIndex - beginIndex));
+                                  // delete whole selection at once
       textPanel.cursorDot = textPanel.cursorMark = beginIndex;
                                   // selection is gone, reset cursor
       textPanel.limitCursorRange(); // refresh data size, enforce cursor range
@@ -1071,6 +1217,104 @@ public class HexEdit2
   } // end of getClipboard() method
 
 
+/*
+  getHexString() method
+
+  Return a range of our nibble data as a string of hex digits, one digit per
+  nibble.  The caller checks the size with checkCopySize().  Used by copyHex(),
+  and by the benchmark without a clipboard.
+*/
+  static String getHexString(long beginIndex, long endIndex)
+  {
+    int[] chunk;                  // nibbles fetched from data in blocks
+    int i;                        // index variable
+    int length;                   // number of nibbles in this block
+    StringBuffer result;          // string created from selected hex digits
+    long thisIndex;               // nibble index variable
+
+    chunk = new int[BUFFER_SIZE]; // fetch nibbles in blocks
+    result = new StringBuffer((int) (endIndex - beginIndex));
+                                  // one hex digit per selected nibble
+    for (thisIndex = beginIndex; thisIndex < endIndex; thisIndex += length)
+    {
+      length = (int) Math.min(chunk.length, (endIndex - thisIndex));
+      nibbleData.getRange(thisIndex, chunk, 0, length); // get one block
+      for (i = 0; i < length; i ++)
+        result.append(HEX_DIGITS[chunk[i]]);
+                                  // convert binary nibble to hex character
+    }
+    return(result.toString());    // buffer becomes string for clipboard
+  }
+
+
+/*
+  getTextString() method
+
+  Return a range of our nibble data as text.  To be consistent with
+  pasteText(), first we create a byte array, then we convert the bytes to a
+  string using the local system's default encoding.  No attempt is made to
+  align the nibbles on a byte boundary; this may produce unexpected results.
+  Used by copyText(), and by the benchmark without a clipboard.
+*/
+  static String getTextString(long beginIndex, long endIndex)
+  {
+    byte[] array;                 // array of bytes obtained from a string
+    char ch;                      // one character from decoded string
+    int[] chunk;                  // nibbles fetched from data in blocks
+    boolean crFound;              // true if previous char was carriage return
+    String decoded;               // intermediate copy of decoded string
+    int i, k;                     // index variables
+    int length;                   // length of decoded string in characters
+    StringBuffer result;          // string created from selected hex digits
+    long thisIndex;               // nibble index variable
+
+    array = new byte[(int) ((endIndex - beginIndex + 1) / 2)];
+                                  // round up byte size
+    chunk = new int[BUFFER_SIZE + 1]; // fetch even-sized nibble blocks
+    i = 0;                        // first nibble is high-order of first byte
+    for (thisIndex = beginIndex; thisIndex < endIndex; thisIndex += length)
+    {
+      length = (int) Math.min(BUFFER_SIZE, (endIndex - thisIndex));
+      nibbleData.getRange(thisIndex, chunk, 0, length); // get one block
+      chunk[length] = 0;          // missing low-order nibble is zero
+      for (k = 0; k < length; k += 2) // create each byte from two nibbles
+        array[i ++] = (byte) ((chunk[k] << NIBBLE_SHIFT) | chunk[k + 1]);
+    }
+
+    /* The Windows clipboard (and possibly others) will truncate a string if
+    certain characters such as nulls are found.  Recognize a single carriage
+    return (CR), a single line feed (LF), or a CR/LF pair as being equivalent
+    to a standard newline character (NL).  Note: the binary value of LF is
+    the same as NL. */
+
+    crFound = false;              // previous character was not carriage return
+    decoded = new String(array);  // decode byte array, default character set
+    length = decoded.length();    // get number of characters in decoded string
+    result = new StringBuffer(length); // assume maximum capacity for buffer
+    for (i = 0; i < length; i ++) // check all characters in decoded string
+    {
+      ch = decoded.charAt(i);     // get one character from decoded string
+      if (crFound && (ch != '\n')) // carriage return without line feed?
+        result.append('\n');      // yes, previous CR becomes newline character
+      crFound = false;            // previous character is no longer important
+      if (ch == '\n')             // accept newline character (DOS LF, UNIX NL)
+        result.append(ch);
+      else if (ch == '\r')        // delay action for carriage return (CR)
+        crFound = true;
+      else if (ch == '\t')        // accept horizontal tab character (HT)
+        result.append(ch);
+      else if ((ch <= 0x1F) || ((ch >= 0x7F) && (ch <= 0x9F)))
+        { /* ignore all other control codes */ }
+      else
+        result.append(ch);        // otherwise, this character is acceptable
+    }
+    if (crFound)                  // if last character was a carriage return
+      result.append('\n');        // then end copied string with a newline
+    return(result.toString());    // buffer becomes string for clipboard
+
+  } // end of getTextString() method
+
+
 /*
   gotoFileOffset() method
 
@@ -1133,10 +1377,10 @@ public class HexEdit2
 
     gotoStatus.setText(EMPTY_STATUS); // less confusing if clear status message
     mainFrame.setVisible(true);   // bring main frame in front of dialog box
-    textPanel.cursorDot = textPanel.cursorMark = (int) (offset * 2);
+    textPanel.cursorDot = textPanel.cursorMark = offset * 2;
                                   // position cursor at user's exact offset
     textPanel.limitCursorRange(); // refresh data size, enforce cursor range
-    textPanel.panelOffset = ((int) offset) - (textPanel.panelDumpWidth
+    textPanel.panelOffset = offset - (textPanel.panelDumpWidth
       * (textPanel.panelRows / 3)); // approximate starting panel offset
     textPanel.adjustScrollBar();  // clean up offset and adjust scroll bars
     textPanel.repaint();          // redraw text display as necessary
@@ -1144,6 +1388,27 @@ public class HexEdit2
   } // end of gotoFileOffset() method
 
 
+/*
+  indexData() method
+
+  Stop indexing the previous data, if any, and start indexing the current data
+  in the background if the user asked for an index (-index option).  The index
+  is for searching the same big file many times, and isn't needed for small
+  files.
+*/
+  static void indexData()
+  {
+    if (nibbleIndex != null)      // is there an index for previous data?
+      nibbleIndex.stop();         // yes, stop it
+    nibbleIndex = null;
+    if (indexFlag && (nibbleData.size() >= (2L * MAP_SIZE))) // big file?
+    {
+      nibbleIndex = new HexEdit2Index(nibbleData);
+      nibbleIndex.start();        // index in a background thread
+    }
+  }
+
+
 /*
   memoryError() method
 
@@ -1165,12 +1430,10 @@ public class HexEdit2
 */
   static void openFile(File givenFile)
   {
-    byte[] buffer;                // input buffer (faster than byte-by-byte)
-    int i;                        // index variable
     File inputFile;               // user's selected input file
     long inputSize;               // total size of input file in bytes
-    FileInputStream inputStream;  // input file stream
-    int length;                   // actual number of bytes read
+    boolean mapFlag;              // true if we map file instead of reading
+    HexEdit2Data oldData;         // previous nibble data, closed when replaced
 
     /* Clear the nibble counter so that the data looks empty, until after we
     finish opening a file.  This prevents the text display from throwing an
@@ -1178,6 +1441,7 @@ public class HexEdit2
     will be reset properly with a call to refreshDataSize(). */
 
     nibbleCount = 0;              // make data look empty, without losing data
+    oldData = nibbleData;         // remember previous data for closing
 
     /* Ask the user for an input file name, if we weren't already given a file
     by our caller. */
@@ -1199,19 +1463,15 @@ public class HexEdit2
       inputFile = givenFile;      // use caller's file name without asking
     }
 
-    /* Warn the user if the file is larger than what we are able to handle. */
+    /* Warn the user if a file will be slow to read into memory.  Big files are
+    mapped into memory, which is fast, so there is no warning about big files.
+    Files too big for a Java byte array are always mapped. */
 
     inputSize = inputFile.length(); // get total number of bytes for input file
-    if (inputSize > 0x3FFF0000L)  // just short of one gigabyte
-    {
-      JOptionPane.showMessageDialog(mainFrame,
-        ("This program can't open files larger than one gigabyte.\n"
-        + inputFile.getName() + " has " + formatComma.format(inputSize)
-        + " bytes."));
-      refreshDataSize();          // bring back previous nibble data and size
-      return;                     // we can't open this file, so give up
-    }
-    else if (inputSize > 99999999L) // just short of 100 megabytes
+    mapFlag = (inputSize >= mapSize) || (inputSize > 0x7FFF0000L);
+                                  // map big files, read small files
+    if ((mapFlag == false) && (inputSize > 99999999L))
+                                  // just short of 100 megabytes
     {
       if (JOptionPane.showConfirmDialog(mainFrame,
         ("Files larger than 100 megabytes may be slow.\n"
@@ -1225,34 +1485,20 @@ public class HexEdit2
       }
     }
 
-    /* Read 8-bit data bytes from the input file and convert to pairs of 4-bit
-    nibbles.  Since we are reading whole bytes, there is always an even number
-    of nibbles. */
+    /* Map or read 8-bit data bytes from the input file. */
 
+    patchTime = inputFile.lastModified(); // before reading, to be careful
     try                           // catch file I/O errors, memory allocation
     {
-      buffer = new byte[BUFFER_SIZE]; // allocate byte buffer for input
-      inputStream = new FileInputStream(inputFile);
-                                  // try to open input file
-      nibbleData = new HexEdit2Data(2 * (int) inputSize);
-                                  // allocate nibble data object from file size
-      while ((length = inputStream.read(buffer, 0, BUFFER_SIZE)) > 0)
-      {
-        for (i = 0; i < length; i ++)
-        {
-          nibbleData.append((buffer[i] >> NIBBLE_SHIFT) & NIBBLE_MASK);
-                                  // high-order nibble in byte
-          nibbleData.append(buffer[i] & NIBBLE_MASK);
-                                  // low-order nibble in byte
-        }
-      }
-      inputStream.close();        // try to close input file
+      nibbleData = readFile(inputFile, mapFlag); // new original data
       mainFrame.setTitle("Hex File Editor - " + inputFile.getName());
+      patchFile = inputFile;      // changed bytes may be written to this file
     }
     catch (IOException ioe)       // most likely I/O error is "file not found"
     {
       mainFrame.setTitle(PROGRAM_TITLE); // remove file name from title bar
       nibbleData = new HexEdit2Data(0); // substitute an empty data object
+      patchFile = null;           // no file with original data
       JOptionPane.showMessageDialog(mainFrame,
         ("Can't read from input file:\n" + ioe.getMessage()));
     }
@@ -1260,11 +1506,18 @@ public class HexEdit2
     {
       mainFrame.setTitle(PROGRAM_TITLE); // remove file name from title bar
       nibbleData = new HexEdit2Data(0); // substitute an empty data object
+      patchFile = null;           // no file with original data
       JOptionPane.showMessageDialog(mainFrame,
         ("Not enough memory to open this file.\n"
         + inputFile.getName() + " has "+ formatComma.format(inputSize)
         + " bytes.\nTry increasing the Java heap size with the -Xmx option."));
     }
+    if (oldData != nibbleData)    // has the previous data been replaced?
+    {
+      searchStop(true);           // yes, stop searching previous data
+      indexData();                // stop old index, maybe start a new one
+      oldData.close();            // close previous file, if any
+    }
     refreshDataSize();            // set to correct number of data nibbles
 
   } // end of openFile() method
@@ -1323,8 +1576,7 @@ public class HexEdit2
     int used,                     // actual number of nibbles used in array
     boolean localOver)            // global <overFlag> or local true/false
   {
-    int beginIndex, endIndex;     // nibble index variables
-    int i;                        // index variable
+    long beginIndex, endIndex;    // nibble index variables
 
     if (used <= 0)                // is there any real work to do?
       return;                     // no: clipboard not available, not a string,
@@ -1345,9 +1597,9 @@ public class HexEdit2
         return;                   // return early: cancel the paste operation
       }
 
-      textPanel.cursorDot = beginIndex; // start replacing here
-      for (i = 0; i < used; i ++) // replace with nibbles given by caller
-        nibbleData.put((textPanel.cursorDot ++), array[i]);
+      nibbleData.putRange(beginIndex, array, 0, used);
+                                  // replace with nibbles given by caller
+      textPanel.cursorDot = beginIndex + used; // cursor goes after replaced
     }
 
     else                          // must be insert mode
@@ -1356,8 +1608,9 @@ public class HexEdit2
       by first deleting the selection, then inserting the clipboard. */
 
       deleteSelected();           // delete current selection, if any
-      for (i = 0; i < used; i ++) // insert all nibbles given by caller
-        nibbleData.insert((textPanel.cursorDot ++), array[i]);
+      nibbleData.insertRange(textPanel.cursorDot, array, 0, used);
+                                  // insert all nibbles given by caller
+      textPanel.cursorDot += used; // cursor goes after inserted nibbles
     }
 
     textPanel.cursorMark = textPanel.cursorDot;
@@ -1402,14 +1655,62 @@ public class HexEdit2
   } // end of pasteText() method
 
 
+/*
+  readFile() method
+
+  Map or read 8-bit data bytes from a file, and return them as new nibble data.
+  The bytes become the original data for the piece table, which already has two
+  4-bit nibbles per byte.  Since we are reading whole bytes, there is always an
+  even number of nibbles.  Stop early if the file gets shorter while we are
+  reading.  Used by openFile(), and by the benchmark without a file chooser.
+*/
+  static HexEdit2Data readFile(File inputFile, boolean mapFlag)
+    throws IOException
+  {
+    byte[] buffer;                // input buffer for entire file
+    FileInputStream inputStream;  // input file stream
+    int length;                   // actual number of bytes read
+    int used;                     // total number of bytes read into buffer
+
+    if (mapFlag)                  // should we map the file into memory?
+      return(new HexEdit2Data(inputFile)); // pages are read when used
+
+    buffer = new byte[(int) inputFile.length()]; // buffer for all input
+    inputStream = new FileInputStream(inputFile); // try to open input file
+    try                           // always close input file
+    {
+      used = 0;                   // nothing read yet
+      while ((used < buffer.length) && ((length = inputStream.read(buffer,
+        used, Math.min(BUFFER_SIZE, (buffer.length - used)))) > 0))
+      {
+        used += length;           // more bytes read into buffer
+      }
+    }
+    finally
+    {
+      inputStream.close();        // try to close input file
+    }
+    return(new HexEdit2Data(buffer, used)); // original data
+
+  } // end of readFile() method
+
+
 /*
   refreshDataSize() method
 
   Recalculate the total number of data nibbles, after insertions and deletions.
+  File offsets have at least eight hex digits, and more for files bigger than
+  four gigabytes.  The display allows for one more byte than is in the file.
 */
   static void refreshDataSize()
   {
     nibbleCount = nibbleData.size(); // refetch total number of data nibbles
+    offsetDigits = OFFSET_DIGITS; // start with the minimum number of digits
+    while ((offsetDigits < 16) && (((nibbleCount / 2) >> (NIBBLE_SHIFT
+      * offsetDigits)) != 0))     // are more digits needed for last offset?
+    {
+      offsetDigits ++;            // yes, add one hex digit
+    }
   }
 
 
@@ -1421,11 +1722,12 @@ public class HexEdit2
 */
   static void saveFile()
   {
-    byte[] buffer;                // output buffer (faster than byte-by-byte)
-    int i;                        // index variable
-    int length;                   // number of bytes in output buffer
+    File mappedFile;              // file mapped as original data, or null
     File outputFile;              // user's selected output file
-    FileOutputStream outputStream; // output file stream
+    boolean patchFlag;            // true if only changed bytes are written
+    boolean replaced;             // true if temporary file was renamed
+    File targetFile;              // output file with links followed
+    File tempFile;                // temporary file, deleted unless renamed
 
     /* Ask the user for an output file name. */
 
@@ -1434,40 +1736,90 @@ public class HexEdit2
       return;                     // user cancelled file selection dialog box
     outputFile = fileChooser.getSelectedFile(); // get user's output file
 
-    /* Convert pairs of 4-bit data nibbles to 8-bit bytes and write to the
-    output file.  There may be an odd number of nibbles; in which case, assume
-    a zero for the final nibble. */
-
+    /* When saving over the file that was opened, and that file hasn't been
+    changed by anyone else, and the user has only replaced (overwritten) data,
+    then we write only the changed bytes directly into the file.  This is much
+    faster for big files, but isn't protected from a crash while writing.
+
+    Otherwise, write all data to a temporary file in the same folder as the
+    output file, then rename the temporary file to replace the output file.  If
+    anything goes wrong while writing (even a system crash), the old output
+    file is unchanged.  Since we never write over the file that we are
+    reading, a mapped file doesn't need to be copied into memory, and parts
+    that haven't been edited are copied straight from the mapped file.  A
+    symbolic link is followed to the real file, which is replaced, so the link
+    stays.  The new file gets the old file's permissions, where Java can copy
+    them (see copyPermissions()), but not its owner or other hard links.
+
+    If we can't create a temporary file (the folder isn't writable, but the
+    file is), or can't rename it (Windows won't rename on top of an existing
+    file), then we write over the output file in place, the same as older
+    versions.  That isn't protected from a crash, except that a complete copy
+    is still in the temporary file, if there is one, until writing is done.
+    Writing over a mapped file needs the original data in memory first, and
+    Windows won't write a file that is mapped, so that may fail for very big
+    files; the data is then kept in the temporary file. */
+
+    tempFile = null;              // no temporary file yet
     try                           // catch file I/O errors
     {
-      if (canWriteFile(outputFile)) // if writing this file seems safe
+      patchFlag = (patchFile != null) && patchFile.getCanonicalFile().equals(
+        outputFile.getCanonicalFile()) && (patchFile.lastModified()
+        == patchTime) && ((2 * patchFile.length()) == nibbleData.size())
+        && nibbleData.canPatch(); // can we write only changed bytes?
+      if (patchFlag && canWriteFile(outputFile)) // write changed bytes only?
       {
-        buffer = new byte[BUFFER_SIZE]; // allocate byte buffer for output
-        length = 0;               // nothing in output buffer yet
-        outputStream = new FileOutputStream(outputFile);
-                                  // try to open output file
-        refreshDataSize();        // refresh total number of nibbles
-
-        i = 0;                    // start with first data nibble
-        while (i < nibbleCount)   // do all nibbles
+        writeFile(nibbleData, outputFile, true); // changed bytes
+        patchTime = outputFile.lastModified(); // unchanged original data
+      }
+      else if ((patchFlag == false) && canWriteFile(outputFile))
+      {
+        targetFile = outputFile.getCanonicalFile(); // real file, not a link
+        try                       // folder may not be writable
+        {
+          tempFile = File.createTempFile("HexEdit", ".tmp",
+            targetFile.getParentFile());
+        }
+        catch (IOException ioe) { tempFile = null; } // write in place
+        replaced = false;         // output file not replaced yet
+        if (tempFile != null)     // write all data to temporary file?
+        {
+          writeFile(nibbleData, tempFile, false); // write all data
+          copyPermissions(targetFile, tempFile); // same as old file, if any
+          if (tempFile.renameTo(targetFile)) // replace in one step?
+          {
+            tempFile = null;      // temporary file is now the output file
+            replaced = true;
+          }
+        }
+        if (replaced == false)    // write over output file in place?
         {
-          if (length >= BUFFER_SIZE) // time to empty the output buffer?
+          try                     // keep temporary file if this fails
           {
-            outputStream.write(buffer); // yes, write entire buffer
-            length = 0;           // and now there is nothing in the buffer
+            mappedFile = nibbleData.getFile(); // may need to release file
+            if ((mappedFile != null) && mappedFile.getCanonicalFile().equals(
+              targetFile))
+            {
+              nibbleData.loadOriginal(); // copy original, close mapped file
+              System.gc();        // old mappings go away with garbage
+            }
+            writeFile(nibbleData, targetFile, false); // write all data
           }
-          buffer[length] = (byte) (nibbleData.get(i ++) << NIBBLE_SHIFT);
-                                  // can always get high-order nibble
-          if (i < nibbleCount)    // there may not be a low-order nibble
+          catch (IOException ioe)
           {
-            buffer[length] |= (byte) nibbleData.get(i ++);
-                                  // insert bits for low-order nibble
+            if (tempFile == null) // no other copy of the data?
+              throw ioe;
+            outputFile = tempFile; // data is still in the temporary file
+            tempFile = null;      // so don't delete it
+            throw new IOException(ioe.getMessage() + "\nAll data was saved in "
+              + outputFile.getPath());
           }
-          length ++;              // there is one more byte in output buffer
         }
-        if (length > 0)           // is there more output to be written?
-          outputStream.write(buffer, 0, length); // yes, write partial buffer
-        outputStream.close();     // try to close output file
+        if ((patchFile != null) && patchFile.getCanonicalFile().equals(
+          targetFile))            // have we replaced original file?
+        {
+          patchFile = null;       // yes, file no longer has original data
+        }
       }
     }
     catch (IOException ioe)
@@ -1475,14 +1827,131 @@ public class HexEdit2
       JOptionPane.showMessageDialog(mainFrame,
         ("Can't write to output file:\n" + ioe.getMessage()));
     }
+    if (tempFile != null)         // is the temporary file not needed?
+      tempFile.delete();          // yes, remove incomplete or extra copy
+
   } // end of saveFile() method
 
 
+/*
+  searchAsYouType() method
+
+  Search while the user types a search string, after the user stops typing
+  for a moment.  We start at the current selection, so the selection grows as
+  the search string grows.  When the new search string begins with the old
+  search string, we check only the candidates from the old search string (see
+  the HexEdit2Matches class), which is fast, and search the data again only
+  after the last candidate.  Searching the data runs in the background like
+  "Find Next", and searchTypedFinished() shows the results.
+*/
+  static void searchAsYouType()
+  {
+    int[] buffer;                 // data nibbles at one candidate
+    int i, k;                     // index variables
+    HexEdit2Matches matches;      // new candidates for new search string
+    int[] nibbles;                // nibble array obtained from <text>
+    HexEdit2Matches old;          // old candidates for old search string
+    HexEdit2Search search;        // search for new string or byte pattern
+    String text;                  // search string as typed by user
+
+    if (searchRunning != null)    // is a previous search still running?
+    {
+      if ((searchRunning.matches == null)
+        || (searchRunning.matches != searchTyped))
+      {
+        return;                   // user's own search, don't interrupt
+      }
+      searchStop(true);           // stop old search as you type
+    }
+    text = searchFindText.getText(); // get user's string
+    if (text.length() == 0)       // did the user erase everything?
+    {
+      searchStatus.setText(EMPTY_STATUS); // clear any previous search status
+      searchTyped = null;         // nothing to remember
+      return;
+    }
+    search = searchCreate(text);  // plain search string or byte pattern
+    if (search == null)           // was there an error during conversion?
+    {
+      searchTyped = null;         // nothing to remember
+      return;                     // yes, error message already printed
+    }
+    nibbles = searchIsPattern(text) ? null : searchConvertNibbles(text,
+      "search");                  // byte patterns are null
+    searchStatus.setText(EMPTY_STATUS); // clear any previous search status
+
+    matches = new HexEdit2Matches(); // new candidates
+    matches.byteFlag = searchByteBound.isSelected();
+    matches.limit = TYPED_MATCHES; // only a few candidates at a time
+    matches.overlapFlag = true;   // keep every starting index
+    matches.pattern = nibbles;
+    old = searchTyped;
+    refreshDataSize();            // set to correct number of data nibbles
+    if ((old != null) && (old.pattern != null) && (nibbles != null)
+      && (old.byteFlag == matches.byteFlag) && (old.changes
+      == nibbleData.changes()) && (old.pattern.length < nibbles.length)
+      && (searchIgnoreNulls.isSelected() == false))
+    {
+      for (k = 0; k < old.pattern.length; k ++) // old string a prefix of new?
+        if (old.pattern[k] != nibbles[k])
+          break;
+      if (k < old.pattern.length) // did the old string match?
+        old = null;               // no, start over
+    }
+    else
+      old = null;                 // can't use old candidates, start over
+
+    if (old != null)              // check old candidates for new string
+    {
+      matches.anchor = old.anchor;
+      matches.changes = old.changes;
+      matches.covered = old.covered; // same data has been searched
+      buffer = new int[nibbles.length];
+      for (i = 0; i < old.count; i ++)
+      {
+        if ((old.starts[i] + nibbles.length) > nibbleCount) // past end?
+          break;                  // this and later candidates are too short
+        nibbleData.getRange(old.starts[i], buffer, 0, nibbles.length);
+        for (k = old.pattern.length; k < nibbles.length; k ++)
+          if (buffer[k] != nibbles[k]) // only new nibbles need checking
+            break;
+        if (k == nibbles.length)  // did the whole string match?
+          matches.add(old.starts[i], (old.starts[i] + nibbles.length));
+      }
+    }
+    else                          // start over at the current selection
+    {
+      matches.anchor = matches.covered = Math.min(textPanel.cursorDot,
+        textPanel.cursorMark);
+      matches.changes = nibbleData.changes();
+    }
+    searchTyped = matches;        // remember candidates for next time
+
+    if (matches.count > 0)        // was there a candidate for new string?
+      searchSelect(matches.starts[0], matches.ends[0]); // yes, show first
+    else if (matches.covered > (nibbleCount - ((nibbles != null)
+      ? nibbles.length : 1)))     // has all data been searched?
+    {
+      showSearchMessage("Search string not found.");
+    }
+    else                          // search data after last candidate
+    {
+      searchRunning = search;
+      searchRunning.matches = matches; // collect candidates
+      searchRunning.startThread(nibbleData, matches.covered, nibbleCount,
+        userActions);             // calls searchFinished() when done
+      searchStopButton.setEnabled(true); // allow user to cancel search
+      searchTimer.start();        // show progress while searching
+    }
+  } // end of searchAsYouType() method
+
+
 /*
   searchConvertNibbles() method
 
   Given a text string, convert it to an integer array of nibbles, using the
-  search dialog's options for hex or text conversion.  The given string should
+  search dialog's options for hex or text conversion.  Text is converted with
+  the first character set chosen for text searches.  The given string should
   not be empty, because we use an empty array as a result to indicate an error.
 */
   static int[] searchConvertNibbles(
@@ -1532,9 +2001,11 @@ public class HexEdit2
       for (i = 0; i < used; i ++)
         result[i] = nibbles[i];
     }
-    else                          // must be a text search, which never fails
+    else                          // must be a text search
     {
-      bytes = text.getBytes();    // convert string to bytes, default encoding
+      bytes = searchEncodeChars(text, searchEncodings()[0]);
+      if (bytes == null)          // can the text be converted?
+        return(new int[0]);       // no, error message already printed
       result = new int[bytes.length * 2]; // always uses full array
       used = 0;                   // start placing nibbles at this array index
       for (i = 0; i < bytes.length; i ++) // do all bytes in the string
@@ -1551,1164 +2022,7428 @@ public class HexEdit2
 
 
 /*
-  searchFindFirst() method
-
-  Find the first occurrence of the current search string (if any).
+  searchConvertText() method
+
+  Convert a text string to a byte pattern (as a hex string) that finds the
+  text in every character set chosen for text searches, and in any mix of
+  uppercase and lowercase if the user wants to ignore case.  Each character is
+  converted by itself, and its case variants become a set of bytes like
+  [41 61] or a choice like (C3 A9|C3 89).  Each character set is one choice in
+  the whole pattern.  The automaton then searches for all of them in one pass.
+  Return null if there is an error, after showing a message to the user.
 */
-  static void searchFindFirst()
+  static String searchConvertText(String text)
   {
-    searchFindNext(0);            // like "Find Next" but start at beginning
-  }
+    StringBuffer buffer;          // pattern for one character set
+    byte[] bytes;                 // one character converted to bytes
+    char ch;                      // one character from <text>
+    String[] encodings;           // names of character sets
+    StringBuffer hex;             // <bytes> as a hex string
+    int i, i2, j, k;              // index variables
+    int length;                   // number of chars for one character
+    String one;                   // one character, maybe a surrogate pair
+    Vector result;                // patterns for each character set
+    Vector variants;              // hex strings for case variants
+    String[] versions;            // case variants of <one>
+    String whole;                 // pattern for one character set
+
+    encodings = searchEncodings();
+    result = new Vector();
+    for (i = 0; i < encodings.length; i ++) // do all character sets
+    {
+      buffer = new StringBuffer();
+      for (j = 0; j < text.length(); j += length) // do all characters
+      {
+        ch = text.charAt(j);
+        length = ((ch >= '\uD800') && (ch <= '\uDBFF') && ((j + 1)
+          < text.length())) ? 2 : 1; // keep surrogate pairs together
+        one = text.substring(j, (j + length));
+        versions = (searchIgnoreCase.isSelected() && (length == 1))
+          ? new String[] {one, one.toLowerCase(), one.toUpperCase()}
+          : new String[] {one};
+        variants = new Vector();
+        for (k = 0; k < versions.length; k ++) // do all case variants
+        {
+          bytes = searchEncodeChars(versions[k], encodings[i]);
+          if (bytes == null)      // can this character be converted?
+            return(null);         // no, error message already printed
+          hex = new StringBuffer();
+          for (i2 = 0; i2 < bytes.length; i2 ++) // two hex digits per byte
+          {
+            hex.append(HEX_DIGITS[(bytes[i2] >> NIBBLE_SHIFT) & NIBBLE_MASK]);
+            hex.append(HEX_DIGITS[bytes[i2] & NIBBLE_MASK]);
+          }
+          if (variants.contains(hex.toString()) == false) // new variant?
+            variants.add(hex.toString());
+        }
+        if (variants.size() == 1) // only one way to write this character?
+          buffer.append(variants.get(0));
+        else if (((String) variants.get(0)).length() == 2) // single bytes?
+        {
+          buffer.append('[');     // yes, a set of bytes
+          for (k = 0; k < variants.size(); k ++)
+            buffer.append(((k > 0) ? " " : "") + variants.get(k));
+          buffer.append(']');
+        }
+        else                      // choice between byte strings
+        {
+          buffer.append('(');
+          for (k = 0; k < variants.size(); k ++)
+            buffer.append(((k > 0) ? "|" : "") + variants.get(k));
+          buffer.append(')');
+        }
+        buffer.append(' ');
+      }
+      whole = buffer.toString().trim();
+      if (result.contains(whole) == false) // different from other sets?
+        result.add(whole);        // ASCII is often the same
+    }
+    if (result.size() == 1)       // only one character set (or equivalent)?
+      return((String) result.get(0));
+    buffer = new StringBuffer("(");
+    for (i = 0; i < result.size(); i ++)
+      buffer.append(((i > 0) ? "|" : "") + result.get(i));
+    buffer.append(')');
+    return(buffer.toString());
+
+  } // end of searchConvertText() method
 
 
 /*
-  searchFindNext() method
+  searchCreate() method
 
-  Find the next occurrence of the current search string (if any).  The user can
-  and may change options, text fields, etc, between searches.  So this method
-  should really be called "find a search string starting from the current
-  cursor location or after the current selection if any".  Much easier to say
-  "Find Next"!
+  Create a HexEdit2Search for a search string, using the search dialog's
+  options.  A hex string with pattern punctuation is compiled as a byte
+  pattern; see the HexEdit2Pattern class for the syntax.  So is a text string
+  in more than one character set, or ignoring case.  Return null if there is
+  an error, after showing a message to the user.
 */
-  static void searchFindNext()
+  static HexEdit2Search searchCreate(String text)
   {
-    searchFindNext(Math.max(textPanel.cursorDot, textPanel.cursorMark));
-  }
-
-  static void searchFindNext(
-    int givenStart)               // data nibble index where search begins
-  {
-    boolean byteFlag;             // true if start searching on byte boundaries
-    int i;                        // index variable
-    boolean matchFlag;            // true if we found a match
     int[] nibbles;                // nibble array obtained from <text>
-    boolean nullFlag;             // true if null bytes ignored in data
-    int start;                    // index that starts current comparison
-    String text;                  // search string as typed by user
+    String pattern;               // byte pattern as hex string
+    HexEdit2Search result;        // new search, or null
 
-    if (searchDialog == null)     // has the search dialog been created?
+    if (searchIsPattern(text))    // compile a byte pattern?
     {
-      showSearchDialog();         // be nice and start the find/replace dialog
-      return;
+      pattern = searchIsHex.isSelected() ? text : searchConvertText(text);
+      if (pattern == null)        // was there an error during conversion?
+        return(null);             // yes, error message already printed
+      try                         // compile pattern, may have syntax errors
+      {
+        result = new HexEdit2Search(new HexEdit2Pattern(pattern),
+          searchByteBound.isSelected());
+      }
+      catch (IllegalArgumentException iae)
+      {
+        showSearchMessage(iae.getMessage()); // message is for the user
+        return(null);
+      }
     }
-    text = searchFindText.getText(); // get user's string
-    if (text.length() == 0)       // did the user type anything?
+    else                          // plain search string
     {
-      showSearchDialog();         // bring up the full find/replace dialog
-      showSearchMessage("Empty strings are found everywhere.  (Joke.)");
-      searchFindText.requestFocusInWindow(); // we need the search string
-      return;
+      nibbles = searchConvertNibbles(text, "search");
+      if (nibbles.length == 0)    // was there an error during conversion?
+        return(null);             // yes, error message already printed
+      try                         // ignoring nulls compiles a pattern
+      {
+        result = new HexEdit2Search(nibbles, searchByteBound.isSelected(),
+          searchIgnoreNulls.isSelected());
+      }
+      catch (IllegalArgumentException iae)
+      {
+        showSearchMessage(iae.getMessage()); // message is for the user
+        return(null);
+      }
     }
-    nibbles = searchConvertNibbles(text, "search");
-    if (nibbles.length == 0)      // was there an error during conversion?
-      return;                     // yes, error message already printed
-
-    /* If we got this far, there is nothing to report and we should cancel any
-    previous status message in the search dialog box. */
-
-    searchStatus.setText(EMPTY_STATUS); // clear any previous search status
+    result.index = nibbleIndex;   // may skip regions that can't match
+    result.threads = searchThreads; // big searches use helper threads
+    return(result);
 
-    /* We start looking at the location given by the caller, which is usually
-    after the current selection. */
+  } // end of searchCreate() method
 
-    byteFlag = searchByteBound.isSelected(); // true if start on byte boundary
-    matchFlag = false;            // no match found yet
-    nullFlag = searchIgnoreNulls.isSelected() && ((nibbles.length % 2) == 0);
-                                  // true if can ignore nulls, if full bytes
-    start = givenStart;           // index that starts current comparison
-    if (byteFlag)                 // does user want searches to be full bytes?
-      start += start % 2;         // yes, round up starting nibble index
 
-    /* For each acceptable starting index (byte or nibble boundary), try to
-    match the user's string as-is.  If that fails, and the null flag is true,
-    try again ignoring null bytes in the data.  Exactly one null byte appears
-    when plain text (7-bit ASCII) characters are encoded in Unicode.  Some East
-    Asian encodings like inserting null bytes for alignment reasons. */
+/*
+  searchEncodeChars() method
+
+  Convert characters from a text string to bytes in a given character set, or
+  in the local system's default encoding if the name is null.  A byte order
+  mark (BOM) put first by encoders like "UTF-16" is removed, so that the bytes
+  can be found in the middle of a file.  Return null if the character set
+  isn't known or can't encode the characters, after showing a message to the
+  user.
+*/
+  static byte[] searchEncodeChars(String text, String encoding)
+  {
+    byte[] bytes;                 // bytes from encoder
+    byte[] result;                // bytes without byte order mark
+    int skip;                     // number of bytes in byte order mark
 
-    while ((nibbleCount - start) >= nibbles.length) // keep looking
+    if (encoding == null)         // local system's default encoding?
+      return(text.getBytes());    // yes, and this never fails
+    try
     {
-      /* First try the search string as-is.  This is a straight nibble-by-
-      nibble comparison, no matter what the options may be. */
-
-      boolean differFlag = false; // assume that comparison is successful
-      for (i = 0; i < nibbles.length; i ++)
+      bytes = text.getBytes(encoding);
+      if (new String(bytes, encoding).equals(text) == false) // round trip?
       {
-        if (nibbles[i] != nibbleData.get(start + i))
-        {
-          differFlag = true;      // comparison has failed
-          break;                  // escape early from inner <for> loop
-        }
+        showSearchMessage("Can't convert \"" + text + "\" to " + encoding
+          + ".");
+        return(null);
       }
-      if (differFlag == false)    // was the comparison successful?
+    }
+    catch (UnsupportedEncodingException uee)
+    {
+      showSearchMessage("Unknown character set (encoding): " + encoding);
+      return(null);
+    }
+    skip = 0;                     // assume no byte order mark
+    if ((text.length() > 0) && (text.charAt(0) != '\uFEFF')) // BOM possible?
+    {
+      if ((bytes.length >= 3) && ((bytes[0] & BYTE_MASK) == 0xEF)
+        && ((bytes[1] & BYTE_MASK) == 0xBB) && ((bytes[2] & BYTE_MASK)
+        == 0xBF))
       {
-        matchFlag = true;         // indicate that we were successful
-        textPanel.cursorMark = start; // yes, set start of selection
-        textPanel.cursorDot = start + nibbles.length; // set end of selection
-        break;                    // escape early from outer <while> loop
+        skip = 3;                 // UTF-8 byte order mark
       }
-
-      /* Try again starting from the same location.  This time, if a whole byte
-      differs, and the nibble data for that byte is null (0x00), advance to the
-      next byte of nibble data.  Null search bytes will be matched to the first
-      null data byte.  Once a byte is matched, the following does not backtrack
-      if a later byte comparison fails. */
-
-      if (nullFlag && ((start % 2) == 0)) // if nulls ignored and start on byte
+      else if ((bytes.length >= 2) && ((((bytes[0] & BYTE_MASK) == 0xFE)
+        && ((bytes[1] & BYTE_MASK) == 0xFF)) || (((bytes[0] & BYTE_MASK)
+        == 0xFF) && ((bytes[1] & BYTE_MASK) == 0xFE))))
       {
-        int dataIndex = start;    // where we are looking in the nibble data
-        differFlag = false;       // assume that comparison is successful
-        int findIndex = 0;        // where we are comparing from search data
-        while ((dataIndex < (nibbleCount - 1)) // while there are data bytes
-          && (findIndex < (nibbles.length - 1))) // and there are search bytes
-        {
-          int dataByte = (nibbleData.get(dataIndex) << NIBBLE_SHIFT)
-            | nibbleData.get(dataIndex + 1);
-                                  // construct one byte of nibble data
-          int findByte = (nibbles[findIndex] << NIBBLE_SHIFT)
-            | nibbles[findIndex + 1]; // construct one byte of search data
-          if (dataByte == findByte) // does file data match search string?
-          {
-            dataIndex += 2;       // yes, index of next file data byte
-            findIndex += 2;       // index of next search string byte
-          }
-          else if ((dataByte == 0x00) && (findIndex > 0)) // in between null?
-          {
-            dataIndex += 2;       // ignore null data bytes, but after matching
-                                  // ... at least one byte of search string
-          }
-          else
-          {
-            differFlag = true;    // comparison has failed
-            break;                // escape early from inner <while> loop
-          }
-        }
-        if ((differFlag == false) && (findIndex == nibbles.length))
-                                  // was the comparison successful?
-        {
-          matchFlag = true;       // indicate that we were successful
-          textPanel.cursorMark = start; // yes, set start of selection
-          textPanel.cursorDot = dataIndex; // set end of selection
-          break;                  // escape early from outer <while> loop
-        }
+        skip = 2;                 // UTF-16 byte order mark
       }
+    }
+    if (skip == 0)                // was there a byte order mark?
+      return(bytes);              // no, give caller all bytes
+    result = new byte[bytes.length - skip];
+    System.arraycopy(bytes, skip, result, 0, result.length);
+    return(result);
 
-      /* We were unable to match the search string at this starting index.
-      Advance to the next possible starting index. */
+  } // end of searchEncodeChars() method
 
-      start += byteFlag ? 2 : 1;  // advance by bytes or by nibbles
-    }
 
-    /* Show the results of our search. */
+/*
+  searchEncodings() method
 
-    if (matchFlag)                // were we successful?
-    {
-      textPanel.makeVisible(textPanel.cursorMark);
-                                  // do try to show start of selection
-      textPanel.makeVisible(textPanel.cursorDot);
-                                  // but end of selection is more important
-      textPanel.adjustScrollBar(); // adjust scroll bar to match new position
-      textPanel.repaint();        // redraw text display as necessary
-    }
-    else                          // no, search failed
-      showSearchMessage("Search string not found.");
+  Return the names of the character sets chosen for text searches, in the
+  order given by the user.  The name "default" (or no name at all) means the
+  local system's default encoding, and is returned as null.
+*/
+  static String[] searchEncodings()
+  {
+    int i;                        // index variable
+    String[] result;              // names of character sets
+    String text;                  // user's list of names
+
+    text = (searchEncoding == null) ? "" : searchEncoding.getEditor()
+      .getItem().toString().trim(); // user may have typed without Enter
+    result = (text.length() == 0) ? new String[] {""} : text.split(
+      "[,;\\s]+");
+    for (i = 0; i < result.length; i ++)
+      if ((result[i].length() == 0) || result[i].equalsIgnoreCase("default"))
+        result[i] = null;         // local system's default encoding
+    return(result);
+  }
 
-  } // end of searchFindNext() method
+
+/*
+  searchFindAll() method
+
+  Find all occurrences of the current search string (if any), and show them in
+  a list.  This takes one pass through the data.
+*/
+  static void searchFindAll()
+  {
+    searchFindNext(0, new HexEdit2Matches()); // collect all matches
+  }
 
 
 /*
-  searchReplaceThis() method
+  searchFindFirst() method
 
-  Replace the current selection (if any) with the replacement string (if any).
-  Since there is no "Undo" feature yet, we replace only if there is an active
-  selection and the replacement string is not empty (no "search-and-delete"
-  allowed).  There is no "Replace All" feature in this program (too dangerous).
+  Find the first occurrence of the current search string (if any).
 */
-  static void searchReplaceThis()
+  static void searchFindFirst()
   {
-    int[] nibbles;                // nibble array obtained from <text>
-    String text;                  // replacement string as typed by user
+    searchFindNext(0, null);      // like "Find Next" but start at beginning
+  }
 
-    if (searchDialog == null)     // has the search dialog been created?
+
+/*
+  searchFindList() method
+
+  Find all occurrences of every search string in the "Find List" dialog, one
+  string per line, in one pass through the data.  Lines are hex strings (with
+  or without pattern punctuation) or text strings, using the options in the
+  search dialog.  All strings are compiled together by HexEdit2Pattern, which
+  then works like the Aho-Corasick algorithm, and the "Find All" results show
+  which string was found at each offset.
+*/
+  static void searchFindList()
+  {
+    int count;                    // number of non-empty lines
+    int i, k;                     // index variables
+    String[] lines;               // search strings as typed by user
+    HexEdit2Matches matches;      // all matches, with which string matched
+    int[] nibbles;                // nibble array for one text string
+    HexEdit2Pattern pattern;      // all search strings compiled together
+    long[] range;                 // where search starts and ends
+    StringBuffer buffer;          // text string converted to hex digits
+    String[] texts;               // search strings as hex digits or patterns
+
+    if (searchRunning != null)    // is a previous search still running?
     {
-      showSearchDialog();         // be nice and start the find/replace dialog
-      if (textPanel.cursorDot != textPanel.cursorMark) // if selection exists
-        searchReplaceText.requestFocusInWindow(); // only need replace string
+      listStatus.setText("Search is running.  Click Stop to cancel.");
       return;
     }
-    if (textPanel.cursorDot == textPanel.cursorMark) // is there a selection?
+    lines = listText.getText().split("\r?\n"); // one string per line
+    texts = new String[lines.length];
+    count = 0;
+    for (i = 0; i < lines.length; i ++)
     {
-      showSearchMessage("There is no selection to replace.");
-      return;                     // nothing to do, so return to caller
+      if (lines[i].trim().length() == 0) // skip empty lines
+        continue;
+      count ++;                   // one more search string
+      if (searchIsHex.isSelected()) // hex strings go straight to the pattern
+        texts[i] = lines[i];
+      else                        // text strings become hex digits
+      {
+        nibbles = searchConvertNibbles(lines[i], "search");
+        if (nibbles.length == 0)  // can the text be converted?
+        {
+          listStatus.setText("Line " + (i + 1) + ": can't convert \""
+            + lines[i] + "\" to " + searchEncodings()[0] + ".");
+          listText.requestFocusInWindow();
+          return;
+        }
+        buffer = new StringBuffer(nibbles.length);
+        for (k = 0; k < nibbles.length; k ++)
+          buffer.append(HEX_DIGITS[nibbles[k]]);
+        texts[i] = buffer.toString();
+      }
     }
-    text = searchReplaceText.getText(); // get user's string
-    if (text.length() == 0)       // did the user type anything?
+    if (count == 0)               // did the user type anything?
     {
-      showSearchDialog();         // bring up the full find/replace dialog
-      showSearchMessage("Replacement with an empty string is not supported.");
-      searchReplaceText.requestFocusInWindow(); // we need the replace string
+      listStatus.setText("Type search strings, one per line.");
+      listText.requestFocusInWindow();
       return;
     }
-    nibbles = searchConvertNibbles(text, "replace");
-    if (nibbles.length == 0)      // was there an error during conversion?
-      return;                     // yes, error message already printed
+    try                           // compile strings, may have syntax errors
+    {
+      pattern = new HexEdit2Pattern(texts);
+    }
+    catch (IllegalArgumentException iae)
+    {
+      listStatus.setText(iae.getMessage()); // message says which line
+      return;
+    }
+    listStatus.setText("Searching for " + formatComma.format(count)
+      + ((count == 1) ? " string." : " strings."));
 
-    /* If we got this far, there is nothing to report and we should cancel any
-    previous status message in the search dialog box. */
+    range = searchRange();        // all data, or only the user's range
+    if (range == null)            // is the range valid?
+      return;                     // no, error message already printed
+    matches = new HexEdit2Matches(); // collect all matches
+    matches.names = lines;        // show which string matched
+    matches.overlapFlag = true;   // keep every match of every string
+    searchStart(new HexEdit2Search(pattern, searchByteBound.isSelected()),
+      range[0], range[1], matches); // search runs in background thread
 
-    searchStatus.setText(EMPTY_STATUS); // clear any previous search status
+  } // end of searchFindList() method
 
-    /* We always insert, never overwrite, so pull the rug out from under the
-    pasteNibbles() method, which takes care of deleting the selection. */
 
-    pasteNibbles(nibbles, nibbles.length, false); // paste nibbles as file data
+/*
+  searchFindNext() method
 
-  } // end of searchReplaceThis() method
+  Find the next occurrence of the current search string (if any).  The user can
+  and may change options, text fields, etc, between searches.  So this method
+  should really be called "find a search string starting from the current
+  cursor location or after the current selection if any".  Much easier to say
+  "Find Next"!
+*/
+  static void searchFindNext()
+  {
+    searchFindNext(Math.max(textPanel.cursorDot, textPanel.cursorMark),
+      null);
+  }
+
+  static void searchFindNext(
+    long givenStart,              // data nibble index where search begins
+    HexEdit2Matches matches)      // collects all matches, or null for next
+  {
+    long[] range;                 // where search starts and ends
+    HexEdit2Search search;        // search for string or byte pattern
+
+    range = searchRange();        // all data, or only the user's range
+    search = (range == null) ? null : searchReady(); // search string or pattern
+    if (search == null)           // can we search now?
+      return;                     // no, error message already printed
+
+    /* We start looking at the location given by the caller, which is usually
+    after the current selection, but not before the search range.  The search
+    itself is done by HexEdit2Search, which explains the options for byte
+    boundaries and ignoring nulls.  Big files take a while, so the search runs
+    in a background thread, and the results are shown later by
+    searchFinished().  Progress is shown in the status message by a timer. */
+
+    searchStart(search, Math.max(givenStart, range[0]), range[1], matches);
+                                  // "Find All" has <matches>
+  } // end of searchFindNext() method
 
 
 /*
-  selectAll() method
+  searchFindPrevious() method
 
-  Select all data nibbles from the beginning to the end.  Leave the cursor in
-  whatever region is active.  (Don't change the <cursorOnText> variable.)
+  Find the previous occurrence of the current search string (if any), which
+  is the match with the latest start that ends before the current cursor
+  location or selection.  The search goes backwards through the data, and is
+  as fast as "Find Next".
 */
-  static void selectAll()
+  static void searchFindPrevious()
   {
-    textPanel.cursorDot = nibbleCount; // current cursor ends selection
-    textPanel.cursorMark = 0;     // select data from beginning of file
-    textPanel.repaint();          // redraw text display as necessary
+    long[] range;                 // where search starts and ends
+    HexEdit2Search search;        // search for string or byte pattern
+
+    range = searchRange();        // all data, or only the user's range
+    search = (range == null) ? null : searchReady(); // search string or pattern
+    if (search == null)           // can we search now?
+      return;                     // no, error message already printed
+    search.backFlag = true;       // search backwards from the limit
+    searchStart(search, range[0], Math.min(range[1], Math.min(
+      textPanel.cursorDot, textPanel.cursorMark)), null);
   }
 
 
 /*
-  setClipboard() method
+  searchFinished() method
 
-  Place a string onto the clipboard for some other application to read.
+  Show the results of a background search, after the search thread finishes.
+  This is called on the GUI thread.  If the user has changed the data while we
+  were searching, then the result may be wrong and is ignored.
 */
-  static void setClipboard(String text)
+  static void searchFinished()
   {
-    clipString = text;            // save string reference for later
-    try                           // clipboard may not be available
+    HexEdit2Search search;        // search that just finished
+
+    search = searchRunning;       // get search that was running
+    if ((search == null) || (search.doneFlag == false))
+      return;                     // search was stopped by searchStop(true)
+    searchRunning = null;         // no background search running now
+    searchStopButton.setEnabled(false); // nothing to stop
+    searchTimer.stop();           // no more progress to show
+    searchStatus.setText(EMPTY_STATUS); // clear progress message
+
+    if ((search.matches != null) && (search.matches == searchTyped))
+      searchTypedFinished(search); // search as you type
+    else if (search.cancelFlag)   // did the user stop the search?
+      showSearchMessage("Search was stopped.");
+    else if ((search.data != nibbleData) || (search.changes
+      != nibbleData.changes())) // was data changed during search?
     {
-      Toolkit.getDefaultToolkit().getSystemClipboard().setContents(
-        (Transferable) userActions, null); // place data notice on clipboard
+      showSearchMessage("Data was changed during search.  Please try again.");
     }
-    catch (IllegalStateException ise)
+    else if (search.matchStart < 0) // did the search fail?
+      showSearchMessage("Search string not found.");
+    else if (search.matches == null) // did the user want the next match?
+      searchSelect(search.matchStart, search.matchEnd); // yes, select match
+    else if (search.matches.replacement != null) // "Replace All"?
+      searchReplaceMatches(search.matches); // replace all matches
+    else                          // "Find All"
     {
-      JOptionPane.showMessageDialog(mainFrame,
-        ("Can't put text on clipboard:\n" + ise.getMessage()));
+      search.matches.changes = search.changes; // when offsets were correct
+      showResultsDialog(search.matches); // show list of matches
     }
-  } // end of setClipboard() method
+
+  } // end of searchFinished() method
 
 
 /*
-  showEditMenu() method
+  searchIsPattern() method
 
-  Display the pop-up "edit menu" at a location relative to a given component
-  and (x,y) co-ordinates.  Items in the menu are enabled or disabled according
-  to approximate context.
+  Return true if searchCreate() compiles a search string as a byte pattern: a
+  hex string with pattern punctuation, or a text string in more than one
+  character set or ignoring case.  Patterns don't have a fixed list of nibbles.
 */
-  static void showEditMenu(Component invoker, int x, int y, boolean mouse)
+  static boolean searchIsPattern(String text)
   {
-    boolean clipboard = getClipboard().length() > 0; // if text on clipboard
-    boolean content = nibbleCount > 0; // true if there is any file data
-    boolean selection = textPanel.cursorDot != textPanel.cursorMark;
-                                  // true if there is a current selection
-
-    menuPopup = new JPopupMenu();
-
-    menuCopyDump.setEnabled(selection);
-    menuPopup.add(menuCopyDump);
-    menuCopyHex.setEnabled(selection);
-    menuPopup.add(menuCopyHex);
-    menuCopyText.setEnabled(selection);
-    menuPopup.add(menuCopyText);
-    menuPasteHex.setEnabled(clipboard);
-    menuPopup.add(menuPasteHex);
-    menuPasteText.setEnabled(clipboard);
-    menuPopup.add(menuPasteText);
-
-    menuPopup.addSeparator();
+    if (searchIsHex.isSelected())
+      return(HexEdit2Pattern.isPattern(text));
+    return(searchIgnoreCase.isSelected() || (searchEncodings().length > 1));
+  }
 
-    menuFind.setEnabled(content);
-    menuPopup.add(menuFind);
-    menuNext.setEnabled(content);
-    menuPopup.add(menuNext);
-    menuReplace.setEnabled(selection);
-    menuPopup.add(menuReplace);
 
-    menuPopup.addSeparator();
+/*
+  searchOpenList() method
 
-    menuDelete.setEnabled(selection);
-    menuPopup.add(menuDelete);
-    menuSelect.setEnabled(content);
-    menuPopup.add(menuSelect);
+  Read search strings for "Find List" from a text file, one string per line,
+  and put them in the dialog, where the user can change them before searching.
+*/
+  static void searchOpenList()
+  {
+    StringBuffer buffer;          // all lines from the file
+    String line;                  // one line from the file
+    BufferedReader reader;        // reads lines from the file
 
-    if (mouse == false)           // Edit button only, not right mouse click
+    fileChooser.setDialogTitle("Open List File...");
+    if (fileChooser.showOpenDialog(listDialog)
+      != JFileChooser.APPROVE_OPTION)
     {
-      menuPopup.addSeparator();
-      menuCopyCursor.setEnabled(true);
-      menuPopup.add(menuCopyCursor);
-      menuGotoOffset.setEnabled(content);
-      menuPopup.add(menuGotoOffset);
+      return;                     // user cancelled file selection dialog box
     }
-
-    menuPopup.show(invoker, x, y); // show menu with context-sensitive items
-
-  } // end of showEditMenu() method
+    try                           // catch file I/O errors
+    {
+      buffer = new StringBuffer();
+      reader = new BufferedReader(new FileReader(fileChooser
+        .getSelectedFile()));
+      while ((line = reader.readLine()) != null)
+        buffer.append(line + "\n");
+      reader.close();
+      listText.setText(buffer.toString());
+      listText.setCaretPosition(0); // show the first lines
+      listStatus.setText("Click Find All to search for these strings.");
+    }
+    catch (IOException ioe)       // most likely error is "file not found"
+    {
+      listStatus.setText("Can't read from list file: " + ioe.getMessage());
+    }
+  }
 
 
 /*
-  showGotoDialog() method
+  searchProgress() method
 
-  Show the "Go To File Offset" dialog box.  We may have to create it first.
-  This is a much simpler layout and easier interaction than <searchDialog>.
+  Called by a timer while a background search is running, to show how much of
+  the data has been searched.
 */
-  static void showGotoDialog()
+  static void searchProgress()
   {
-    if (gotoDialog == null)       // has the dialog box been created yet?
-    {
-      /* Create a vertical box to stack buttons and options. */
+    HexEdit2Search search;        // search that is running
+    long total;                   // number of starting indexes to search
 
-      JPanel panel1 = new JPanel();
-      panel1.setLayout(new BoxLayout(panel1, BoxLayout.Y_AXIS));
+    search = searchRunning;       // get search that is running
+    if ((search == null) || search.doneFlag || search.cancelFlag)
+      return;                     // nothing to show, or finishing soon
+    total = search.limit - search.start;
+    if (total > 0)                // avoid dividing by zero
+      searchStatus.setText("Searching... " + ((search.backFlag
+        ? (search.limit - search.progress) : (search.progress - search.start))
+        * 100 / total) + "% at offset 0x"
+        + Long.toHexString(search.progress / 2).toUpperCase());
 
-      /* First layout line has the "go to" address input string. */
+  } // end of searchProgress() method
 
-      JPanel panel2 = new JPanel(new BorderLayout(10, 0));
 
-      JLabel label1 = new JLabel("Go to file offset:", JLabel.RIGHT);
-      if (buttonFont != null) label1.setFont(buttonFont);
-      panel2.add(label1, BorderLayout.WEST);
+/*
+  searchRange() method
+
+  Return where a search starts and ends, as data positions {start, limit}.
+  This is all data, unless the user wants to search only in a range, given as
+  two hexadecimal file offsets like "1000-2000": the first byte in the range,
+  and the first byte after the range.  Matches must be entirely inside the
+  range.  Return null if the range isn't valid, after showing a message to the
+  user.
+*/
+  static long[] searchRange()
+  {
+    long first, last;             // file offsets typed by user
+    String[] parts;               // user's string split into offsets
 
-      gotoOffsetText = new JTextField("", 15);
-      gotoOffsetText.addActionListener(userActions);
-      if (buttonFont != null) gotoOffsetText.setFont(buttonFont);
-      gotoOffsetText.setMargin(TEXT_MARGINS);
-      panel2.add(gotoOffsetText, BorderLayout.CENTER);
-      panel1.add(panel2);
-      panel1.add(Box.createVerticalStrut(10)); // vertical space
+    refreshDataSize();            // set to correct number of data nibbles
+    if ((searchDialog == null) || (searchInRange.isSelected() == false))
+      return(new long[] {0, nibbleCount}); // search all data
+    parts = searchRangeText.getText().trim().split("\\s*[-,\\s]\\s*");
+    try                           // try to parse offsets as hex numbers
+    {
+      first = last = -1;          // assume the range is bad
+      if (parts.length == 2)      // exactly two offsets?
+      {
+        first = Long.parseLong(parts[0], 16);
+        last = Long.parseLong(parts[1], 16);
+      }
+    }
+    catch (NumberFormatException nfe) // if not a number or bad syntax
+    {
+      first = last = -1;
+    }
+    if ((first < 0) || (last < first) || (last > ((nibbleCount + 1) / 2)))
+    {
+      showSearchDialog();         // bring up the full find/replace dialog
+      showSearchMessage("Range must be two hex file offsets from 0 to "
+        + Long.toHexString((nibbleCount + 1) / 2).toUpperCase()
+        + ", like 1000-2000.");
+      searchRangeText.requestFocusInWindow(); // we need a good range
+      return(null);
+    }
+    return(new long[] {(2 * first), Math.min(nibbleCount, (2 * last))});
 
-      /* Second layout line has a message string for the "go to" status. */
+  } // end of searchRange() method
 
-      JPanel panel3 = new JPanel(new BorderLayout(0, 0));
-      gotoStatus = new JLabel(EMPTY_STATUS, JLabel.CENTER);
-      if (buttonFont != null) gotoStatus.setFont(buttonFont);
-      showGotoRange(-1);          // set message size with maximum hex digits
-      panel3.add(gotoStatus, BorderLayout.CENTER);
-      panel1.add(panel3);
-      panel1.add(Box.createVerticalStrut(20));
 
-      /* Third and last line has the action buttons. */
+/*
+  searchReady() method
 
-      JPanel panel4 = new JPanel(new FlowLayout(FlowLayout.CENTER, 25, 0));
+  Check that a new search can start, and create it from the search string.
+  Return null if we can't search, after showing a message to the user.
+*/
+  static HexEdit2Search searchReady()
+  {
+    String text;                  // search string as typed by user
 
-      gotoJumpButton = new JButton("Go");
-      gotoJumpButton.addActionListener(userActions);
-      if (buttonFont != null) gotoJumpButton.setFont(buttonFont);
-      gotoJumpButton.setMnemonic(KeyEvent.VK_G);
-      gotoJumpButton.setToolTipText("Jump to file offset given above.");
-      panel4.add(gotoJumpButton);
+    if (searchDialog == null)     // has the search dialog been created?
+    {
+      showSearchDialog();         // be nice and start the find/replace dialog
+      return(null);
+    }
+    if (searchRunning != null)    // is a previous search still running?
+    {
+      showSearchMessage("Search is running.  Click Stop to cancel.");
+      return(null);
+    }
+    text = searchFindText.getText(); // get user's string
+    if (text.length() == 0)       // did the user type anything?
+    {
+      showSearchDialog();         // bring up the full find/replace dialog
+      showSearchMessage("Empty strings are found everywhere.  (Joke.)");
+      searchFindText.requestFocusInWindow(); // we need the search string
+      return(null);
+    }
+    return(searchCreate(text));   // plain search string or byte pattern
+  }
 
-      gotoCloseButton = new JButton("Close");
-      gotoCloseButton.addActionListener(userActions);
-      if (buttonFont != null) gotoCloseButton.setFont(buttonFont);
-      gotoCloseButton.setMnemonic(KeyEvent.VK_C);
-      gotoCloseButton.setToolTipText("Close this dialog box.");
-      panel4.add(gotoCloseButton);
 
-      panel1.add(panel4);
+/*
+  searchReplaceAll() method
 
-      /* Put the vertical box inside a flow layout to center it horizontally
-      and stop expansion.  Add left and right margins with the flow layout. */
+  Replace all occurrences of the search string with the replacement string.
+  This is a "Find All" followed by searchReplaceMatches(), which asks the user
+  before changing anything.  Like "Replace", the replacement string must not
+  be empty.
+*/
+  static void searchReplaceAll()
+  {
+    HexEdit2Matches matches;      // all matches, with replacement nibbles
+    int[] nibbles;                // nibble array obtained from <text>
+    String text;                  // replacement string as typed by user
 
-      JPanel panel5 = new JPanel(new FlowLayout(FlowLayout.CENTER, 20, 0));
-      panel5.add(panel1);         // align vertical box inside horizontal box
+    if (searchDialog == null)     // has the search dialog been created?
+    {
+      showSearchDialog();         // be nice and start the find/replace dialog
+      return;
+    }
+    text = searchReplaceText.getText(); // get user's string
+    if (text.length() == 0)       // did the user type anything?
+    {
+      showSearchDialog();         // bring up the full find/replace dialog
+      showSearchMessage("Replacement with an empty string is not supported.");
+      searchReplaceText.requestFocusInWindow(); // we need the replace string
+      return;
+    }
+    nibbles = searchConvertNibbles(text, "replace");
+    if (nibbles.length == 0)      // was there an error during conversion?
+      return;                     // yes, error message already printed
 
-      /* Put the flow layout in another vertical box to center vertically. */
+    matches = new HexEdit2Matches(); // collect all matches
+    matches.replacement = nibbles; // and then replace them
+    searchFindNext(0, matches);   // search runs in background thread
 
-      Box panel6 = Box.createVerticalBox(); // create a basic vertical box
-      panel6.add(Box.createGlue()); // stretch to the top
-      panel6.add(Box.createVerticalStrut(20)); // top margin
-      panel6.add(panel5);         // horizontal flow layout
-      panel6.add(Box.createVerticalStrut(20)); // bottom margin
-//    panel6.add(Box.createGlue()); // stretch to bottom (assumed by layout)
+  } // end of searchReplaceAll() method
 
-      /* Position the dialog box.  Like a JFrame, a JDialog doesn't have an
-      initial size.  We "pack" our JDialog layout to the minimum size. */
 
-      gotoDialog = new JDialog((Frame) null, "Go To File Offset");
-      gotoDialog.getContentPane().add(panel6, BorderLayout.CENTER);
-      gotoDialog.pack();          // lay out components, set preferred size
-      gotoDialog.setLocation(mainFrame.getX() + 50, mainFrame.getY() + 50);
+/*
+  searchReplaceMatches() method
 
-      /* The status message controls the layout width, so fix the size, to
-      avoid the input field changing size when the message text changes. */
+  Called when the search for "Replace All" has finished.  Ask the user before
+  replacing, since there is no "Undo" feature yet.  All matches are replaced
+  at once with HexEdit2Data.replaceAll(), which builds new pieces in one pass
+  instead of deleting and inserting for each match.
+*/
+  static void searchReplaceMatches(HexEdit2Matches matches)
+  {
+    int[] nibbles;                // replacement nibbles
+
+    nibbles = matches.replacement;
+    if (JOptionPane.showConfirmDialog(mainFrame, ("Replace "
+      + formatComma.format(matches.count) + ((matches.count == 1) ? " match"
+      : " matches") + (matches.moreFlag ? " (too many, not all found)" : "")
+      + "?\nThis can't be undone."), "Replace All", JOptionPane.YES_NO_OPTION)
+      != JOptionPane.YES_OPTION)
+    {
+      return;                     // user said no, nothing changed
+    }
+    try                           // "out of memory" errors are likely
+    {
+      nibbleData.replaceAll(matches.starts, matches.ends, matches.count,
+        nibbles, 0, nibbles.length);
+    }
+    catch (OutOfMemoryError oome)
+    {
+      memoryError("Replace All"); // nicely tell user that we failed
+      return;                     // data has not been changed
+    }
+    textPanel.cursorDot = textPanel.cursorMark = 0; // old cursor may be gone
+    textPanel.limitCursorRange(); // refresh data size, enforce cursor range
+    searchSelect(matches.starts[0], (matches.starts[0] + nibbles.length));
+                                  // select first replacement
+    showSearchMessage("Replaced " + formatComma.format(matches.count)
+      + ((matches.count == 1) ? " match." : " matches.") + (matches.moreFlag
+      ? "  Click Replace All again for more." : ""));
 
-      gotoStatus.setPreferredSize(gotoStatus.getPreferredSize());
+  } // end of searchReplaceMatches() method
+
+
+/*
+  searchReplaceThis() method
+
+  Replace the current selection (if any) with the replacement string (if any).
+  Since there is no "Undo" feature yet, we replace only if there is an active
+  selection and the replacement string is not empty (no "search-and-delete"
+  allowed).  See also searchReplaceAll().
+*/
+  static void searchReplaceThis()
+  {
+    int[] nibbles;                // nibble array obtained from <text>
+    String text;                  // replacement string as typed by user
+
+    if (searchDialog == null)     // has the search dialog been created?
+    {
+      showSearchDialog();         // be nice and start the find/replace dialog
+      if (textPanel.cursorDot != textPanel.cursorMark) // if selection exists
+        searchReplaceText.requestFocusInWindow(); // only need replace string
+      return;
+    }
+    if (textPanel.cursorDot == textPanel.cursorMark) // is there a selection?
+    {
+      showSearchMessage("There is no selection to replace.");
+      return;                     // nothing to do, so return to caller
+    }
+    text = searchReplaceText.getText(); // get user's string
+    if (text.length() == 0)       // did the user type anything?
+    {
+      showSearchDialog();         // bring up the full find/replace dialog
+      showSearchMessage("Replacement with an empty string is not supported.");
+      searchReplaceText.requestFocusInWindow(); // we need the replace string
+      return;
     }
+    nibbles = searchConvertNibbles(text, "replace");
+    if (nibbles.length == 0)      // was there an error during conversion?
+      return;                     // yes, error message already printed
 
-    refreshDataSize();            // set to correct number of data nibbles
-    showGotoRange(nibbleCount / 2); // default to message about range allowed
-    if (gotoDialog.isVisible() == false) // if dialog is closed or hidden
-      gotoOffsetText.requestFocusInWindow();
-                                  // assume user wants to edit offset string
-    gotoDialog.setVisible(true);  // show "go to" dialog or bring to the front
+    /* If we got this far, there is nothing to report and we should cancel any
+    previous status message in the search dialog box. */
 
-  } // end of showGotoDialog() method
+    searchStatus.setText(EMPTY_STATUS); // clear any previous search status
+
+    /* We always insert, never overwrite, so pull the rug out from under the
+    pasteNibbles() method, which takes care of deleting the selection. */
+
+    pasteNibbles(nibbles, nibbles.length, false); // paste nibbles as file data
+
+  } // end of searchReplaceThis() method
 
 
 /*
-  showGotoRange() method
+  searchSelect() method
 
-  Set the status in the "Go To File Offset" dialog box to an informational
-  message about the hexadecimal range allowed.
+  Select a match found by searching, and scroll the display to show the match.
 */
-  static void showGotoRange(int maxValue)
+  static void searchSelect(long start, long end)
   {
-    gotoStatus.setText("Enter a byte offset in hexadecimal from 0 to "
-      + Integer.toHexString(maxValue).toUpperCase() + " and click \"Go\".");
+    textPanel.cursorMark = start; // set start of selection
+    textPanel.cursorDot = end;    // set end of selection
+    textPanel.makeVisible(textPanel.cursorMark);
+                                  // do try to show start of selection
+    textPanel.makeVisible(textPanel.cursorDot);
+                                  // but end of selection is more important
+    textPanel.adjustScrollBar();  // adjust scroll bar to match new position
+    textPanel.repaint();          // redraw text display as necessary
   }
 
 
 /*
-  showHelp() method
+  searchStart() method
 
-  Show the help summary.  This is a UNIX standard and is expected for all
-  console applications, even very simple ones.
+  Start a background search from a given data position, with matches ending
+  at or before a given limit.  The search thread calls searchFinished() on the
+  GUI thread when done, and a timer shows progress in the meantime.
 */
-  static void showHelp()
+  static void searchStart(
+    HexEdit2Search search,        // new search, not running yet
+    long givenStart,              // data nibble index where search begins
+    long givenLimit,              // data nibble index where search ends
+    HexEdit2Matches matches)      // collects all matches, or null for next
   {
-    System.err.println();
-    System.err.println(PROGRAM_TITLE);
-    System.err.println();
-    System.err.println("This is a graphical application.  You may give options and/or one file name on");
-    System.err.println("the command line.  Options are:");
-    System.err.println();
-    System.err.println("  -? = -help = show summary of command-line syntax");
-    System.err.println("  -d4 -d8 -d12 -d16 -d24 -d32 = input bytes per dump line (default: "
-      + DEFAULT_DUMP + ")");
-    System.err.println("  -ins = keyboard input starts with insert mode (default)");
-    System.err.println("  -over = keyboard input starts with overwrite mode");
-    System.err.println("  -u# = font size for buttons, dialogs, etc; default is local system;");
-    System.err.println("      example: -u16");
-    System.err.println("  -w(#,#,#,#) = normal window position: left, top, width, height;");
-    System.err.println("      example: -w(50,50,700,500)");
-    System.err.println("  -x = maximize application window; default is normal window");
-    System.err.println();
-    System.err.println(COPYRIGHT_NOTICE);
-//  System.err.println();
-
-  } // end of showHelp() method
+    searchRunning = search;
+    searchRunning.matches = matches; // for "Find All" and "Replace All"
+    searchRunning.startThread(nibbleData, givenStart, givenLimit,
+      userActions);               // calls searchFinished() when done
+    searchStatus.setText("Searching...");
+    searchStopButton.setEnabled(true); // allow user to cancel search
+    searchTimer.start();          // show progress while searching
+  }
 
 
 /*
-  showSearchDialog() method
+  searchStop() method
 
-  Show the "Find or Replace" dialog box.  We may have to create it first.  This
-  layout is more complicated than the "Go To File Offset" dialog.  Also, user
-  keystrokes (Control-F, Control-N, etc) may invoke methods related to dialog
-  components before the dialog box has actually been created.
+  Stop a background search, if one is running.  The search thread notices at
+  the end of the current block, and then searchFinished() tells the user.  If
+  the caller is about to close the data, we wait for the thread to finish and
+  forget about the search immediately.
 */
-  static void showSearchDialog()
+  static void searchStop(
+    boolean waitFlag)             // true if we wait for search thread to end
   {
-    GridBagConstraints gbc;       // reuse the same constraint object
+    HexEdit2Search search;        // search that is running
 
-    if (searchDialog == null)     // has the dialog box been created yet?
+    search = searchRunning;       // get search that is running
+    if (search == null)           // is there a search running?
+      return;                     // no, nothing to do
+    search.cancelFlag = true;     // tell search thread to stop
+    if (waitFlag)                 // should we wait for search thread?
     {
-      /* Create the search dialog using a grid bag layout.  Most of this code
-      is just plain ugly.  There isn't much chance of understanding it unless
-      you read the documentation for GridBagLayout ... if you can understand
-      that!  As with our main frame, some intermediate panel names are of no
-      lasting importance and hence are only numbered (panel1, panel2, etc). */
+      while (search.doneFlag == false) // there is at most one more block
+      {
+        try { Thread.sleep(10); } catch (InterruptedException ie) { }
+      }
+      searchRunning = null;       // no background search running now
+      searchStopButton.setEnabled(false); // nothing to stop
+      searchTimer.stop();         // no more progress to show
+      searchStatus.setText(EMPTY_STATUS); // clear progress message
+    }
+  } // end of searchStop() method
 
-      JPanel panel1 = new JPanel(new GridBagLayout()); // use a grid bag layout
-      gbc = new GridBagConstraints(); // modify and reuse these constraints
 
-      /* First layout line has the "find" or "search" string. */
+/*
+  searchTextChanged() method
 
-      JLabel label1 = new JLabel("Search for:");
-      if (buttonFont != null) label1.setFont(buttonFont);
-      gbc.anchor = GridBagConstraints.EAST;
-      gbc.fill = GridBagConstraints.NONE;
-      gbc.gridwidth = 1;
-      panel1.add(label1, gbc);
-      panel1.add(Box.createHorizontalStrut(10), gbc); // horizontal space
+  Called when the user changes the search string in the search dialog.  For
+  search as you type, wait until the user stops typing for a moment.
+*/
+  static void searchTextChanged()
+  {
+    if (searchAsYouType.isSelected()) // does user want search as you type?
+      searchTypedTimer.restart(); // yes, start or restart waiting
+  }
 
-      searchFindText = new JTextField("", 20);
-      searchFindText.addActionListener(userActions);
-      if (buttonFont != null) searchFindText.setFont(buttonFont);
-      searchFindText.setMargin(TEXT_MARGINS);
-      gbc.anchor = GridBagConstraints.WEST;
-      gbc.fill = GridBagConstraints.HORIZONTAL;
-      gbc.gridwidth = GridBagConstraints.REMAINDER;
-      panel1.add(searchFindText, gbc);
-      panel1.add(Box.createVerticalStrut(10), gbc); // vertical space
 
-      /* Second layout line has the "replace" string. */
+/*
+  searchTypedFinished() method
 
-      JLabel label2 = new JLabel("Replace with:");
-      if (buttonFont != null) label2.setFont(buttonFont);
-      gbc.anchor = GridBagConstraints.EAST;
-      gbc.fill = GridBagConstraints.NONE;
-      gbc.gridwidth = 1;
-      panel1.add(label2, gbc);
-      panel1.add(Box.createHorizontalStrut(10), gbc);
+  Show the results of searching the data for search as you type.  The data
+  has been searched from <covered> until the limit on candidates or the end
+  of the data, so <covered> moves to after the last candidate.
+*/
+  static void searchTypedFinished(HexEdit2Search search)
+  {
+    HexEdit2Matches matches;      // candidates found by search
 
-      searchReplaceText = new JTextField("", 20);
-      searchReplaceText.addActionListener(userActions);
-      if (buttonFont != null) searchReplaceText.setFont(buttonFont);
-      searchReplaceText.setMargin(TEXT_MARGINS);
-      gbc.anchor = GridBagConstraints.WEST;
-      gbc.fill = GridBagConstraints.HORIZONTAL;
-      gbc.gridwidth = GridBagConstraints.REMAINDER;
-      panel1.add(searchReplaceText, gbc);
-      panel1.add(Box.createVerticalStrut(10), gbc);
+    matches = search.matches;
+    if (search.cancelFlag || (search.data != nibbleData)
+      || (search.changes != nibbleData.changes())) // not a complete search?
+    {
+      searchTyped = null;         // candidates aren't reliable
+      if (search.cancelFlag)      // did the user stop the search?
+        showSearchMessage("Search was stopped.");
+      return;
+    }
+    if (matches.moreFlag)         // did we stop at the limit on candidates?
+      matches.covered = matches.starts[matches.count - 1] + 1;
+    else                          // no, we searched to the end of the data
+      matches.covered = search.limit;
+    if (matches.count > 0)        // were we successful?
+      searchSelect(matches.starts[0], matches.ends[0]);
+    else                          // no, search failed
+      showSearchMessage("Search string not found.");
 
-      /* Third layout line has the options: radio buttons and check boxes.  Not
-      all of these require action listeners. */
+  } // end of searchTypedFinished() method
 
-      ButtonGroup group1 = new ButtonGroup();
-      JPanel panel3 = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 0));
 
-      searchIsHex = new JRadioButton("hex string", true);
-      if (buttonFont != null) searchIsHex.setFont(buttonFont);
-      searchIsHex.setMnemonic(KeyEvent.VK_H);
-      searchIsHex.setToolTipText(
-        "Search and replace strings are hexadecimal digits.");
-      group1.add(searchIsHex);
-      panel3.add(searchIsHex);
+/*
+  selectAll() method
 
-      searchIsText = new JRadioButton("text string", false);
-      if (buttonFont != null) searchIsText.setFont(buttonFont);
-      searchIsText.setMnemonic(KeyEvent.VK_T);
-      searchIsText.setToolTipText(
-        "Search and replace strings are regular text.");
-      searchIsText.addActionListener(userActions);
+  Select all data nibbles from the beginning to the end.  Leave the cursor in
+  whatever region is active.  (Don't change the <cursorOnText> variable.)
+*/
+  static void selectAll()
+  {
+    textPanel.cursorDot = nibbleCount; // current cursor ends selection
+    textPanel.cursorMark = 0;     // select data from beginning of file
+    textPanel.repaint();          // redraw text display as necessary
+  }
+
+
+/*
+  setClipboard() method
+
+  Place a string onto the clipboard for some other application to read.
+*/
+  static void setClipboard(String text)
+  {
+    clipString = text;            // save string reference for later
+    try                           // clipboard may not be available
+    {
+      Toolkit.getDefaultToolkit().getSystemClipboard().setContents(
+        (Transferable) userActions, null); // place data notice on clipboard
+    }
+    catch (IllegalStateException ise)
+    {
+      JOptionPane.showMessageDialog(mainFrame,
+        ("Can't put text on clipboard:\n" + ise.getMessage()));
+    }
+  } // end of setClipboard() method
+
+
+/*
+  showEditMenu() method
+
+  Display the pop-up "edit menu" at a location relative to a given component
+  and (x,y) co-ordinates.  Items in the menu are enabled or disabled according
+  to approximate context.
+*/
+  static void showEditMenu(Component invoker, int x, int y, boolean mouse)
+  {
+    boolean clipboard = getClipboard().length() > 0; // if text on clipboard
+    boolean content = nibbleCount > 0; // true if there is any file data
+    boolean selection = textPanel.cursorDot != textPanel.cursorMark;
+                                  // true if there is a current selection
+
+    menuPopup = new JPopupMenu();
+
+    menuCopyDump.setEnabled(selection);
+    menuPopup.add(menuCopyDump);
+    menuCopyHex.setEnabled(selection);
+    menuPopup.add(menuCopyHex);
+    menuCopyText.setEnabled(selection);
+    menuPopup.add(menuCopyText);
+    menuPasteHex.setEnabled(clipboard);
+    menuPopup.add(menuPasteHex);
+    menuPasteText.setEnabled(clipboard);
+    menuPopup.add(menuPasteText);
+
+    menuPopup.addSeparator();
+
+    menuFind.setEnabled(content);
+    menuPopup.add(menuFind);
+    menuNext.setEnabled(content);
+    menuPopup.add(menuNext);
+    menuPrevious.setEnabled(content);
+    menuPopup.add(menuPrevious);
+    menuReplace.setEnabled(selection);
+    menuPopup.add(menuReplace);
+
+    menuPopup.addSeparator();
+
+    menuDelete.setEnabled(selection);
+    menuPopup.add(menuDelete);
+    menuSelect.setEnabled(content);
+    menuPopup.add(menuSelect);
+
+    if (mouse == false)           // Edit button only, not right mouse click
+    {
+      menuPopup.addSeparator();
+      menuCopyCursor.setEnabled(true);
+      menuPopup.add(menuCopyCursor);
+      menuGotoOffset.setEnabled(content);
+      menuPopup.add(menuGotoOffset);
+    }
+
+    menuPopup.show(invoker, x, y); // show menu with context-sensitive items
+
+  } // end of showEditMenu() method
+
+
+/*
+  showGotoDialog() method
+
+  Show the "Go To File Offset" dialog box.  We may have to create it first.
+  This is a much simpler layout and easier interaction than <searchDialog>.
+*/
+  static void showGotoDialog()
+  {
+    if (gotoDialog == null)       // has the dialog box been created yet?
+    {
+      /* Create a vertical box to stack buttons and options. */
+
+      JPanel panel1 = new JPanel();
+      panel1.setLayout(new BoxLayout(panel1, BoxLayout.Y_AXIS));
+
+      /* First layout line has the "go to" address input string. */
+
+      JPanel panel2 = new JPanel(new BorderLayout(10, 0));
+
+      JLabel label1 = new JLabel("Go to file offset:", JLabel.RIGHT);
+      if (buttonFont != null) label1.setFont(buttonFont);
+      panel2.add(label1, BorderLayout.WEST);
+
+      gotoOffsetText = new JTextField("", 15);
+      gotoOffsetText.addActionListener(userActions);
+      if (buttonFont != null) gotoOffsetText.setFont(buttonFont);
+      gotoOffsetText.setMargin(TEXT_MARGINS);
+      panel2.add(gotoOffsetText, BorderLayout.CENTER);
+      panel1.add(panel2);
+      panel1.add(Box.createVerticalStrut(10)); // vertical space
+
+      /* Second layout line has a message string for the "go to" status. */
+
+      JPanel panel3 = new JPanel(new BorderLayout(0, 0));
+      gotoStatus = new JLabel(EMPTY_STATUS, JLabel.CENTER);
+      if (buttonFont != null) gotoStatus.setFont(buttonFont);
+      showGotoRange(-1);          // set message size with maximum hex digits
+      panel3.add(gotoStatus, BorderLayout.CENTER);
+      panel1.add(panel3);
+      panel1.add(Box.createVerticalStrut(20));
+
+      /* Third and last line has the action buttons. */
+
+      JPanel panel4 = new JPanel(new FlowLayout(FlowLayout.CENTER, 25, 0));
+
+      gotoJumpButton = new JButton("Go");
+      gotoJumpButton.addActionListener(userActions);
+      if (buttonFont != null) gotoJumpButton.setFont(buttonFont);
+      gotoJumpButton.setMnemonic(KeyEvent.VK_G);
+      gotoJumpButton.setToolTipText("Jump to file offset given above.");
+      panel4.add(gotoJumpButton);
+
+      gotoCloseButton = new JButton("Close");
+      gotoCloseButton.addActionListener(userActions);
+      if (buttonFont != null) gotoCloseButton.setFont(buttonFont);
+      gotoCloseButton.setMnemonic(KeyEvent.VK_C);
+      gotoCloseButton.setToolTipText("Close this dialog box.");
+      panel4.add(gotoCloseButton);
+
+      panel1.add(panel4);
+
+      /* Put the vertical box inside a flow layout to center it horizontally
+      and stop expansion.  Add left and right margins with the flow layout. */
+
+      JPanel panel5 = new JPanel(new FlowLayout(FlowLayout.CENTER, 20, 0));
+      panel5.add(panel1);         // align vertical box inside horizontal box
+
+      /* Put the flow layout in another vertical box to center vertically. */
+
+      Box panel6 = Box.createVerticalBox(); // create a basic vertical box
+      panel6.add(Box.createGlue()); // stretch to the top
+      panel6.add(Box.createVerticalStrut(20)); // top margin
+      panel6.add(panel5);         // horizontal flow layout
+      panel6.add(Box.createVerticalStrut(20)); // bottom margin
+//    panel6.add(Box.createGlue()); // stretch to bottom (assumed by layout)
+
+      /* Position the dialog box.  Like a JFrame, a JDialog doesn't have an
+      initial size.  We "pack" our JDialog layout to the minimum size. */
+
+      gotoDialog = new JDialog((Frame) null, "Go To File Offset");
+      gotoDialog.getContentPane().add(panel6, BorderLayout.CENTER);
+      gotoDialog.pack();          // lay out components, set preferred size
+      gotoDialog.setLocation(mainFrame.getX() + 50, mainFrame.getY() + 50);
+
+      /* The status message controls the layout width, so fix the size, to
+      avoid the input field changing size when the message text changes. */
+
+      gotoStatus.setPreferredSize(gotoStatus.getPreferredSize());
+    }
+
+    refreshDataSize();            // set to correct number of data nibbles
+    showGotoRange(nibbleCount / 2); // default to message about range allowed
+    if (gotoDialog.isVisible() == false) // if dialog is closed or hidden
+      gotoOffsetText.requestFocusInWindow();
+                                  // assume user wants to edit offset string
+    gotoDialog.setVisible(true);  // show "go to" dialog or bring to the front
+
+  } // end of showGotoDialog() method
+
+
+/*
+  showGotoRange() method
+
+  Set the status in the "Go To File Offset" dialog box to an informational
+  message about the hexadecimal range allowed.
+*/
+  static void showGotoRange(long maxValue)
+  {
+    gotoStatus.setText("Enter a byte offset in hexadecimal from 0 to "
+      + Long.toHexString(maxValue).toUpperCase() + " and click \"Go\".");
+  }
+
+
+/*
+  showHelp() method
+
+  Show the help summary.  This is a UNIX standard and is expected for all
+  console applications, even very simple ones.
+*/
+  static void showHelp()
+  {
+    System.err.println();
+    System.err.println(PROGRAM_TITLE);
+    System.err.println();
+    System.err.println("This is a graphical application.  You may give options and/or one file name on");
+    System.err.println("the command line.  Options are:");
+    System.err.println();
+    System.err.println("  -? = -help = show summary of command-line syntax");
+    System.err.println("  -bench# = time opening, searching, replacing, copying, and saving without");
+    System.err.println("      a display, on the file given or a generated file of # MB (default: "
+      + HexEdit2Bench.DEFAULT_FILE + ")");
+    System.err.println("  -d4 -d8 -d12 -d16 -d24 -d32 = input bytes per dump line (default: "
+      + DEFAULT_DUMP + ")");
+    System.err.println("  -index = index files in the background, so that repeated searches can skip");
+    System.err.println("      parts of big files; uses memory 1/16 of the file size");
+    System.err.println("  -ins = keyboard input starts with insert mode (default)");
+    System.err.println("  -map = map all input files into memory; default is files of "
+      + (MAP_SIZE >> 20) + " MB or more");
+    System.err.println("  -nomap = read all input files into memory, even big files");
+    System.err.println("  -over = keyboard input starts with overwrite mode");
+    System.err.println("  -t# = number of threads for searching big files; default is one per");
+    System.err.println("      processor; example: -t4");
+    System.err.println("  -u# = font size for buttons, dialogs, etc; default is local system;");
+    System.err.println("      example: -u16");
+    System.err.println("  -w(#,#,#,#) = normal window position: left, top, width, height;");
+    System.err.println("      example: -w(50,50,700,500)");
+    System.err.println("  -x = maximize application window; default is normal window");
+    System.err.println();
+    System.err.println(COPYRIGHT_NOTICE);
+//  System.err.println();
+
+  } // end of showHelp() method
+
+
+/*
+  showListDialog() method
+
+  Show the "Find List" dialog, where the user types or opens a list of search
+  strings, one per line.  We may have to create the dialog box first.  Options
+  for hex or text strings and byte boundaries come from the search dialog.
+*/
+  static void showListDialog()
+  {
+    if (listDialog == null)       // has the dialog box been created yet?
+    {
+      /* First layout line has a message string. */
+
+      listStatus = new JLabel("Search strings, one per line:", JLabel.CENTER);
+      if (buttonFont != null) listStatus.setFont(buttonFont);
+
+      /* Second layout line has the search strings, which can be long. */
+
+      listText = new JTextArea(15, 30);
+      if (buttonFont != null) listText.setFont(buttonFont);
+      listText.setMargin(TEXT_MARGINS);
+      JScrollPane panel2 = new JScrollPane(listText);
+
+      /* Third and last line has the action buttons. */
+
+      JPanel panel3 = new JPanel(new FlowLayout(FlowLayout.CENTER, 25, 0));
+
+      listOpenButton = new JButton("Open File");
+      listOpenButton.addActionListener(userActions);
+      if (buttonFont != null) listOpenButton.setFont(buttonFont);
+      listOpenButton.setMnemonic(KeyEvent.VK_O);
+      listOpenButton.setToolTipText("Read search strings from a text file.");
+      panel3.add(listOpenButton);
+
+      listFindButton = new JButton("Find All");
+      listFindButton.addActionListener(userActions);
+      if (buttonFont != null) listFindButton.setFont(buttonFont);
+      listFindButton.setMnemonic(KeyEvent.VK_A);
+      listFindButton.setToolTipText(
+        "Find all occurrences of all search strings.");
+      panel3.add(listFindButton);
+
+      listCloseButton = new JButton("Close");
+      listCloseButton.addActionListener(userActions);
+      if (buttonFont != null) listCloseButton.setFont(buttonFont);
+      listCloseButton.setMnemonic(KeyEvent.VK_C);
+      listCloseButton.setToolTipText("Close this dialog box.");
+      panel3.add(listCloseButton);
+
+      /* Stack the lines with margins.  The text area takes any extra space. */
+
+      JPanel panel1 = new JPanel(new BorderLayout(0, 10));
+      panel1.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
+      panel1.add(listStatus, BorderLayout.NORTH);
+      panel1.add(panel2, BorderLayout.CENTER);
+      panel1.add(panel3, BorderLayout.SOUTH);
+
+      /* Position the dialog box.  Like a JFrame, a JDialog doesn't have an
+      initial size.  We "pack" our JDialog layout to the minimum size. */
+
+      listDialog = new JDialog((Frame) null, "Find List");
+      listDialog.getContentPane().add(panel1, BorderLayout.CENTER);
+      listDialog.pack();          // lay out components, set preferred size
+      listDialog.setLocation(mainFrame.getX() + 75, mainFrame.getY() + 75);
+    }
+    listDialog.setVisible(true);  // show list dialog or bring to front
+    listText.requestFocusInWindow(); // user will want to type strings
+
+  } // end of showListDialog() method
+
+
+/*
+  showResultsDialog() method
+
+  Show the matches from "Find All" in a list.  We may have to create the
+  dialog box first.  The list shows file offsets from the arrays in the
+  HexEdit2Matches object, so even a million matches take little memory.
+  Selecting an offset in the list selects that match in the data.
+*/
+  static void showResultsDialog(HexEdit2Matches matches)
+  {
+    if (resultsDialog == null)    // has the dialog box been created yet?
+    {
+      /* First layout line has a message string with the number of matches. */
+
+      resultsStatus = new JLabel(EMPTY_STATUS, JLabel.CENTER);
+      if (buttonFont != null) resultsStatus.setFont(buttonFont);
+
+      /* Second layout line has the list of matches, which can be long. */
+
+      resultsList = new JList();
+      resultsList.addListSelectionListener(userActions);
+      if (buttonFont != null) resultsList.setFont(buttonFont);
+      resultsList.setPrototypeCellValue(
+        "0000000000000000 + 1 nibble  4D 5A ?? ?? 50 45");
+      resultsList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+      resultsList.setVisibleRowCount(15);
+      JScrollPane panel2 = new JScrollPane(resultsList);
+
+      /* Third and last line has the action buttons. */
+
+      JPanel panel3 = new JPanel(new FlowLayout(FlowLayout.CENTER, 25, 0));
+
+      resultsCloseButton = new JButton("Close");
+      resultsCloseButton.addActionListener(userActions);
+      if (buttonFont != null) resultsCloseButton.setFont(buttonFont);
+      resultsCloseButton.setMnemonic(KeyEvent.VK_C);
+      resultsCloseButton.setToolTipText("Close this dialog box.");
+      panel3.add(resultsCloseButton);
+
+      /* Stack the lines with margins.  The list takes any extra space. */
+
+      JPanel panel1 = new JPanel(new BorderLayout(0, 10));
+      panel1.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
+      panel1.add(resultsStatus, BorderLayout.NORTH);
+      panel1.add(panel2, BorderLayout.CENTER);
+      panel1.add(panel3, BorderLayout.SOUTH);
+
+      /* Position the dialog box.  Like a JFrame, a JDialog doesn't have an
+      initial size.  We "pack" our JDialog layout to the minimum size. */
+
+      resultsDialog = new JDialog((Frame) null, "Find All");
+      resultsDialog.getContentPane().add(panel1, BorderLayout.CENTER);
+      resultsDialog.pack();       // lay out components, set preferred size
+      resultsDialog.setLocation(mainFrame.getX() + 100, mainFrame.getY()
+        + 100);
+    }
+
+    resultsList.setModel(matches); // matches are also the list model
+    resultsStatus.setText("Found " + formatComma.format(matches.count)
+      + (matches.moreFlag ? " matches (too many, list is incomplete)."
+      : ((matches.count == 1) ? " match." : " matches.")));
+    resultsDialog.setVisible(true); // show results dialog or bring to front
+
+  } // end of showResultsDialog() method
+
+
+/*
+  showResultsMatch() method
+
+  Called when the user selects an offset in the "Find All" results.  Select
+  that match in the data, unless the data has changed too much since then.
+*/
+  static void showResultsMatch()
+  {
+    int index;                    // index of selected match in list
+    HexEdit2Matches matches;      // all matches shown in list
+
+    index = resultsList.getSelectedIndex();
+    matches = (HexEdit2Matches) resultsList.getModel();
+    if ((index < 0) || (index >= matches.count)) // is anything selected?
+      return;                     // no, nothing to do
+    refreshDataSize();            // set to correct number of data nibbles
+    if (matches.ends[index] > nibbleCount) // is match still inside data?
+    {
+      resultsStatus.setText("Data has changed.  Please search again.");
+      return;
+    }
+    if (matches.changes != nibbleData.changes()) // has data changed?
+      resultsStatus.setText("Data has changed.  Offsets may be wrong.");
+    searchSelect(matches.starts[index], matches.ends[index]);
+
+  } // end of showResultsMatch() method
+
+
+/*
+  showSearchDialog() method
+
+  Show the "Find or Replace" dialog box.  We may have to create it first.  This
+  layout is more complicated than the "Go To File Offset" dialog.  Also, user
+  keystrokes (Control-F, Control-N, etc) may invoke methods related to dialog
+  components before the dialog box has actually been created.
+*/
+  static void showSearchDialog()
+  {
+    GridBagConstraints gbc;       // reuse the same constraint object
+
+    if (searchDialog == null)     // has the dialog box been created yet?
+    {
+      /* Create the search dialog using a grid bag layout.  Most of this code
+      is just plain ugly.  There isn't much chance of understanding it unless
+      you read the documentation for GridBagLayout ... if you can understand
+      that!  As with our main frame, some intermediate panel names are of no
+      lasting importance and hence are only numbered (panel1, panel2, etc). */
+
+      JPanel panel1 = new JPanel(new GridBagLayout()); // use a grid bag layout
+      gbc = new GridBagConstraints(); // modify and reuse these constraints
+
+      /* First layout line has the "find" or "search" string. */
+
+      JLabel label1 = new JLabel("Search for:");
+      if (buttonFont != null) label1.setFont(buttonFont);
+      gbc.anchor = GridBagConstraints.EAST;
+      gbc.fill = GridBagConstraints.NONE;
+      gbc.gridwidth = 1;
+      panel1.add(label1, gbc);
+      panel1.add(Box.createHorizontalStrut(10), gbc); // horizontal space
+
+      searchFindText = new JTextField("", 20);
+      searchFindText.addActionListener(userActions);
+      searchFindText.getDocument().addDocumentListener(userActions);
+      if (buttonFont != null) searchFindText.setFont(buttonFont);
+      searchFindText.setMargin(TEXT_MARGINS);
+      gbc.anchor = GridBagConstraints.WEST;
+      gbc.fill = GridBagConstraints.HORIZONTAL;
+      gbc.gridwidth = GridBagConstraints.REMAINDER;
+      panel1.add(searchFindText, gbc);
+      panel1.add(Box.createVerticalStrut(10), gbc); // vertical space
+
+      /* Second layout line has the "replace" string. */
+
+      JLabel label2 = new JLabel("Replace with:");
+      if (buttonFont != null) label2.setFont(buttonFont);
+      gbc.anchor = GridBagConstraints.EAST;
+      gbc.fill = GridBagConstraints.NONE;
+      gbc.gridwidth = 1;
+      panel1.add(label2, gbc);
+      panel1.add(Box.createHorizontalStrut(10), gbc);
+
+      searchReplaceText = new JTextField("", 20);
+      searchReplaceText.addActionListener(userActions);
+      if (buttonFont != null) searchReplaceText.setFont(buttonFont);
+      searchReplaceText.setMargin(TEXT_MARGINS);
+      gbc.anchor = GridBagConstraints.WEST;
+      gbc.fill = GridBagConstraints.HORIZONTAL;
+      gbc.gridwidth = GridBagConstraints.REMAINDER;
+      panel1.add(searchReplaceText, gbc);
+      panel1.add(Box.createVerticalStrut(10), gbc);
+
+      /* Third layout line has the options: radio buttons and check boxes.  Not
+      all of these require action listeners. */
+
+      ButtonGroup group1 = new ButtonGroup();
+      JPanel panel3 = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 0));
+
+      searchIsHex = new JRadioButton("hex string", true);
+      if (buttonFont != null) searchIsHex.setFont(buttonFont);
+      searchIsHex.setMnemonic(KeyEvent.VK_H);
+      searchIsHex.setToolTipText(
+        "Hexadecimal digits.  Search may use ?? [30-39] (4D|5A) ??{0,8}");
+      group1.add(searchIsHex);
+      panel3.add(searchIsHex);
+
+      searchIsText = new JRadioButton("text string", false);
+      if (buttonFont != null) searchIsText.setFont(buttonFont);
+      searchIsText.setMnemonic(KeyEvent.VK_T);
+      searchIsText.setToolTipText(
+        "Search and replace strings are regular text.");
+      searchIsText.addActionListener(userActions);
                                   // do last so this doesn't fire early
       group1.add(searchIsText);
       panel3.add(searchIsText);
 
-      searchByteBound = new JCheckBox("byte boundary", false);
-      if (buttonFont != null) searchByteBound.setFont(buttonFont);
-      searchByteBound.setMnemonic(KeyEvent.VK_B);
-      searchByteBound.setToolTipText(
-        "Search starts on byte boundary.  Does not apply to replace.");
-      panel3.add(searchByteBound);
+      searchByteBound = new JCheckBox("byte boundary", false);
+      if (buttonFont != null) searchByteBound.setFont(buttonFont);
+      searchByteBound.setMnemonic(KeyEvent.VK_B);
+      searchByteBound.setToolTipText(
+        "Search starts on byte boundary.  Does not apply to replace.");
+      panel3.add(searchByteBound);
+
+      searchIgnoreNulls = new JCheckBox("ignore nulls", false);
+      if (buttonFont != null) searchIgnoreNulls.setFont(buttonFont);
+      searchIgnoreNulls.setMnemonic(KeyEvent.VK_I);
+      searchIgnoreNulls.setToolTipText(
+        "Ignore null data bytes between search bytes.");
+      panel3.add(searchIgnoreNulls);
+
+      searchAsYouType = new JCheckBox("as you type", false);
+      if (buttonFont != null) searchAsYouType.setFont(buttonFont);
+      searchAsYouType.setMnemonic(KeyEvent.VK_Y);
+      searchAsYouType.setToolTipText(
+        "Search while you type the search string.");
+      panel3.add(searchAsYouType);
+
+      gbc.anchor = GridBagConstraints.CENTER;
+      gbc.fill = GridBagConstraints.HORIZONTAL;
+      gbc.gridwidth = GridBagConstraints.REMAINDER;
+      panel1.add(panel3, gbc);
+      panel1.add(Box.createVerticalStrut(10), gbc);
+
+      /* Fourth layout line has options for text strings: character sets
+      (encodings) and case.  The user may type several names with commas. */
+
+      JPanel panel2 = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 0));
+
+      JLabel label3 = new JLabel("Text encoding:");
+      if (buttonFont != null) label3.setFont(buttonFont);
+      panel2.add(label3);
+
+      searchEncoding = new JComboBox(SEARCH_ENCODINGS);
+      searchEncoding.setEditable(true); // user may type other names
+      if (buttonFont != null) searchEncoding.setFont(buttonFont);
+      searchEncoding.setSelectedIndex(0); // local system's default encoding
+      searchEncoding.setToolTipText(
+        "Character sets for text strings, separated by commas.");
+      panel2.add(searchEncoding);
+
+      searchIgnoreCase = new JCheckBox("ignore case", false);
+      if (buttonFont != null) searchIgnoreCase.setFont(buttonFont);
+      searchIgnoreCase.setMnemonic(KeyEvent.VK_E);
+      searchIgnoreCase.setToolTipText(
+        "Text search matches uppercase and lowercase letters.");
+      panel2.add(searchIgnoreCase);
+
+      gbc.anchor = GridBagConstraints.CENTER;
+      gbc.fill = GridBagConstraints.HORIZONTAL;
+      gbc.gridwidth = GridBagConstraints.REMAINDER;
+      panel1.add(panel2, gbc);
+      panel1.add(Box.createVerticalStrut(10), gbc);
+
+      /* Fifth layout line has the range of file offsets for searching, which
+      is filled in from the current selection when the check box is clicked. */
+
+      JPanel panel7 = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 0));
+
+      searchInRange = new JCheckBox("only in range:", false);
+      searchInRange.addActionListener(userActions);
+      if (buttonFont != null) searchInRange.setFont(buttonFont);
+      searchInRange.setMnemonic(KeyEvent.VK_G);
+      searchInRange.setToolTipText(
+        "Find and replace only in a range, such as the current selection.");
+      panel7.add(searchInRange);
+
+      searchRangeText = new JTextField("", 20);
+      if (buttonFont != null) searchRangeText.setFont(buttonFont);
+      searchRangeText.setMargin(TEXT_MARGINS);
+      searchRangeText.setToolTipText(
+        "Hex file offsets: first byte, and first byte after range (1000-2000).");
+      panel7.add(searchRangeText);
+
+      gbc.anchor = GridBagConstraints.CENTER;
+      gbc.fill = GridBagConstraints.HORIZONTAL;
+      gbc.gridwidth = GridBagConstraints.REMAINDER;
+      panel1.add(panel7, gbc);
+      panel1.add(Box.createVerticalStrut(10), gbc);
+
+      /* Sixth layout line has a message string for the search status. */
+
+      searchStatus = new JLabel(EMPTY_STATUS, JLabel.CENTER);
+      if (buttonFont != null) searchStatus.setFont(buttonFont);
+      gbc.anchor = GridBagConstraints.CENTER;
+      gbc.fill = GridBagConstraints.HORIZONTAL;
+      gbc.gridwidth = GridBagConstraints.REMAINDER;
+      panel1.add(searchStatus, gbc);
+      panel1.add(Box.createVerticalStrut(20), gbc);
+
+      /* Seventh and last line has the action buttons. */
+
+      JPanel panel4 = new JPanel(new FlowLayout(FlowLayout.CENTER, 25, 0));
+
+      searchFindButton = new JButton("Find First");
+      searchFindButton.addActionListener(userActions);
+      if (buttonFont != null) searchFindButton.setFont(buttonFont);
+      searchFindButton.setMnemonic(KeyEvent.VK_F);
+      searchFindButton.setToolTipText(
+        "Find first occurrence of search string in file.");
+      panel4.add(searchFindButton);
+
+      searchNextButton = new JButton("Find Next");
+      searchNextButton.addActionListener(userActions);
+      if (buttonFont != null) searchNextButton.setFont(buttonFont);
+      searchNextButton.setMnemonic(KeyEvent.VK_N);
+      searchNextButton.setToolTipText(
+        "Find next occurrence of search string.");
+      panel4.add(searchNextButton);
+
+      searchPreviousButton = new JButton("Find Previous");
+      searchPreviousButton.addActionListener(userActions);
+      if (buttonFont != null) searchPreviousButton.setFont(buttonFont);
+      searchPreviousButton.setMnemonic(KeyEvent.VK_P);
+      searchPreviousButton.setToolTipText(
+        "Find previous occurrence of search string.");
+      panel4.add(searchPreviousButton);
+
+      searchAllButton = new JButton("Find All");
+      searchAllButton.addActionListener(userActions);
+      if (buttonFont != null) searchAllButton.setFont(buttonFont);
+      searchAllButton.setMnemonic(KeyEvent.VK_A);
+      searchAllButton.setToolTipText(
+        "Find and list all occurrences of search string.");
+      panel4.add(searchAllButton);
+
+      searchListButton = new JButton("Find List");
+      searchListButton.addActionListener(userActions);
+      if (buttonFont != null) searchListButton.setFont(buttonFont);
+      searchListButton.setMnemonic(KeyEvent.VK_D);
+      searchListButton.setToolTipText(
+        "Find all occurrences of many search strings at once.");
+      panel4.add(searchListButton);
+
+      searchReplaceButton = new JButton("Replace");
+      searchReplaceButton.addActionListener(userActions);
+      if (buttonFont != null) searchReplaceButton.setFont(buttonFont);
+      searchReplaceButton.setMnemonic(KeyEvent.VK_R);
+      searchReplaceButton.setToolTipText(
+        "Replace current selection or previously found string.");
+      panel4.add(searchReplaceButton);
+
+      searchReplaceAllButton = new JButton("Replace All");
+      searchReplaceAllButton.addActionListener(userActions);
+      if (buttonFont != null) searchReplaceAllButton.setFont(buttonFont);
+      searchReplaceAllButton.setMnemonic(KeyEvent.VK_L);
+      searchReplaceAllButton.setToolTipText(
+        "Replace all occurrences of search string, after asking.");
+      panel4.add(searchReplaceAllButton);
+
+      searchStopButton = new JButton("Stop");
+      searchStopButton.addActionListener(userActions);
+      searchStopButton.setEnabled(false); // until a search is running
+      if (buttonFont != null) searchStopButton.setFont(buttonFont);
+      searchStopButton.setMnemonic(KeyEvent.VK_S);
+      searchStopButton.setToolTipText("Stop a search that is running.");
+      panel4.add(searchStopButton);
+
+      searchCloseButton = new JButton("Close");
+      searchCloseButton.addActionListener(userActions);
+      if (buttonFont != null) searchCloseButton.setFont(buttonFont);
+      searchCloseButton.setMnemonic(KeyEvent.VK_C);
+      searchCloseButton.setToolTipText("Close this dialog box.");
+      panel4.add(searchCloseButton);
+
+      gbc.anchor = GridBagConstraints.CENTER;
+      gbc.fill = GridBagConstraints.HORIZONTAL;
+      gbc.gridwidth = GridBagConstraints.REMAINDER;
+      panel1.add(panel4, gbc);
+
+      /* The layout in a grid bag goes strange if there isn't enough space.
+      Box the grid bag inside a flow layout to center it horizontally and stop
+      expansion, then inside a plain box to center it vertically. */
+
+      JPanel panel5 = new JPanel(new FlowLayout(FlowLayout.CENTER, 20, 0));
+      panel5.add(panel1);         // put grid bag in a fancy horizontal box
+
+      Box panel6 = Box.createVerticalBox(); // create a basic vertical box
+      panel6.add(Box.createGlue()); // stretch to the top
+      panel6.add(Box.createVerticalStrut(20)); // top margin
+      panel6.add(panel5);         // put boxed grid bag in center
+      panel6.add(Box.createVerticalStrut(20)); // bottom margin
+//    panel6.add(Box.createGlue()); // stretch to bottom (assumed by layout)
+
+      /* Position the dialog box.  Like a JFrame, a JDialog doesn't have an
+      initial size.  We "pack" our JDialog layout to the minimum size. */
+
+      searchDialog = new JDialog((Frame) null, "Find or Replace");
+      searchDialog.getContentPane().add(panel6, BorderLayout.CENTER);
+      searchDialog.pack();        // lay out components, set preferred size
+      searchDialog.setLocation(mainFrame.getX() + 50, mainFrame.getY() + 50);
+
+      /* Searches run in a background thread.  A timer shows the progress.
+      Another timer waits for the user to stop typing. */
+
+      searchTimer = new javax.swing.Timer(250, userActions);
+      searchTypedTimer = new javax.swing.Timer(TYPED_DELAY, userActions);
+      searchTypedTimer.setRepeats(false); // once after user stops typing
+    }
+
+    if (searchRunning == null)    // don't hide progress of running search
+      searchStatus.setText(EMPTY_STATUS); // clear any previous search status
+    if (searchDialog.isVisible() == false) // if dialog is closed or hidden
+      searchFindText.requestFocusInWindow();
+                                  // assume user wants to edit search string
+    searchDialog.setVisible(true); // show search dialog or bring to the front
+
+  } // end of showSearchDialog() method
+
+
+/*
+  showSearchMessage() method
+
+  Display a text string given by the caller.  If the search dialog is open,
+  then use the message field in the dialog.  Otherwise, use a pop-up dialog.
+*/
+  static void showSearchMessage(String text)
+  {
+    if ((searchDialog != null) && searchDialog.isVisible())
+    {
+      searchStatus.setText(text); // place search result in message field
+      searchDialog.setVisible(true); // bring search dialog to the front
+    }
+    else
+      JOptionPane.showMessageDialog(mainFrame, text); // simpler pop-up dialog
+  }
+
+
+/*
+  userButton() method
+
+  This method is called by our action listener actionPerformed() to process
+  buttons, in the context of the main HexEdit2 class.
+*/
+  static void userButton(ActionEvent event)
+  {
+    try                           // "out of memory" errors are likely
+    {
+      Object source = event.getSource(); // where the event came from
+      if (source == dumpWidthDialog) // number of input bytes per dump line
+      {
+        /* We can safely parse the dump width as an integer, because we supply
+        the only choices allowed, and the user can't edit this dialog field.
+        Calling adjustScrollBar() or makeVisible() is not possible here,
+        because display sizes are unknown until after the first redraw. */
+
+        dumpWidth = Integer.parseInt((String) dumpWidthDialog
+          .getSelectedItem());    // convert text width to integer
+        textPanel.repaint();      // redraw text display as necessary
+      }
+      else if (source == exitButton) // "Exit" button
+      {
+        System.exit(0);           // always exit with zero status from GUI
+      }
+      else if (source == fontNameDialog) // font name for display text area
+      {
+        /* We can safely assume that the font name is valid, because we
+        obtained the names from getAvailableFontFamilyNames(), and the user
+        can't edit this dialog field.  Calling adjustScrollBar() or
+        makeVisible() is not possible here, because display sizes are unknown
+        until after the first redraw. */
+
+        fontName = (String) fontNameDialog.getSelectedItem();
+        textPanel.repaint();      // redraw text display as necessary
+      }
+      else if (source == gotoCloseButton) // "Close" button on "go to" dialog
+      {
+        gotoDialog.setVisible(false); // hide "Go To File Offset" dialog box
+      }
+      else if (source == gotoJumpButton) // "Go" button on "Go To File Offset"
+      {
+        gotoFileOffset();         // call common method for this operation
+      }
+      else if (source == gotoOffsetText) // press Enter on "go to" offset text
+      {
+        gotoFileOffset();         // call common method for this operation
+      }
+      else if (source == listCloseButton) // "Close" button on list dialog
+      {
+        listDialog.setVisible(false); // hide "Find List" dialog box
+      }
+      else if (source == listFindButton) // "Find All" button on list dialog
+      {
+        searchFindList();         // call common method for this operation
+      }
+      else if (source == listOpenButton) // "Open File" button on list dialog
+      {
+        searchOpenList();         // call common method for this operation
+      }
+      else if (source == menuButton) // "Edit Menu" button
+      {
+        showEditMenu(menuButton, 0, menuButton.getHeight(), false);
+      }
+      else if (source == menuCopyCursor) // "Copy Cursor Offset" menu item
+      {
+        copyCursor();             // call common method for this operation
+      }
+      else if (source == menuCopyDump) // "Copy Dump" menu item (selection)
+      {
+        copyDump();               // call common method for this operation
+      }
+      else if (source == menuCopyHex) // "Copy Hex" menu item (selection)
+      {
+        copyHex();                // call common method for this operation
+      }
+      else if (source == menuCopyText) // "Copy Text" menu item (selection)
+      {
+        copyText();               // call common method for this operation
+      }
+      else if (source == menuDelete) // "Delete" menu item (selection)
+      {
+        deleteSelected();         // call common method for this operation
+      }
+      else if (source == menuFind) // "Find" menu item
+      {
+        showSearchDialog();       // call common method for this operation
+      }
+      else if (source == menuGotoOffset) // "Go To File Offset" menu item
+      {
+        showGotoDialog();         // call common method for this operation
+      }
+      else if (source == menuNext) // "Find Next" menu item
+      {
+        searchFindNext();         // call common method for this operation
+      }
+      else if (source == menuPasteHex) // "Paste Hex" menu item
+      {
+        pasteHex();               // call common method for this operation
+      }
+      else if (source == menuPasteText) // "Paste Text" menu item
+      {
+        pasteText();              // call common method for this operation
+      }
+      else if (source == menuPrevious) // "Find Previous" menu item
+      {
+        searchFindPrevious();     // call common method for this operation
+      }
+      else if (source == menuReplace) // "Replace" menu item (selection)
+      {
+        searchReplaceThis();      // call common method for this operation
+      }
+      else if (source == menuSelect) // "Select All" menu item
+      {
+        selectAll();              // call common method for this operation
+      }
+      else if (source == openButton) // "Open File" button
+      {
+        openFile(null);           // ask for file name, read data from file
+        textPanel.beginFile();    // display file from the beginning
+      }
+      else if (source == overDialog) // insert versus overwrite input mode
+      {
+        overFlag = overDialog.isSelected(); // transfer GUI to faster boolean
+        textPanel.repaint();      // redraw text display as necessary
+      }
+      else if (source == saveButton) // "Save File" button
+      {
+        saveFile();               // ask for file name, write data to file
+      }
+      else if (source == resultsCloseButton) // "Close" button on results
+      {
+        resultsDialog.setVisible(false); // hide "Find All" results dialog box
+      }
+      else if (source == searchAllButton) // "Find All" button on search
+      {
+        searchFindAll();          // call common method for this operation
+      }
+      else if (source == searchCloseButton) // "Close" button on search dialog
+      {
+        searchDialog.setVisible(false); // hide search dialog box
+      }
+      else if (source == searchFindButton) // "Find First" button on search
+      {
+        searchFindFirst();        // call common method for this operation
+      }
+      else if (source == searchFindText) // press Enter on search text
+      {
+        searchFindNext();         // call common method for this operation
+      }
+      else if (source == searchListButton) // "Find List" button on search
+      {
+        showListDialog();         // call common method for this operation
+      }
+      else if (source == searchInRange) // user wants to search only in range
+      {
+        if (searchInRange.isSelected() && (textPanel.cursorDot
+          != textPanel.cursorMark)) // start with the current selection
+        {
+          searchRangeText.setText(Long.toHexString(Math.min(
+            textPanel.cursorDot, textPanel.cursorMark) / 2).toUpperCase() + "-"
+            + Long.toHexString((Math.max(textPanel.cursorDot,
+            textPanel.cursorMark) + 1) / 2).toUpperCase());
+        }
+      }
+      else if (source == searchIsText) // user wants text search, not hex
+      {
+        if (searchIsText.isSelected()) // selecting text search turns on the
+          searchByteBound.setSelected(true); // ... byte boundary by default
+      }
+      else if (source == searchNextButton) // "Find Next" button on search
+      {
+        searchFindNext();         // call common method for this operation
+      }
+      else if (source == searchPreviousButton) // "Find Previous" button
+      {
+        searchFindPrevious();     // call common method for this operation
+      }
+      else if (source == searchReplaceAllButton) // "Replace All" button
+      {
+        searchReplaceAll();       // call common method for this operation
+      }
+      else if (source == searchReplaceButton) // "Replace" button on search
+      {
+        searchReplaceThis();      // call common method for this operation
+      }
+      else if (source == searchReplaceText) // press Enter on replacement text
+      {
+        searchReplaceThis();      // call common method for this operation
+      }
+      else if (source == searchStopButton) // "Stop" button on search dialog
+      {
+        searchStop(false);        // call common method for this operation
+      }
+      else if (source == searchTimer) // timer for background search progress
+      {
+        searchProgress();         // call common method for this operation
+      }
+      else if (source == searchTypedTimer) // user stopped typing search string
+      {
+        searchAsYouType();        // call common method for this operation
+      }
+      else                        // fault in program logic, not by user
+      {
+        System.err.println("Error in userButton(): unknown ActionEvent: "
+          + event);               // should never happen, so write on console
+      }
+    }
+    catch (OutOfMemoryError oome)
+    {
+      memoryError("userButton");  // nicely tell user that we failed
+    }
+  } // end of userButton() method
+
+
+/*
+  writeFile() method
+
+  Write nibble data to a file, and make sure that the data is on disk before
+  we return.  Either all data is written (replacing the file), or only the
+  bytes that changed are written into a file that already has the original
+  data (see HexEdit2Data.writePatches()).  Used by saveFile(), and by the
+  benchmark without a file chooser.
+*/
+  static void writeFile(HexEdit2Data data, File outputFile, boolean patchFlag)
+    throws IOException
+  {
+    FileOutputStream outputStream; // output file stream
+    RandomAccessFile patchAccess; // file opened for writing changed bytes
+
+    if (patchFlag)                // write changed bytes only?
+    {
+      patchAccess = new RandomAccessFile(outputFile, "rw");
+                                  // try to open output file, don't truncate
+      try                         // always close output file
+      {
+        data.writePatches(patchAccess.getChannel()); // changed bytes
+        patchAccess.getChannel().force(true); // data must be on disk
+      }
+      finally
+      {
+        patchAccess.close();      // try to close output file
+      }
+    }
+    else                          // write all data
+    {
+      outputStream = new FileOutputStream(outputFile);
+                                  // try to open output file
+      try                         // always close output file
+      {
+        data.write(outputStream.getChannel()); // write all data
+        outputStream.getChannel().force(true); // data must be on disk
+      }
+      finally
+      {
+        outputStream.close();     // try to close output file
+      }
+    }
+  } // end of writeFile() method
+
+} // end of HexEdit2 class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  HexEdit2Bench class
+
+  This class times the basic operations of HexEdit2Data, so that any change to
+  how nibbles are stored can be compared with numbers instead of guesses.  It
+  isn't part of the editor.  Run it from a command prompt with the data sizes
+  in megabytes, and enough memory for the biggest size:
+
+      java -Xmx1500m HexEdit2Bench 1 16 256 1024
+
+  The original data is in memory and is zero, since the values don't matter.
+  Each operation is timed at three kinds of positions.  "Sequential" moves
+  forward by one nibble or one range after each call, like typing.  "Random"
+  is anywhere in the data.  "Alternating" switches between the beginning and
+  the end of the data, which was the worst case for the older left and right
+  arrays.  Inserting or replacing in the middle of a piece splits the piece,
+  so these operations also time splitting and merging the tree of pieces.
+
+  The editor's own file operations are timed by running the editor with the
+  -bench option, which calls runWorkloads() without creating any windows:
+
+      java -Xmx1500m HexEdit2 -bench256
+
+  That opens a generated file (or a file named on the command line) by reading
+  and by mapping, searches, replaces, copies, and saves, the same way as the
+  buttons and menus do.  Each step is printed with its time, throughput, and
+  the memory allocated by the thread running the step.  Allocation is only
+  counted on Java 6 and later, and doesn't include helper threads for big
+  searches (-t1 option to count everything).
+
+  The old gap arrays, which HexEdit2Data used before the piece table, are
+  timed with the same operations by putting "gap" before the sizes:
+
+      java -Xmx3000m HexEdit2Bench gap 1 16 256
+
+  These use HexEdit2GapData, a copy of the old class kept only for this
+  comparison.  Gap arrays have one byte per nibble and integer positions, so
+  the biggest size is 256 megabytes, and they need several times that much
+  memory, because moving the gap copies both arrays.  For the same reason, a
+  single call may take a large fraction of a second, so the number of calls
+  between clock checks starts at one and doubles while calls are fast.
+
+  Painting the hex dump is timed with the "paint" parameter:
+
+      java HexEdit2Bench paint
+
+  This paints HexEdit2Text into an image in memory, so no display is needed,
+  at each dump width and for several screen sizes up to 4K.  The font size is
+  chosen by the panel for the width, the same as on the screen, and is shown
+  with the results.  Each frame scrolls down one row, like holding down the
+  arrow key.  The results are frames per second and bytes allocated per frame.
+
+  The "check" parameter isn't timed.  It runs "Find Previous" on random data
+  and random ranges, for the same hex string as a plain search string, as a
+  byte pattern, and ignoring nulls (the data has no nulls), and prints any
+  result that isn't the same as the plain search string.  These searches take
+  different paths through HexEdit2Search, and must all find the match with
+  the latest start.
+
+  As with other benchmark harnesses, each test has a few warm-up rounds (so
+  the Java compiler has seen the code) before the timed rounds.  A round calls
+  the operation until a fixed time has passed.  The data is started again if
+  it shrinks to half or grows to twice the original size, or after too many
+  changes, so that the number of pieces and the size of the add array stay
+  close to what a long editing session would have.  The result is the average
+  time per call in nanoseconds, from a clock in milliseconds (the best timer
+  in Java 1.4).
+*/
+
+class HexEdit2Bench
+{
+  /* constants */
+
+  static final int ADD_LIMIT = 0x1000000; // most added nibbles (16 million)
+  static final int CALL_COUNT = 1000; // calls between checking the clock
+  static final int CHANGE_LIMIT = 0x40000; // most changes (256 thousand)
+  static final int CHECK_LONG = 3000; // bytes in long search strings
+  static final int CHECK_TRIALS = 300; // random searches for "check"
+  static final long COPY_NIBBLES = 0x1000000L; // nibbles copied as hex, text
+  static final int DEFAULT_FILE = 64; // generated file size in megabytes
+  static final int[] DEFAULT_SIZES = {1, 16, 256}; // data sizes in megabytes
+  static final int GAP_LIMIT = 256; // biggest size for gap arrays (megabytes)
+  static final String MARKER_TEXT = "HexEdit2"; // found in generated files
+  static final String MISSING_TEXT = "no such string in data"; // not found
+  static final int[][] PAINT_SCREENS = {{1280, 720}, {1920, 1080},
+    {3840, 2160}};                // panel sizes in pixels: width, height
+  static final String REPLACE_TEXT = "hEXeDIT2"; // replaces <MARKER_TEXT>
+  static final int MEASURE_ROUNDS = 3; // timed rounds for each test
+  static final String[] OPERATIONS = {"get", "getRange", "put", "putRange",
+    "insert", "insertRange", "delete", "deleteRange"}; // HexEdit2Data calls
+  static final String[] PATTERNS = {"sequential", "random", "alternating"};
+                                  // kinds of data positions
+  static final int RANGE_SIZE = 1024; // nibbles for each range operation
+  static final long ROUND_MILLIS = 500; // milliseconds for each round
+  static final int WARMUP_ROUNDS = 2; // untimed rounds before timed rounds
+
+  /* class variables */
+
+  static long added;              // nibbles added since data started
+  static int[] buffer;            // nibble values read by getRange()
+  static long changes;            // number of changes since data started
+  static long dataSize;           // current number of nibbles in data
+  static boolean flipFlag;        // true if next alternating position is end
+  static boolean gapFlag;         // true if timing old gap arrays ("gap")
+  static byte[] original;         // original data shared by all tests
+  static int originalSize;        // number of bytes in <original>
+  static long position;           // next sequential or alternating position
+  static Random random;           // random positions, same for every test
+  static long stepAllocated;      // allocated bytes when step started
+  static long stepStart;          // milliseconds when step started
+  static Object threadBean;       // Java 6 thread bean, or null
+  static Object[] threadId;       // parameter for <threadMethod>
+  static java.lang.reflect.Method threadMethod; // gets allocated bytes
+  static int[] values;            // nibble values for putRange(), etc
+
+
+/*
+  allocatedBytes() method
+
+  Return the number of bytes allocated so far by the thread running the
+  benchmark, or -1 if we can't tell.  Java 6 and later have this in the thread
+  bean, which we find by name, since we are compiled for Java 1.4.
+*/
+  static long allocatedBytes()
+  {
+    try                           // many things may not exist
+    {
+      if (threadMethod == null)   // first time called?
+      {
+        threadBean = Class.forName("java.lang.management.ManagementFactory")
+          .getMethod("getThreadMXBean", new Class[0]).invoke(null,
+          new Object[0]);
+        threadId = new Object[] {Thread.class.getMethod("getId", new Class[0])
+          .invoke(Thread.currentThread(), new Object[0])};
+        threadMethod = Class.forName("com.sun.management.ThreadMXBean")
+          .getMethod("getThreadAllocatedBytes", new Class[] {Long.TYPE});
+      }
+      return(((Long) threadMethod.invoke(threadBean, threadId)).longValue());
+    }
+    catch (Exception e)           // older Java, or another vendor
+    {
+      return(-1);                 // allocation is unknown
+    }
+  }
+
+
+/*
+  createFile() method
+
+  Create a temporary file with random data, and a marker string at the start
+  of every 64 KB block to be found and replaced.  The file is deleted when we
+  exit, if the caller doesn't delete it first.
+*/
+  static File createFile(int megabytes) throws IOException
+  {
+    byte[] buffer;                // one block of file data
+    File file;                    // new temporary file
+    int i;                        // index variable
+    byte[] marker;                // bytes for <MARKER_TEXT>
+    FileOutputStream stream;      // output file stream
+
+    buffer = new byte[HexEdit2.BUFFER_SIZE];
+    file = File.createTempFile("HexEdit2Bench", ".tmp");
+    file.deleteOnExit();          // in case we don't get to delete it
+    marker = MARKER_TEXT.getBytes(); // plain ASCII in all common encodings
+    random = new Random(1);       // same data for every run
+    stream = new FileOutputStream(file);
+    try                           // always close output file
+    {
+      for (i = 0; i < (megabytes * 16); i ++) // 16 blocks per megabyte
+      {
+        random.nextBytes(buffer);
+        System.arraycopy(marker, 0, buffer, 0, marker.length);
+        stream.write(buffer);
+      }
+    }
+    finally
+    {
+      stream.close();             // try to close output file
+    }
+    return(file);
+  }
+
+
+/*
+  endStep() method
+
+  Print the results for one step of runWorkloads(): name, milliseconds,
+  megabytes per second for a given number of bytes, kilobytes allocated
+  during the step, and megabytes of heap still in use after the step.
+*/
+  static void endStep(String name, long bytes)
+  {
+    long allocated;               // bytes allocated during this step
+    long elapsed;                 // milliseconds for this step
+    NumberFormat format;          // formats numbers with commas
+    StringBuffer line;            // one line of results
+    Runtime runtime;              // Java heap sizes
+
+    elapsed = System.currentTimeMillis() - stepStart;
+    allocated = allocatedBytes();
+    format = HexEdit2.formatComma;
+    line = new StringBuffer(padRight(name, 18));
+    line.append(padLeft(format.format(elapsed), 10));
+    line.append(padLeft(((elapsed > 0) ? format.format((bytes * 1000)
+      / (elapsed << 20)) : "-"), 12));
+    line.append(padLeft(((allocated >= 0) ? format.format((allocated
+      - stepAllocated) >> 10) : "?"), 14));
+    runtime = Runtime.getRuntime();
+    System.gc();                  // count only what is still in use
+    line.append(padLeft(format.format((runtime.totalMemory()
+      - runtime.freeMemory()) >> 20), 10));
+    System.out.println(line.toString());
+  }
+
+
+/*
+  getNibbles() method
+
+  Return the nibbles for a plain ASCII text string.
+*/
+  static int[] getNibbles(String text)
+  {
+    byte[] bytes;                 // text as bytes
+    int i;                        // index variable
+    int[] result;                 // nibble array that we return
+
+    bytes = text.getBytes();      // plain ASCII in all common encodings
+    result = new int[2 * bytes.length];
+    for (i = 0; i < bytes.length; i ++)
+    {
+      result[2 * i] = (bytes[i] >> HexEdit2.NIBBLE_SHIFT)
+        & HexEdit2.NIBBLE_MASK;
+      result[(2 * i) + 1] = bytes[i] & HexEdit2.NIBBLE_MASK;
+    }
+    return(result);
+  }
+
+
+/*
+  main() method
+
+  We run as a console application.  Parameters are data sizes in megabytes.
+  Results are printed as a table with one line per size and operation, and
+  one column per kind of position.  The "gap" parameter before the sizes times
+  the old gap arrays instead of the piece table.  The "paint" parameter times
+  painting instead, and the "check" parameter compares search results.
+*/
+  public static void main(String[] args)
+  {
+    NumberFormat format;          // formats times with commas or digit groups
+    int first;                    // index of first size parameter
+    int i, k, m;                  // index variables
+    int limit;                    // biggest data size in megabytes
+    StringBuffer line;            // one line of results
+    int[] sizes;                  // data sizes in megabytes
+
+    if ((args.length == 1) && args[0].equalsIgnoreCase("paint"))
+    {
+      runPaint();                 // time painting the hex dump
+      return;
+    }
+    if ((args.length == 1) && args[0].equalsIgnoreCase("check"))
+    {
+      runCheck();                 // compare "Find Previous" results
+      return;
+    }
+
+    first = 0;                    // assume all parameters are sizes
+    gapFlag = false;              // assume piece table, not gap arrays
+    limit = 1024;                 // biggest size for piece table
+    if ((args.length > 0) && args[0].equalsIgnoreCase("gap"))
+    {
+      first = 1;                  // sizes follow "gap" parameter
+      gapFlag = true;             // time old gap arrays
+      limit = GAP_LIMIT;          // integer positions, one byte per nibble
+    }
+
+    sizes = DEFAULT_SIZES;        // used if no parameters
+    if (args.length > first)      // did the user give any sizes?
+    {
+      sizes = new int[args.length - first];
+      for (i = 0; i < sizes.length; i ++)
+      {
+        try                       // try to parse parameter as unsigned integer
+        {
+          sizes[i] = Integer.parseInt(args[first + i]);
+        }
+        catch (NumberFormatException nfe) // if not a number or bad syntax
+        {
+          sizes[i] = -1;          // set result to an illegal value
+        }
+        if ((sizes[i] < 1) || (sizes[i] > limit))
+        {
+          System.err.println("Data size must be from 1 to " + limit
+            + " megabytes: " + args[first + i]); // our arbitrary limits
+          System.err.println(
+            "Usage: java HexEdit2Bench [[gap] sizes | paint | check]");
+          System.exit(-1);        // exit application after printing help
+        }
+      }
+    }
+
+    buffer = new int[RANGE_SIZE]; // nibbles read by getRange()
+    values = new int[RANGE_SIZE]; // nibbles written by putRange(), etc
+    for (i = 0; i < RANGE_SIZE; i ++)
+      values[i] = i & 0x0F;
+    format = NumberFormat.getInstance(); // current locale
+    format.setGroupingUsed(true); // use commas or digit groups
+
+    System.out.println((gapFlag ? "HexEdit2GapData" : "HexEdit2Data")
+      + " nanoseconds per call, " + RANGE_SIZE
+      + " nibbles per range:");
+    line = new StringBuffer("size      operation   ");
+    for (m = 0; m < PATTERNS.length; m ++)
+      line.append(padLeft(PATTERNS[m], 14));
+    System.out.println(line.toString());
+
+    for (i = 0; i < sizes.length; i ++)
+    {
+      original = null;            // release data from previous size
+      try { original = new byte[sizes[i] << 20]; }
+      catch (OutOfMemoryError oome)
+      {
+        System.err.println("Not enough memory for " + sizes[i]
+          + " MB of data; try a bigger -Xmx option.");
+        continue;                 // try next size
+      }
+      originalSize = original.length; // all bytes are original data
+      for (k = 0; k < OPERATIONS.length; k ++)
+      {
+        line = new StringBuffer(); // start a new line of results
+        line.append(padRight((sizes[i] + " MB"), 10));
+        line.append(padRight(OPERATIONS[k], 12));
+        for (m = 0; m < PATTERNS.length; m ++)
+          line.append(padLeft(format.format(timeOperation(k, m)), 14));
+        System.out.println(line.toString());
+      }
+    }
+    original = null;              // release data from last size
+
+  } // end of main() method
+
+
+/*
+  nextPosition() method
+
+  Return the data position for the next call, which uses <count> nibbles
+  starting at that position.  The position must leave room for all of the
+  nibbles.
+*/
+  static long nextPosition(int pattern, int count)
+  {
+    long limit;                   // largest allowed position
+
+    limit = dataSize - count;     // room for all nibbles
+    if (pattern == 1)             // random position anywhere in data
+      return((random.nextLong() & Long.MAX_VALUE) % (limit + 1));
+
+    if (pattern == 2)             // alternating between beginning and end
+    {
+      flipFlag = ! flipFlag;      // switch ends every call
+      if (flipFlag)               // end uses same distance as beginning
+        return(limit - position);
+    }
+    position += count;            // move forward after every (second) call
+    if (position > (limit / 2))   // sequential stays in first half of data
+      position = 0;
+    return(position);
+  }
+
+
+/*
+  padLeft() and padRight() methods
+
+  Pad a string with spaces on the left or right, to at least a given width.
+*/
+  static String padLeft(String text, int width)
+  {
+    StringBuffer result = new StringBuffer(); // faster than String for adding
+    while ((result.length() + text.length()) < width)
+      result.append(' ');
+    result.append(text);
+    return(result.toString());
+  }
+
+  static String padRight(String text, int width)
+  {
+    StringBuffer result = new StringBuffer(text); // faster for adding
+    while (result.length() < width)
+      result.append(' ');
+    return(result.toString());
+  }
+
+
+/*
+  runCheck() method
+
+  Compare "Find Previous" for a plain search string with the same string as a
+  byte pattern and ignoring nulls, for the "check" parameter.  The data is
+  bigger than one search block, and uses only three byte values, so that
+  matches are frequent and often overlap.  Some search strings are copied from
+  the data, and are too long to be a pattern when ignoring nulls.  Exit with
+  an error if any result is different.
+*/
+  static void runCheck()
+  {
+    int[] alphabet = {0x11, 0x22, 0x33}; // data bytes, no nulls
+    boolean byteFlag;             // true if matches start on byte boundaries
+    byte[] bytes;                 // random data bytes
+    HexEdit2Data data;            // nibble data being searched
+    int errors;                   // number of different results
+    long expect;                  // result for plain search string
+    int i, k;                     // index variables
+    long limit;                   // search ends before this
+    int[] nibbles;                // search string as nibble values
+    long result;                  // result for pattern or ignoring nulls
+    HexEdit2Search search;        // one search
+    long start;                   // search begins here
+    StringBuffer text;            // search string as typed hex
+
+    random = new Random(1);       // same data and searches every time
+    bytes = new byte[(3 * HexEdit2Search.BLOCK_SIZE) / 2];
+    for (i = 0; i < bytes.length; i ++)
+      bytes[i] = (byte) alphabet[random.nextInt(alphabet.length)];
+    data = new HexEdit2Data(bytes, bytes.length);
+    errors = 0;
+    for (i = 0; i < CHECK_TRIALS; i ++)
+    {
+      byteFlag = random.nextBoolean();
+      limit = (long) (random.nextDouble() * (data.size() + 1));
+      start = (long) (random.nextDouble() * (limit + 1));
+      if ((i % 10) == 0)          // long string copied from the data?
+      {
+        nibbles = new int[2 * CHECK_LONG];
+        data.getRange((2L * random.nextInt(bytes.length - CHECK_LONG)),
+          nibbles, 0, nibbles.length);
+        byteFlag = true;          // only compare ignoring nulls
+        expect = new HexEdit2Search(nibbles, true, false).findPrevious(data,
+          start, limit);
+        result = new HexEdit2Search(nibbles, true, true).findPrevious(data,
+          start, limit);
+        if (result != expect)
+        {
+          System.out.println("Ignoring nulls, " + CHECK_LONG + " bytes from "
+            + start + " to " + limit + ": found " + result + ", expected "
+            + expect);
+          errors ++;
+        }
+        continue;
+      }
+      nibbles = new int[2 * (2 + random.nextInt(3))]; // two to four bytes
+      text = new StringBuffer();
+      for (k = 0; k < nibbles.length; k += 2)
+      {
+        nibbles[k] = (alphabet[random.nextInt(alphabet.length)]
+          >> HexEdit2.NIBBLE_SHIFT) & HexEdit2.NIBBLE_MASK;
+        nibbles[k + 1] = nibbles[k]; // data bytes have equal nibbles
+        text.append(Integer.toHexString(nibbles[k])).append(
+          Integer.toHexString(nibbles[k + 1])).append(' ');
+      }
+
+      expect = new HexEdit2Search(nibbles, byteFlag, false).findPrevious(
+        data, start, limit);
+      result = new HexEdit2Search(new HexEdit2Pattern(text.toString()),
+        byteFlag).findPrevious(data, start, limit);
+      if (result != expect)
+      {
+        System.out.println("Pattern \"" + text.toString().trim() + "\" from "
+          + start + " to " + limit + ": found " + result + ", expected "
+          + expect);
+        errors ++;
+      }
+      if (byteFlag)               // ignoring nulls is for whole bytes only
+      {
+        result = new HexEdit2Search(nibbles, true, true).findPrevious(data,
+          start, limit);
+        if (result != expect)
+        {
+          System.out.println("Ignoring nulls \"" + text.toString().trim()
+            + "\" from " + start + " to " + limit + ": found " + result
+            + ", expected " + expect);
+          errors ++;
+        }
+      }
+    }
+    System.out.println(CHECK_TRIALS + " searches, " + errors
+      + " different results.");
+    if (errors > 0)
+      System.exit(-1);            // tell caller that the check failed
+
+  } // end of runCheck() method
+
+
+/*
+  runGapOperation() method
+
+  Call one operation on the old gap arrays at the next position, the same as
+  runOperation() does for HexEdit2Data.  There are no range methods, so ranges
+  loop over single nibbles, the way that callers used to.
+*/
+  static void runGapOperation(HexEdit2GapData data, int operation,
+    int pattern)
+  {
+    int i;                        // index variable
+    int start;                    // data position for this call
+
+    if (operation >= 2)           // all operations after getRange() change data
+      changes ++;
+    switch (operation)
+    {
+      case 0:                     // get
+        data.get((int) nextPosition(pattern, 1));
+        break;
+      case 1:                     // getRange
+        start = (int) nextPosition(pattern, RANGE_SIZE);
+        for (i = 0; i < RANGE_SIZE; i ++)
+          buffer[i] = data.get(start + i);
+        break;
+      case 2:                     // put
+        data.put((int) nextPosition(pattern, 1), (int) (position & 0x0F));
+        added ++;
+        break;
+      case 3:                     // putRange
+        start = (int) nextPosition(pattern, RANGE_SIZE);
+        for (i = 0; i < RANGE_SIZE; i ++)
+          data.put((start + i), values[i]);
+        added += RANGE_SIZE;
+        break;
+      case 4:                     // insert
+        data.insert((int) nextPosition(pattern, 1), (int) (position & 0x0F));
+        added ++;
+        dataSize ++;
+        break;
+      case 5:                     // insertRange
+        start = (int) nextPosition(pattern, RANGE_SIZE);
+        for (i = 0; i < RANGE_SIZE; i ++)
+          data.insert((start + i), values[i]);
+        added += RANGE_SIZE;
+        dataSize += RANGE_SIZE;
+        break;
+      case 6:                     // delete
+        data.delete((int) nextPosition(pattern, 1));
+        dataSize --;
+        break;
+      case 7:                     // deleteRange
+        start = (int) nextPosition(pattern, RANGE_SIZE);
+        for (i = 0; i < RANGE_SIZE; i ++)
+          data.delete(start);
+        dataSize -= RANGE_SIZE;
+        break;
+      default:
+        throw new IllegalArgumentException("unknown operation " + operation);
+    }
+  }
+
+
+/*
+  runOperation() method
+
+  Call one HexEdit2Data operation at the next position, and keep track of the
+  data size and the number of changes.
+*/
+  static void runOperation(HexEdit2Data data, int operation, int pattern)
+  {
+    if (operation >= 2)           // all operations after getRange() change data
+      changes ++;
+    switch (operation)
+    {
+      case 0:                     // get
+        data.get(nextPosition(pattern, 1));
+        break;
+      case 1:                     // getRange
+        data.getRange(nextPosition(pattern, RANGE_SIZE), buffer, 0,
+          RANGE_SIZE);
+        break;
+      case 2:                     // put
+        data.put(nextPosition(pattern, 1), (int) (position & 0x0F));
+        added ++;
+        break;
+      case 3:                     // putRange
+        data.putRange(nextPosition(pattern, RANGE_SIZE), values, 0,
+          RANGE_SIZE);
+        added += RANGE_SIZE;
+        break;
+      case 4:                     // insert
+        data.insert(nextPosition(pattern, 1), (int) (position & 0x0F));
+        added ++;
+        dataSize ++;
+        break;
+      case 5:                     // insertRange
+        data.insertRange(nextPosition(pattern, RANGE_SIZE), values, 0,
+          RANGE_SIZE);
+        added += RANGE_SIZE;
+        dataSize += RANGE_SIZE;
+        break;
+      case 6:                     // delete
+        data.delete(nextPosition(pattern, 1));
+        dataSize --;
+        break;
+      case 7:                     // deleteRange
+        data.deleteRange(nextPosition(pattern, RANGE_SIZE), RANGE_SIZE);
+        dataSize -= RANGE_SIZE;
+        break;
+      default:
+        throw new IllegalArgumentException("unknown operation " + operation);
+    }
+  }
+
+
+/*
+  runPaint() method
+
+  Time painting the hex dump at each dump width and screen size, for the
+  "paint" parameter.  The editor's global settings are set the same as when it
+  starts, with one megabyte of random data.
+*/
+  static void runPaint()
+  {
+    byte[] bytes;                 // random data bytes
+    NumberFormat format;          // formats numbers with commas
+    int i, k;                     // index variables
+
+    if (System.getProperty("java.awt.headless") == null) // not set by user?
+      System.setProperty("java.awt.headless", "true"); // we need no display
+    bytes = new byte[0x100000];   // one megabyte
+    new Random(1).nextBytes(bytes);
+    HexEdit2.fontName = "Monospaced"; // same defaults as HexEdit2.main()
+    HexEdit2.nibbleData = new HexEdit2Data(bytes, bytes.length);
+    HexEdit2.nibbleCount = HexEdit2.nibbleData.size();
+    HexEdit2.offsetDigits = HexEdit2.OFFSET_DIGITS;
+    HexEdit2.overFlag = false;
+    HexEdit2.textScroll = new JScrollBar(JScrollBar.VERTICAL, 0, 1, 0, 1);
+    format = NumberFormat.getInstance(); // current locale
+    format.setGroupingUsed(true); // use commas or digit groups
+
+    System.out.println("HexEdit2Text painting, " + HexEdit2.fontName
+      + " font, one row scrolled per frame:");
+    System.out.println("screen       dump  font  rows  frames/second"
+      + "  bytes allocated/frame");
+    for (i = 0; i < PAINT_SCREENS.length; i ++)
+      for (k = 0; k < HexEdit2.DUMP_WIDTHS.length; k ++)
+        timePaint(PAINT_SCREENS[i][0], PAINT_SCREENS[i][1],
+          Integer.parseInt(HexEdit2.DUMP_WIDTHS[k]), format);
+  }
+
+
+/*
+  runWorkloads() method
+
+  Time the editor's file operations without the graphical interface, for the
+  -bench option.  We call the same methods as the editor does after asking the
+  user for a file name: HexEdit2.readFile(), HexEdit2Search.find(),
+  HexEdit2Data.replaceAll(), HexEdit2.getHexString(), and so on.  The input is
+  the file named on the command line, or a generated file.  The input file is
+  never changed; saving writes a temporary file.
+*/
+  static void runWorkloads(String fileName, int megabytes)
+  {
+    long bytes;                   // number of bytes in input file
+    long copy;                    // number of nibbles copied as hex or text
+    HexEdit2Data data;            // nibble data being tested
+    File inputFile;               // file given by caller, or generated
+    HexEdit2Matches matches;      // all matches for <MARKER_TEXT>
+    File outputFile;              // temporary file for saving
+    int[] replace;                // nibbles for <REPLACE_TEXT>
+    HexEdit2Search search;        // one search
+    File tempFile;                // generated input file, or null
+
+    data = null;                  // no data yet
+    outputFile = tempFile = null; // no temporary files yet
+    try                           // catch file I/O errors
+    {
+      if (fileName.length() > 0)  // did the user give a file name?
+        inputFile = new File(fileName);
+      else                        // no, generate our own file
+        inputFile = tempFile = createFile(megabytes);
+      bytes = inputFile.length(); // total size of input file in bytes
+      System.out.println("HexEdit2 benchmark: " + inputFile.getName() + ", "
+        + HexEdit2.formatComma.format(bytes) + " bytes, "
+        + HexEdit2.searchThreads + " search thread(s)");
+      System.out.println("step              milliseconds  MB/second"
+        + "  allocated KB   heap MB");
+
+      /* Open the file both ways.  Reading needs memory for the whole file, and
+      isn't possible for files bigger than a Java byte array.  Keep the mapped
+      data for the other steps. */
+
+      if (bytes <= 0x7FFF0000L)   // small enough for a byte array?
+      {
+        try                       // reading may run out of memory
+        {
+          startStep();
+          data = HexEdit2.readFile(inputFile, false);
+          endStep("open (read)", bytes);
+        }
+        catch (OutOfMemoryError oome)
+        {
+          System.out.println(padRight("open (read)", 18)
+            + "not enough memory (-Xmx option)");
+        }
+        data = null;              // release memory for data
+      }
+      startStep();
+      data = HexEdit2.readFile(inputFile, true);
+      endStep("open (map)", bytes);
+
+      /* Search the whole file for a string that isn't there, then find all
+      markers and replace them, then search again through the edited data. */
+
+      startStep();
+      search = new HexEdit2Search(getNibbles(MISSING_TEXT), true, false);
+      search.threads = HexEdit2.searchThreads; // same as "Find Next"
+      search.find(data, 0, data.size());
+      endStep("find (no match)", bytes);
+
+      startStep();
+      search = new HexEdit2Search(getNibbles(MARKER_TEXT), false, false);
+      search.threads = HexEdit2.searchThreads; // same as "Find All"
+      matches = new HexEdit2Matches();
+      search.matches = matches;
+      search.find(data, 0, data.size());
+      endStep("find all", bytes);
+
+      startStep();
+      replace = getNibbles(REPLACE_TEXT); // same length as marker
+      if (matches.count > 0)      // replaceAll() wants at least one match
+        data.replaceAll(matches.starts, matches.ends, matches.count, replace,
+          0, replace.length);
+      endStep("replace all", bytes);
+
+      startStep();
+      search = new HexEdit2Search(getNibbles(MISSING_TEXT), true, false);
+      search.threads = HexEdit2.searchThreads;
+      search.find(data, 0, data.size());
+      endStep("find (edited)", bytes);
+
+      /* Copy the start of the data as hex digits and as text, like the
+      clipboard commands, but without a clipboard. */
+
+      copy = Math.min(COPY_NIBBLES, data.size());
+      HexEdit2.nibbleData = data; // copy methods use the editor's data
+      startStep();
+      HexEdit2.getHexString(0, copy);
+      endStep("copy hex", (copy / 2));
+
+      startStep();
+      HexEdit2.getTextString(0, copy);
+      endStep("copy text", (copy / 2));
+      HexEdit2.nibbleData = new HexEdit2Data(0); // don't keep our data
+
+      /* Save all data to a temporary file, and then save only the changed
+      bytes into that file, if possible. */
+
+      outputFile = File.createTempFile("HexEdit2Bench", ".tmp");
+      outputFile.deleteOnExit();  // in case we don't get to delete it
+      startStep();
+      HexEdit2.writeFile(data, outputFile, false);
+      endStep("save (all)", bytes);
+
+      if (data.canPatch())        // were bytes only replaced?
+      {
+        startStep();
+        HexEdit2.writeFile(data, outputFile, true);
+        endStep("save (changed)", bytes);
+      }
+    }
+    catch (IOException ioe)
+    {
+      System.err.println("Benchmark failed: " + ioe.getMessage());
+    }
+    if (data != null)             // close mapped file before deleting
+      data.close();
+    if (outputFile != null)
+      outputFile.delete();
+    if (tempFile != null)
+      tempFile.delete();
+
+  } // end of runWorkloads() method
+
+
+/*
+  startStep() method
+
+  Remember the time and allocated bytes when one step of runWorkloads()
+  starts.  See endStep().
+*/
+  static void startStep()
+  {
+    stepAllocated = allocatedBytes();
+    stepStart = System.currentTimeMillis();
+  }
+
+
+/*
+  timeOperation() method
+
+  Time one operation at one kind of position, with the current original data.
+  Return the average nanoseconds per call in the timed rounds.  The old gap
+  arrays are timed instead if <gapFlag> is true.
+*/
+  static long timeOperation(int operation, int pattern)
+  {
+    long calls;                   // number of calls in timed rounds
+    int count;                    // calls between checking the clock
+    HexEdit2Data data;            // nibble data being changed
+    long elapsed;                 // milliseconds in timed rounds
+    HexEdit2GapData gapData;      // old gap arrays being changed
+    int i;                        // index variable
+    int most;                     // largest number of calls between checks
+    long nibbles;                 // number of nibbles in original data
+    int round;                    // number of rounds so far
+    long start, stop;             // starting and ending time of one round
+
+    calls = elapsed = 0;          // nothing has been timed yet
+    most = (operation % 2 == 1) ? (CALL_COUNT / 16) : CALL_COUNT;
+                                  // ranges change data faster
+    count = gapFlag ? 1 : most;   // one gap array call may copy everything
+    data = null;                  // no data yet
+    gapData = null;
+    nibbles = 2L * originalSize;  // each byte has two nibbles
+    random = new Random(1);       // same positions for every test
+    for (round = 0; round < (WARMUP_ROUNDS + MEASURE_ROUNDS); round ++)
+    {
+      start = System.currentTimeMillis();
+      do
+      {
+        if (((data == null) && (gapData == null))
+          || (dataSize < (nibbles / 2)) || (dataSize > (2 * nibbles))
+          || (added > ADD_LIMIT) || (changes > CHANGE_LIMIT))
+                                  // start again with original data?
+        {
+          added = changes = 0;    // nothing changed yet
+          data = null;            // release old data before making new data
+          gapData = null;
+          if (gapFlag)            // old gap arrays
+          {
+            gapData = new HexEdit2GapData(original, originalSize);
+            dataSize = gapData.size(); // same as <nibbles>
+          }
+          else                    // piece table
+          {
+            data = new HexEdit2Data(original, originalSize);
+            dataSize = data.size(); // same as <nibbles>
+          }
+          flipFlag = false;       // alternating starts at beginning
+          position = 0;           // sequential starts at beginning
+        }
+        for (i = 0; i < count; i ++)
+        {
+          if (gapFlag)
+            runGapOperation(gapData, operation, pattern);
+          else
+            runOperation(data, operation, pattern);
+        }
+        if (round >= WARMUP_ROUNDS) // count calls only for timed rounds
+          calls += count;
+        stop = System.currentTimeMillis();
+        if ((count < most) && ((stop - start) < (ROUND_MILLIS / 10)))
+          count = Math.min(most, (count * 2)); // check clock less often
+      } while ((stop - start) < ROUND_MILLIS);
+      if (round >= WARMUP_ROUNDS) // add time only for timed rounds
+        elapsed += stop - start;
+    }
+    return((elapsed * 1000000) / calls); // nanoseconds per call
+
+  } // end of timeOperation() method
+
+
+/*
+  timePaint() method
+
+  Time painting one panel size and dump width into an image, and print one
+  line of results.  The first paint chooses the font size.
+*/
+  static void timePaint(int width, int height, int dump, NumberFormat format)
+  {
+    long allocated;               // allocated bytes before timed frames
+    Graphics2D context;           // graphics context for drawing on <image>
+    long elapsed;                 // milliseconds in timed rounds
+    long frames;                  // number of frames in timed rounds
+    BufferedImage image;          // offscreen image, same size as panel
+    long offsetLimit;             // largest first row offset before wrapping
+    HexEdit2Text panel;           // hex dump panel being painted
+    int round;                    // number of rounds so far
+    long start, stop;             // starting and ending time of one round
+    long used;                    // allocated bytes after timed frames
+
+    HexEdit2.dumpWidth = dump;    // input bytes per dump line
+    image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    context = image.createGraphics();
+    panel = new HexEdit2Text();
+    panel.setSize(width, height); // no layout manager, so set size directly
+    panel.paintComponent(context); // choose font size, count rows
+    offsetLimit = (HexEdit2.nibbleCount / 2) - (((long) panel.panelRows + 1)
+      * dump);                    // keep last row full
+
+    allocated = used = 0;         // not used until timed rounds
+    elapsed = frames = 0;         // nothing has been timed yet
+    for (round = 0; round < (WARMUP_ROUNDS + MEASURE_ROUNDS); round ++)
+    {
+      if (round == WARMUP_ROUNDS) // first timed round?
+        allocated = allocatedBytes();
+      start = System.currentTimeMillis();
+      do
+      {
+        panel.panelOffset += dump; // scroll down one row
+        if (panel.panelOffset > offsetLimit) // wrap around at end of data
+          panel.panelOffset = 0;
+        panel.paintComponent(context);
+        if (round >= WARMUP_ROUNDS) // count frames only for timed rounds
+          frames ++;
+        stop = System.currentTimeMillis();
+      } while ((stop - start) < ROUND_MILLIS);
+      if (round >= WARMUP_ROUNDS) // add time only for timed rounds
+        elapsed += stop - start;
+    }
+    used = allocatedBytes();
+    context.dispose();            // release graphics resources
+
+    System.out.println(padRight((width + "x" + height), 12)
+      + padLeft(String.valueOf(dump), 5)
+      + padLeft(String.valueOf(panel.panelFontSize), 6)
+      + padLeft(String.valueOf(panel.panelRows), 6)
+      + padLeft(format.format((frames * 1000) / Math.max(1, elapsed)), 15)
+      + padLeft(((allocated >= 0) ? format.format((used - allocated) / frames)
+      : "?"), 23));
+
+  } // end of timePaint() method
+
+} // end of HexEdit2Bench class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  HexEdit2Data class
+
+  This class maintains an array of nibble data.  Data elements are expected to
+  be nibbles with values from 0 to 15, and only the low-order four bits of each
+  value are kept.  Calls are similar to the standard Java classes for List and
+  Vector.  The order of the parameters and their interpretation may differ.
+
+  A hex editor is a classic compromise between speed and memory requirements.
+  The smallest way of storing file data is as a single array of bytes, with one
+  array element per file byte.  The fastest way of reading and replacing nibble
+  data is as a single array with one element per nibble.  Inserting or deleting
+  elements in a single array would require (on average) shuffling half of the
+  elements each time.  This is impractical for large file sizes.  The fastest
+  way to insert and delete is to have each nibble as a separate element in a
+  height-balanced binary tree, which wastes too much space for small elements.
+
+  A rough estimate shows that Java is capable of moving at least 10 million
+  bytes per second in a tight <for> loop:
+
+      byte[] second = new byte[first.length];
+      for (int i = 0; i < first.length; i ++)
+        second[i] = first[i];
+
+  Times were obtained with Java 1.4.2 and Windows 2000 on an Intel Pentium 4
+  processor at 2.4 GHz, about five years old by current standards, so most
+  other machines have equal or greater performance.  Users will notice GUI
+  delays of more than 1/10 of a second.  That means moving much less than a
+  megabyte per keystroke.
+
+  Previous versions split the data into "left" and "right" arrays at an
+  imaginary editing cursor, and copied both arrays whenever the editing cursor
+  moved.  That was fine for small files, but alternating between edits at the
+  beginning and the end of a large file copied the entire file each time.
+
+  The data is now a "piece table".  The original data (usually the file that
+  was opened) is never changed, and may be read from a file mapped into memory
+  (see the HexEdit2Source class).  New nibbles are appended to an "add" array
+  that only grows and is never rearranged.  The data that the user sees is a
+  sequence of "pieces", where each piece is a run of consecutive nibbles from
+  either the original array or the add array.  Inserting or deleting nibbles
+  only splits pieces and adds or removes pieces from the sequence; no data is
+  moved.  Both arrays are packed with two nibbles per byte, exactly like a file
+  byte: the even nibble index is the high-order half and the odd nibble index
+  is the low-order half.  All counters and positions are in nibbles.
+
+  The sequence of pieces is kept in a "treap", a binary tree that is ordered
+  by position (left to right) and where each node has a random priority that
+  is larger than the priorities of its children.  The random priorities keep
+  the tree height-balanced on average, with much less code than red-black or
+  AVL trees.  Each node remembers the total number of nibbles in its subtree,
+  so finding the piece for any position takes time proportional to the height
+  of the tree, that is, O(log pieces).  Insertions and deletions are done by
+  splitting the tree at a position into two trees and merging trees back
+  together, which also take O(log pieces).
+
+  Since the user usually types at one location, several things are done to
+  avoid creating a new piece for every nibble.  A nibble inserted after the
+  last nibble added extends the previous piece.  A nibble replaced inside a
+  piece from the add array is changed in place, because no two pieces share
+  the same part of the add array.  Sequential reading (painting the display,
+  searching, saving) remembers the last piece found.
+
+  Callers that work with more than one nibble should use the range methods:
+  deleteRange(), getRange(), insertRange(), and putRange().  Deleting or
+  replacing any number of nibbles is one split and merge of the tree, and
+  reading copies whole pieces at a time, instead of searching the tree and
+  checking the range once for every nibble.
+
+  Searching is done on a background thread while the user continues to edit
+  (see the HexEdit2Search class).  Methods that callers use are synchronized,
+  because even reading changes the remembered piece.  The changes() method
+  tells a background reader if the data was changed between two calls.  An
+  optional n-gram index (see the HexEdit2Index class) is told where each
+  change is made.
+*/
+
+class HexEdit2Data
+{
+  /* constants */
+
+  static private final int PadSIZE = 4096; // extra nibbles added to arrays
+  static private final int SpareNODES = 3; // most new pieces for one change
+
+  /* instance variables */
+
+  private byte[] addArray;        // packed nibbles added by editing
+  private int addUsed;            // number of nibbles used in <addArray>
+  private HexEdit2Piece cacheNode; // last piece found by findPiece()
+  private long cacheStart;        // data position of first nibble in <cacheNode>
+  private long changes;           // number of changes made to data
+  HexEdit2Index index;            // index told about each change, or null
+  private HexEdit2Source original; // original data, never changed
+  private Random random;          // random priorities for new pieces
+  private HexEdit2Piece root;     // top of tree (treap) with all pieces
+  private byte[] scratch;         // original bytes for copyNibbles()
+  private HexEdit2Piece[] spareNodes; // pieces allocated before each change
+  private int spareUsed;          // number of pieces in <spareNodes>
+  private HexEdit2Piece splitLeft, splitRight; // two results from splitTree()
+  private long totalSize;         // total number of used elements
+
+  /* class constructors */
+
+  public HexEdit2Data(int capacity)
+  {
+    this(new HexEdit2Source(new byte[0], 0), capacity);
+                                  // no original data, only added nibbles
+  }
+
+  public HexEdit2Data(byte[] array, int length)
+  {
+    this(new HexEdit2Source(array, length), 0);
+                                  // original data in memory, nothing added
+  }
+
+  public HexEdit2Data(File file) throws IOException
+  {
+    this(new HexEdit2Source(file), 0); // original data mapped from file
+  }
+
+  private HexEdit2Data(HexEdit2Source source, int capacity)
+  {
+    super();                      // initialize our superclass first (Object)
+
+    if ((capacity < 0) || (source.size() > (Long.MAX_VALUE / 2)))
+    {
+      source.close();             // don't leave a file open
+      throw new IllegalArgumentException("HexEdit2Data capacity " + capacity
+        + " or size " + source.size() + " is not valid");
+    }
+    addArray = new byte[(capacity + PadSIZE + 1) / 2]; // create empty add array
+    addUsed = 0;                  // nothing has been added yet
+    original = source;            // original data is never changed
+    random = new Random();        // only needs to be good enough for balance
+    scratch = new byte[HexEdit2.BUFFER_SIZE + 1]; // for shifting nibbles
+    spareNodes = new HexEdit2Piece[SpareNODES];
+    spareUsed = 0;                // no spare pieces allocated yet
+    clear();                      // start with an empty piece table
+    if (source.size() > 0)        // is there any original data?
+    {
+      ensureSpare();              // allocate a spare piece
+      root = newPiece(false, 0, (2 * source.size()));
+                                  // one piece for all original data
+      refreshSize();              // refresh total number of data elements
+    }
+  }
+
+
+/*
+  addNibbles() method
+
+  Append nibble values to the end of the add array, and return the first add
+  array index where they were placed.  The caller must already have called
+  ensureAdd() for enough room.
+*/
+  private long addNibbles(int[] values, int offset, int count)
+  {
+    int end;                      // caller's array index after last nibble
+    long result;                  // add array index of first new nibble
+
+    result = addUsed;             // first nibble goes after previous nibbles
+    end = offset + count;
+    if (((addUsed % 2) != 0) && (offset < end)) // start on low-order nibble?
+      putNibble(addArray, (addUsed ++), values[offset ++]);
+    while ((offset + 1) < end)    // pack whole bytes (two nibbles)
+    {
+      addArray[addUsed / 2] = (byte) (((values[offset] & HexEdit2.NIBBLE_MASK)
+        << HexEdit2.NIBBLE_SHIFT) | (values[offset + 1] & HexEdit2.NIBBLE_MASK));
+      addUsed += 2;
+      offset += 2;
+    }
+    if (offset < end)             // end with a high-order nibble?
+      putNibble(addArray, (addUsed ++), values[offset]);
+    return(result);               // give caller where nibbles were added
+
+  } // end of addNibbles() method
+
+
+/*
+  addPiece() method
+
+  Append a new piece to a tree that is being built in order from left to right,
+  as for replaceAll().  The caller gives us a stack with the right edge of the
+  tree, from the root down.  The new piece goes on the right edge, below any
+  piece with a larger priority, and pieces with smaller priorities become its
+  left subtree.  This builds a treap in time proportional to the number of
+  pieces.  Totals are not set; see fixTotals().
+*/
+  private void addPiece(ArrayList edge, boolean added, long start,
+    long length)
+  {
+    HexEdit2Piece last;           // last piece removed from right edge
+    HexEdit2Piece node;           // new piece
+
+    if (length <= 0)              // don't add empty pieces
+      return;
+    node = new HexEdit2Piece(random.nextInt());
+    node.added = added;           // true if from add array, false original
+    node.length = length;         // number of nibbles
+    node.start = start;           // index of first nibble in source array
+    last = null;                  // no pieces removed yet
+    while ((edge.size() > 0) && (((HexEdit2Piece) edge.get(edge.size() - 1))
+      .priority < node.priority))
+    {
+      last = (HexEdit2Piece) edge.remove(edge.size() - 1);
+    }
+    node.left = last;             // smaller priorities go below us
+    node.right = null;            // nothing after us yet
+    if (edge.size() > 0)          // are we below another piece?
+      ((HexEdit2Piece) edge.get(edge.size() - 1)).right = node;
+    edge.add(node);               // we are now the end of the right edge
+
+  } // end of addPiece() method
+
+
+/*
+  append() method
+
+  Append a new element to the end of the data.  Produces the same result as
+  inserting or replacing immediately after the last element.
+*/
+  synchronized void append(int value)
+  {
+    put(size(), value);           // use common processing
+  }
+
+
+/*
+  clear() method
+
+  Make the data look empty.  All data becomes lost.  The add array is not
+  reallocated.  This method is used by the constructors, and otherwise is
+  included for a sense of completeness.
+*/
+  synchronized void clear()
+  {
+    addUsed = 0;                  // nothing in the add array
+    cacheNode = null;             // no cached piece
+    cacheStart = 0;
+    changes ++;                   // data has changed
+    if (index != null) index.edited(0, total(root), 0);
+    root = null;                  // no pieces
+    totalSize = 0;                // no data elements
+  }
+
+
+/*
+  close() method
+
+  Release the original data, which closes a mapped file.  The data must not be
+  used after this.
+*/
+  synchronized void close()
+  {
+    original.close();             // close file, if any
+  }
+
+
+/*
+  canPatch() method
+
+  Return true if the data can be saved by writing only the changed bytes on top
+  of a copy of the original data; see writePatches().  That requires every
+  piece of original data to be at its original position, and the data to have
+  the same size as the original.  This is always true when the user has only
+  replaced nibbles (overwrite mode), and may be true after insertions and
+  deletions that cancel each other.
+*/
+  synchronized boolean canPatch()
+  {
+    HexEdit2Piece node;           // piece that contains <position>
+    long position;                // data position of next piece
+
+    refreshSize();                // refresh total number of data elements
+    if (totalSize != (2 * original.size())) // has the size changed?
+      return(false);
+    position = 0;                 // start with first piece
+    while (position < totalSize)  // check all pieces
+    {
+      node = findPiece(position); // find piece, also sets <cacheStart>
+      if ((node.added == false) && (node.start != position))
+        return(false);            // original piece has moved
+      position = cacheStart + node.length; // first nibble of next piece
+    }
+    return(true);                 // original data is where it started
+
+  } // end of canPatch() method
+
+
+/*
+  changes() method
+
+  Return a number that is different after each change to the data.  A caller
+  that reads the data from another thread can compare this number before and
+  after, to know if what it read is still correct.
+*/
+  synchronized long changes()
+  {
+    return(changes);
+  }
+
+
+/*
+  checkArray() and checkRange() methods
+
+  Return true if a range of elements fits in the caller's array, or if a range
+  of elements starts and ends inside the data.  Otherwise, throw an "array
+  index out of bounds" exception like error() and return false.
+*/
+  static private boolean checkArray(int[] values, int offset, int count)
+  {
+    if ((offset < 0) || (count < 0) || (count > (values.length - offset)))
+      throw new ArrayIndexOutOfBoundsException("HexEdit2Data array offset "
+        + offset + " and count " + count + " don't fit array length "
+        + values.length);
+    return(true);                 // range fits in caller's array
+  }
+
+  private boolean checkRange(long position, long count)
+  {
+    refreshSize();                // refresh total number of data elements
+    if ((position < 0) || (position > totalSize)) // is position within range?
+      error(position);            // no, indicate an error
+    else if ((count < 0) || (count > (totalSize - position))) // too long?
+      error(position + count);
+    else
+      return(true);               // range is valid
+    return(false);                // in case error() returns to us
+  }
+
+
+/*
+  copyNibbles() method
+
+  Copy nibbles from one piece (the add array or the original data) into a
+  packed byte array, given the nibble index in the piece's source and in the
+  caller's array.  When both indexes are on a byte boundary, whole bytes are
+  copied.  When only the caller's index is on a byte boundary, each byte is
+  made from the low-order half of one source byte and the high-order half of
+  the next source byte.  Both are much faster than one nibble at a time.
+*/
+  private void copyNibbles(boolean added, long start, byte[] buffer, int dest,
+    int length)
+  {
+    int bytes;                    // number of whole bytes in this block
+    int first;                    // byte index of <start> in <source>
+    int i;                        // index variable
+    byte[] source;                // packed source bytes
+
+    if (((dest % 2) != 0) && (length > 0)) // caller's index on low-order half?
+    {
+      putNibble(buffer, (dest ++), (added ? getNibble(addArray, (int) start)
+        : original.getNibble(start)));
+      start ++;                   // now caller's index is on a byte boundary
+      length --;
+    }
+    while (length > 1)            // copy whole bytes in blocks
+    {
+      bytes = Math.min((length / 2), (scratch.length - 1));
+      if ((start % 2) == 0)       // source on a byte boundary too?
+      {
+        if (added)
+          System.arraycopy(addArray, (int) (start / 2), buffer, (dest / 2),
+            bytes);
+        else
+          original.getBytes((start / 2), buffer, (dest / 2), bytes);
+      }
+      else                        // source is shifted by one nibble
+      {
+        if (added)                // add array is already in memory
+        {
+          source = addArray;
+          first = (int) (start / 2);
+        }
+        else                      // original data may be a mapped file
+        {
+          original.getBytes((start / 2), scratch, 0, (bytes + 1));
+          source = scratch;
+          first = 0;
+        }
+        for (i = 0; i < bytes; i ++) // combine halves of neighboring bytes
+          buffer[(dest / 2) + i] = (byte) ((source[first + i]
+            << HexEdit2.NIBBLE_SHIFT) | ((source[first + i + 1]
+            >> HexEdit2.NIBBLE_SHIFT) & HexEdit2.NIBBLE_MASK));
+      }
+      start += 2 * bytes;         // skip nibbles copied
+      dest += 2 * bytes;
+      length -= 2 * bytes;
+    }
+    if (length > 0)               // one high-order nibble left over?
+      putNibble(buffer, dest, (added ? getNibble(addArray, (int) start)
+        : original.getNibble(start)));
+
+  } // end of copyNibbles() method
+
+
+/*
+  delete() and deleteRange() methods
+
+  Delete one element or a range of elements at a given location.  Following
+  elements appear to be shuffled left, when in fact, they don't move: at most
+  two pieces change, no matter how many elements are deleted.
+*/
+  synchronized void delete(long position)
+  {
+    deleteRange(position, 1);     // use common processing
+  }
+
+  synchronized void deleteRange(long position, long count)
+  {
+    HexEdit2Piece after;          // pieces after the first deleted nibble
+
+    if (checkRange(position, count) && (count > 0)) // anything to delete?
+    {
+      ensureSpare();              // allocate pieces before changing anything
+      cacheNode = null;           // pieces are about to change
+      changes ++;                 // data has changed
+      if (index != null) index.edited(position, count, 0);
+      splitTree(root, position);  // pieces before and after deleted nibbles
+      root = splitLeft;           // remember pieces before
+      after = splitRight;
+      splitTree(after, count);    // isolate the deleted nibbles
+      root = mergeTree(root, splitRight); // and throw away <splitLeft>
+      refreshSize();              // refresh total number of data elements
+    }
+  } // end of deleteRange() method
+
+
+/*
+  ensureAdd() and ensureSpare() methods
+
+  Allocate memory before changing the piece table, so that an "out of memory"
+  error can't leave the pieces in an inconsistent state.  ensureAdd() makes
+  sure that the add array has room for more nibbles.  ensureSpare() makes sure
+  that there are enough spare pieces for any one change to the piece table.
+
+  The add array is indexed by nibbles with an integer, so a single editing
+  session can add up to one gigabyte.  Running out of add array is reported
+  the same as running out of memory.
+*/
+  private void ensureAdd(int count)
+  {
+    long needed;                  // total nibbles needed in add array
+    byte[] newArray;              // bigger add array
+
+    needed = ((long) addUsed) + count; // may overflow an integer
+    if (needed > (2L * addArray.length)) // is there enough room?
+    {
+      if (needed > (Integer.MAX_VALUE - PadSIZE)) // can we index that many?
+        throw new OutOfMemoryError("HexEdit2Data add array is full");
+      newArray = new byte[(int) ((Math.min((Integer.MAX_VALUE - PadSIZE),
+        Math.max(needed, (4L * addArray.length))) + PadSIZE + 1) / 2)];
+                                  // no, at least double the size
+      System.arraycopy(addArray, 0, newArray, 0, ((addUsed + 1) / 2));
+      addArray = newArray;        // replace only after successful copy
+    }
+  }
+
+  private void ensureSpare()
+  {
+    while (spareUsed < SpareNODES) // until we have enough spare pieces
+      spareNodes[spareUsed ++] = new HexEdit2Piece(random.nextInt());
+  }
+
+
+/*
+  error() method
+
+  Throws an "array index out of bounds" exception.  The caller gives us the
+  invalid array index to report.
+
+  The caller should not assume that this terminates processing, because the
+  error may be thrown or may later be changed to a System.err.print() call.
+*/
+  private void error(long position)
+  {
+    throw new ArrayIndexOutOfBoundsException("HexEdit2Data index " + position
+      + " is not from 0 to " + size());
+  }
+
+
+/*
+  findPiece() method
+
+  Find the piece that contains a given data position, which must be valid.  We
+  return the piece, and set <cacheStart> to the data position of the piece's
+  first nibble.  The last piece found is remembered, since reading is usually
+  sequential.
+*/
+  private HexEdit2Piece findPiece(long position)
+  {
+    HexEdit2Piece node;           // current node while going down the tree
+    long start;                   // data position of first nibble in subtree
+
+    if ((cacheNode != null) && (position >= cacheStart)
+      && (position < (cacheStart + cacheNode.length)))
+    {
+      return(cacheNode);          // same piece as last time
+    }
+    node = root;                  // start at the top of the tree
+    start = 0;                    // which is the start of the data
+    while (true)                  // this <while> loop ends with a <break>
+    {
+      long leftTotal = total(node.left); // nibbles before this piece
+      if (position < (start + leftTotal)) // is position in left subtree?
+        node = node.left;
+      else if (position < (start + leftTotal + node.length)) // this piece?
+      {
+        start += leftTotal;       // data position of this piece
+        break;                    // found it
+      }
+      else                        // position must be in right subtree
+      {
+        start += leftTotal + node.length;
+        node = node.right;
+      }
+    }
+    cacheNode = node;             // remember for next time
+    cacheStart = start;
+    return(node);                 // give caller the piece that we found
+
+  } // end of findPiece() method
+
+
+/*
+  fixTotal() method
+
+  Recalculate the total number of nibbles in a subtree, after its children have
+  changed.
+*/
+  static private void fixTotal(HexEdit2Piece node)
+  {
+    node.total = total(node.left) + node.length + total(node.right);
+  }
+
+  static private long fixTotals(HexEdit2Piece node)
+  {
+    if (node == null)             // empty subtree?
+      return(0);
+    node.total = fixTotals(node.left) + node.length + fixTotals(node.right);
+    return(node.total);
+  }
+
+
+/*
+  get() method
+
+  Return the value of an element at a given location, as an unsigned integer.
+*/
+  synchronized int get(long position)
+  {
+    HexEdit2Piece node;           // piece that contains <position>
+    int result;                   // nibble value as unsigned integer
+
+    if ((position < 0) || (position >= size())) // is position within range?
+    {
+      error(position);            // no, indicate an error
+      result = -1;                // in case error() returns to us
+    }
+    else
+    {
+      node = findPiece(position); // find piece, also sets <cacheStart>
+      if (node.added)             // nibble is in the add array?
+        result = getNibble(addArray, (int) (node.start + position
+          - cacheStart));
+      else                        // nibble is in the original data
+        result = original.getNibble(node.start + position - cacheStart);
+    }
+    return(result);               // give caller whatever we could find
+
+  } // end of get() method
+
+
+/*
+  getRange() method
+
+  Copy a range of elements starting at a given location into the caller's
+  array, as unsigned integers.  Each piece is found once and copied as a block.
+*/
+  synchronized void getRange(long position, int[] values, int offset,
+    int count)
+  {
+    int i;                        // index variable
+    int length;                   // number of nibbles copied from this piece
+    HexEdit2Piece node;           // piece that contains <position>
+    long start;                   // nibble index in source array of piece
+
+    if ((checkRange(position, count) == false)
+      || (checkArray(values, offset, count) == false))
+    {
+      return;                     // in case error() returns to us
+    }
+    while (count > 0)             // until all nibbles have been copied
+    {
+      node = findPiece(position); // find piece, also sets <cacheStart>
+      start = node.start + position - cacheStart;
+      length = (int) Math.min(count, (cacheStart + node.length - position));
+      if (node.added)             // nibbles are in the add array?
+      {
+        for (i = 0; i < length; i ++)
+          values[offset + i] = getNibble(addArray, (int) (start + i));
+      }
+      else                        // nibbles are in the original data
+        original.getNibbles(start, values, offset, length);
+      count -= length;            // fewer nibbles remaining
+      offset += length;           // next place in caller's array
+      position += length;         // next data position
+    }
+  } // end of getRange() method
+
+
+/*
+  getBytes() method
+
+  Copy a range of data nibbles into the caller's array as packed bytes, two
+  nibbles per byte, starting at any data position (even or odd).  The range is
+  given as a number of bytes.  For convenience, the range may end one nibble
+  after the last element, and that missing nibble is zero.  This is the fastest
+  way to read large amounts of data, such as for searching.
+*/
+  synchronized void getBytes(long position, byte[] buffer, int offset,
+    int count)
+  {
+    long length;                  // number of nibbles copied from this piece
+    long nibbles;                 // number of nibbles remaining to copy
+    HexEdit2Piece node;           // piece that contains <position>
+    boolean padFlag;              // true if final nibble is past the data
+
+    refreshSize();                // refresh total number of data elements
+    if ((offset < 0) || (count < 0) || (count > (buffer.length - offset)))
+      throw new ArrayIndexOutOfBoundsException("HexEdit2Data array offset "
+        + offset + " and count " + count + " don't fit array length "
+        + buffer.length);
+    nibbles = 2L * count;         // number of nibbles requested
+    padFlag = (count > 0) && ((position + nibbles) == (totalSize + 1));
+    if (padFlag)                  // is final nibble past the data?
+      nibbles --;                 // yes, don't try to copy it
+    if (checkRange(position, nibbles) == false)
+      return;                     // in case error() returns to us
+    offset *= 2;                  // nibble index in caller's array
+    while (nibbles > 0)           // until all nibbles have been copied
+    {
+      node = findPiece(position); // find piece, also sets <cacheStart>
+      length = Math.min(nibbles, (cacheStart + node.length - position));
+      copyNibbles(node.added, (node.start + position - cacheStart), buffer,
+        offset, (int) length);
+      nibbles -= length;          // fewer nibbles remaining
+      offset += (int) length;     // next place in caller's array
+      position += length;         // next data position
+    }
+    if (padFlag)                  // was final nibble past the data?
+      putNibble(buffer, offset, 0); // yes, missing nibble is zero
+
+  } // end of getBytes() method
+
+
+/*
+  getFile() method
+
+  Return the file mapped as the original data, or null if the original data is
+  in memory.
+*/
+  synchronized File getFile()
+  {
+    return(original.getFile());
+  }
+
+
+/*
+  getNibble() and putNibble() methods
+
+  Fetch or replace one nibble in a packed byte array, given the nibble index.
+  Even indexes are the high-order half of a byte; odd indexes are the low-order
+  half.
+*/
+  static private int getNibble(byte[] array, int index)
+  {
+    if ((index % 2) == 0)         // high-order nibble?
+      return((array[index / 2] >> HexEdit2.NIBBLE_SHIFT) & HexEdit2.NIBBLE_MASK);
+    else                          // low-order nibble
+      return(array[index / 2] & HexEdit2.NIBBLE_MASK);
+  }
+
+  static private void putNibble(byte[] array, int index, int value)
+  {
+    int i = index / 2;            // byte index for this nibble
+
+    if ((index % 2) == 0)         // high-order nibble?
+      array[i] = (byte) ((array[i] & HexEdit2.NIBBLE_MASK)
+        | ((value & HexEdit2.NIBBLE_MASK) << HexEdit2.NIBBLE_SHIFT));
+    else                          // low-order nibble
+      array[i] = (byte) ((array[i] & (HexEdit2.NIBBLE_MASK
+        << HexEdit2.NIBBLE_SHIFT)) | (value & HexEdit2.NIBBLE_MASK));
+  }
+
+
+/*
+  insert() and insertRange() methods
+
+  Insert one new element or a range of new elements at a given location.  The
+  element at that location will be shuffled right and will be after the
+  inserted elements.  For convenience, the location may be immediately after
+  the last element, and is equivalent to calling the append() method.
+*/
+  synchronized void insert(long position, int value)
+  {
+    int[] values;                 // nibble values for insertRange()
+
+    values = new int[1];          // one nibble to insert
+    values[0] = value;
+    insertRange(position, values, 0, 1); // use common processing
+  }
+
+  synchronized void insertRange(long position, int[] values, int offset,
+    int count)
+  {
+    if (checkRange(position, 0) && checkArray(values, offset, count)
+      && (count > 0))             // is there anything to insert?
+    {
+      replacePieces(position, 0, values, offset, count); // common processing
+    }
+  }
+
+
+/*
+  replacePieces() method
+
+  Common processing to replace zero or more nibbles at a data position with
+  new nibble values.  The range must be valid.  The new nibbles are appended to
+  the add array.  If the piece before the position ends with the previous
+  nibbles appended to the add array, then that piece becomes longer.
+  Otherwise, a new piece is put into the tree.
+*/
+  private void replacePieces(long position, long replaced, int[] values,
+    int offset, int count)
+  {
+    HexEdit2Piece before;         // pieces before <position>
+    long first;                   // add array index of first new nibble
+    HexEdit2Piece node;           // current node while going down the tree
+
+    ensureAdd(count);             // allocate memory before changing anything
+    ensureSpare();
+    cacheNode = null;             // pieces are about to change
+    changes ++;                   // data has changed
+    if (index != null) index.edited(position, replaced, count);
+    splitTree(root, position);    // pieces before and after <position>
+    before = splitLeft;
+    root = splitRight;            // remember pieces after
+    if (replaced > 0)             // are there old nibbles to throw away?
+    {
+      splitTree(root, replaced);  // isolate the replaced nibbles
+      root = splitRight;          // and throw away <splitLeft>
+    }
+    first = addNibbles(values, offset, count); // where new nibbles are added
+
+    node = before;                // look for last piece before <position>
+    while ((node != null) && (node.right != null))
+      node = node.right;
+    if ((node != null) && node.added && ((node.start + node.length) == first))
+    {
+      /* Extend the last piece, and all totals on the way down to that piece,
+      which is the right edge of the tree. */
+
+      node = before;
+      while (node != null)
+      {
+        node.total += count;      // one subtree has more nibbles
+        if (node.right == null)   // is this the last piece?
+          node.length += count;   // yes, this piece has more nibbles
+        node = node.right;
+      }
+    }
+    else                          // need a new piece
+      before = mergeTree(before, newPiece(true, first, count));
+
+    root = mergeTree(before, root); // put all pieces back together
+    refreshSize();                // refresh total number of data elements
+
+  } // end of replacePieces() method
+
+
+/*
+  loadOriginal() method
+
+  Copy original data from a mapped file into memory, and close the file.  This
+  is necessary before writing over the same file.  Pieces don't change.
+*/
+  synchronized void loadOriginal() throws IOException
+  {
+    original = original.load();   // same data, now in memory
+  }
+
+
+/*
+  mergeTree() method
+
+  Merge two trees, where all pieces in the first tree come before all pieces
+  in the second tree.  Return the top of the combined tree.  Either tree may be
+  empty (null).
+*/
+  static private HexEdit2Piece mergeTree(HexEdit2Piece first,
+    HexEdit2Piece second)
+  {
+    if (first == null)            // is the first tree empty?
+      return(second);
+    else if (second == null)      // is the second tree empty?
+      return(first);
+    else if (first.priority > second.priority) // which goes on top?
+    {
+      first.right = mergeTree(first.right, second);
+      fixTotal(first);
+      return(first);
+    }
+    else
+    {
+      second.left = mergeTree(first, second.left);
+      fixTotal(second);
+      return(second);
+    }
+  } // end of mergeTree() method
+
+
+/*
+  newPiece() method
+
+  Return a new piece from the spare pieces allocated by ensureSpare().
+*/
+  private HexEdit2Piece newPiece(boolean added, long start, long length)
+  {
+    HexEdit2Piece result;         // new piece that we return
+
+    result = spareNodes[-- spareUsed]; // take last spare piece
+    spareNodes[spareUsed] = null; // don't keep a second reference
+    result.added = added;         // true if from add array, false original
+    result.left = result.right = null; // no children yet
+    result.length = result.total = length; // number of nibbles
+    result.start = start;         // index of first nibble in source array
+    return(result);
+
+  } // end of newPiece() method
+
+
+/*
+  put() and putRange() methods
+
+  Replace the element or range of elements at a given location with new
+  values.  For convenience, the range may extend past the last element, and
+  any extra elements are appended, the same as calling the append() method.
+*/
+  synchronized void put(long position, int value)
+  {
+    HexEdit2Piece node;           // piece that contains <position>
+
+    refreshSize();                // refresh total number of data elements
+    if ((position < 0) || (position > totalSize)) // is position within range?
+      error(position);            // no, indicate an error
+    else if (position == totalSize) // append after last element?
+      insert(position, value);
+    else
+    {
+      node = findPiece(position); // find piece, also sets <cacheStart>
+      if (node.added)             // nibbles in add array are never shared
+      {
+        putNibble(addArray, (int) (node.start + position - cacheStart),
+          value);
+        changes ++;               // data has changed
+        if (index != null) index.edited(position, 1, 1);
+      }
+      else                        // original data must not change
+      {
+        int[] values = new int[1]; // one nibble to replace
+        values[0] = value;
+        replacePieces(position, 1, values, 0, 1); // replace original nibble
+      }
+    }
+  }
+
+  synchronized void putRange(long position, int[] values, int offset,
+    int count)
+  {
+    int i;                        // index variable
+    HexEdit2Piece node;           // piece that contains <position>
+    long replaced;                // number of existing nibbles replaced
+
+    if ((checkRange(position, 0) == false)
+      || (checkArray(values, offset, count) == false) || (count == 0))
+    {
+      return;                     // bad range, or nothing to do
+    }
+    replaced = Math.min(count, (totalSize - position)); // may append extra
+    node = (replaced == count) ? findPiece(position) : null;
+    if ((node != null) && node.added && ((position + count) <= (cacheStart
+      + node.length)))            // all in one piece from the add array?
+    {
+      long start = node.start + position - cacheStart; // first in add array
+      for (i = 0; i < count; i ++) // nibbles in add array are never shared
+        putNibble(addArray, (int) (start + i), values[offset + i]);
+      changes ++;                 // data has changed
+      if (index != null) index.edited(position, count, count);
+    }
+    else                          // replace pieces, append any extra nibbles
+      replacePieces(position, replaced, values, offset, count);
+
+  } // end of putRange() method
+
+
+/*
+  refreshSize() method
+
+  Internal method to recalculate the total number of data elements in all
+  pieces.  This is an easy but frequently used calculation.
+*/
+  private void refreshSize()
+  {
+    totalSize = total(root);
+  }
+
+
+/*
+  replaceAll() method
+
+  Replace many ranges of nibbles with the same new values, for "Replace All".
+  The caller gives us the data positions where each range starts and ends,
+  sorted and not overlapping.  Replacing one range at a time would split and
+  merge the tree once per range, and would have to adjust the positions of all
+  later ranges.  Instead, we go through the old pieces once, in order, cutting
+  them at the ends of the ranges and adding a piece of new values for each
+  range, and build a new tree from the result.  This takes time proportional
+  to the number of pieces and ranges, not the size of the data.  The old tree
+  isn't changed until the new tree is complete, in case we run out of memory.
+*/
+  synchronized void replaceAll(long[] starts, long[] ends, int count,
+    int[] values, int offset, int length)
+  {
+    long before;                  // data size before replacing
+    HexEdit2Piece node;           // current old piece
+    long done;                    // data position where old piece is used up
+    ArrayList edge;               // right edge of new tree
+    int i;                        // index of current range
+    long pieceEnd;                // data position after current old piece
+    long position;                // data position of current old piece
+    boolean replaced;             // true if range <i> has new values added
+    ArrayList stack;              // for visiting old pieces in order
+
+    if ((checkArray(values, offset, length) == false) || (count <= 0))
+      return;                     // bad array, or nothing to do
+    for (i = 0; i < count; i ++)  // check all ranges before changing anything
+      if ((checkRange(starts[i], (ends[i] - starts[i])) == false)
+        || ((i > 0) && (starts[i] < ends[i - 1])))
+      {
+        throw new IllegalArgumentException("HexEdit2Data range " + starts[i]
+          + " to " + ends[i] + " is not valid for replaceAll()");
+      }
+    ensureAdd((int) Math.min(Integer.MAX_VALUE, ((long) count * length)));
+                                  // allocate memory for all new nibbles
+
+    /* Visit the old pieces from left to right without recursion. */
+
+    edge = new ArrayList();
+    i = 0;                        // start with first range
+    node = root;
+    position = 0;                 // data position of first piece
+    replaced = false;             // no new values added for first range yet
+    stack = new ArrayList();
+    while ((node != null) || (stack.size() > 0))
+    {
+      while (node != null)        // go down left side of subtree
+      {
+        stack.add(node);
+        node = node.left;
+      }
+      node = (HexEdit2Piece) stack.remove(stack.size() - 1);
+
+      /* Copy parts of this piece that aren't inside a range, and add new
+      values at the start of each range. */
+
+      pieceEnd = position + node.length;
+      done = position;            // nothing used from this piece yet
+      while (done < pieceEnd)
+      {
+        if ((i < count) && (done >= starts[i])) // inside a range?
+        {
+          if (replaced == false)  // new values go at start of range
+          {
+            addPiece(edge, true, addNibbles(values, offset, length), length);
+            replaced = true;
+          }
+          done = Math.min(ends[i], pieceEnd); // skip old nibbles in range
+          if (done == ends[i])    // end of this range?
+          {
+            i ++;                 // yes, go to next range
+            replaced = false;
+          }
+        }
+        else                      // copy old nibbles before next range
+        {
+          long next = (i < count) ? Math.min(starts[i], pieceEnd) : pieceEnd;
+          addPiece(edge, node.added, (node.start + done - position),
+            (next - done));
+          done = next;
+        }
+      }
+      position = pieceEnd;        // data position of next piece
+      node = node.right;          // go down right subtree, if any
+    }
+    while (i < count)             // empty ranges at the end of the data?
+    {
+      if (replaced == false)      // each range gets its own new values
+        addPiece(edge, true, addNibbles(values, offset, length), length);
+      i ++;
+      replaced = false;
+    }
+
+    /* Replace the old tree with the new tree. */
+
+    cacheNode = null;             // pieces have changed
+    changes ++;                   // data has changed
+    before = total(root);         // for telling index about the change
+    root = (edge.size() > 0) ? ((HexEdit2Piece) edge.get(0)) : null;
+    fixTotals(root);              // total nibbles in each subtree
+    refreshSize();                // refresh total number of data elements
+    if (index != null) index.edited(starts[0], (before - starts[0]),
+      (totalSize - starts[0]));   // everything after first range may move
+
+  } // end of replaceAll() method
+
+
+/*
+  size() method
+
+  Return the total number of data elements.
+*/
+  synchronized long size()
+  {
+    refreshSize();                // refresh total number of data elements
+    return(totalSize);            // and return that value to the caller
+  }
+
+
+/*
+  splitTree() method
+
+  Split a tree at a given data position into two trees, where all nibbles
+  before the position are in <splitLeft> and all nibbles starting at the
+  position are in <splitRight>.  A piece that contains the position is cut in
+  two, with the new second piece taken from the spare pieces.  The position is
+  relative to the start of the given tree and must be within range.
+
+  This is the one method that must be very efficient.  Like mergeTree(), it is
+  recursive, but only to the height of the tree.
+*/
+  private void splitTree(HexEdit2Piece node, long position)
+  {
+    HexEdit2Piece tail;           // second half of a piece that we cut
+    long leftTotal;               // nibbles in left subtree of <node>
+    long offset;                  // nibble offset where piece is cut
+
+    if (node == null)             // is this an empty tree?
+    {
+      splitLeft = splitRight = null;
+      return;
+    }
+    leftTotal = total(node.left);
+    if (position <= leftTotal)    // does this piece go on the right?
+    {
+      splitTree(node.left, position);
+      node.left = splitRight;
+      fixTotal(node);
+      splitRight = node;          // <splitLeft> already set by recursion
+    }
+    else if (position >= (leftTotal + node.length)) // piece goes on the left?
+    {
+      splitTree(node.right, (position - leftTotal - node.length));
+      node.right = splitLeft;
+      fixTotal(node);
+      splitLeft = node;           // <splitRight> already set by recursion
+    }
+    else                          // position is inside this piece
+    {
+      /* Cut the piece in two.  The second half has its own random priority,
+      and is merged in front of the right subtree.  (Giving the second half
+      the same priority as the first half also keeps both trees in order, but
+      then every piece cut from one big piece has the same priority, and the
+      tree becomes a long list after many edits in the same original data.) */
+
+      offset = position - leftTotal; // nibbles that stay in first half
+      tail = newPiece(node.added, (node.start + offset),
+        (node.length - offset));
+      splitRight = mergeTree(tail, node.right); // right subtree after tail
+      node.right = null;          // left subtree stays with first half
+      node.length = offset;
+      fixTotal(node);
+      splitLeft = node;
+    }
+  } // end of splitTree() method
+
+
+/*
+  total() method
+
+  Return the total number of nibbles in a subtree, which may be empty (null).
+*/
+  static private long total(HexEdit2Piece node)
+  {
+    return((node == null) ? 0 : node.total);
+  }
+
+
+/*
+  write() method
+
+  Write all data to an output channel as 8-bit bytes, with a zero for the final
+  nibble if there is an odd number of nibbles.  Pieces are written in order.
+  Where a long original piece starts on a byte boundary in both the original
+  data and the output, its bytes are given directly to the output channel
+  without going through our buffer (for mapped files, the system may copy file
+  to file without using our memory).  Everything else is packed into a small
+  buffer by copyNibbles(), which copies whole bytes when it can.
+*/
+  synchronized void write(FileChannel output) throws IOException
+  {
+    byte[] buffer;                // buffer for packed nibbles
+    long length;                  // number of nibbles remaining in piece
+    HexEdit2Piece node;           // piece that contains <position>
+    long position;                // data position of next nibble to write
+    long start;                   // nibble index in source array of piece
+    int used;                     // number of nibbles in <buffer>
+
+    buffer = new byte[HexEdit2.BUFFER_SIZE]; // packed nibbles waiting
+    position = 0;                 // start with first data nibble
+    used = 0;                     // nothing in buffer yet
+    refreshSize();                // refresh total number of data elements
+    while (position < totalSize)  // do all pieces
+    {
+      node = findPiece(position); // find piece, also sets <cacheStart>
+      start = node.start + position - cacheStart;
+      length = cacheStart + node.length - position;
+      if ((node.added == false) && ((start % 2) == 0) && ((used % 2) == 0)
+        && ((length / 2) > (buffer.length - (used / 2))))
+      {
+        /* Long original piece on a byte boundary, and the output is also on a
+        byte boundary.  Write all whole bytes at once, leaving any final high-
+        order nibble for the buffer. */
+
+        writeBuffer(output, buffer, used); // empty our buffer first
+        used = 0;
+        original.writeBytes(output, (start / 2), (length / 2));
+        position += length - (length % 2); // skip all whole bytes
+      }
+      else                        // short piece, added, or not on boundary
+      {
+        length = Math.min(length, ((2L * buffer.length) - used));
+        copyNibbles(node.added, start, buffer, used, (int) length);
+        used += (int) length;     // more nibbles in buffer
+        position += length;       // skip nibbles packed into buffer
+      }
+      if (used >= (2 * buffer.length)) // is our buffer full?
+      {
+        writeBuffer(output, buffer, used); // yes, write entire buffer
+        used = 0;
+      }
+    }
+    if ((used % 2) != 0)          // odd number of nibbles?
+      putNibble(buffer, (used ++), 0); // yes, assume zero for final nibble
+    writeBuffer(output, buffer, used); // write partial buffer, if any
+
+  } // end of write() method
+
+
+/*
+  writeBuffer() method
+
+  Write packed nibbles from a buffer to an output channel.  The number of
+  nibbles must be even.
+*/
+  static private void writeBuffer(FileChannel output, byte[] buffer, int used)
+    throws IOException
+  {
+    ByteBuffer wrapped = ByteBuffer.wrap(buffer, 0, (used / 2));
+    while (wrapped.hasRemaining()) // channel may write less than we give it
+      output.write(wrapped);
+  }
+
+
+/*
+  writePatches() method
+
+  Write only the changed bytes to an output channel that already has a copy of
+  the original data, such as the file that was opened, at the same offsets.
+  The caller must first check canPatch().  When original pieces haven't moved,
+  the pieces from the add array are exactly the changed parts of the data.
+  Neighboring pieces from the add array are written together, and each run is
+  rounded out to whole bytes.  Return the number of bytes written.
+*/
+  synchronized long writePatches(FileChannel output) throws IOException
+  {
+    long begin, end;              // nibble positions for one run of changes
+    byte[] buffer;                // buffer for packed nibbles
+    int[] chunk;                  // nibbles fetched from data in blocks
+    int i;                        // index variable
+    int length;                   // number of nibbles in this block
+    HexEdit2Piece node;           // piece that contains <position>
+    long position;                // data position of next piece
+    long result;                  // total number of bytes written
+    long spot;                    // current nibble position in one run
+
+    buffer = new byte[HexEdit2.BUFFER_SIZE]; // packed nibbles waiting
+    chunk = new int[2 * buffer.length]; // nibbles for one full buffer
+    position = 0;                 // start with first piece
+    result = 0;                   // nothing written yet
+    refreshSize();                // refresh total number of data elements
+    while (position < totalSize)  // look at all pieces
+    {
+      node = findPiece(position); // find piece, also sets <cacheStart>
+      position = cacheStart + node.length; // first nibble of next piece
+      if (node.added == false)    // original data hasn't changed
+        continue;
+
+      /* Extend this run of changes over any following pieces from the add
+      array, and round out to whole bytes. */
+
+      begin = cacheStart - (cacheStart % 2); // round down to byte boundary
+      while (position < totalSize) // look for more added pieces
+      {
+        node = findPiece(position);
+        if (node.added == false)  // is next piece original data?
+          break;                  // yes, this run of changes is done
+        position = cacheStart + node.length;
+      }
+      end = position + (position % 2); // round up to byte boundary
+
+      /* Write the changed bytes at their own offsets in the output. */
+
+      for (spot = begin; spot < end; spot += length)
+      {
+        length = (int) Math.min(chunk.length, (end - spot));
+        getRange(spot, chunk, 0, length); // get one block of nibbles
+        for (i = 0; i < (length / 2); i ++) // create each byte from two nibbles
+          buffer[i] = (byte) ((chunk[2 * i] << HexEdit2.NIBBLE_SHIFT)
+            | chunk[(2 * i) + 1]);
+        ByteBuffer wrapped = ByteBuffer.wrap(buffer, 0, (length / 2));
+        while (wrapped.hasRemaining()) // channel may write less than we give
+          output.write(wrapped, ((spot / 2) + wrapped.position()));
+        result += length / 2;     // more bytes written
+      }
+    }
+    return(result);               // give caller number of bytes written
+
+  } // end of writePatches() method
+
+} // end of HexEdit2Data class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  HexEdit2GapData class
+
+  This class is the original HexEdit2Data, before nibbles were kept in a piece
+  table, and is only used by HexEdit2Bench with the "gap" parameter, so that
+  the piece table can be compared with the old gap arrays on the same
+  operations.  It isn't part of the editor.
+
+  The data is split into two byte arrays of nibble values, one byte per
+  nibble.  The "left" array has data before an imaginary editing cursor, and
+  the "right" array has data after the editing cursor.  Inserts go at the end
+  of the left array, and deletes remove trailing elements from the left array
+  or leading elements from the right array.  When the editing cursor moves,
+  the arrays are split at the new location by copying both arrays.  Positions
+  are integers, so the data can't be more than two billion nibbles.  The
+  methods are unchanged, except that the constructor is given the original
+  data instead of appending one nibble at a time, and there are no range
+  methods (callers used to loop over single nibbles).
+*/
+
+class HexEdit2GapData
+{
+  /* constants */
+
+  static private final int PadSIZE = 4096; // extra space added to arrays
+
+  /* instance variables */
+
+  private byte[] leftArray;       // elements before imaginary editing cursor
+  private int leftUsed;           // number of data elements actually used in
+                                  // ... <leftArray> starting at index zero
+  private byte[] rightArray;      // elements after imaginary editing cursor
+  private int rightBegin;         // index of first used element
+  private int rightEnd;           // index *after* last used element
+  private int totalSize;          // total number of used elements
+
+  /* class constructor */
+
+  public HexEdit2GapData(byte[] original, int length)
+  {
+    super();                      // initialize our superclass first (Object)
+    int i;                        // index variable
+
+    if ((length < 0) || (length > original.length)
+      || (length > ((Integer.MAX_VALUE - PadSIZE) / 2)))
+    {
+      throw new IllegalArgumentException("HexEdit2GapData length " + length
+        + " is not valid");
+    }
+    leftArray = new byte[PadSIZE]; // create empty left array
+    rightArray = new byte[(2 * length) + PadSIZE]; // all data on the right
+    for (i = 0; i < length; i ++) // one array element per nibble
+    {
+      rightArray[2 * i] = (byte) ((original[i] >> HexEdit2.NIBBLE_SHIFT)
+        & HexEdit2.NIBBLE_MASK);
+      rightArray[(2 * i) + 1] = (byte) (original[i] & HexEdit2.NIBBLE_MASK);
+    }
+    leftUsed = rightBegin = 0;
+    rightEnd = totalSize = 2 * length;
+  }
+
+
+/*
+  delete() method
+
+  Delete one element at a given location.  Following elements appear to be
+  shuffled left, when in fact, they usually don't move: a pointer changes.
+*/
+  void delete(int position)
+  {
+    refreshSize();                // refresh total number of data elements
+    if ((position < 0) || (position >= totalSize)) // is position within range?
+      error(position);            // no, indicate an error
+    else if (position == (leftUsed - 1))
+      leftUsed --;                // throw away one position on the left
+    else if (position == leftUsed)
+      rightBegin ++;              // throw away leading position on the right
+    else if (position == (totalSize - 1))
+      rightEnd --;                // throw away trailing position on the right
+    else
+    {
+      if (split(position))        // break arrays at this position
+        rightBegin ++;            // throw away leading position on the right
+    }
+  } // end of delete() method
+
+
+/*
+  error() method
+
+  Throws an "array index out of bounds" exception.  The caller gives us the
+  invalid array index to report.
+*/
+  private void error(int position)
+  {
+    throw new ArrayIndexOutOfBoundsException("HexEdit2GapData index "
+      + position + " is not from 0 to " + size());
+  }
+
+
+/*
+  get() method
+
+  Return the value of an element at a given location, as an unsigned integer.
+*/
+  int get(int position)
+  {
+    int result;                   // byte value as unsigned integer
+
+    if ((position < 0) || (position >= size())) // is position within range?
+    {
+      error(position);            // no, indicate an error
+      result = -1;                // in case error() returns to us
+    }
+    else if (position < leftUsed) // if data can be found in left array
+      result = ((int) leftArray[position]) & HexEdit2.BYTE_MASK;
+    else                          // otherwise data must be in right array
+      result = ((int) rightArray[position - leftUsed + rightBegin])
+        & HexEdit2.BYTE_MASK;
+
+    return(result);               // give caller whatever we could find
+
+  } // end of get() method
+
+
+/*
+  insert() method
+
+  Insert a new element at a given location.  The element at that location will
+  be shuffled right and will be after the inserted element.  The location may
+  be immediately after the last element.
+*/
+  void insert(int position, int value)
+  {
+    refreshSize();                // refresh total number of data elements
+    if ((position < 0) || (position > totalSize)) // is position within range?
+      error(position);            // no, indicate an error
+    else if ((position == leftUsed) && (leftUsed < leftArray.length))
+      leftArray[leftUsed ++] = (byte) value;
+    else if ((position == totalSize) && (rightEnd < rightArray.length))
+      rightArray[rightEnd ++] = (byte) value;
+    else
+    {
+      if (split(position))        // break arrays at this position
+        leftArray[leftUsed ++] = (byte) value; // insert new element on left
+    }
+  } // end of insert() method
+
+
+/*
+  put() method
+
+  Replace the element at a given location with a new value.  The location may
+  be immediately after the last element.
+*/
+  void put(int position, int value)
+  {
+    refreshSize();                // refresh total number of data elements
+    if ((position < 0) || (position > totalSize)) // is position within range?
+      error(position);            // no, indicate an error
+    else if (position < leftUsed) // replace element in left array?
+      leftArray[position] = (byte) value;
+    else if (position < totalSize) // replace element in right array?
+      rightArray[position - leftUsed + rightBegin] = (byte) value;
+    else if (rightEnd < rightArray.length) // append element to right array?
+      rightArray[rightEnd ++] = (byte) value;
+    else
+    {
+      if (split(position))        // put everything in left array (totalSize)
+        leftArray[leftUsed ++] = (byte) value; // insert new element on left
+    }
+  } // end of put() method
+
+
+/*
+  refreshSize() method
+
+  Internal method to recalculate the total number of data elements used in both
+  arrays.
+*/
+  private void refreshSize()
+  {
+    totalSize = leftUsed + rightEnd - rightBegin;
+  }
+
+
+/*
+  size() method
+
+  Return the total number of data elements.
+*/
+  int size()
+  {
+    refreshSize();                // refresh total number of data elements
+    return(totalSize);            // and return that value to the caller
+  }
+
+
+/*
+  split() method
+
+  Split the left and right arrays at a given location.  Any positions less than
+  the given location will be in the left array; positions greater than or equal
+  will be in the right array.  This copies every element, one at a time, as
+  the original did.
+*/
+  private boolean split(int position)
+  {
+    int count;                    // number of bytes that will be copied
+    int from;                     // index where bytes will be copied from
+    int i;                        // index variable
+    byte[] newLeftArray, newRightArray; // new byte arrays that we are making
+    int newLeftUsed, newRightUsed; // number of bytes used in new arrays
+    boolean result;               // true if split successful, false otherwise
+
+    refreshSize();                // refresh total number of data elements
+    result = false;               // assume that split will fail
+    if ((position < 0) || (position > totalSize)) // is position within range?
+      error(position);            // no, indicate an error
+    else                          // must be a valid split
+    {
+      /* Copy portion of left array that remains in left array.  The <count>
+      variables below may be negative if a situation does not apply. */
+
+      newLeftArray = new byte[position + PadSIZE]; // allocate new left array
+      count = Math.min(leftUsed, position); // number of bytes to copy
+      newLeftUsed = 0;            // where they go in new left array
+      for (i = 0; i < count; i ++)
+        newLeftArray[newLeftUsed ++] = leftArray[i];
+
+      /* Copy portion of left array that comes from right array. */
+
+      count = position - leftUsed; // number of bytes to copy
+      from = rightBegin;          // where we start copying bytes from
+      for (i = 0; i < count; i ++)
+        newLeftArray[newLeftUsed ++] = rightArray[from ++];
+
+      /* Copy portion of right array that comes from left array. */
+
+      newRightArray = new byte[totalSize - position + PadSIZE];
+      count = leftUsed - position;
+      from = position;
+      newRightUsed = 0;           // where bytes go in new right array
+      for (i = 0; i < count; i ++)
+        newRightArray[newRightUsed ++] = leftArray[from ++];
+
+      /* Copy portion of right array that remains in right array. */
+
+      count = totalSize - Math.max(leftUsed, position);
+      from = rightEnd - count;
+      for (i = 0; i < count; i ++)
+        newRightArray[newRightUsed ++] = rightArray[from ++];
+
+      /* Replace existing instance variables with our new variables. */
+
+      leftArray = newLeftArray;
+      leftUsed = newLeftUsed;
+      rightArray = newRightArray;
+      rightBegin = 0;
+      rightEnd = newRightUsed;
+
+      result = true;              // declare that split was successful
+    }
+    return(result);               // tell caller if split was successful
+
+  } // end of split() method
+
+} // end of HexEdit2GapData class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  HexEdit2Index class
+
+  An optional index that remembers which 3-byte sequences (trigrams) appear in
+  each region of the data, so that repeated searches in a big file can skip
+  regions where the search string can't be.  Each region of REGION_SIZE data
+  bytes has a bit set with GRAM_BITS bits, and a trigram starting in the
+  region sets the bit for its hash value.  The bit sets take 1/16 as much
+  memory as the data.  A search string can't start in a region if one of its
+  trigrams has no bit set in that region or the next region (where the rest of
+  a match may be).  Because of hashing, a bit that is set only means "maybe".
+  Random or compressed data sets most bits, so the index helps with data that
+  has structure: disk images, file systems, text, and runs of zeros.
+
+  The index is built by a background thread, one region at a time, while the
+  user continues to work.  A region that isn't indexed yet may always match.
+  HexEdit2Data tells us where each change is made: regions with changed bytes
+  are dropped, and so is every region after an insertion or deletion, because
+  those bytes have moved.  The thread then indexes the dropped regions again.
+  A region read by the thread while a change is made is not kept.
+*/
+
+class HexEdit2Index implements Runnable
+{
+  /* constants */
+
+  static final int GRAM_BITS = 0x8000; // hash bits per region (power of two)
+  static final int REGION_SIZE = 0x10000; // data bytes per region
+
+  /* instance variables */
+
+  private volatile boolean cancelFlag; // true if index is no longer wanted
+  private HexEdit2Data data;      // data that we index
+  private long edits;             // number of changes we were told about
+  private int next;               // first region that may not be indexed
+  private long[][] regions;       // bit set for each region, or null
+  private long size;              // number of data nibbles
+
+  /* class constructor */
+
+  public HexEdit2Index(HexEdit2Data data)
+  {
+    super();                      // initialize our superclass first (Object)
+    this.cancelFlag = false;      // nobody has asked us to stop
+    this.data = data;
+    this.edits = 0;               // no changes yet
+    this.next = 0;                // nothing indexed yet
+    this.regions = new long[0][]; // no regions until start()
+    this.size = 0;
+  }
+
+
+/*
+  edited() method
+
+  Called by HexEdit2Data for each change, while the data is locked: <removed>
+  nibbles at <position> were replaced by <added> nibbles.  Drop the regions
+  with changed bytes, including trigrams that start up to two bytes before.
+  If the size changed, every later byte has moved, and all later regions are
+  dropped.
+*/
+  synchronized void edited(long position, long removed, long added)
+  {
+    int first, last;              // range of regions to drop
+    int i;                        // index variable
+    long[][] larger;              // new list of regions
+
+    edits ++;                     // a region being read now is not kept
+    size += added - removed;
+    if (regions.length != regionCount(size)) // different number of regions?
+    {
+      larger = new long[regionCount(size)][];
+      System.arraycopy(regions, 0, larger, 0, Math.min(regions.length,
+        larger.length));
+      regions = larger;
+    }
+    first = (int) (Math.max(0, ((position / 2) - 2)) / REGION_SIZE);
+    last = (removed == added) ? (int) Math.min((regions.length - 1),
+      (((position + removed + 1) / 2) / REGION_SIZE)) : (regions.length - 1);
+    for (i = first; i <= last; i ++)
+      regions[i] = null;          // this region must be indexed again
+    next = Math.min(next, first);
+    notifyAll();                  // wake up the thread, if waiting
+  }
+
+
+/*
+  hash() method
+
+  Return the bit number for a trigram, given as a 24-bit integer.  This is a
+  multiplicative hash, keeping the highest bits.
+*/
+  static int hash(int gram)
+  {
+    return((gram * 0x9E3779B1) >>> (32 - 15)); // 15 bits for GRAM_BITS
+  }
+
+
+/*
+  mayMatch() method
+
+  Return true if a search string with the given trigrams (24-bit integers) may
+  start in a region.  Regions that aren't indexed yet may always match.
+*/
+  synchronized boolean mayMatch(int region, int[] grams)
+  {
+    int bit;                      // hash value of one trigram
+    int i;                        // index variable
+    long[] one, two;              // bit sets for region and next region
+
+    if (cancelFlag || (region >= regions.length)) // not a region we know?
+      return(true);
+    one = regions[region];
+    two = ((region + 1) < regions.length) ? regions[region + 1] : one;
+    if ((one == null) || (two == null)) // not indexed yet?
+      return(true);
+    for (i = 0; i < grams.length; i ++)
+    {
+      bit = hash(grams[i]);
+      if (((one[bit >> 6] | two[bit >> 6]) & (1L << bit)) == 0)
+        return(false);            // this trigram can't be here
+    }
+    return(true);                 // all trigrams may be here
+  }
+
+
+/*
+  regionCount() method
+
+  Return the number of regions for a given number of data nibbles.
+*/
+  static int regionCount(long size)
+  {
+    return((int) ((((size + 1) / 2) + REGION_SIZE - 1) / REGION_SIZE));
+  }
+
+
+/*
+  run() method
+
+  Index regions in a background thread, lowest first, and then wait for
+  changes.  A region is read without locking the index, and only kept if no
+  change was made while reading.
+*/
+  public void run()
+  {
+    long before;                  // our <edits> before reading region
+    int bit;                      // hash value of one trigram
+    long[] bits;                  // bit set for one region
+    byte[] buffer;                // data bytes from one region
+    int count;                    // number of bytes in <buffer>
+    int gram;                     // trigram ending at byte <i>
+    int i;                        // index variable
+    long position;                // data position of region
+    int region;                   // region being indexed
+
+    buffer = new byte[REGION_SIZE + 2]; // trigrams may end in next region
+    while (cancelFlag == false)
+    {
+      synchronized (this)         // find a region that needs indexing
+      {
+        while ((next < regions.length) && (regions[next] != null))
+          next ++;
+        if (next >= regions.length) // is everything indexed?
+        {
+          try { wait(); } catch (InterruptedException ie) { }
+          continue;               // look again after a change
+        }
+        region = next;
+        before = edits;
+        position = 2L * region * REGION_SIZE;
+        count = (int) Math.min(buffer.length, ((size - position) / 2));
+      }
+      try                         // data may change under our feet
+      {
+        data.getBytes(position, buffer, 0, count);
+      }
+      catch (RuntimeException re) // most likely data got shorter
+      {
+        continue;                 // an edit was made, so try again
+      }
+      bits = new long[GRAM_BITS / 64];
+      gram = 0;
+      for (i = 0; i < count; i ++)
+      {
+        gram = ((gram << 8) | (buffer[i] & HexEdit2.BYTE_MASK)) & 0xFFFFFF;
+        if (i >= 2)               // a whole trigram?
+        {
+          bit = hash(gram);
+          bits[bit >> 6] |= 1L << bit;
+        }
+      }
+      synchronized (this)
+      {
+        if ((before == edits) && (region < regions.length))
+          regions[region] = bits; // no change made while reading
+      }
+      Thread.yield();             // let the user and searches go first
+    }
+  }
+
+
+/*
+  start() and stop() methods
+
+  Start indexing some data in a background thread, or stop indexing.  Once
+  stopped, an index can't be started again, and says that every region may
+  match.
+*/
+  void start()
+  {
+    Thread thread;                // background thread for indexing
+
+    synchronized (data)           // no changes while we attach
+    {
+      synchronized (this)
+      {
+        size = data.size();
+        regions = new long[regionCount(size)][];
+        data.index = this;        // tell us about each change
+      }
+    }
+    thread = new Thread(this, "HexEdit2Index");
+    thread.setDaemon(true);       // don't keep program running after exit
+    thread.setPriority(Thread.MIN_PRIORITY); // searches and the user go first
+    thread.start();
+  }
+
+  void stop()
+  {
+    synchronized (data)
+    {
+      if (data.index == this)     // are we still told about changes?
+        data.index = null;
+    }
+    synchronized (this)
+    {
+      cancelFlag = true;          // stop thread, and every region may match
+      notifyAll();                // wake up the thread, if waiting
+    }
+  }
+
+} // end of HexEdit2Index class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  HexEdit2Matches class
+
+  This class holds the data positions of all matches found by "Find All", and
+  is also the list model for showing them.  Positions are kept in arrays of
+  primitive long integers, sorted by starting position, which takes much less
+  memory than a list of objects.  Unless <overlapFlag> is set, add() skips a
+  match that starts before the end of the last match kept, so we keep only
+  the matches that "Find Next" would find, one after another from the start.
+  A search split into chunks collects each chunk by itself, and the chunks
+  are put together by HexEdit2Search.mergeChunks(), since a chunk doesn't know
+  where the last match in earlier chunks ended.
+
+  There is a limit on how many matches are kept, after skipping overlapping
+  matches.  If the limit is reached, the search stops there, and <moreFlag> is
+  true.
+
+  Search as you type uses this class to remember candidates: every starting
+  index where the search string matched, overlapping or not, from <anchor> up
+  to (but not including) <covered>.  When the user types more of the search
+  string, only the candidates need to be checked again, because a longer
+  search string can only match where its first part matched.  Byte patterns
+  (see HexEdit2Pattern) have no candidates, and <pattern> is null.
+
+  "Find List" searches for many strings at once, and keeps every match of
+  every string, with the index of the string in <entries>.  Matches are found
+  in order by where they end, and are sorted by where they start afterwards.
+*/
+
+class HexEdit2Matches extends AbstractListModel
+{
+  /* constants */
+
+  static final int MAX_MATCHES = 0x100000; // most matches kept (about 1 million)
+
+  /* instance variables */
+
+  long anchor;                    // search as you type: where search began
+  boolean byteFlag;               // search as you type: byte boundaries
+  long changes;                   // changes() in data when search started
+  int count;                      // number of matches in arrays
+  long covered;                   // search as you type: candidates end here
+  long[] ends;                    // data position after each match
+  int[] entries;                  // "Find List": index in <names> for matches
+  int limit;                      // most matches kept in arrays
+  boolean moreFlag;               // true if more matches than we keep
+  String[] names;                 // "Find List": search strings, or null
+  boolean overlapFlag;            // true if overlapping matches are kept
+  int[] pattern;                  // search as you type: search string, or null
+  int[] replacement;              // nibbles for "Replace All", or null
+  long[] starts;                  // data position of each match
+
+  /* class constructor */
+
+  public HexEdit2Matches()
+  {
+    super();                      // initialize our superclass first (Object)
+    anchor = covered = 0;         // set by caller for search as you type
+    byteFlag = false;
+    changes = -1;                 // set by caller when search finishes
+    count = 0;                    // no matches yet
+    ends = new long[16];          // grow arrays as needed
+    entries = null;               // allocated by first match from a list
+    limit = MAX_MATCHES;          // caller may want fewer matches
+    moreFlag = false;             // no matches thrown away
+    names = null;                 // set by caller for "Find List"
+    overlapFlag = false;          // keep only matches that Find Next finds
+    pattern = null;               // not search as you type
+    replacement = null;           // set by caller for "Replace All"
+    starts = new long[16];
+  }
+
+
+/*
+  add() method
+
+  Add one match after all previous matches.  Return false if the limit has
+  been reached, and the match was not added.  A match that overlaps the last
+  match isn't added (but isn't an error) unless <overlapFlag> is set.  For
+  "Find List", the caller also gives the index of the search string that
+  matched.
+*/
+  boolean add(long start, long end)
+  {
+    return(add(start, end, -1));  // not from a list
+  }
+
+  boolean add(long start, long end, int entry)
+  {
+    if ((overlapFlag == false) && (count > 0) && (start < ends[count - 1]))
+      return(true);               // "Find Next" wouldn't find this match
+    if (count >= limit)           // is there room for another match?
+    {
+      moreFlag = true;            // no, say there are more matches
+      return(false);
+    }
+    if (count == starts.length)   // are the arrays full?
+    {
+      int size = Math.min((2 * count), limit); // double array size
+      long[] bigger = new long[size];
+      System.arraycopy(ends, 0, bigger, 0, count);
+      ends = bigger;
+      bigger = new long[size];
+      System.arraycopy(starts, 0, bigger, 0, count);
+      starts = bigger;
+    }
+    if ((entry >= 0) && ((entries == null) || (entries.length < ends.length)))
+    {
+      int[] more = new int[ends.length]; // same size as other arrays
+      if (entries != null)
+        System.arraycopy(entries, 0, more, 0, count);
+      entries = more;
+    }
+    ends[count] = end;
+    if (entry >= 0)               // from a list of search strings?
+      entries[count] = entry;
+    starts[count] = start;
+    count ++;
+    return(true);
+  }
+
+
+/*
+  append() method
+
+  Add all matches from another object after our matches, such as the matches
+  from the next chunk of a search, starting with a given index in the other
+  object.  Return false if the limit has been reached.
+*/
+  boolean append(HexEdit2Matches other)
+  {
+    return(append(other, 0));     // all of the other matches
+  }
+
+  boolean append(HexEdit2Matches other, int from)
+  {
+    int i;                        // index variable
+
+    for (i = from; i < other.count; i ++)
+      if (add(other.starts[i], other.ends[i]) == false)
+        return(false);
+    if (other.moreFlag)           // did the other object reach the limit?
+    {
+      moreFlag = true;            // yes, then nothing can follow
+      return(false);
+    }
+    return(true);
+  }
+
+
+/*
+  filter() method
+
+  Remove matches that overlap a previous match, so that each match starts at
+  or after the end of the match before it.
+*/
+  void filter()
+  {
+    int i;                        // index variable
+    long lastEnd;                 // end of last match that we kept
+    int used;                     // number of matches kept
+
+    lastEnd = Long.MIN_VALUE;     // first match is always kept
+    used = 0;
+    for (i = 0; i < count; i ++)
+    {
+      if (starts[i] >= lastEnd)   // keep this match?
+      {
+        ends[used] = lastEnd = ends[i];
+        starts[used] = starts[i];
+        used ++;
+      }
+    }
+    count = used;
+  }
+
+
+/*
+  getElementAt() and getSize() methods
+
+  List model for showing matches in a JList.  Each match is shown as a hex
+  file offset, and matches starting on an odd nibble say so.  Matches from
+  "Find List" also show the search string.
+*/
+  public Object getElementAt(int index)
+  {
+    String text;                  // text string in middle of hex conversion
+
+    text = "0000000000000000" + Long.toHexString(starts[index] / 2)
+      .toUpperCase();             // starting nibble as hex byte offset
+    text = text.substring(text.length() - HexEdit2.offsetDigits);
+    if ((starts[index] % 2) != 0) // does match start in middle of byte?
+      text += " + 1 nibble";
+    if ((names != null) && (entries != null)) // which string in a list?
+      text += "  " + names[entries[index]].trim();
+    return(text);
+  }
+
+  public int getSize()
+  {
+    return(count);
+  }
+
+
+/*
+  sort() method
+
+  Sort matches by starting position, keeping the order of matches that start
+  at the same position.  Matches from "Find List" are almost in order already
+  (no match is out of place by more than the longest search string), so an
+  insertion sort is fast.
+*/
+  void sort()
+  {
+    long end;                     // data position after match being moved
+    int entry;                    // index of search string for this match
+    int i, k;                     // index variables
+    long start;                   // data position of match being moved
+
+    for (i = 1; i < count; i ++)
+    {
+      end = ends[i];
+      entry = (entries != null) ? entries[i] : -1;
+      start = starts[i];
+      for (k = i; (k > 0) && (starts[k - 1] > start); k --)
+      {
+        ends[k] = ends[k - 1];    // move earlier match up one place
+        if (entries != null)
+          entries[k] = entries[k - 1];
+        starts[k] = starts[k - 1];
+      }
+      ends[k] = end;
+      if (entries != null)
+        entries[k] = entry;
+      starts[k] = start;
+    }
+  }
+
+} // end of HexEdit2Matches class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  HexEdit2Pattern class
+
+  This class compiles a byte pattern for searching, and runs the pattern over
+  the data as an automaton.  A pattern is typed like a hex search string, with
+  some extra punctuation:
+
+      4D 5A ?? ?? 50 45       "?" is any nibble, so "??" is any byte
+      [0-7]                   one nibble from a set or range of nibbles
+      [30-39 41-5A]           one byte from a set or range of bytes
+      [^00]                   one byte that is not in the set
+      (4D5A|5A4D)             alternatives, in parentheses
+      (??){2,8}               previous item repeated from 2 to 8 times
+      00{4}                   previous item repeated exactly 4 times
+
+  Spaces and the usual punctuation (commas, periods, colons) are ignored, the
+  same as for plain hex strings.  Repeats must have an upper bound, so every
+  match has a maximum length, and a pattern must not match an empty string.
+
+  The pattern is compiled into a "position automaton" (Glushkov automaton):
+  each nibble in the expanded pattern is a position, and we compute which
+  positions can start a match, which can end a match, and which positions can
+  follow each position.  There are no empty transitions, so a set of positions
+  is a complete state.  Repeats are expanded by parsing the repeated item
+  again, which creates new positions for each copy.
+
+  Searching runs a deterministic automaton (DFA) that is built as needed from
+  the position sets.  Each DFA state is a set of positions, and each data byte
+  looks up the next state in a table, so the data is read once, in order.  New
+  matches may start at every nibble, or only at byte boundaries, or nowhere
+  (near the end of a search), and each of these has its own table.  Only
+  states that are reached are built, and the tables are thrown away and
+  started again if they get too big.
+
+  A list of patterns (for "Find List") is compiled as alternatives of one big
+  pattern, remembering which positions end each pattern in the list.  For
+  plain hex strings, the automaton is then the same as the Aho-Corasick
+  algorithm, and finds every string in one pass.  Each pattern in a list must
+  have a fixed length, so that the start of a match is known from its end
+  without looking back; addHits() reports which patterns end at a nibble.
+*/
+
+class HexEdit2Pattern
+{
+  /* constants */
+
+  static final int FINAL_BIT = 0x40000000; // byte table: a match ends in byte
+  static final int INJECT_BOTH = 0; // matches may start on either nibble
+  static final int INJECT_HIGH = 1; // matches start on high-order nibble only
+  static final int INJECT_NONE = 2; // no new matches may start
+  static final int MAX_POSITIONS = 8192; // most nibbles in expanded pattern
+  static final int MAX_STATES = 8192; // most DFA states before starting over
+  static final String SPECIAL_CHARS = "?[]()|{}"; // punctuation in patterns
+
+  /* instance variables */
+
+  private long[] accepts;         // positions that accept each nibble value
+  int[][] byteNext;               // next state for state and byte, each mode
+  private long[] first;           // positions that can start a match
+  private long[][] follow;        // positions that can follow each position
+  private int index;              // where parser is in <text>
+  private long[] last;            // positions that can end a match
+  private int[] lengths;          // length of each pattern in a list
+  private long[][] lists;         // positions that end each pattern in a list
+  int maxLength;                  // most nibbles in any match
+  int minLength;                  // fewest nibbles in any match
+  private int positions;          // number of positions used
+  private boolean[] stateFinal;   // true if DFA state ends a match
+  private ArrayList stateList;    // DFA states as position sets
+  private HashMap stateMap;       // position set (as string) to state number
+  private int[] stateNext;        // next state for state and nibble (inject)
+  private int[] stateSame;        // next state for state and nibble (no inject)
+  private String text;            // pattern as typed by user
+  private int words;              // long integers in each position set
+
+  /* class constructor */
+
+  public HexEdit2Pattern(
+    String text)                  // pattern as typed by user
+  {
+    this(new String[] {text}, false); // one pattern is a list without names
+  }
+
+  public HexEdit2Pattern(
+    String[] list)                // patterns, null or empty entries ignored
+  {
+    this(list, true);             // remember which pattern is which
+  }
+
+  private HexEdit2Pattern(
+    String[] list,                // patterns as typed by user
+    boolean listFlag)             // true if we report which pattern matched
+  {
+    super();                      // initialize our superclass first (Object)
+    long[] frag;                  // result of parsing one pattern
+    int i;                        // index variable
+    long[] whole;                 // result of parsing all patterns
+
+    words = (MAX_POSITIONS + 63) / 64; // position sets are bit masks
+    accepts = new long[16 * words]; // <words> for each nibble value
+    follow = new long[MAX_POSITIONS][];
+    lengths = listFlag ? new int[list.length] : null;
+    lists = listFlag ? new long[list.length][] : null;
+    positions = 0;                // no positions yet
+    whole = null;                 // no patterns yet
+    for (i = 0; i < list.length; i ++)
+    {
+      text = list[i];
+      if ((text == null) || (listFlag && (text.trim().length() == 0)))
+        continue;                 // skip empty lines in a list
+      index = 0;                  // start parsing at beginning of pattern
+      try                         // add line number to errors in a list
+      {
+        frag = parseAlternation();
+        if (index < text.length()) // did we stop before the end?
+          throw new IllegalArgumentException("Unexpected \"" + text.charAt(
+            index) + "\" in pattern.");
+        if (getNullable(frag))    // can pattern match nothing?
+          throw new IllegalArgumentException(
+            "Pattern must not match an empty string.");
+        if (listFlag && (getMin(frag) != getMax(frag)))
+          throw new IllegalArgumentException(
+            "Patterns in a list must have a fixed length.");
+      }
+      catch (IllegalArgumentException iae)
+      {
+        if (listFlag == false)    // only one pattern?
+          throw iae;              // message is good enough
+        throw new IllegalArgumentException("Line " + (i + 1) + ": "
+          + iae.getMessage());
+      }
+      if (listFlag)               // remember where this pattern ends
+      {
+        lengths[i] = (int) getMin(frag);
+        lists[i] = getLast(frag);
+      }
+      whole = (whole == null) ? frag : union(whole, frag);
+    }
+    if (whole == null)            // were all lines empty?
+      throw new IllegalArgumentException("There are no search strings.");
+    finish(whole);                // build the automaton
+
+  } // end of HexEdit2Pattern() constructor
+
+  public HexEdit2Pattern(
+    int[] nibbles,                // search string as nibble values
+    boolean nullFlag)             // true if null bytes ignored in data
+  {
+    super();                      // initialize our superclass first (Object)
+    int i;                        // index variable
+    long[] whole;                 // fragment for whole search string
+
+    /* A plain search string has one position per nibble.  Ignoring nulls
+    puts any number of null bytes between the bytes of the search string, but
+    not before the first byte or after the last byte.  This is the only
+    pattern with no maximum length.  (The search string may still be too long
+    for our position sets; see fitsPositions().) */
+
+    if (fitsPositions(nibbles.length, nullFlag) == false)
+      throw new IllegalArgumentException("Search string is too long.");
+    words = (MAX_POSITIONS + 63) / 64; // position sets are bit masks
+    accepts = new long[16 * words]; // <words> for each nibble value
+    follow = new long[MAX_POSITIONS][];
+    lengths = null;               // not a list
+    lists = null;
+    positions = 0;                // no positions yet
+    whole = newFragment(true);    // nothing yet
+    for (i = 0; i < nibbles.length; i ++)
+    {
+      if (nullFlag && (i > 0) && ((i % 2) == 0)) // between two whole bytes?
+        whole = concat(whole, star(concat(newPosition(1), newPosition(1))));
+                                  // any number of null bytes (nibble zero)
+      whole = concat(whole, newPosition(1 << nibbles[i]));
+    }
+    finish(whole);                // build the automaton
+  }
+
+
+/*
+  addHits() method
+
+  For a list of patterns, add a match for each pattern that ends before a given
+  data position, with the current DFA state.  Return false if the limit on
+  matches has been reached.
+*/
+  boolean addHits(int state, long end, HexEdit2Matches matches)
+  {
+    int i, k;                     // index variables
+    long[] set;                   // position set for <state>
+
+    set = (long[]) stateList.get(state);
+    for (i = 0; i < lists.length; i ++)
+    {
+      if (lists[i] == null)       // was this line empty?
+        continue;
+      for (k = 0; k < words; k ++)
+        if ((set[k] & lists[i][k]) != 0) // does pattern <i> end here?
+          break;
+      if ((k < words) && (matches.add((end - lengths[i]), end, i) == false))
+        return(false);            // too many matches
+    }
+    return(true);
+  }
+
+
+/*
+  addState() method
+
+  Return the DFA state number for a set of positions, adding a new state if we
+  haven't seen this set before.  The caller must check isFull() first.
+*/
+  private int addState(long[] set)
+  {
+    char[] chars;                 // position set as a string key
+    int i, k;                     // index variables
+    Integer old;                  // state number if already known
+    int result;                   // state number
+
+    chars = new char[4 * words];
+    for (k = 0; k < chars.length; k ++)
+      chars[k] = (char) (set[k / 4] >>> (16 * (k % 4)));
+    String key = new String(chars);
+    old = (Integer) stateMap.get(key);
+    if (old != null)              // have we seen this set before?
+      return(old.intValue());
+    result = stateList.size();
+    stateList.add(set);
+    stateMap.put(key, new Integer(result));
+
+    if (result >= stateFinal.length) // do the tables need to be bigger?
+    {
+      boolean[] flags = new boolean[2 * stateFinal.length];
+      System.arraycopy(stateFinal, 0, flags, 0, stateFinal.length);
+      stateFinal = flags;
+      stateNext = growTable(stateNext);
+      stateSame = growTable(stateSame);
+      for (i = 0; i < byteNext.length; i ++)
+        byteNext[i] = growTable(byteNext[i]);
+    }
+    for (k = 0; k < words; k ++)  // can a match end in this state?
+      if ((set[k] & last[k]) != 0)
+        stateFinal[result] = true;
+    return(result);
+
+  } // end of addState() method
+
+
+/*
+  concat() and union() methods
+
+  Combine two fragments (see newFragment()), one after the other, or as
+  alternatives.  When one fragment follows another, every position that can
+  end the first fragment can be followed by every position that can start the
+  second fragment.
+*/
+  private long[] concat(long[] one, long[] two)
+  {
+    int i, k;                     // index variables
+    long[] result;                // new fragment
+
+    for (i = 0; i < words; i ++)  // each end of <one> is followed by <two>
+      if (one[words + i] != 0)
+        for (k = 0; k < 64; k ++)
+          if ((one[words + i] & (1L << k)) != 0)
+            orSet(follow[(64 * i) + k], 0, two, 0);
+    result = newFragment(getNullable(one) && getNullable(two));
+    orSet(result, 0, one, 0);     // first positions of <one>
+    if (getNullable(one))         // and of <two> if <one> can be empty
+      orSet(result, 0, two, 0);
+    orSet(result, words, two, words); // last positions of <two>
+    if (getNullable(two))         // and of <one> if <two> can be empty
+      orSet(result, words, one, words);
+    result[(2 * words) + 1] = getMin(one) + getMin(two);
+    result[(2 * words) + 2] = getMax(one) + getMax(two);
+    return(result);
+  }
+
+  private long[] union(long[] one, long[] two)
+  {
+    long[] result;                // new fragment
+
+    if (one == null)              // no previous alternative?
+      return(two);
+    result = newFragment(getNullable(one) || getNullable(two));
+    orSet(result, 0, one, 0);     // first and last positions of both
+    orSet(result, 0, two, 0);
+    orSet(result, words, one, words);
+    orSet(result, words, two, words);
+    result[(2 * words) + 1] = Math.min(getMin(one), getMin(two));
+    result[(2 * words) + 2] = Math.max(getMax(one), getMax(two));
+    return(result);
+  }
+
+
+/*
+  finish() method
+
+  Called by the constructors after a whole pattern has been parsed, to get the
+  positions that start and end a match, and create the automaton.
+*/
+  private void finish(long[] whole)
+  {
+    first = getFirst(whole);
+    last = getLast(whole);
+    maxLength = (int) Math.min(Integer.MAX_VALUE, getMax(whole));
+    minLength = (int) getMin(whole);
+    shrinkSets();                 // smaller sets for positions actually used
+    resetStates();                // create empty tables of DFA states
+  }
+
+
+/*
+  fitsPositions() method
+
+  Return true if a plain search string with a given number of nibbles fits in
+  the position sets of one pattern.  Ignoring nulls adds two positions (one
+  null byte) between each pair of search bytes.
+*/
+  static boolean fitsPositions(int length, boolean nullFlag)
+  {
+    return((length + (nullFlag ? Math.max(0, (length - 2)) : 0))
+      <= MAX_POSITIONS);
+  }
+
+
+/*
+  getFirst(), getLast(), getMax(), getMin(), and getNullable() methods
+
+  Get one part of a fragment (see newFragment()).
+*/
+  private long[] getFirst(long[] frag)
+  {
+    long[] result = new long[words];
+    System.arraycopy(frag, 0, result, 0, words);
+    return(result);
+  }
+
+  private long[] getLast(long[] frag)
+  {
+    long[] result = new long[words];
+    System.arraycopy(frag, words, result, 0, words);
+    return(result);
+  }
+
+  private long getMax(long[] frag) { return(frag[(2 * words) + 2]); }
+
+  private long getMin(long[] frag) { return(frag[(2 * words) + 1]); }
+
+  private boolean getNullable(long[] frag) { return(frag[2 * words] != 0); }
+
+
+/*
+  growTable() method
+
+  Return a copy of a transition table with room for twice as many states.  New
+  entries are -1 (not known yet).
+*/
+  private static int[] growTable(int[] table)
+  {
+    int[] result = new int[2 * table.length];
+    Arrays.fill(result, table.length, result.length, -1);
+    System.arraycopy(table, 0, result, 0, table.length);
+    return(result);
+  }
+
+
+/*
+  isFinal() and isFull() methods
+
+  isFinal() returns true if a match ends in a DFA state.  isFull() returns true
+  if the tables are too big to add more states, and the caller should call
+  restart() before the next call to nextByte() or nextState().
+*/
+  boolean isFinal(int state)
+  {
+    return(stateFinal[state]);
+  }
+
+  boolean isFull()
+  {
+    return((stateList.size() + 2) > MAX_STATES); // room for one byte
+  }
+
+
+/*
+  isList() method
+
+  Return true if this is a list of patterns (see addHits()).
+*/
+  boolean isList()
+  {
+    return(lists != null);
+  }
 
-      searchIgnoreNulls = new JCheckBox("ignore nulls", false);
-      if (buttonFont != null) searchIgnoreNulls.setFont(buttonFont);
-      searchIgnoreNulls.setMnemonic(KeyEvent.VK_I);
-      searchIgnoreNulls.setToolTipText(
-        "Ignore null data bytes between search bytes.");
-      panel3.add(searchIgnoreNulls);
 
-      gbc.anchor = GridBagConstraints.CENTER;
-      gbc.fill = GridBagConstraints.HORIZONTAL;
-      gbc.gridwidth = GridBagConstraints.REMAINDER;
-      panel1.add(panel3, gbc);
-      panel1.add(Box.createVerticalStrut(10), gbc);
+/*
+  isPattern() method
+
+  Return true if a hex search string uses pattern punctuation, and should be
+  compiled with this class instead of being searched as plain nibbles.
+*/
+  static boolean isPattern(String text)
+  {
+    int i;                        // index variable
+
+    for (i = 0; i < text.length(); i ++)
+      if (SPECIAL_CHARS.indexOf(text.charAt(i)) >= 0)
+        return(true);
+    return(false);
+  }
+
+
+/*
+  match() method
+
+  Return the length of the longest match starting at a given index in an array
+  of data nibbles, or -1 if there is no match.  This is used after a search
+  finds where a match ends, to find where it starts.  It works directly on the
+  position sets, and doesn't change the DFA tables.
+*/
+  int match(int[] nibbles, int offset, int count)
+  {
+    long[] current, next;         // position sets for this and next nibble
+    int i, k;                     // index variables
+    boolean live;                 // true if any position is in <next>
+    int result;                   // longest match so far, or -1
+
+    current = null;               // before the first nibble
+    result = -1;                  // no match yet
+    for (i = 0; i < count; i ++)
+    {
+      next = new long[words];
+      if (current == null)        // first nibble can only start a match
+        orSet(next, 0, first, 0);
+      else                        // follow positions from previous nibble
+        for (k = 0; k < positions; k ++)
+          if ((current[k / 64] & (1L << (k % 64))) != 0)
+            orSet(next, 0, follow[k], 0);
+      live = false;
+      for (k = 0; k < words; k ++) // keep positions that accept this nibble
+      {
+        next[k] &= accepts[(nibbles[offset + i] * words) + k];
+        live |= next[k] != 0;
+        if ((next[k] & last[k]) != 0) // can a match end here?
+          result = i + 1;
+      }
+      if (live == false)          // no positions left?
+        break;
+      current = next;
+    }
+    return(result);
+
+  } // end of match() method
+
+
+/*
+  newFragment() method
+
+  While parsing, each part of the pattern is described by a "fragment": the
+  positions that can start the part, the positions that can end the part,
+  whether the part can be empty, and the fewest and most nibbles it matches.
+  A fragment is kept in one array of long integers, with the position sets
+  first, to avoid creating many small objects.
+*/
+  private long[] newFragment(boolean nullable)
+  {
+    long[] result = new long[(2 * words) + 3];
+    result[2 * words] = nullable ? 1 : 0;
+    return(result);               // min and max lengths are zero
+  }
+
+
+/*
+  newPosition() method
+
+  Add a position that accepts a set of nibble values (bit mask), and return a
+  fragment with only the new position.
+*/
+  private long[] newPosition(int mask)
+  {
+    int i;                        // index variable
+    long[] result;                // fragment with only the new position
+
+    if (positions >= MAX_POSITIONS)
+      throw new IllegalArgumentException("Pattern is too long (more than "
+        + MAX_POSITIONS + " nibbles).");
+    follow[positions] = new long[words];
+    for (i = 0; i < 16; i ++)     // which nibble values this position accepts
+      if ((mask & (1 << i)) != 0)
+        accepts[(i * words) + (positions / 64)] |= 1L << (positions % 64);
+    result = newFragment(false);
+    result[positions / 64] = result[words + (positions / 64)] = 1L
+      << (positions % 64);        // both first and last
+    result[(2 * words) + 1] = result[(2 * words) + 2] = 1; // one nibble
+    positions ++;
+    return(result);
+  }
+
+
+/*
+  nextByte() method
+
+  Return the next DFA state after a given state and data byte, for one of the
+  INJECT_ modes.  FINAL_BIT is added to the result if a match ends after either
+  nibble, and then the caller must go one nibble at a time with nextState() to
+  find out where.  The transition is computed the first time, and then taken
+  from <byteNext>, which the caller may read directly.
+*/
+  int nextByte(int state, int value, int mode)
+  {
+    int middle;                   // state after high-order nibble
+    int next;                     // state after low-order nibble
+    int result;                   // next state and FINAL_BIT
+
+    result = byteNext[mode][(state << 8) + value];
+    if (result >= 0)              // already in table?
+      return(result);
+    middle = nextState(state, (value >> HexEdit2.NIBBLE_SHIFT), (mode
+      != INJECT_NONE));
+    next = nextState(middle, (value & HexEdit2.NIBBLE_MASK), (mode
+      == INJECT_BOTH));
+    result = next | ((stateFinal[middle] || stateFinal[next]) ? FINAL_BIT : 0);
+    byteNext[mode][(state << 8) + value] = result;
+    return(result);
+  }
+
+
+/*
+  nextState() method
+
+  Return the next DFA state after a given state and data nibble.  If <inject>
+  is true, a new match may start at this nibble.  The transition is computed
+  from the position sets the first time, and then taken from a table.
+*/
+  int nextState(int state, int nibble, boolean inject)
+  {
+    long[] current;               // position set for <state>
+    int k;                        // index variable
+    long[] next;                  // position set for next state
+    int result;                   // next state number
+
+    result = (inject ? stateNext : stateSame)[(state * 16) + nibble];
+    if (result >= 0)              // already in table?
+      return(result);
+    current = (long[]) stateList.get(state);
+    next = new long[words];
+    for (k = 0; k < positions; k ++) // follow all positions in <state>
+      if ((current[k / 64] & (1L << (k % 64))) != 0)
+        orSet(next, 0, follow[k], 0);
+    if (inject)                   // can a match start here?
+      orSet(next, 0, first, 0);
+    for (k = 0; k < words; k ++)  // keep positions that accept this nibble
+      next[k] &= accepts[(nibble * words) + k];
+    result = addState(next);
+    (inject ? stateNext : stateSame)[(state * 16) + nibble] = result;
+    return(result);
+  }
+
+
+/*
+  optional() method
+
+  Return a copy of a fragment that may also be empty.
+*/
+  private long[] optional(long[] frag)
+  {
+    long[] result = (long[]) frag.clone();
+    result[2 * words] = 1;        // now can be empty
+    result[(2 * words) + 1] = 0;  // fewest nibbles is zero
+    return(result);
+  }
+
+
+/*
+  orSet() method
+
+  Add (bitwise OR) one position set into another, at given array indexes.
+*/
+  private void orSet(long[] target, int to, long[] source, int from)
+  {
+    int i;                        // index variable
+
+    for (i = 0; i < words; i ++)
+      target[to + i] |= source[from + i];
+  }
+
+
+/*
+  parseAlternation() method
+
+  The parsing methods are a simple recursive descent parser.  Each method
+  returns a fragment, and throws IllegalArgumentException with a message for
+  the user if the pattern has a syntax error.  An alternation is one or more
+  sequences separated by vertical bars.
+*/
+  private long[] parseAlternation()
+  {
+    long[] result;                // union of all alternatives
+
+    result = parseSequence();
+    while ((index < text.length()) && (text.charAt(index) == '|'))
+    {
+      index ++;                   // skip over vertical bar
+      result = union(result, parseSequence());
+    }
+    return(result);
+  }
+
+
+/*
+  parseHex() method
+
+  Parse one or two hex digits in a set, and return the value.
+*/
+  private int parseHex()
+  {
+    int result;                   // value of hex digits
+    int value;                    // value of one digit
+
+    result = -1;
+    while ((index < text.length()) && ((value = HexEdit2.charHexValue(
+      text.charAt(index))) >= 0) && (result < 16)) // at most two digits
+    {
+      result = (result < 0) ? value : ((result * 16) + value);
+      index ++;
+    }
+    if (result < 0)
+      throw new IllegalArgumentException("Missing hex digits in pattern set.");
+    return(result);
+  }
+
+
+/*
+  parseItem() method
+
+  Parse one item: a hex digit, a question mark, a set in brackets, or an
+  alternation in parentheses.
+*/
+  private long[] parseItem()
+  {
+    char ch;                      // current character
+    long[] result;                // fragment for this item
+    int value;                    // value of hex digit
+
+    ch = text.charAt(index);
+    if (ch == '(')                // group of alternatives
+    {
+      index ++;
+      result = parseAlternation();
+      if ((index >= text.length()) || (text.charAt(index) != ')'))
+        throw new IllegalArgumentException("Missing \")\" in pattern.");
+      index ++;
+      return(result);
+    }
+    if (ch == '[')                // set of nibbles or bytes
+    {
+      index ++;
+      return(parseSet());
+    }
+    if (ch == '?')                // any nibble
+    {
+      index ++;
+      return(newPosition(0xFFFF));
+    }
+    value = HexEdit2.charHexValue(ch);
+    if (value < 0)                // not a hex digit
+      throw new IllegalArgumentException("Unexpected \"" + ch
+        + "\" in pattern.");
+    index ++;
+    return(newPosition(1 << value)); // one nibble value
+  }
+
+
+/*
+  parseNumber() method
+
+  Parse a decimal repeat count, allowing spaces but not other punctuation,
+  because a comma separates two counts.
+*/
+  private int parseNumber()
+  {
+    int result;                   // decimal value
+
+    skipSpaces();
+    result = -1;
+    while ((index < text.length()) && Character.isDigit(text.charAt(index))
+      && (result <= MAX_POSITIONS))
+    {
+      result = ((result < 0) ? 0 : (result * 10)) + Character.digit(
+        text.charAt(index), 10);
+      index ++;
+    }
+    if (result < 0)
+      throw new IllegalArgumentException("Missing repeat count in pattern.");
+    skipSpaces();
+    return(result);
+  }
+
+
+/*
+  parseRepeat() method
+
+  Parse one item, followed by an optional repeat count in braces.  Each copy
+  after the first is made by parsing the same item again, which gives the
+  copy its own positions.  Copies after the minimum are optional.
+*/
+  private long[] parseRepeat()
+  {
+    int i;                        // index variable
+    long[] item;                  // one copy of the repeated item
+    int max, min;                 // repeat counts
+    int resume;                   // where to continue after repeat count
+    long[] result;                // all copies of the item
+    int start;                    // where item starts in <text>
+
+    start = index;
+    item = parseItem();
+    skipIgnored();
+    if ((index >= text.length()) || (text.charAt(index) != '{'))
+      return(item);               // not repeated
+
+    index ++;                     // skip over left brace
+    min = max = parseNumber();
+    if ((index < text.length()) && (text.charAt(index) == ','))
+    {
+      index ++;                   // skip over comma
+      max = parseNumber();
+    }
+    if ((index >= text.length()) || (text.charAt(index) != '}'))
+      throw new IllegalArgumentException("Missing \"}\" in pattern.");
+    index ++;                     // skip over right brace
+    if ((max < min) || (max > MAX_POSITIONS))
+      throw new IllegalArgumentException("Bad repeat count {" + min + ","
+        + max + "} in pattern.");
+    resume = index;
+
+    result = newFragment(true);   // zero copies matches an empty string
+    for (i = 1; i <= max; i ++)
+    {
+      if (i > 1)                  // first copy has already been parsed
+      {
+        index = start;            // parse the same item again
+        item = parseItem();
+      }
+      result = concat(result, ((i > min) ? optional(item) : item));
+    }
+    index = resume;
+    return(result);
+
+  } // end of parseRepeat() method
+
+
+/*
+  parseSequence() method
+
+  Parse items until the end of the pattern, a vertical bar, or a right
+  parenthesis.
+*/
+  private long[] parseSequence()
+  {
+    long[] result;                // concatenation of all items
+
+    result = newFragment(true);   // empty sequence matches empty string
+    while (true)
+    {
+      skipIgnored();
+      if ((index >= text.length()) || ("|)".indexOf(text.charAt(index)) >= 0))
+        break;                    // end of this sequence
+      result = concat(result, parseRepeat());
+    }
+    return(result);
+  }
+
+
+/*
+  parseSet() method
+
+  Parse a set of nibble values (one hex digit each) or byte values (two hex
+  digits each) in brackets, with ranges and an optional leading "^" to invert
+  the set.  A nibble set is one position.  A byte set becomes alternatives, one
+  for each high-order nibble, each followed by the allowed low-order nibbles.
+*/
+  private long[] parseSet()
+  {
+    boolean[] chosen;             // nibble or byte values in set
+    int digits;                   // 1 for nibble set, 2 for byte set
+    int high, low;                // range of values
+    int i, k;                     // index variables
+    int mask;                     // nibble values as bit mask
+    boolean negate;               // true if set is inverted
+    long[] result;                // fragment for the set
+    int start;                    // where a value starts in <text>
+
+    chosen = new boolean[HexEdit2.BYTE_MASK + 1];
+    digits = 0;                   // don't know yet
+    skipIgnored();
+    negate = (index < text.length()) && (text.charAt(index) == '^');
+    if (negate)
+      index ++;
+    while (true)
+    {
+      skipIgnored();
+      if (index >= text.length())
+        throw new IllegalArgumentException("Missing \"]\" in pattern.");
+      if (text.charAt(index) == ']')
+        break;
+      start = index;
+      low = high = parseHex();
+      if (digits == 0)            // first value sets the size for all values
+        digits = index - start;
+      else if (digits != (index - start))
+        throw new IllegalArgumentException(
+          "Values in a set must all be nibbles or all be bytes.");
+      skipIgnored();
+      if ((index < text.length()) && (text.charAt(index) == '-'))
+      {
+        index ++;                 // skip over hyphen
+        skipIgnored();
+        high = parseHex();
+      }
+      if ((high < low) || (high >= (1 << (4 * digits))))
+        throw new IllegalArgumentException("Bad range in pattern set.");
+      for (i = low; i <= high; i ++)
+        chosen[i] = true;
+    }
+    index ++;                     // skip over right bracket
+
+    result = null;
+    if (digits == 1)              // nibble set
+    {
+      mask = 0;
+      for (i = 0; i < 16; i ++)
+        if (chosen[i] != negate)
+          mask |= 1 << i;
+      if (mask != 0)
+        result = newPosition(mask);
+    }
+    else if (digits == 2)         // byte set
+    {
+      for (i = 0; i < 16; i ++)
+      {
+        mask = 0;
+        for (k = 0; k < 16; k ++)
+          if (chosen[(i * 16) + k] != negate)
+            mask |= 1 << k;
+        if (mask != 0)
+          result = union(result, concat(newPosition(1 << i),
+            newPosition(mask)));
+      }
+    }
+    if (result == null)           // nothing was in the set
+      throw new IllegalArgumentException("Empty set in pattern.");
+    return(result);
+
+  } // end of parseSet() method
+
+
+/*
+  resetStates() and restart() methods
+
+  Create empty tables with only the empty state (state 0).  The caller uses
+  restart() when isFull() says the tables are too big, and gets back the new
+  number for the state it was in.
+*/
+  private void resetStates()
+  {
+    int i;                        // index variable
+
+    byteNext = new int[3][256 * 64]; // one table for each INJECT_ mode
+    for (i = 0; i < byteNext.length; i ++)
+      Arrays.fill(byteNext[i], -1); // no transitions known yet
+    stateFinal = new boolean[64];
+    stateList = new ArrayList();
+    stateMap = new HashMap();
+    stateNext = new int[16 * 64];
+    Arrays.fill(stateNext, -1);
+    stateSame = new int[16 * 64];
+    Arrays.fill(stateSame, -1);
+    addState(new long[words]);    // state 0 is the empty set
+  }
 
-      /* Fourth layout line has a message string for the search status. */
+  int restart(int state)
+  {
+    long[] current = (long[]) stateList.get(state);
+    resetStates();                // start over
+    return(addState(current));    // but keep the state we are in
+  }
+
+
+/*
+  shrinkSets() method
+
+  Parsing allows for the most positions.  After parsing, make all position sets
+  only as big as needed for the positions actually used, because the automaton
+  works on the sets, and smaller is faster.
+*/
+  private void shrinkSets()
+  {
+    int i, k;                     // index variables
+    long[] smaller;               // new copy of accepted nibble values
+    int used;                     // number of long integers needed
+
+    used = Math.max(1, ((positions + 63) / 64));
+    smaller = new long[16 * used];
+    for (i = 0; i < 16; i ++)
+      for (k = 0; k < used; k ++)
+        smaller[(i * used) + k] = accepts[(i * words) + k];
+    accepts = smaller;
+    first = shrinkSet(first, used);
+    last = shrinkSet(last, used);
+    for (i = 0; i < positions; i ++)
+      follow[i] = shrinkSet(follow[i], used);
+    for (i = 0; (lists != null) && (i < lists.length); i ++)
+      if (lists[i] != null)
+        lists[i] = shrinkSet(lists[i], used);
+    words = used;
+  }
+
+  private static long[] shrinkSet(long[] set, int used)
+  {
+    long[] result = new long[used];
+    System.arraycopy(set, 0, result, 0, used);
+    return(result);
+  }
+
+
+/*
+  skipIgnored() and skipSpaces() methods
+
+  Skip over spaces and punctuation that are ignored in hex strings, or only
+  over spaces.
+*/
+  private void skipIgnored()
+  {
+    while ((index < text.length()) && (HexEdit2.charHexValue(text.charAt(
+      index)) == HexEdit2.HEX_IGNORE))
+    {
+      index ++;
+    }
+  }
+
+  private void skipSpaces()
+  {
+    while ((index < text.length()) && Character.isWhitespace(text.charAt(
+      index)))
+    {
+      index ++;
+    }
+  }
+
+
+/*
+  star() method
+
+  Return a fragment that repeats another fragment any number of times,
+  including none.  Every position that can end the fragment can be followed by
+  every position that can start it again.  There is no maximum length, so
+  this is only used for ignoring nulls, which doesn't look back for the start
+  of a match (see HexEdit2Search.findNullStart()).
+*/
+  private long[] star(long[] frag)
+  {
+    int i, k;                     // index variables
+    long[] result;                // new fragment
+
+    for (i = 0; i < words; i ++)  // each end is followed by the start again
+      if (frag[words + i] != 0)
+        for (k = 0; k < 64; k ++)
+          if ((frag[words + i] & (1L << k)) != 0)
+            orSet(follow[(64 * i) + k], 0, frag, 0);
+    result = optional(frag);      // may be empty
+    result[(2 * words) + 2] = Integer.MAX_VALUE; // no maximum length
+    return(result);
+  }
+
+} // end of HexEdit2Pattern class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  HexEdit2Piece class
+
+  This class is one piece (node) in the tree of pieces kept by HexEdit2Data.
+  A piece is a run of consecutive nibbles from either the original data or the
+  add array.  There are no methods; HexEdit2Data does all of the work.
+*/
+
+class HexEdit2Piece
+{
+  /* instance variables */
+
+  boolean added;                  // true if from add array, false original
+  HexEdit2Piece left, right;      // pieces before and after, or null
+  long length;                    // number of nibbles in this piece
+  int priority;                   // random priority for balancing tree
+  long start;                     // index of first nibble in source array
+  long total;                     // total number of nibbles in this subtree
+
+  /* class constructor */
+
+  public HexEdit2Piece(int priority)
+  {
+    super();                      // initialize our superclass first (Object)
+    this.priority = priority;     // all other fields are set by HexEdit2Data
+  }
+
+} // end of HexEdit2Piece class
+
+// ------------------------------------------------------------------------- //
+
+/*
+  HexEdit2Search class
+
+  This class finds a search string (nibble values) in the nibble data.  Older
+  versions compared the search string at every starting index, calling get()
+  once per nibble, which took tens of seconds for big files.  We now read the
+  data in large blocks of packed bytes with HexEdit2Data.getBytes(), and use
+  the Boyer-Moore-Horspool algorithm on whole bytes.  Horspool compares one
+  "key" byte of the search string first, and if the data byte there isn't
+  anywhere earlier in the search string, skips ahead by the full length.
+
+  Matches may start on any nibble.  A match that starts on an odd nibble index
+  covers the data bytes differently: the first byte has only its low-order
+  nibble from the search string, and the last byte may have only its
+  high-order nibble.  So the search string is turned into two byte patterns,
+  one for each alignment, where each pattern byte has a mask for which nibbles
+  must match.  The key byte for Horspool is the last pattern byte with both
+  nibbles known.  Both patterns are searched in the same block of data, and
+  the second pattern is skipped if the user wants matches on byte boundaries
+  only.  Very short search strings may have no key byte, and are checked at
+  each starting index.
+
+  The option to ignore null bytes in the data is for plain text (7-bit ASCII)
+  encoded in Unicode, where exactly one null byte appears next to each
+  character, before (big-endian UTF-16) or after (little-endian UTF-16).  Some
+  East Asian encodings also insert null bytes for alignment.  Any number of
+  null data bytes may be between two bytes of the search string, but not
+  before the first byte or after the last byte.  Matches then start on a byte
+  boundary and may be longer than the search string.  Older versions compared
+  byte by byte from each possible start, which took quadratic time on long
+  runs of nulls.  Now the search string is turned into a pattern with "any
+  number of nulls" between its bytes, and run by findPattern() like any other
+  pattern, which reads each data byte once; see findNullStart().  A search
+  string too long for a pattern (a few thousand nibbles) is still compared
+  byte by byte by findNulls(), the same as older versions.
+
+  A search through gigabytes of data takes seconds, so the GUI runs searches
+  on a background thread with startThread().  The data is read one block at a
+  time, and the caller may change the data between blocks.  The current
+  position is saved after each block for showing progress, and the search
+  stops early when <cancelFlag> is set.  When the thread finishes, a Runnable
+  given by the caller is called on the GUI thread.
+
+  For "Find All", the caller puts an empty HexEdit2Matches object in
+  <matches> before searching.  Every match is then collected, instead of
+  stopping at the first match.
+
+  Searching is limited by the processor, not by the disk, once a file has been
+  read into memory or into the system's file cache.  Big searches are split
+  into chunks that are searched by several helper threads, one per processor
+  by default.  Helpers take chunks in order, and a helper finding a match
+  stops all helpers searching later chunks, so we still report the first
+  match after the start.  Chunks overlap by the search string length minus
+  one, because each chunk has its own range of starting indexes, and chunk
+  sizes are even, so that byte boundaries are the same for all chunks.
+
+  If the data has an n-gram index (see the HexEdit2Index class), findBlocks()
+  asks the index which regions may contain a match, using the 3-byte
+  sequences in the search string where all nibbles are known, and only reads
+  and searches those regions.  Search strings with no such sequence (shorter
+  than three whole bytes) always search everything, and so do patterns.
+
+  "Find Previous" calls findPrevious() to search backwards from a limit, for
+  the match with the latest start.  Plain search strings use Horspool in
+  reverse: blocks are read from the end towards the start, the key byte is the
+  first byte in the pattern with both nibbles known, and the table skips back
+  to the nearest later pattern byte that could be the same as the data byte.
+  This is as fast as searching forwards (but runs on one thread).  Byte
+  patterns search each block forwards from every match found, and take the
+  match with the latest start in the block.
+
+  A byte pattern with wildcards, sets, alternatives, and repeats is compiled
+  by HexEdit2Pattern into an automaton, and findPattern() runs the automaton
+  over each block instead of Horspool.  Pattern searches run on one thread,
+  because the automaton's tables are built while searching, and aren't safe to
+  share between helper threads.
+*/
+
+class HexEdit2Search implements Runnable
+{
+  /* constants */
+
+  static final int BACK_SIZE = 0x10000; // data bytes read by findNullStart()
+  static final int BLOCK_SIZE = 0x100000; // data bytes searched per block
+  static final long CHUNK_SIZE = 0x1000000L; // starting indexes per chunk
+  static final int PREVIOUS_MATCHES = 0x1000; // matches kept by findPrevious()
+
+  /* instance variables */
 
-      searchStatus = new JLabel(EMPTY_STATUS, JLabel.CENTER);
-      if (buttonFont != null) searchStatus.setFont(buttonFont);
-      gbc.anchor = GridBagConstraints.CENTER;
-      gbc.fill = GridBagConstraints.HORIZONTAL;
-      gbc.gridwidth = GridBagConstraints.REMAINDER;
-      panel1.add(searchStatus, gbc);
-      panel1.add(Box.createVerticalStrut(20), gbc);
+  private byte[] back;            // data read backwards, or null
+  boolean backFlag;               // true if background search goes backwards
+  private int[] backKeys;         // first key byte for each alignment, or -1
+  private int[][] backShifts;     // reverse Horspool skips, each alignment
+  private byte[] block;           // one block of data as packed bytes
+  private boolean byteFlag;       // true if matches start on byte boundaries
+  private long bestEnd;           // data position after <chunkBest> match
+  private long bestStart;         // data position of <chunkBest> match
+  volatile boolean cancelFlag;    // true if user wants search stopped
+  long changes;                   // changes() in data when search started
+  private long chunk;             // chunk being searched by this helper
+  private volatile long chunkBest; // earliest chunk with a match found
+  private long chunkCount;        // total number of chunks
+  private long chunkFirst;        // first starting index in first chunk
+  private long chunkLimit;        // starting indexes must be before this
+  private HexEdit2Matches[] chunkMatches; // "Find All" matches in each chunk
+  private long chunkNext;         // next chunk for a helper to search
+  HexEdit2Data data;              // data searched by background thread
+  private boolean directFlag;     // true if ignoring nulls without a pattern
+  volatile boolean doneFlag;      // true when background thread finished
+  private Runnable finished;      // called on GUI thread when search is done
+  private int[][] grams;          // 3-byte sequences for each alignment
+  HexEdit2Index index;            // index of regions to search, or null
+  private int[] keys;             // key byte index for each alignment, or -1
+  private int length;             // search string length in nibbles
+  long limit;                     // background search ends before this
+  private byte[][] masks;         // which nibbles must match, each alignment
+  long matchEnd;                  // data position after last match found
+  HexEdit2Matches matches;        // all matches for "Find All", or null
+  long matchStart;                // result of background search, or -1
+  private RuntimeException failure; // exception thrown by a helper
+  private boolean nullFlag;       // true if null bytes ignored in data
+  private HexEdit2Search parent;  // for helpers, search that started us
+  private HexEdit2Pattern pattern; // compiled byte pattern, or null
+  volatile long progress;         // data position of block being searched
+  private long regionEnd;         // end of regions found by skipRegions()
+  private int running;            // number of helpers still running
+  private int runState;           // automaton state for runBytes()
+  private int[][] shifts;         // Horspool skips for each alignment
+  long start;                     // background search begins here
+  int threads;                    // most helper threads for one search
+  private byte[][] values;        // pattern bytes for each alignment
 
-      /* Fifth and last line has the action buttons. */
+  /* class constructor */
 
-      JPanel panel4 = new JPanel(new FlowLayout(FlowLayout.CENTER, 25, 0));
+  public HexEdit2Search(
+    int[] nibbles,                // search string as nibble values
+    boolean byteFlag,             // true if matches start on byte boundaries
+    boolean nullFlag)             // true if null bytes ignored in data
+  {
+    super();                      // initialize our superclass first (Object)
+    int align;                    // 0 for even starting index, 1 for odd
+    int c;                        // one possible data byte value
+    int i;                        // index variable
+    int size;                     // number of bytes in one pattern
+
+    this.byteFlag = byteFlag;
+    this.cancelFlag = false;      // nobody has asked us to stop
+    this.doneFlag = false;        // no background search finished yet
+    this.length = nibbles.length; // must not be empty
+    this.matchEnd = -1;           // no match found yet
+    this.matches = null;          // caller may want all matches
+    this.nullFlag = nullFlag && ((length % 2) == 0); // only for whole bytes
+    this.parent = null;           // we are not a helper
+    this.threads = 1;             // caller may set more helper threads
+
+    /* Build a pattern for each alignment.  The nibble at search index <i> goes
+    into pattern byte <(i + align) / 2>, in the high-order half if that sum is
+    even. */
+
+    backKeys = new int[2];
+    backShifts = new int[2][];
+    grams = new int[2][];
+    keys = new int[2];
+    masks = new byte[2][];
+    shifts = new int[2][];
+    values = new byte[2][];
+    for (align = 0; align < 2; align ++)
+    {
+      size = (length + align + 1) / 2; // pattern bytes for this alignment
+      masks[align] = new byte[size];
+      values[align] = new byte[size];
+      for (i = 0; i < length; i ++)
+      {
+        int shift = (((i + align) % 2) == 0) ? HexEdit2.NIBBLE_SHIFT : 0;
+        masks[align][(i + align) / 2] |= (byte) (HexEdit2.NIBBLE_MASK
+          << shift);
+        values[align][(i + align) / 2] |= (byte) (nibbles[i] << shift);
+      }
 
-      searchFindButton = new JButton("Find First");
-      searchFindButton.addActionListener(userActions);
-      if (buttonFont != null) searchFindButton.setFont(buttonFont);
-      searchFindButton.setMnemonic(KeyEvent.VK_F);
-      searchFindButton.setToolTipText(
-        "Find first occurrence of search string in file.");
-      panel4.add(searchFindButton);
+      /* The key byte is the last byte with both nibbles known.  The Horspool
+      table says how far to skip ahead, given the data byte under the key
+      byte: the distance to the nearest earlier pattern byte that could be the
+      same, or past the key byte if no earlier pattern byte could be the same.
+      A first pattern byte with one nibble known could be 16 byte values. */
+
+      keys[align] = -1;           // assume no key byte
+      for (i = 0; i < size; i ++)
+        if (masks[align][i] == (byte) HexEdit2.BYTE_MASK)
+          keys[align] = i;
+      shifts[align] = new int[HexEdit2.BYTE_MASK + 1];
+      Arrays.fill(shifts[align], (keys[align] + 1)); // byte not in pattern
+      for (i = 0; i < keys[align]; i ++) // nearest pattern byte goes last
+        for (c = 0; c <= HexEdit2.BYTE_MASK; c ++)
+          if ((c & masks[align][i]) == (values[align][i] & HexEdit2.BYTE_MASK))
+            shifts[align][c] = keys[align] - i;
+
+      /* Going backwards, the key byte is the first byte with both nibbles
+      known, and the table says how far to skip back: the distance to the
+      nearest later pattern byte that could be the same, or before the key
+      byte if no later pattern byte could be the same. */
+
+      backKeys[align] = -1;
+      for (i = size - 1; i >= 0; i --)
+        if (masks[align][i] == (byte) HexEdit2.BYTE_MASK)
+          backKeys[align] = i;
+      backShifts[align] = new int[HexEdit2.BYTE_MASK + 1];
+      Arrays.fill(backShifts[align], (size - backKeys[align]));
+      for (i = size - 1; i > backKeys[align]; i --) // nearest goes last
+        for (c = 0; c <= HexEdit2.BYTE_MASK; c ++)
+          if ((c & masks[align][i]) == (values[align][i] & HexEdit2.BYTE_MASK))
+            backShifts[align][c] = i - backKeys[align];
+
+      /* For an index, each run of three whole bytes is a 3-byte sequence that
+      must be in the data.  Only sequences starting in the first region of a
+      match are useful. */
+
+      c = 0;                      // count sequences first
+      for (i = 0; (i + 2) < Math.min(size, HexEdit2Index.REGION_SIZE); i ++)
+        if ((masks[align][i] & masks[align][i + 1] & masks[align][i + 2])
+          == (byte) HexEdit2.BYTE_MASK)
+        {
+          c ++;
+        }
+      grams[align] = new int[c];
+      c = 0;
+      for (i = 0; (i + 2) < Math.min(size, HexEdit2Index.REGION_SIZE); i ++)
+        if ((masks[align][i] & masks[align][i + 1] & masks[align][i + 2])
+          == (byte) HexEdit2.BYTE_MASK)
+        {
+          grams[align][c ++] = ((values[align][i] & HexEdit2.BYTE_MASK) << 16)
+            | ((values[align][i + 1] & HexEdit2.BYTE_MASK) << 8)
+            | (values[align][i + 2] & HexEdit2.BYTE_MASK);
+        }
+    }
 
-      searchNextButton = new JButton("Find Next");
-      searchNextButton.addActionListener(userActions);
-      if (buttonFont != null) searchNextButton.setFont(buttonFont);
-      searchNextButton.setMnemonic(KeyEvent.VK_N);
-      searchNextButton.setToolTipText(
-        "Find next occurrence of search string.");
-      panel4.add(searchNextButton);
+    block = new byte[BLOCK_SIZE + values[1].length + 1]; // starts and overlap
+    this.directFlag = false;      // assume automaton if ignoring nulls
+    if (this.nullFlag)            // ignoring nulls is done by an automaton
+    {
+      this.byteFlag = true;       // matches start on byte boundaries
+      if (HexEdit2Pattern.fitsPositions(length, true))
+        this.pattern = new HexEdit2Pattern(nibbles, true);
+      else                        // too long, compare byte by byte
+        this.directFlag = true;
+    }
+  }
 
-      searchReplaceButton = new JButton("Replace");
-      searchReplaceButton.addActionListener(userActions);
-      if (buttonFont != null) searchReplaceButton.setFont(buttonFont);
-      searchReplaceButton.setMnemonic(KeyEvent.VK_R);
-      searchReplaceButton.setToolTipText(
-        "Replace current selection or previously found string.");
-      panel4.add(searchReplaceButton);
+  public HexEdit2Search(
+    HexEdit2Pattern pattern,      // compiled byte pattern
+    boolean byteFlag)             // true if matches start on byte boundaries
+  {
+    super();                      // initialize our superclass first (Object)
 
-      searchCloseButton = new JButton("Close");
-      searchCloseButton.addActionListener(userActions);
-      if (buttonFont != null) searchCloseButton.setFont(buttonFont);
-      searchCloseButton.setMnemonic(KeyEvent.VK_C);
-      searchCloseButton.setToolTipText("Close this dialog box.");
-      panel4.add(searchCloseButton);
+    /* A pattern is run by findPattern() instead of Horspool, and doesn't need
+    the tables for plain search strings.  Ignoring nulls isn't allowed. */
+
+    this.block = new byte[BLOCK_SIZE];
+    this.byteFlag = byteFlag;
+    this.cancelFlag = false;
+    this.doneFlag = false;
+    this.length = pattern.minLength; // shortest match, for limits
+    this.matchEnd = -1;
+    this.matches = null;
+    this.nullFlag = false;
+    this.parent = null;
+    this.pattern = pattern;
+    this.threads = 1;             // only one thread runs a pattern
+  }
 
-      gbc.anchor = GridBagConstraints.CENTER;
-      gbc.fill = GridBagConstraints.HORIZONTAL;
-      gbc.gridwidth = GridBagConstraints.REMAINDER;
-      panel1.add(panel4, gbc);
+  private HexEdit2Search(
+    HexEdit2Search parent)        // search that starts this helper
+  {
+    super();                      // initialize our superclass first (Object)
 
-      /* The layout in a grid bag goes strange if there isn't enough space.
-      Box the grid bag inside a flow layout to center it horizontally and stop
-      expansion, then inside a plain box to center it vertically. */
+    /* A helper shares the patterns, which don't change, but needs its own
+    blocks to read data. */
+
+    this.block = new byte[parent.block.length];
+    this.byteFlag = parent.byteFlag;
+    this.cancelFlag = false;
+    this.data = parent.data;
+    this.doneFlag = false;
+    this.grams = parent.grams;
+    this.index = parent.index;
+    this.keys = parent.keys;
+    this.length = parent.length;
+    this.limit = parent.limit;
+    this.masks = parent.masks;
+    this.matchEnd = -1;
+    this.matches = null;          // set for each chunk, if parent has matches
+    this.nullFlag = parent.nullFlag;
+    this.parent = parent;
+    this.shifts = parent.shifts;
+    this.threads = 1;
+    this.values = parent.values;
+  }
 
-      JPanel panel5 = new JPanel(new FlowLayout(FlowLayout.CENTER, 20, 0));
-      panel5.add(panel1);         // put grid bag in a fancy horizontal box
 
-      Box panel6 = Box.createVerticalBox(); // create a basic vertical box
-      panel6.add(Box.createGlue()); // stretch to the top
-      panel6.add(Box.createVerticalStrut(20)); // top margin
-      panel6.add(panel5);         // put boxed grid bag in center
-      panel6.add(Box.createVerticalStrut(20)); // bottom margin
-//    panel6.add(Box.createGlue()); // stretch to bottom (assumed by layout)
+/*
+  collectBlock() method
 
-      /* Position the dialog box.  Like a JFrame, a JDialog doesn't have an
-      initial size.  We "pack" our JDialog layout to the minimum size. */
+  For "Find All", add every match in one block to <matches>, with starting
+  indexes from <position> to before <blockEnd>.  Matches may overlap, and are
+  filtered later.  Both alignments are searched at the same time, so that the
+  matches are added in order.  Stop if the limit on matches is reached.
+*/
+  private void collectBlock(long first, long position, long blockEnd)
+  {
+    int found0, found1;           // next match for each alignment, or -1
+    int upto0, upto1;             // last+1 byte index for starts
 
-      searchDialog = new JDialog((Frame) null, "Find or Replace");
-      searchDialog.getContentPane().add(panel6, BorderLayout.CENTER);
-      searchDialog.pack();        // lay out components, set preferred size
-      searchDialog.setLocation(mainFrame.getX() + 50, mainFrame.getY() + 50);
-    }
+    upto0 = (int) ((blockEnd - first + 1) / 2); // same as in findBlocks()
+    upto1 = byteFlag ? 0 : (int) ((blockEnd - first) / 2);
+    found0 = (int) ((position - first + 1) / 2); // first index to search
+    found1 = (int) ((position - first) / 2);
+    found0 = (found0 >= upto0) ? -1 : searchBlock(0, found0, upto0);
+    found1 = (found1 >= upto1) ? -1 : searchBlock(1, found1, upto1);
 
-    searchStatus.setText(EMPTY_STATUS); // clear any previous search status
-    if (searchDialog.isVisible() == false) // if dialog is closed or hidden
-      searchFindText.requestFocusInWindow();
-                                  // assume user wants to edit search string
-    searchDialog.setVisible(true); // show search dialog or bring to the front
+    while ((found0 >= 0) || (found1 >= 0)) // until no more matches in block
+    {
+      if ((found1 < 0) || ((found0 >= 0) && (found0 <= found1)))
+      {
+        /* Even alignment comes first, because <2 * found0> is less than
+        <(2 * found1) + 1>. */
 
-  } // end of showSearchDialog() method
+        if (matches.add((first + (2L * found0)), (first + (2L * found0)
+          + length)) == false)
+        {
+          return;                 // too many matches
+        }
+        found0 = ((found0 + 1) >= upto0) ? -1 : searchBlock(0, (found0 + 1),
+          upto0);
+      }
+      else                        // odd alignment comes first
+      {
+        if (matches.add((first + (2L * found1) + 1), (first + (2L * found1)
+          + 1 + length)) == false)
+        {
+          return;                 // too many matches
+        }
+        found1 = ((found1 + 1) >= upto1) ? -1 : searchBlock(1, (found1 + 1),
+          upto1);
+      }
+    }
+  } // end of collectBlock() method
 
 
 /*
-  showSearchMessage() method
+  find() method
 
-  Display a text string given by the caller.  If the search dialog is open,
-  then use the message field in the dialog.  Otherwise, use a pop-up dialog.
+  Return the data position of the first match at or after a given start, where
+  the whole match ends before a given limit, or -1 if there is no match.  The
+  end of the match is put in <matchEnd>.  We also return -1 if <cancelFlag> is
+  set while searching.  If the caller wants all matches, they are added to
+  <matches>, and we return the first match.
 */
-  static void showSearchMessage(String text)
+  long find(HexEdit2Data data, long start, long limit)
   {
-    if ((searchDialog != null) && searchDialog.isVisible())
+    long position;                // first starting index
+    long result;                  // data position of match, or -1
+
+    matchEnd = -1;                // no match found yet
+    position = Math.max(0, start);
+    if (byteFlag)                 // does user want searches to be full bytes?
+      position += position % 2;   // yes, round up starting nibble index
+    if ((threads > 1) && (pattern == null) && (directFlag == false)
+      && ((limit - length + 1 - position) > CHUNK_SIZE))
+      result = findParallel(data, position, limit); // big search, use helpers
+    else
+      result = findBlocks(data, position, (limit - length + 1), limit);
+    if (matches != null)          // did caller want all matches?
     {
-      searchStatus.setText(text); // place search result in message field
-      searchDialog.setVisible(true); // bring search dialog to the front
+      if ((pattern != null) && pattern.isList()) // "Find List"?
+        matches.sort();           // yes, matches were found by their ends
+      if (matches.overlapFlag == false) // keep only what Find Next finds?
+        matches.filter();         // yes, remove matches that overlap
+      result = (matches.count > 0) ? matches.starts[0] : -1;
+      matchEnd = (matches.count > 0) ? matches.ends[0] : -1;
     }
-    else
-      JOptionPane.showMessageDialog(mainFrame, text); // simpler pop-up dialog
-  }
+    return(result);
+
+  } // end of find() method
 
 
 /*
-  userButton() method
+  findBlocks() method
 
-  This method is called by our action listener actionPerformed() to process
-  buttons, in the context of the main HexEdit2 class.
+  Search one block at a time for the first match with a starting index from
+  <position> to before <startLimit>, and where the whole match ends before
+  <limit>.  Return the data position of the match, or -1 if there is no match
+  or if the search has been stopped.  For "Find All", collect all matches and
+  return -1.
 */
-  static void userButton(ActionEvent event)
+  private long findBlocks(HexEdit2Data data, long position, long startLimit,
+    long limit)
   {
-    try                           // "out of memory" errors are likely
+    int align;                    // 0 for even starting index, 1 for odd
+    long best;                    // earliest match in this block, or -1
+    long bestEnd;                 // data position after <best> match
+    long blockEnd;                // first starting index after this block
+    int count;                    // number of bytes in <block>
+    long first;                   // data position of first byte in <block>
+    int found;                    // index in <block> of match, or -1
+    int from, upto;               // first and last+1 byte index for starts
+
+    if ((pattern != null) || directFlag) // not by Horspool?
+      return(findPattern(data, position, startLimit, limit));
+    while ((position < startLimit) && (stopped() == false))
     {
-      Object source = event.getSource(); // where the event came from
-      if (source == dumpWidthDialog) // number of input bytes per dump line
-      {
-        /* We can safely parse the dump width as an integer, because we supply
-        the only choices allowed, and the user can't edit this dialog field.
-        Calling adjustScrollBar() or makeVisible() is not possible here,
-        because display sizes are unknown until after the first redraw. */
-
-        dumpWidth = Integer.parseInt((String) dumpWidthDialog
-          .getSelectedItem());    // convert text width to integer
-        textPanel.repaint();      // redraw text display as necessary
-      }
-      else if (source == exitButton) // "Exit" button
+      if (index != null)          // skip regions where no match can start?
       {
-        System.exit(0);           // always exit with zero status from GUI
+        position = skipRegions(position, startLimit);
+        if (position >= startLimit) // no more regions to search?
+          break;
       }
-      else if (source == fontNameDialog) // font name for display text area
-      {
-        /* We can safely assume that the font name is valid, because we
-        obtained the names from getAvailableFontFamilyNames(), and the user
-        can't edit this dialog field.  Calling adjustScrollBar() or
-        makeVisible() is not possible here, because display sizes are unknown
-        until after the first redraw. */
+      progress = position;        // where we are, for showing progress
 
-        fontName = (String) fontNameDialog.getSelectedItem();
-        textPanel.repaint();      // redraw text display as necessary
-      }
-      else if (source == gotoCloseButton) // "Close" button on "go to" dialog
-      {
-        gotoDialog.setVisible(false); // hide "Go To File Offset" dialog box
-      }
-      else if (source == gotoJumpButton) // "Go" button on "Go To File Offset"
-      {
-        gotoFileOffset();         // call common method for this operation
-      }
-      else if (source == gotoOffsetText) // press Enter on "go to" offset text
-      {
-        gotoFileOffset();         // call common method for this operation
-      }
-      else if (source == menuButton) // "Edit Menu" button
-      {
-        showEditMenu(menuButton, 0, menuButton.getHeight(), false);
-      }
-      else if (source == menuCopyCursor) // "Copy Cursor Offset" menu item
-      {
-        copyCursor();             // call common method for this operation
-      }
-      else if (source == menuCopyDump) // "Copy Dump" menu item (selection)
-      {
-        copyDump();               // call common method for this operation
-      }
-      else if (source == menuCopyHex) // "Copy Hex" menu item (selection)
-      {
-        copyHex();                // call common method for this operation
-      }
-      else if (source == menuCopyText) // "Copy Text" menu item (selection)
-      {
-        copyText();               // call common method for this operation
-      }
-      else if (source == menuDelete) // "Delete" menu item (selection)
-      {
-        deleteSelected();         // call common method for this operation
-      }
-      else if (source == menuFind) // "Find" menu item
-      {
-        showSearchDialog();       // call common method for this operation
-      }
-      else if (source == menuGotoOffset) // "Go To File Offset" menu item
-      {
-        showGotoDialog();         // call common method for this operation
-      }
-      else if (source == menuNext) // "Find Next" menu item
-      {
-        searchFindNext();         // call common method for this operation
-      }
-      else if (source == menuPasteHex) // "Paste Hex" menu item
-      {
-        pasteHex();               // call common method for this operation
-      }
-      else if (source == menuPasteText) // "Paste Text" menu item
-      {
-        pasteText();              // call common method for this operation
-      }
-      else if (source == menuReplace) // "Replace" menu item (selection)
-      {
-        searchReplaceThis();      // call common method for this operation
-      }
-      else if (source == menuSelect) // "Select All" menu item
+      /* Get one block as bytes starting on a byte boundary.  The block has
+      room for all starting indexes and the search string after the last
+      starting index, but must not go past <limit> by more than one nibble. */
+
+      first = position - (position % 2); // round down to byte boundary
+      blockEnd = Math.min((first + (2L * BLOCK_SIZE)), startLimit);
+      if (index != null)          // only regions that may have a match
+        blockEnd = Math.min(blockEnd, regionEnd);
+      count = (int) ((Math.min((blockEnd + length), (limit + 1)) - first) / 2);
+      data.getBytes(first, block, 0, count);
+
+      if (matches != null)        // does caller want all matches?
       {
-        selectAll();              // call common method for this operation
+        collectBlock(first, position, blockEnd);
+        position = blockEnd;      // collect all, then try the next block
+        continue;
       }
-      else if (source == openButton) // "Open File" button
+
+      best = bestEnd = -1;        // no match in this block yet
+      for (align = 0; align < (byteFlag ? 1 : 2); align ++)
       {
-        openFile(null);           // ask for file name, read data from file
-        textPanel.beginFile();    // display file from the beginning
+        /* Starting index for byte <i> is <first + (2 * i) + align>.  Find the
+        range of bytes with starting indexes from <position> to before
+        <blockEnd>, or before <best> if the other alignment found a match. */
+
+        from = (int) ((position - first - align + 1) / 2);
+        upto = (int) ((((best >= 0) ? best : blockEnd) - first - align + 1)
+          / 2);
+        if (from >= upto)         // any starting indexes with this alignment?
+          continue;
+
+        found = searchBlock(align, from, upto); // Horspool
+        if (found >= 0)           // was there a match?
+        {
+          best = first + (2L * found) + align;
+          bestEnd = best + length;
+        }
       }
-      else if (source == overDialog) // insert versus overwrite input mode
+      if (best >= 0)              // was there a match in this block?
       {
-        overFlag = overDialog.isSelected(); // transfer GUI to faster boolean
-        textPanel.repaint();      // redraw text display as necessary
+        matchEnd = bestEnd;       // yes, tell caller where match ends
+        return(best);             // and where match starts
       }
-      else if (source == saveButton) // "Save File" button
+      position = blockEnd;        // no, try the next block
+    }
+    matchEnd = -1;                // there was no match
+    return(-1);
+
+  } // end of findBlocks() method
+
+
+/*
+  findNulls() method
+
+  Search for a plain search string while ignoring nulls, for search strings
+  too long to be a pattern, with the same parameters and results as
+  findPattern().  Each byte boundary with the first search byte is tried in
+  order, going forwards one data byte at a time, and a null data byte that
+  isn't the next search byte is skipped (but not before the first search
+  byte).  Taking a search byte whenever it matches never misses a match, and
+  finds the shortest match from that start.  This is how older versions
+  ignored nulls, and takes time proportional to the data size times the
+  search string length in the worst case.  For "Find All", matches don't
+  overlap.
+*/
+  private long findNulls(HexEdit2Data data, long position, long startLimit,
+    long limit)
+  {
+    int count;                    // number of bytes in <block>
+    long end;                     // data position after match, or -1
+    long first;                   // data position of first byte in <block>
+    int i;                        // index variable
+    int key;                      // first search byte
+    long next;                    // next match must start at or after this
+    long start;                   // data position of one possible start
+
+    key = values[0][0] & HexEdit2.BYTE_MASK;
+    next = position + (position % 2); // matches start on byte boundaries
+    position = next;
+    while ((position < startLimit) && (stopped() == false))
+    {
+      progress = position;        // where we are, for showing progress
+      first = position;           // always on a byte boundary
+      count = (int) Math.min(BLOCK_SIZE, ((startLimit - first + 1) / 2));
+      data.getBytes(first, block, 0, count);
+      for (i = 0; i < count; i ++)
       {
-        saveFile();               // ask for file name, write data to file
+        start = first + (2L * i);
+        if ((start < next) || ((block[i] & HexEdit2.BYTE_MASK) != key))
+          continue;               // inside last match, or can't start here
+        end = matchNulls(data, start, limit);
+        if (end < 0)              // was there a match?
+          continue;
+        if (matches == null)      // does caller want only the first match?
+        {
+          matchEnd = end;
+          return(start);
+        }
+        if (matches.add(start, end) == false) // too many matches?
+          return(-1);
+        next = end;               // next match starts after this one
       }
-      else if (source == searchCloseButton) // "Close" button on search dialog
+      position = Math.max((first + (2L * count)), next); // next block
+    }
+    matchEnd = -1;                // there was no match
+    return(-1);
+
+  } // end of findNulls() method
+
+
+/*
+  findNullStart() method
+
+  When ignoring nulls, return the data position where a match starts, given
+  the end of the earliest match found by findPattern().  The search string
+  goes backwards from the end, one data byte at a time, keeping every number
+  of search bytes that are still matched (like the automaton, but backwards
+  and for bytes only).  A null data byte can be skipped before all but the
+  last search byte.  The earliest start at or after <scan> is the match that
+  old versions would have found, and its shortest match ends at <end>.
+*/
+  private long findNullStart(HexEdit2Data data, long scan, long end)
+  {
+    int count;                    // number of bytes left in <back>
+    int dataByte;                 // one byte from the data
+    int hi, lo;                   // range of live states
+    int j;                        // index variable
+    boolean[] live;               // states that are still matched
+    boolean[] next;               // states after this data byte
+    int nextHi, nextLo;           // range of states after this data byte
+    long position;                // data position of <dataByte>
+    long result;                  // earliest start found, or -1
+    boolean[] swap;               // for exchanging <live> and <next>
+    byte[] value;                 // pattern bytes (all nibbles known)
+
+    if (back == null)             // first time we need to read backwards?
+      back = new byte[BACK_SIZE];
+    value = values[0];
+    live = new boolean[value.length + 1]; // state <j> means bytes from <j>
+    next = new boolean[value.length + 1]; // ... to the end were matched
+    live[value.length] = true;    // nothing matched yet at <end>
+    lo = hi = value.length;
+    count = 0;
+    position = end;
+    result = -1;
+    while ((lo <= hi) && ((position - 2) >= scan))
+    {
+      if (count == 0)             // need more data bytes?
       {
-        searchDialog.setVisible(false); // hide search dialog box
+        count = (int) Math.min(back.length, ((position - scan) / 2));
+        data.getBytes((position - (2L * count)), back, 0, count);
       }
-      else if (source == searchFindButton) // "Find First" button on search
+      count --;
+      position -= 2;
+      dataByte = back[count] & HexEdit2.BYTE_MASK;
+      nextHi = -1;
+      nextLo = value.length + 1;
+      for (j = lo; j <= hi; j ++)
       {
-        searchFindFirst();        // call common method for this operation
+        if (live[j] == false)     // is this state matched?
+          continue;
+        live[j] = false;
+        if (dataByte == (value[j - 1] & HexEdit2.BYTE_MASK))
+        {
+          if (j == 1)             // whole search string matched?
+            result = position;    // yes, and an earlier start may follow
+          else
+          {
+            next[j - 1] = true;
+            nextHi = Math.max(nextHi, (j - 1));
+            nextLo = Math.min(nextLo, (j - 1));
+          }
+        }
+        if ((dataByte == 0x00) && (j < value.length)) // skip a null byte?
+        {
+          next[j] = true;
+          nextHi = Math.max(nextHi, j);
+          nextLo = Math.min(nextLo, j);
+        }
       }
-      else if (source == searchFindText) // press Enter on search text
+      swap = live; live = next; next = swap;
+      hi = nextHi;
+      lo = nextLo;
+    }
+    return(result);
+
+  } // end of findNullStart() method
+
+
+/*
+  findParallel() method
+
+  Split a big search into chunks, and start helper threads to search the
+  chunks.  Wait for the helpers to finish, and return the earliest match, the
+  same as find().  An exception thrown by a helper is thrown again here.  For
+  "Find All", each chunk collects its own matches, which are appended to our
+  matches in order.
+*/
+  private long findParallel(HexEdit2Data data, long position, long limit)
+  {
+    HexEdit2Search helper;        // one helper for searching chunks
+    int i;                        // index variable
+    Thread thread;                // thread for one helper
+
+    synchronized (this)           // helpers may not exist yet, but be careful
+    {
+      bestEnd = bestStart = -1;   // no match found yet
+      chunkBest = Long.MAX_VALUE; // no chunk with a match yet
+      chunkFirst = position;      // first starting index in first chunk
+      chunkLimit = limit - length + 1; // starting indexes before this
+      chunkCount = (chunkLimit - chunkFirst + CHUNK_SIZE - 1) / CHUNK_SIZE;
+      chunkMatches = (matches != null) ? new HexEdit2Matches[(int) chunkCount]
+        : null;                   // "Find All" matches for each chunk
+      chunkNext = 0;              // first chunk is next
+      failure = null;             // no exception from helpers yet
+      running = 0;                // no helpers running yet
+      this.data = data;           // helpers copy these from us
+      this.limit = limit;
+    }
+    for (i = 0; i < threads; i ++)
+    {
+      helper = new HexEdit2Search(this); // allocate memory before counting
+      synchronized (this) { running ++; } // one more helper running
+      thread = new Thread(helper, "HexEdit2Search helper");
+      thread.setDaemon(true);     // don't keep program running after exit
+      thread.start();             // helper calls searchChunks()
+    }
+    synchronized (this)           // wait for all helpers to finish
+    {
+      while (running > 0)
       {
-        searchFindNext();         // call common method for this operation
+        try { wait(); } catch (InterruptedException ie) { }
       }
-      else if (source == searchIsText) // user wants text search, not hex
+    }
+    if (failure != null)          // did a helper throw an exception?
+      throw failure;              // yes, pass it along to our caller
+    if (matches != null)          // put "Find All" matches from chunks in order
+    {
+      mergeChunks();
+      chunkMatches = null;        // release memory
+    }
+    progress = chunkLimit;        // finished searching
+    matchEnd = bestEnd;           // data position after match, or -1
+    return(bestStart);            // data position of match, or -1
+
+  } // end of findParallel() method
+
+
+/*
+  findPattern() method
+
+  Search for a compiled byte pattern, with the same parameters and results as
+  findBlocks().  The pattern's automaton reads each data byte once, in order,
+  and new matches may start at any nibble before <startLimit> (or any byte
+  boundary).  When the automaton says that a match ends in a byte, we go again
+  one nibble at a time to find where.  The automaton doesn't know where the
+  match starts, so we check each possible starting index up to the maximum
+  length before the end, and the first one that matches is the match.  Its
+  longest match is taken.  For "Find All", we start the automaton again after
+  each match, so matches don't overlap.  When ignoring nulls, matches have no
+  maximum length, and findNullStart() goes backwards from the end instead.
+  For "Find List", the caller must give
+  <matches>, and every match of every pattern in the list is added, ordered by
+  where the matches end.
+*/
+  private long findPattern(HexEdit2Data data, long position, long startLimit,
+    long limit)
+  {
+    int count;                    // number of nibbles in <window>
+    long end;                     // data position after last match nibble
+    int entry;                    // next state from byte table, or -1
+    long first;                   // data position of first byte in <block>
+    int found;                    // length of match, or -1
+    int i, k;                     // index variables
+    int inject;                   // matches start before this index in block
+    int mode;                     // which byte table: HexEdit2Pattern.INJECT_
+    int nibble;                   // one data nibble
+    long scan;                    // where automaton was started (empty state)
+    int size;                     // number of nibbles in <block>
+    long start;                   // starting index of match
+    int state;                    // current state of automaton
+    int upto;                     // end of run of bytes with same <mode>
+    int[] window;                 // data nibbles for finding match start
+
+    if (directFlag)               // ignoring nulls without an automaton?
+      return(findNulls(data, position, startLimit, limit));
+    limit = Math.min(limit, (startLimit + pattern.maxLength)); // last end
+                                  // may be unbounded when ignoring nulls
+    scan = position;              // automaton starts here in empty state
+    state = 0;
+    window = null;                // allocated when first needed
+    while ((position < limit) && (stopped() == false))
+    {
+      progress = position;        // where we are, for showing progress
+      first = position - (position % 2); // round down to byte boundary
+      size = (int) Math.min((2L * BLOCK_SIZE), (limit - first));
+      data.getBytes(first, block, 0, ((size + 1) / 2));
+      inject = (int) Math.max(0, Math.min(size, (startLimit - first)));
+
+      i = (int) (position - first);
+      while (i < size)
       {
-        if (searchIsText.isSelected()) // selecting text search turns on the
-          searchByteBound.setSelected(true); // ... byte boundary by default
+        if ((state == 0) && (i >= inject)) // no match started, none can start?
+        {
+          matchEnd = -1;          // no more matches after <startLimit>
+          return(-1);
+        }
+
+        /* Runs of whole bytes go through the byte tables, where the same
+        INJECT_ mode applies to both nibbles, until a match may end in a byte
+        or a transition isn't known yet. */
+
+        if (((i % 2) == 0) && ((i / 2) < (upto = ((i < inject) ? inject
+          : size) / 2)))
+        {
+          mode = (i >= inject) ? HexEdit2Pattern.INJECT_NONE : (byteFlag
+            ? HexEdit2Pattern.INJECT_HIGH : HexEdit2Pattern.INJECT_BOTH);
+          runState = state;
+          k = runBytes(pattern.byteNext[mode], (i / 2), upto);
+          state = runState;       // state before byte <k>
+          i = 2 * k;
+          if (k >= upto)          // end of run?
+            continue;
+          entry = pattern.byteNext[mode][(state << 8) + (block[k]
+            & HexEdit2.BYTE_MASK)];
+          if (entry < 0)          // transition not known yet?
+          {
+            if (pattern.isFull()) // are the tables too big?
+              state = pattern.restart(state);
+            entry = pattern.nextByte(state, (block[k] & HexEdit2.BYTE_MASK),
+              mode);
+            if (entry < HexEdit2Pattern.FINAL_BIT) // no match ends in byte?
+            {
+              state = entry;
+              i += 2;
+              continue;
+            }
+          }
+        }
+
+        /* One nibble at a time, near the start and end of each match, and
+        where the start or end of the search isn't on a byte boundary. */
+
+        nibble = (((i % 2) == 0) ? (block[i / 2] >> HexEdit2.NIBBLE_SHIFT)
+          : block[i / 2]) & HexEdit2.NIBBLE_MASK;
+        if (pattern.isFull())     // are the tables too big?
+          state = pattern.restart(state);
+        state = pattern.nextState(state, nibble, ((i < inject) && ((byteFlag
+          == false) || ((i % 2) == 0))));
+        i ++;
+        if (pattern.isFinal(state) == false) // does a match end here?
+          continue;
+        if (pattern.isList())     // "Find List" wants every match
+        {
+          if (pattern.addHits(state, (first + i), matches) == false)
+            return(-1);           // too many matches
+          continue;               // keep going, don't start again
+        }
+
+        /* A match ends before nibble <i>.  Find the first starting index with
+        a match, at or after where the automaton was started.  No match can
+        start earlier than the maximum length before the end. */
+
+        end = first + i;
+        if (nullFlag)             // ignoring nulls in a search string?
+          start = findNullStart(data, scan, end); // match ends at <end>
+        else
+        {
+          if (window == null)     // first time we need the window?
+            window = new int[2 * pattern.maxLength];
+          start = Math.max(scan, (end - pattern.maxLength));
+          count = (int) Math.min(window.length, (limit - start));
+          data.getRange(start, window, 0, count);
+          found = -1;
+          for (k = 0; (start + k) <= (end - pattern.minLength); k ++)
+          {
+            if (byteFlag && (((start + k) % 2) != 0)) // not byte boundary?
+              continue;
+            found = pattern.match(window, k, Math.min(pattern.maxLength,
+              (count - k)));
+            if (found >= 0)       // was there a match here?
+              break;
+          }
+          start = (found < 0) ? -1 : (start + k);
+          end = start + found;    // longest match from <start>
+        }
+        if (start < 0)            // should never happen
+          throw new IllegalStateException("findPattern");
+        if (matches == null)      // does caller want only the first match?
+        {
+          matchEnd = end;
+          return(start);
+        }
+        if (matches.add(start, end) == false) // too many matches?
+          return(-1);
+        scan = position = end;    // start automaton again after match
+        state = 0;
+        if (end >= (first + size)) // is the match end past this block?
+          break;
+        i = (int) (end - first);  // no, continue in this block
       }
-      else if (source == searchNextButton) // "Find Next" button on search
+      position = Math.max(position, (first + size)); // next block
+    }
+    matchEnd = -1;                // there was no match
+    return(-1);
+
+  } // end of findPattern() method
+
+
+/*
+  findPrevious() method
+
+  Return the data position of the last match that starts at or after a given
+  start and ends at or before a given limit, or -1 if there is no match.  The
+  end of the match is put in <matchEnd>.  This is "Find Previous", and blocks
+  are searched backwards from the limit.  We also return -1 if <cancelFlag> is
+  set while searching.
+*/
+  long findPrevious(HexEdit2Data data, long start, long limit)
+  {
+    int align;                    // 0 for even starting index, 1 for odd
+    long best;                    // latest match in this block, or -1
+    long bestEnd;                 // data position after <best> match
+    long blockStart;              // first starting index in this block
+    int count;                    // number of bytes in <block>
+    long first;                   // data position of first byte in <block>
+    int found;                    // index in <block> of match, or -1
+    int from, upto;               // first and last+1 byte index for starts
+    long lastEnd;                 // later pattern matches start before this
+    long next;                    // where to look for a later pattern match
+    long position;                // starting indexes are before this
+    long result;                  // data position of match, or -1
+
+    start = Math.max(0, start);
+    if (byteFlag)                 // does user want searches to be full bytes?
+      start += start % 2;         // yes, round up starting nibble index
+    position = limit - length + 1; // no match can start at or after this
+    while ((position > start) && (stopped() == false))
+    {
+      progress = position;        // where we are, for showing progress
+      blockStart = Math.max(start, (position - (2L * BLOCK_SIZE)));
+      if ((pattern != null) || directFlag) // not by Horspool?
       {
-        searchFindNext();         // call common method for this operation
+        /* An automaton can't run backwards, so find the last match in this
+        block going forwards, the same as "Find All" would (collecting a few
+        thousand matches at a time, so the block isn't read again for each
+        match).  Matches that overlap the last match aren't found that way,
+        and no match starts after the last match ends, so search again from
+        one nibble after the latest start, until the end of the last match. */
+
+        best = bestEnd = -1;
+        next = blockStart;
+        matches = new HexEdit2Matches();
+        matches.limit = PREVIOUS_MATCHES;
+        while (next < position)
+        {
+          matches.count = 0;      // forget matches from before
+          matches.moreFlag = false;
+          findPattern(data, next, position, limit); // adds to <matches>
+          if (matches.count == 0) // no more matches in this block?
+            break;
+          best = matches.starts[matches.count - 1];
+          bestEnd = next = matches.ends[matches.count - 1];
+          if (matches.moreFlag == false) // was that the last match?
+            break;
+        }
+        matches = null;           // back to looking for one match
+        lastEnd = Math.min(position, bestEnd); // no later start after this
+        next = best + 1;          // overlapping matches start after <best>
+        while ((best >= 0) && (next < lastEnd) && ((result = findPattern(data,
+          next, lastEnd, limit)) >= 0))
+        {
+          best = result;
+          bestEnd = matchEnd;
+          next = result + 1;
+        }
+        if (best >= 0)            // was there a match in this block?
+        {
+          matchEnd = bestEnd;
+          return(best);
+        }
+        position = blockStart;    // no, try the block before
+        continue;
       }
-      else if (source == searchReplaceButton) // "Replace" button on search
+
+      /* Get one block as bytes starting on a byte boundary, with room for
+      the search string after the last starting index. */
+
+      first = blockStart - (blockStart % 2); // round down to byte boundary
+      count = (int) ((Math.min((position + length), (limit + 1)) - first)
+        / 2);
+      data.getBytes(first, block, 0, count);
+
+      best = -1;                  // no match in this block yet
+      for (align = 0; align < (byteFlag ? 1 : 2); align ++)
       {
-        searchReplaceThis();      // call common method for this operation
+        from = (int) ((blockStart - first - align + 1) / 2);
+        upto = (int) ((position - first - align + 1) / 2);
+        if (from >= upto)         // any starting indexes with this alignment?
+          continue;
+        found = searchBack(align, from, upto); // reverse Horspool
+        if (found >= 0)           // was there a match?
+          best = Math.max(best, (first + (2L * found) + align));
       }
-      else if (source == searchReplaceText) // press Enter on replacement text
+      if (best >= 0)              // was there a match in this block?
       {
-        searchReplaceThis();      // call common method for this operation
+        matchEnd = best + length; // yes, tell caller where match ends
+        return(best);             // and where match starts
       }
-      else                        // fault in program logic, not by user
+      position = blockStart;      // no, try the block before
+    }
+    matchEnd = -1;                // there was no match
+    return(-1);
+
+  } // end of findPrevious() method
+
+
+/*
+  matchNulls() method
+
+  For findNulls(), compare the search string byte by byte with the data
+  starting at a given byte boundary, skipping null data bytes between search
+  bytes.  Return the data position after the match, or -1 if there is no
+  match that ends at or before the limit.  Data is read in small pieces into
+  <back>, since the match may be much longer than the search string.
+*/
+  private long matchNulls(HexEdit2Data data, long start, long limit)
+  {
+    int count;                    // number of bytes left in <back>
+    int dataByte;                 // one byte from the data
+    int j;                        // index of next search byte
+    int k;                        // index of next byte in <back>
+    long position;                // data position after <dataByte>
+    byte[] value;                 // search bytes (all nibbles known)
+
+    if (back == null)             // first time we need to read data?
+      back = new byte[BACK_SIZE];
+    value = values[0];
+    count = k = 0;
+    position = start;
+    for (j = 0; j < value.length; )
+    {
+      if (count == 0)             // need more data bytes?
       {
-        System.err.println("Error in userButton(): unknown ActionEvent: "
-          + event);               // should never happen, so write on console
+        count = (int) Math.min(back.length, ((limit - position) / 2));
+        if (count <= 0)           // no more data before the limit?
+          return(-1);
+        data.getBytes(position, back, 0, count);
+        k = 0;
       }
+      dataByte = back[k ++] & HexEdit2.BYTE_MASK;
+      count --;
+      position += 2;
+      if (dataByte == (value[j] & HexEdit2.BYTE_MASK)) // next search byte?
+        j ++;
+      else if ((dataByte != 0x00) || (j == 0)) // not a null we can skip?
+        return(-1);
     }
-    catch (OutOfMemoryError oome)
+    return(position);
+
+  } // end of matchNulls() method
+
+
+/*
+  mayStart() method
+
+  Return true if the index says that a match may start in a region, for any
+  alignment that we search.
+*/
+  private boolean mayStart(int region)
+  {
+    int align;                    // 0 for even starting index, 1 for odd
+
+    for (align = 0; align < (byteFlag ? 1 : 2); align ++)
+      if ((grams[align].length == 0) || index.mayMatch(region, grams[align]))
+        return(true);
+    return(false);
+  }
+
+
+/*
+  mergeChunks() method
+
+  Put the "Find All" matches from each chunk after our matches, in order.  If
+  overlapping matches are skipped, each chunk has only the matches that "Find
+  Next" would find from the first match in the chunk.  When the last match in
+  earlier chunks overlaps the first match in a chunk, "Find Next" may find
+  other matches instead.  Then we search again from the end of our last
+  match, one block at a time, until we find a match that the chunk also has,
+  and the rest of the chunk is the same.  (For example, "00 00" on null bytes
+  has matches at every nibble, and the chunk may have the odd starts where we
+  have the even starts.  Then the whole chunk is searched again.)
+*/
+  private void mergeChunks()
+  {
+    long chunkEnd;                // first starting index after chunk
+    int i;                        // index of chunk
+    int j;                        // index of match in <window>
+    int k;                        // index of match in chunk
+    HexEdit2Matches kept;         // our matches, while searching again
+    HexEdit2Matches other;        // matches from one chunk
+    long position;                // where to search again
+    HexEdit2Matches window;       // matches found by searching again
+    long windowEnd;               // first starting index after <window>
+
+    kept = matches;               // findBlocks() collects into <matches>
+    for (i = 0; (i < chunkCount) && (chunkMatches[i] != null); i ++)
     {
-      memoryError("userButton");  // nicely tell user that we failed
+      other = chunkMatches[i];
+      k = 0;                      // first match in chunk
+      if ((kept.overlapFlag == false) && (kept.count > 0) && (other.count
+        > 0) && (other.starts[0] < kept.ends[kept.count - 1]))
+      {
+        /* Our last match overlaps the chunk's first match. */
+
+        chunkEnd = Math.min((chunkFirst + ((i + 1) * CHUNK_SIZE)),
+          chunkLimit);
+        position = kept.ends[kept.count - 1];
+        while (true)
+        {
+          if (position >= chunkEnd) // searched all of this chunk again?
+          {
+            k = other.count;      // yes, use nothing from the chunk
+            break;
+          }
+          windowEnd = Math.min((position + (2L * BLOCK_SIZE)), chunkEnd);
+          window = new HexEdit2Matches(); // skips overlapping matches
+          window.limit = Integer.MAX_VALUE; // no more than one block
+          matches = window;
+          try { findBlocks(data, position, windowEnd, limit); }
+          finally { matches = kept; }
+          for (j = 0; j < window.count; j ++)
+          {
+            while ((k < other.count) && (other.starts[k] < window.starts[j]))
+              k ++;               // skip chunk matches before this match
+            if ((k < other.count) && (other.starts[k] == window.starts[j]))
+              break;              // same match as chunk, rest is the same
+            if (kept.add(window.starts[j], window.ends[j]) == false)
+              return;             // stop at limit on number of matches
+          }
+          if (j < window.count)   // did we find a match the chunk has?
+            break;
+          position = Math.max(windowEnd, kept.ends[kept.count - 1]);
+        }
+      }
+      if (kept.append(other, k) == false)
+        return;                   // stop at limit on number of matches
     }
-  } // end of userButton() method
 
-} // end of HexEdit2 class
+  } // end of mergeChunks() method
 
-// ------------------------------------------------------------------------- //
 
 /*
-  HexEdit2Data class
+  run() method
 
-  This class maintains an array of byte data.  Data elements are expected to be
-  nibbles with values from 0 to 15, although this is not enforced.  Calls are
-  similar to the standard Java classes for List and Vector.  The order of the
-  parameters and their interpretation may differ.
+  Search in a background thread, with the parameters given to startThread(),
+  or search chunks for a parent search if we are a helper thread.
+  The data may be changed by the GUI thread while we search, and if a change
+  makes our position no longer valid, the data throws an exception; we stop
+  and let the caller compare changes() to find out why.
+*/
+  public void run()
+  {
+    if (parent != null)           // are we a helper for a bigger search?
+    {
+      searchChunks();             // yes, search chunks given by our parent
+      return;
+    }
+    try                           // data may change under our feet
+    {
+      matchStart = backFlag ? findPrevious(data, start, limit) : find(data,
+        start, limit);
+    }
+    catch (RuntimeException re)   // most likely data got shorter
+    {
+      matchStart = matchEnd = -1; // no reliable result
+    }
+    doneFlag = true;              // tell GUI thread we are done
+    SwingUtilities.invokeLater(finished); // and report results on GUI thread
+  }
 
-  A hex editor is a classic compromise between speed and memory requirements.
-  The smallest way of storing file data is as a single array of bytes, with one
-  array element per file byte.  The fastest way of reading and replacing nibble
-  data is as a single array with one element per nibble.  Inserting or deleting
-  elements in a single array would require (on average) shuffling half of the
-  elements each time.  This is impractical for large file sizes.  The fastest
-  way to insert and delete is to have each nibble as a separate element in a
-  height-balanced binary tree, which wastes too much space for small elements.
 
-  A rough estimate shows that Java is capable of moving at least 10 million
-  bytes per second in a tight <for> loop:
+/*
+  runBytes() method
+
+  The fast path for findPattern(): follow a byte table for bytes in <block>
+  from <from> to before <upto>, starting in <runState>.  Stop at the first
+  byte where a match may end, or where the transition isn't known yet, and
+  return the index of that byte (or <upto>).  The state before that byte is
+  left in <runState>.  This is a separate method so that the compiler can do
+  its best with a small loop.  Most of the time, no match is in progress (the
+  empty state 0), and bytes that stay in state 0 are skipped without waiting
+  for each table lookup to finish before starting the next one.
+*/
+  private int runBytes(int[] table, int from, int upto)
+  {
+    int entry;                    // next state from table
+    int i;                        // index variable
+    int state;                    // current state, local for speed
 
-      byte[] second = new byte[first.length];
-      for (int i = 0; i < first.length; i ++)
-        second[i] = first[i];
+    state = runState;
+    for (i = from; i < upto; i ++)
+    {
+      if (state == 0)             // no match in progress?
+      {
+        while ((i < upto) && (table[block[i] & HexEdit2.BYTE_MASK] == 0))
+          i ++;                   // skip bytes that can't start a match
+        if (i >= upto)            // end of run?
+          break;
+      }
+      entry = table[(state << 8) | (block[i] & HexEdit2.BYTE_MASK)];
+      if ((entry < 0) || (entry >= HexEdit2Pattern.FINAL_BIT))
+        break;                    // slow path for this byte
+      state = entry;
+    }
+    runState = state;
+    return(i);
+  }
 
-  Times were obtained with Java 1.4.2 and Windows 2000 on an Intel Pentium 4
-  processor at 2.4 GHz, about five years old by current standards, so most
-  other machines have equal or greater performance.  Users will notice GUI
-  delays of more than 1/10 of a second.  That means moving much less than a
-  megabyte per keystroke.
 
-  In a hex editor, most of the time, the user is only viewing the data.  When
-  changes are made, they occur around a cursor location: insert, delete, or
-  replace.  The algorithms below assume that it is tolerable to have a small
-  delay when first making changes at a new cursor location.  After that, most
-  changes will happen without a delay.
-
-  The data is split into two byte arrays of nibble values.  The "left" array
-  has data to the left (or before) an imaginary editing cursor.  The "right"
-  array has data to the right (or after) this editing cursor.  (The editing
-  cursor is derived from the user's real cursor, but tends to lag behind.)
-  Backward deletes (the Backspace key) always remove trailing elements from the
-  left array.  Forward deletes always remove leading elements from the right
-  array.  Inserts go at the end of the left array.  Fetches and replacements go
-  to whichever array is appropriate.  When the editing cursor changes, the
-  arrays are split at a new location to make changes possible.
-
-  This is neither optimal for speed nor for memory storage.  It is relatively
-  fast and easy to implement.  The default Java virtual machine should be able
-  to handle files up to 10 megabytes (given the default maximum heap size of 60
-  or so megabytes), which is considerably more than the one megabyte that could
-  be done previously when each nibble was stored as an element in a Vector
-  object.
-
-  The caller can help by always inserting or deleting sequentially from a
-  cursor location.  For example, when deleting a byte with the Backspace key
-  (backward direction), delete the low-order nibble first, then the high-order
-  nibble.  When deleting a byte with the Delete key (forward), delete the high-
-  order nibble, then the low-order nibble.
+/*
+  searchBack() method
+
+  Search one block of bytes backwards with the Horspool algorithm in reverse,
+  using the pattern for one alignment.  Return the index in <block> of the
+  last match, or -1 if there is no match.  Only indexes from <from> to before
+  <upto> may start a match.
 */
+  private int searchBack(int align, int from, int upto)
+  {
+    byte b;                       // data byte under the key byte
+    int i, k;                     // index variables
+    int key;                      // index of key byte in pattern
+    byte keyValue;                // value of key byte
+    byte[] mask;                  // which nibbles must match
+    int[] shift;                  // reverse Horspool table
+    byte[] value;                 // pattern bytes
+
+    key = backKeys[align];
+    mask = masks[align];
+    shift = backShifts[align];
+    value = values[align];
+    if (key < 0)                  // no key byte, so check every index
+    {
+      for (i = upto - 1; i >= from; i --)
+      {
+        for (k = 0; k < value.length; k ++)
+          if ((block[i + k] & mask[k]) != value[k])
+            break;
+        if (k == value.length)    // did all pattern bytes match?
+          return(i);
+      }
+      return(-1);
+    }
+    keyValue = value[key];
+    i = upto - 1;                 // last starting index in <block>
+    while (i >= from)             // until all starting indexes are checked
+    {
+      b = block[i + key];         // data byte under key byte
+      if (b == keyValue)          // compare key byte first
+      {
+        for (k = value.length - 1; k >= 0; k --) // then compare all bytes
+          if ((block[i + k] & mask[k]) != value[k])
+            break;
+        if (k < 0)                // did all pattern bytes match?
+          return(i);
+      }
+      i -= shift[b & HexEdit2.BYTE_MASK]; // skip back by reverse table
+    }
+    return(-1);                   // no match in this block
 
-class HexEdit2Data
-{
-  /* constants */
+  } // end of searchBack() method
 
-  static private final int PadSIZE = 4096; // extra space added to arrays
 
-  /* instance variables */
+/*
+  searchBlock() method
 
-  private byte[] leftArray;       // elements before imaginary editing cursor
-  private int leftUsed;           // number of data elements actually used in
-                                  // ... <leftArray> starting at index zero
-  private byte[] rightArray;      // elements after imaginary editing cursor
-  private int rightBegin;         // index of first used element
-  private int rightEnd;           // index *after* last used element
-  private int totalSize;          // total number of used elements
+  Search one block of bytes with the Horspool algorithm, using the pattern for
+  one alignment.  Return the index in <block> of the first match, or -1 if
+  there is no match.  Only indexes from <from> to before <upto> may start a
+  match.
+*/
+  private int searchBlock(int align, int from, int upto)
+  {
+    byte b;                       // data byte under the key byte
+    int i, k;                     // index variables
+    int key;                      // index of key byte in pattern
+    byte keyValue;                // value of key byte
+    byte[] mask;                  // which nibbles must match
+    int[] shift;                  // Horspool table
+    byte[] value;                 // pattern bytes
+
+    key = keys[align];
+    mask = masks[align];
+    shift = shifts[align];
+    value = values[align];
+    if (key < 0)                  // no key byte, so check every index
+    {
+      for (i = from; i < upto; i ++)
+      {
+        for (k = 0; k < value.length; k ++)
+          if ((block[i + k] & mask[k]) != value[k])
+            break;
+        if (k == value.length)    // did all pattern bytes match?
+          return(i);
+      }
+      return(-1);
+    }
+    keyValue = value[key];
+    i = from;                     // first starting index in <block>
+    while (i < upto)              // until all starting indexes are checked
+    {
+      b = block[i + key];         // data byte under key byte
+      if (b == keyValue)          // compare key byte first
+      {
+        for (k = 0; k < value.length; k ++) // then compare all bytes
+          if ((block[i + k] & mask[k]) != value[k])
+            break;
+        if (k == value.length)    // did all pattern bytes match?
+          return(i);
+      }
+      i += shift[b & HexEdit2.BYTE_MASK]; // skip ahead by Horspool table
+    }
+    return(-1);                   // no match in this block
 
-  /* class constructor */
+  } // end of searchBlock() method
 
-  public HexEdit2Data(int capacity)
+
+/*
+  searchChunks() method
+
+  For a helper thread, search chunks in order until there are no more chunks,
+  or until a match is found in an earlier chunk, or until the search is
+  cancelled.  All changes to our parent are synchronized on our parent.  For
+  "Find All", a chunk with too many matches is treated like finding a match.
+*/
+  private void searchChunks()
   {
-    super();                      // initialize our superclass first (Object)
+    long found;                   // data position of match, or -1
+    long from;                    // first starting index in our chunk
 
-    if (capacity >= 0)            // initial capacity can't be negative
+    try                           // data may change under our feet
+    {
+      while (true)                // until there are no more chunks for us
+      {
+        synchronized (parent)
+        {
+          if (parent.cancelFlag || (parent.chunkNext >= parent.chunkCount)
+            || (parent.chunkNext > parent.chunkBest))
+          {
+            break;                // nothing more to do
+          }
+          chunk = parent.chunkNext ++; // take the next chunk
+        }
+        if (parent.matches != null) // does caller want all matches?
+        {
+          matches = new HexEdit2Matches(); // yes, for this chunk only
+          matches.limit = parent.matches.limit; // no more than parent keeps
+          matches.overlapFlag = parent.matches.overlapFlag; // same matches
+        }
+        from = parent.chunkFirst + (chunk * CHUNK_SIZE);
+        found = findBlocks(data, from, Math.min((from + CHUNK_SIZE),
+          parent.chunkLimit), limit);
+        synchronized (parent)
+        {
+          if ((found >= 0) && (chunk < parent.chunkBest)) // earliest match?
+          {
+            parent.bestEnd = matchEnd;
+            parent.bestStart = found;
+            parent.chunkBest = chunk; // stops helpers in later chunks
+          }
+          if (matches != null)    // collecting all matches?
+          {
+            parent.chunkMatches[(int) chunk] = matches;
+            if (matches.moreFlag && (chunk < parent.chunkBest)) // full?
+              parent.chunkBest = chunk; // later chunks aren't needed
+          }
+          parent.progress = Math.max(parent.progress, (from + CHUNK_SIZE));
+        }
+      }
+    }
+    catch (RuntimeException re)   // most likely data got shorter
     {
-      leftArray = new byte[PadSIZE]; // create empty left array
-      rightArray = new byte[capacity + PadSIZE]; // create empty right array
-      leftUsed = rightBegin = rightEnd = totalSize = 0;
+      synchronized (parent) { parent.chunkBest = -1; parent.failure = re; }
+                                  // stop all helpers
     }
-    else
+    synchronized (parent)         // tell parent that we are done
     {
-      throw new IllegalArgumentException("HexEdit2Data capacity " + capacity
-        + " can't be negative");
+      parent.running --;
+      parent.notifyAll();
     }
+  } // end of searchChunks() method
+
+
+/*
+  skipRegions() method
+
+  Using the index, return the first starting index at or after <position> in
+  a region where a match may start, or <startLimit> if there is no such
+  region.  The end of the regions that follow and may also have a match is
+  put in <regionEnd>.  A region may have a match if all 3-byte sequences for
+  one alignment may be there.  An alignment without sequences matches
+  anywhere.
+*/
+  private long skipRegions(long position, long startLimit)
+  {
+    long last;                    // last region with starting indexes
+    long region;                  // region being checked
+
+    last = (startLimit - 1) / (2L * HexEdit2Index.REGION_SIZE);
+    region = position / (2L * HexEdit2Index.REGION_SIZE);
+    while ((region <= last) && (mayStart((int) region) == false))
+      region ++;                  // skip regions that can't have a match
+    position = Math.max(position, (2L * region * HexEdit2Index.REGION_SIZE));
+    while ((region <= last) && mayStart((int) region))
+      region ++;                  // and find the end of the others
+    regionEnd = Math.min(startLimit, (2L * region
+      * HexEdit2Index.REGION_SIZE));
+    return(Math.min(position, startLimit));
   }
 
 
 /*
-  append() method
+  startThread() method
 
-  Append a new element to the end of the data.  Produces the same result as
-  inserting or replacing immediately after the last element.
+  Start searching in a background thread, the same as calling find() with the
+  same parameters.  The result goes into <matchStart> and <matchEnd>, and then
+  <finished> is called on the GUI thread.
 */
-  void append(int value)
+  void startThread(HexEdit2Data data, long start, long limit,
+    Runnable finished)
   {
-    put(size(), value);           // use common processing
+    Thread thread;                // background thread for this search
+
+    this.changes = data.changes(); // to know if data changed during search
+    this.data = data;
+    this.finished = finished;
+    this.limit = limit;
+    this.matchStart = this.matchEnd = -1; // no match found yet
+    this.progress = this.start = start;
+    thread = new Thread(this, "HexEdit2Search");
+    thread.setDaemon(true);       // don't keep program running after exit
+    thread.start();               // start searching
   }
 
 
 /*
-  clear() method
+  stopped() method
+
+  Return true if this search should stop: if the user cancelled, or if we are
+  a helper and a match has been found in an earlier chunk, or if there are too
+  many matches for "Find All".
+*/
+  private boolean stopped()
+  {
+    return(cancelFlag || ((matches != null) && matches.moreFlag)
+      || ((parent != null) && (parent.cancelFlag || (parent.chunkBest
+      < chunk))));
+  }
+
+} // end of HexEdit2Search class
+
+// ------------------------------------------------------------------------- //
 
-  Without allocating new arrays, make them look empty.  All data becomes lost.
-  This method is not used anywhere in this program, but is included for a sense
-  of completeness.
+/*
+  HexEdit2Source class
+
+  This class is the original data for the piece table in HexEdit2Data, which
+  is never changed.  The data is either a byte array in memory, or a file that
+  is mapped into memory.  Mapping a file is almost instant, because the system
+  only reads pages of the file when they are first used (by painting the
+  display, searching, or saving) and uses no Java heap for them.  A mapped
+  buffer is limited to two gigabytes, so big files are mapped as a series of
+  smaller "windows".
+
+  Mapped files have some risks.  The file is read-only to us, but if another
+  program changes the file, then our data changes, and if another program
+  makes the file shorter, then Java may throw an internal error.  Some systems
+  (Windows) don't allow a mapped file to be replaced until the mapping is gone,
+  and Java has no way of removing a mapping except by garbage collection.
 */
-  void clear()
+
+class HexEdit2Source
+{
+  /* constants */
+
+  static final int WINDOW_SHIFT = 26; // bits for byte offset inside window
+  static final int WINDOW_SIZE = 1 << WINDOW_SHIFT; // bytes per window (64 MB)
+
+  /* instance variables */
+
+  private byte[] array;           // data in memory, or null if mapped
+  private FileChannel channel;    // channel for mapped file, or null
+  private File file;              // mapped file, or null if in memory
+  private RandomAccessFile fileAccess; // opened mapped file, or null
+  private long size;              // total number of data bytes
+  private MappedByteBuffer[] windows; // mapped windows, in order
+
+  /* class constructors */
+
+  public HexEdit2Source(byte[] array, int length)
+  {
+    super();                      // initialize our superclass first (Object)
+    this.array = array;           // data in memory
+    this.channel = null;          // no file
+    this.file = null;
+    this.fileAccess = null;
+    this.size = length;           // may be less than array size
+    this.windows = null;
+  }
+
+  public HexEdit2Source(File file) throws IOException
   {
-    leftUsed = rightBegin = rightEnd = totalSize = 0;
+    super();                      // initialize our superclass first (Object)
+    int count;                    // number of windows
+    int i;                        // index variable
+
+    this.array = null;            // no data in memory
+    this.file = file;             // remember which file we mapped
+    this.fileAccess = new RandomAccessFile(file, "r"); // read only
+    try                           // close file if mapping fails
+    {
+      this.channel = fileAccess.getChannel();
+      this.size = channel.size(); // total number of bytes in file
+      count = (int) ((size + WINDOW_SIZE - 1) >> WINDOW_SHIFT);
+      this.windows = new MappedByteBuffer[count];
+      for (i = 0; i < count; i ++) // map each window, but read nothing yet
+      {
+        long offset = ((long) i) << WINDOW_SHIFT; // file offset of window
+        windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+          Math.min(WINDOW_SIZE, (size - offset)));
+      }
+    }
+    catch (IOException ioe)
+    {
+      fileAccess.close();         // give up on this file
+      throw ioe;                  // and let caller report the error
+    }
   }
 
 
 /*
-  delete() method
+  close() method
 
-  Delete one element at a given location.  Following elements appear to be
-  shuffled left, when in fact, they usually don't move: a pointer changes.
+  Close a mapped file.  Does nothing for data in memory.
 */
-  void delete(int position)
+  void close()
   {
-    refreshSize();                // refresh total number of data elements
-    if ((position < 0) || (position >= totalSize)) // is position within range?
-      error(position);            // no, indicate an error
-    else if (position == (leftUsed - 1))
-      leftUsed --;                // throw away one position on the left
-    else if (position == leftUsed)
-      rightBegin ++;              // throw away leading position on the right
-    else if (position == (totalSize - 1))
-      rightEnd --;                // throw away trailing position on the right
-    else
+    if (fileAccess != null)       // is there a file to close?
     {
-      if (split(position))        // break arrays at this position
-        rightBegin ++;            // throw away leading position on the right
+      try { fileAccess.close(); } // closing may fail, but we don't care
+      catch (IOException ioe) { /* ignore errors */ }
+      fileAccess = null;          // don't close twice
     }
-  } // end of delete() method
+  }
 
 
 /*
-  error() method
+  getByte() and getNibble() methods
 
-  Throws an "array index out of bounds" exception.  The caller gives us the
-  invalid array index to report.
-
-  The caller should not assume that this terminates processing, because the
-  error may be thrown or may later be changed to a System.err.print() call.
+  Return one data byte (as an unsigned integer) given the byte offset, or one
+  data nibble given the nibble index.
 */
-  private void error(int position)
+  int getByte(long offset)
   {
-    throw new ArrayIndexOutOfBoundsException("HexEdit2Data index " + position
-      + " is not from 0 to " + size());
+    if (array != null)            // is data in memory?
+      return(array[(int) offset] & HexEdit2.BYTE_MASK);
+    else                          // data is in mapped file
+      return(windows[(int) (offset >> WINDOW_SHIFT)].get((int) (offset
+        & (WINDOW_SIZE - 1))) & HexEdit2.BYTE_MASK);
+  }
+
+  int getNibble(long index)
+  {
+    int value = getByte(index / 2); // get the byte with this nibble
+    if ((index % 2) == 0)         // high-order nibble?
+      return((value >> HexEdit2.NIBBLE_SHIFT) & HexEdit2.NIBBLE_MASK);
+    else                          // low-order nibble
+      return(value & HexEdit2.NIBBLE_MASK);
   }
 
 
 /*
-  get() method
+  getNibbles() method
 
-  Return the value of an element at a given location, as an unsigned integer.
+  Copy a range of data nibbles into the caller's array, one byte at a time
+  (two nibbles) except for a low-order nibble at the start or a high-order
+  nibble at the end.  The caller checks the range.
 */
-  int get(int position)
+  void getNibbles(long index, int[] values, int offset, int count)
   {
-    int result;                   // byte value as unsigned integer
+    int end;                      // caller's array index after last nibble
+    int value;                    // one data byte as an unsigned integer
 
-    if ((position < 0) || (position >= size())) // is position within range?
+    end = offset + count;         // where copying stops
+    if (((index % 2) != 0) && (offset < end)) // start with low-order nibble?
     {
-      error(position);            // no, indicate an error
-      result = -1;                // in case error() returns to us
+      values[offset ++] = getByte(index / 2) & HexEdit2.NIBBLE_MASK;
+      index ++;                   // now on a byte boundary
     }
-    else if (position < leftUsed) // if data can be found in left array
-      result = ((int) leftArray[position]) & HexEdit2.BYTE_MASK;
-    else                          // otherwise data must be in right array
-      result = ((int) rightArray[position - leftUsed + rightBegin])
-        & HexEdit2.BYTE_MASK;
-
-    return(result);               // give caller whatever we could find
-
-  } // end of get() method
+    while ((offset + 1) < end)    // copy both nibbles from whole bytes
+    {
+      value = getByte(index / 2);
+      values[offset ++] = value >> HexEdit2.NIBBLE_SHIFT;
+      values[offset ++] = value & HexEdit2.NIBBLE_MASK;
+      index += 2;
+    }
+    if (offset < end)             // end with a high-order nibble?
+      values[offset] = getByte(index / 2) >> HexEdit2.NIBBLE_SHIFT;
+  }
 
 
 /*
-  insert() method
+  getBytes() method
 
-  Insert a new element at a given location.  The element at that location will
-  be shuffled right and will be after the inserted element.  For convenience,
-  the location may be immediately after the last element, and is equivalent to
-  calling the append() method.
+  Copy a range of data bytes into the caller's array.  The caller checks the
+  range.
 */
-  void insert(int position, int value)
+  void getBytes(long offset, byte[] buffer, int index, int count)
   {
-    refreshSize();                // refresh total number of data elements
-    if ((position < 0) || (position > totalSize)) // is position within range?
-      error(position);            // no, indicate an error
-    else if ((position == leftUsed) && (leftUsed < leftArray.length))
-      leftArray[leftUsed ++] = (byte) value;
-    else if ((position == totalSize) && (rightEnd < rightArray.length))
-      rightArray[rightEnd ++] = (byte) value;
-    else
+    int length;                   // number of bytes copied from one window
+
+    if (array != null)            // is data in memory?
+      System.arraycopy(array, (int) offset, buffer, index, count);
+    else while (count > 0)        // data is in mapped file
     {
-      if (split(position))        // break arrays at this position
-        leftArray[leftUsed ++] = (byte) value; // insert new element on left
+      ByteBuffer window = windows[(int) (offset >> WINDOW_SHIFT)].duplicate();
+                                  // duplicate keeps original position
+      window.position((int) (offset & (WINDOW_SIZE - 1)));
+      length = Math.min(count, window.remaining()); // bytes in this window
+      window.get(buffer, index, length);
+      count -= length;            // fewer bytes remaining
+      index += length;            // next place in caller's array
+      offset += length;           // next data byte, maybe in next window
     }
-  } // end of insert() method
+  } // end of getBytes() method
 
 
 /*
-  put() method
+  getFile() method
 
-  Replace the element at a given location with a new value.  For convenience,
-  the location may be immediately after the last element, and is equivalent to
-  calling the append() method.
+  Return the mapped file, or null if the data is in memory.
 */
-  void put(int position, int value)
+  File getFile()
   {
-    refreshSize();                // refresh total number of data elements
-    if ((position < 0) || (position > totalSize)) // is position within range?
-      error(position);            // no, indicate an error
-    else if (position < leftUsed) // replace element in left array?
-      leftArray[position] = (byte) value;
-    else if (position < totalSize) // replace element in right array?
-      rightArray[position - leftUsed + rightBegin] = (byte) value;
-    else if (rightEnd < rightArray.length) // append element to right array?
-      rightArray[rightEnd ++] = (byte) value;
-    else
-    {
-      if (split(position))        // put everything in left array (totalSize)
-        leftArray[leftUsed ++] = (byte) value; // insert new element on left
-    }
-  } // end of put() method
+    return(file);
+  }
 
 
 /*
-  refreshSize() method
+  load() method
 
-  Internal method to recalculate the total number of data elements used in both
-  arrays.  This is an easy but frequently used calculation.
+  Return a copy of this data that is in memory, and close any mapped file.  If
+  the data is already in memory, then return this same object.
 */
-  private void refreshSize()
+  HexEdit2Source load() throws IOException
   {
-    totalSize = leftUsed + rightEnd - rightBegin;
+    byte[] buffer;                // all data bytes in memory
+    int i;                        // index variable
+
+    if (array != null)            // already in memory?
+      return(this);
+    if (size > Integer.MAX_VALUE) // Java arrays have an integer index
+      throw new IOException("Can't copy more than two gigabytes into memory.");
+    buffer = new byte[(int) size]; // allocate memory for all data
+    for (i = 0; i < windows.length; i ++) // copy each window
+    {
+      ByteBuffer window = windows[i].duplicate(); // don't change position
+      window.position(0);
+      window.get(buffer, (i * WINDOW_SIZE), window.remaining());
+    }
+    close();                      // we no longer need the file
+    return(new HexEdit2Source(buffer, buffer.length));
   }
 
 
 /*
   size() method
 
-  Return the total number of data elements.
+  Return the total number of data bytes.
 */
-  int size()
+  long size()
   {
-    refreshSize();                // refresh total number of data elements
-    return(totalSize);            // and return that value to the caller
+    return(size);
   }
 
 
 /*
-  split() method
+  writeBytes() method
 
-  Split the left and right arrays at a given location.  Any positions less than
-  the given location will be in the left array; positions greater than or equal
-  will be in the right array.
-
-  This method is never called frivolously: either the arrays are currently
-  divided at the wrong position, or there isn't enough room left for inserting.
-  This is the one method that must be very efficient.
-
-  While "out of memory" errors are likely, we don't catch those here.  That is
-  done by much higher-level methods in the "main" class that are able to cancel
-  entire transactions and properly report to the user.  We just make sure that
-  our internal data will be in a consistent state even if an exception occurs
-  (that is, work on temporary copies, replace global copies when done).
+  Write a range of data bytes to an output channel.  Mapped files are copied
+  with transferTo(), which lets the system move bytes from file to file without
+  going through our memory.  The caller checks the range.
 */
-  private boolean split(int position)
+  void writeBytes(FileChannel output, long offset, long count)
+    throws IOException
   {
-    int count;                    // number of bytes that will be copied
-    int from;                     // index where bytes will be copied from
-    int i;                        // index variable
-    byte[] newLeftArray, newRightArray; // new byte arrays that we are making
-    int newLeftUsed, newRightUsed; // number of bytes used in new arrays
-    boolean result;               // true if split successful, false otherwise
+    long done;                    // number of bytes written by one call
 
-    refreshSize();                // refresh total number of data elements
-    result = false;               // assume that split will fail
-    if ((position < 0) || (position > totalSize)) // is position within range?
-      error(position);            // no, indicate an error
-    else                          // must be a valid split
+    if (array != null)            // is data in memory?
     {
-      /* Copy portion of left array that remains in left array.  The <count>
-      variables below may be negative if a situation does not apply. */
-
-      newLeftArray = new byte[position + PadSIZE]; // allocate new left array
-      count = Math.min(leftUsed, position); // number of bytes to copy
-      newLeftUsed = 0;            // where they go in new left array
-      for (i = 0; i < count; i ++)
-        newLeftArray[newLeftUsed ++] = leftArray[i];
-
-      /* Copy portion of left array that comes from right array. */
-
-      count = position - leftUsed; // number of bytes to copy
-      from = rightBegin;          // where we start copying bytes from
-      for (i = 0; i < count; i ++)
-        newLeftArray[newLeftUsed ++] = rightArray[from ++];
-
-      /* Copy portion of right array that comes from left array. */
-
-      newRightArray = new byte[totalSize - position + PadSIZE];
-      count = leftUsed - position;
-      from = position;
-      newRightUsed = 0;           // where bytes go in new right array
-      for (i = 0; i < count; i ++)
-        newRightArray[newRightUsed ++] = leftArray[from ++];
-
-      /* Copy portion of right array that remains in right array. */
-
-      count = totalSize - Math.max(leftUsed, position);
-      from = rightEnd - count;
-      for (i = 0; i < count; i ++)
-        newRightArray[newRightUsed ++] = rightArray[from ++];
-
-      /* Replace existing instance variables with our new variables. */
-
-      leftArray = newLeftArray;
-      leftUsed = newLeftUsed;
-      rightArray = newRightArray;
-      rightBegin = 0;
-      rightEnd = newRightUsed;
-
-      result = true;              // declare that split was successful
+      ByteBuffer wrapped = ByteBuffer.wrap(array, (int) offset, (int) count);
+      while (wrapped.hasRemaining()) // channel may write less than we give it
+        output.write(wrapped);
     }
-    return(result);               // tell caller if split was successful
-
-  } // end of split() method
+    else while (count > 0)        // data is in mapped file
+    {
+      done = channel.transferTo(offset, count, output);
+      if (done <= 0)              // file shorter than when it was mapped?
+        throw new IOException("Can't read from " + file.getName());
+      count -= done;              // fewer bytes remaining
+      offset += done;             // next byte in file
+    }
+  } // end of writeBytes() method
 
-} // end of HexEdit2Data class
+} // end of HexEdit2Source class
 
 // ------------------------------------------------------------------------- //
 
@@ -2732,6 +9467,7 @@ class HexEdit2Text extends JPanel
   static final int MIN_FONT_SIZE = 10; // minimum font size in points
   static final Color PANEL_COLOR = Color.BLACK; // panel background color
   static final int PANEL_MARGIN = 10; // outside margin of panel in pixels
+  static final int SCROLL_LIMIT = 0x10000000; // maximum rows for scroll bar
   static final Color SHADOW_CURSOR = new Color(102, 102, 102);
                                   // color for mirrored or shadow cursor
   static final Color SHADOW_SELECT = new Color(51, 51, 51);
@@ -2742,24 +9478,32 @@ class HexEdit2Text extends JPanel
 
   int charShifts[];               // pixel offset to center ASCII characters
   int charWidths[];               // pixel width of each ASCII character
-  int cursorDot;                  // nibble index for current cursor position
-  int cursorMark;                 // nibble index of starting cursor selection
+  long cursorDot;                 // nibble index for current cursor position
+  long cursorMark;                // nibble index of starting cursor selection
   boolean cursorOnText;           // active cursor: false hex dump, true text
+  GraphicsConfiguration glyphConfig; // device where <glyphImage> was made
+  BufferedImage glyphImage;       // printable characters drawn once, or null
+  double glyphScaleX, glyphScaleY; // image pixels per panel unit
   int lineAscent;                 // number of pixels above baseline
   int lineHeight;                 // height of each display line in pixels
   int maxWidth;                   // maximum pixel width of ASCII characters
-  int mousePressNibble;           // mouse pressed: converted nibble index
+  long mousePressNibble;          // mouse pressed: converted nibble index
   boolean mousePressOnText;       // mouse pressed: false hex dump, true text
-  int mouseTempNibble;            // mouse temporary: converted nibble index
+  long mouseTempNibble;           // mouse temporary: converted nibble index
   boolean mouseTempOnText;        // mouse temporary: false hex dump, true text
+  char[] panelChars;              // characters for one row, when monospaced
   int panelColumns;               // number of complete text columns displayed
   int panelDumpWidth;             // number of input bytes per dump line
   Font panelFont;                 // saved font for drawing text on this panel
   String panelFontName;           // saved font name for <panelFont>
+  int[] panelNibbles;             // nibble values for displayed rows
   int panelFontSize;              // saved font size for <panelFont>
   int panelHeight, panelWidth;    // saved panel height and width in pixels
-  int panelOffset;                // file offset in bytes for first display row
+  boolean panelMonospace;         // true if all characters have same width
+  long panelOffset;               // file offset in bytes for first display row
+  int panelOffsetDigits;          // saved number of hex digits in file offsets
   int panelRows;                  // number of complete lines (rows) displayed
+  long scrollScale;               // display rows per scroll bar position
 
   /* class constructor */
 
@@ -2773,18 +9517,26 @@ class HexEdit2Text extends JPanel
     cursorDot = 0;                // nibble index for current cursor position
     cursorMark = 0;               // nibble index of starting cursor selection
     cursorOnText = false;         // assume cursor is active on hex dump
+    glyphConfig = null;           // no device for characters yet
+    glyphImage = null;            // no characters drawn yet
+    glyphScaleX = glyphScaleY = 1.0; // image pixels are panel units
     lineAscent = -1;              // number of pixels above baseline
     lineHeight = -1;              // height of each display line in pixels
     maxWidth = -1;                // maximum pixel width of ASCII characters
+    panelChars = new char[0];     // characters for one row, when monospaced
     panelColumns = -1;            // number of complete text columns displayed
     panelDumpWidth = -1;          // number of input bytes per dump line
     panelFont = null;             // saved font for drawing text on this panel
     panelFontName = "";           // saved font name for <panelFont>
+    panelNibbles = new int[0];    // nibble values for displayed rows
     panelFontSize = -1;           // saved font size for <panelFont>
     panelHeight = -1;             // saved panel height in pixels
+    panelMonospace = false;       // true if all characters have same width
     panelOffset = 0;              // file offset in bytes for first display row
+    panelOffsetDigits = -1;       // saved number of hex digits in file offsets
     panelRows = -1;               // number of complete lines (rows) displayed
     panelWidth = -1;              // saved panel width in pixels
+    scrollScale = 1;              // display rows per scroll bar position
 
     /* Allocate instance arrays.  There is no need to assign initial values. */
 
@@ -2812,28 +9564,37 @@ class HexEdit2Text extends JPanel
   user).  As a programming note, please call setValues() when setting more than
   one of the parameters, otherwise the change listener may fire between calls
   to the individual methods for setting parameters.
+
+  Scroll bars use integers, and very large files can have more rows than an
+  integer can hold.  Each scroll bar position then represents several rows, by
+  a factor of <scrollScale>.  Arrow keys and the mouse wheel still move the
+  display by single rows, because they change <panelOffset> directly.
 */
   void adjustScrollBar()
   {
+    long rowCount;                // total number of rows, rounded up
+
     /* If the dump width increases, our current panel offset can sometimes be
     too large with too much empty space in the display. */
 
-    panelOffset = Math.max(0, Math.min(panelOffset, (((HexEdit2.nibbleCount
-      / (panelDumpWidth * 2)) - panelRows + 1) * panelDumpWidth)));
-                                  // limit range of panel offset
+    rowCount = HexEdit2.nibbleCount / (panelDumpWidth * 2) + 1;
+    panelOffset = Math.max(0, Math.min(panelOffset, ((rowCount - panelRows)
+      * panelDumpWidth)));        // limit range of panel offset
     panelOffset -= panelOffset % panelDumpWidth;
                                   // truncate or round down to full row
 
     /* Set values for the scroll bar. */
 
-    HexEdit2.textScroll.setValues((panelOffset / panelDumpWidth), // value
-      panelRows,                  // extent (visible amount)
+    scrollScale = (rowCount / SCROLL_LIMIT) + 1; // rows per scroll position
+    HexEdit2.textScroll.setValues( // value is next line
+      (int) ((panelOffset / panelDumpWidth) / scrollScale),
+      (int) Math.max(1, (panelRows / scrollScale)), // extent (visible amount)
       0,                          // minimum: always zero
-      (HexEdit2.nibbleCount / (panelDumpWidth * 2) + 1));
+      (int) ((rowCount + scrollScale - 1) / scrollScale));
                                   // maximum: round up to next full row
 
-    HexEdit2.textScroll.setBlockIncrement(Math.max(1, (panelRows - 1)));
-                                  // dump lines/rows per "scroll one page"
+    HexEdit2.textScroll.setBlockIncrement((int) Math.max(1, ((panelRows - 1)
+      / scrollScale)));           // dump lines/rows per "scroll one page"
     HexEdit2.textScroll.setUnitIncrement(1); // rows per "scroll one line"
 
   } // end of adjustScrollBar() method
@@ -2875,7 +9636,7 @@ class HexEdit2Text extends JPanel
     int x;                        // adjusted horizontal co-ordinate
 
     mouseTempOnText = event.getX() > (PANEL_MARGIN + (int)
-      ((HexEdit2.OFFSET_DIGITS + (panelDumpWidth * 3) + 2.8) * maxWidth));
+      ((panelOffsetDigits + (panelDumpWidth * 3) + 2.8) * maxWidth));
                                   // dividing line, with fuzz
 
     row = (event.getY() - PANEL_MARGIN) / lineHeight; // no fuzzy select for row
@@ -2883,7 +9644,7 @@ class HexEdit2Text extends JPanel
 
     if (mouseTempOnText)          // if mouse is pointing at ASCII text region
     {
-      x = event.getX() - PANEL_MARGIN - (int) ((HexEdit2.OFFSET_DIGITS
+      x = event.getX() - PANEL_MARGIN - (int) ((panelOffsetDigits
         + (panelDumpWidth * 3) + 3.8) * maxWidth);
                                   // shifted horizontal for text, with fuzz
       column = (x / maxWidth) * 2; // nibble offset for text
@@ -2894,7 +9655,7 @@ class HexEdit2Text extends JPanel
       pair we are pointing at in a three-character width, then which nibble
       inside the pair. */
 
-      x = event.getX() - PANEL_MARGIN - (int) ((HexEdit2.OFFSET_DIGITS + 1.5)
+      x = event.getX() - PANEL_MARGIN - (int) ((panelOffsetDigits + 1.5)
         * maxWidth);              // shifted horizontal for pairs, with fuzz
       column = (x / (maxWidth * 3)) * 2;
                                   // nibble offset for high-order digit
@@ -2909,6 +9670,27 @@ class HexEdit2Text extends JPanel
   } // end of convertMouse() method
 
 
+/*
+  drawGlyph() method
+
+  Copy one printable character from <glyphImage> to the panel, given the
+  background (0 for normal, 1 for active selection, 2 for shadow selection)
+  and the left side and top of the character's cell.  See makeGlyphs().  The
+  cell in the image is in device pixels, and may be bigger than on the panel.
+*/
+  void drawGlyph(Graphics context, int ch, int shade, int x, int y)
+  {
+    int sourceX, sourceY;         // top left corner of character in image
+
+    sourceX = (ch - HexEdit2.FIRST_CHAR) * maxWidth;
+    sourceY = shade * lineHeight;
+    context.drawImage(glyphImage, x, y, (x + maxWidth), (y + lineHeight),
+      (int) Math.round(sourceX * glyphScaleX), (int) Math.round(sourceY
+      * glyphScaleY), (int) Math.round((sourceX + maxWidth) * glyphScaleX),
+      (int) Math.round((sourceY + lineHeight) * glyphScaleY), null);
+  }
+
+
 /*
   finishArrowKey() method
 
@@ -2976,7 +9758,10 @@ class HexEdit2Text extends JPanel
           break;
 
         case (KeyEvent.VK_F3):    // F3 key for "Find Next" (typical Windows)
-          HexEdit2.searchFindNext(); // same as main menu (but not documented)
+          if (event.isShiftDown()) // Shift-F3 is "Find Previous"
+            HexEdit2.searchFindPrevious(); // same as main menu
+          else
+            HexEdit2.searchFindNext(); // same as main menu (not documented)
           break;
 
         case (KeyEvent.VK_F6):    // F6 key to switch between dump/text regions
@@ -3118,6 +9903,10 @@ class HexEdit2Text extends JPanel
             HexEdit2.searchFindNext(); // same as main menu
             break;
 
+          case (0x10):            // Control-P for "Find Previous"
+            HexEdit2.searchFindPrevious(); // same as main menu
+            break;
+
           case (0x12):            // Control-R for "Replace" (more mnemonic)
             HexEdit2.searchReplaceThis(); // same as main menu
             break;
@@ -3154,11 +9943,8 @@ class HexEdit2Text extends JPanel
           {
             cursorDot --;         // move backward one nibble
             cursorDot -= cursorDot % 2; // then go backward to start of byte
-            if (cursorDot < (HexEdit2.nibbleCount - 1)) // are there 2 nibbles?
-              HexEdit2.nibbleData.delete(cursorDot + 1);
-                                  // backspace always deletes low-order first
-            HexEdit2.nibbleData.delete(cursorDot);
-                                  // backspace then deletes high-order nibble
+            HexEdit2.nibbleData.deleteRange(cursorDot, Math.min(2,
+              (HexEdit2.nibbleCount - cursorDot))); // delete one or 2 nibbles
           }
           else                    // no, must be on hex dump region (nibbles)
           {
@@ -3187,11 +9973,8 @@ class HexEdit2Text extends JPanel
           if (cursorOnText)       // is active cursor on ASCII text (bytes)?
           {
             cursorDot -= cursorDot % 2; // go backward to start of byte
-            if (cursorDot < (HexEdit2.nibbleCount - 1)) // are there 2 nibbles?
-              HexEdit2.nibbleData.delete(cursorDot);
-                                  // forward always deletes high-order first
-            HexEdit2.nibbleData.delete(cursorDot);
-                                  // then delete low-order using same index
+            HexEdit2.nibbleData.deleteRange(cursorDot, Math.min(2,
+              (HexEdit2.nibbleCount - cursorDot))); // delete one or 2 nibbles
           }
           else                    // no, must be on hex dump region (nibbles)
           {
@@ -3291,6 +10074,63 @@ class HexEdit2Text extends JPanel
   }
 
 
+/*
+  makeGlyphs() method
+
+  Draw all printable ASCII characters in the current font, centered in cells
+  the same size as on the panel, into one image that paintComponent() copies
+  from.  Copying a cell from an image is faster than drawing a character, and
+  doesn't create a new string for each character.  This is only done when the
+  font or font size changes.  The image is opaque, because copying solid
+  pixels is fastest, so there is one row of characters for each background
+  color: normal, active selection, and shadow selection.
+
+  On a scaled (high DPI) display, Java 9 and later give the panel a transform
+  from panel units to device pixels.  The image is made with the same scale,
+  and characters are drawn at that scale, so copying a cell puts one image
+  pixel on one device pixel, instead of stretching small characters.  The
+  image is made again if the panel moves to a device with a different scale.
+*/
+  void makeGlyphs(Graphics context)
+  {
+    Color[] backgrounds = {PANEL_COLOR, ACTIVE_SELECT, SHADOW_SELECT};
+                                  // background color for each row of image
+    Graphics2D glyphs;            // graphics context for drawing on image
+    int i, k;                     // index variables
+    int width;                    // width of image in panel units
+    int x;                        // left side of one character's cell
+
+    glyphConfig = ((Graphics2D) context).getDeviceConfiguration();
+    glyphScaleX = ((Graphics2D) context).getTransform().getScaleX();
+    glyphScaleY = ((Graphics2D) context).getTransform().getScaleY();
+    width = maxWidth * (HexEdit2.LAST_CHAR - HexEdit2.FIRST_CHAR + 1);
+    glyphImage = glyphConfig.createCompatibleImage((int) Math.ceil(width
+      * glyphScaleX), (int) Math.ceil(backgrounds.length * lineHeight
+      * glyphScaleY));            // same pixel format as panel, if possible
+    glyphs = glyphImage.createGraphics();
+    glyphs.setRenderingHints(((Graphics2D) context).getRenderingHints());
+    glyphs.scale(glyphScaleX, glyphScaleY); // draw in panel units
+    glyphs.setFont(panelFont);    // all text has the same color and font
+    for (k = 0; k < backgrounds.length; k ++)
+    {
+      glyphs.setClip(null);       // fill whole row, not last character
+      glyphs.setColor(backgrounds[k]);
+      glyphs.fillRect(0, (k * lineHeight), width, lineHeight);
+      glyphs.setColor(TEXT_COLOR);
+      for (i = HexEdit2.FIRST_CHAR; i <= HexEdit2.LAST_CHAR; i ++)
+      {
+        x = (i - HexEdit2.FIRST_CHAR) * maxWidth; // left side of cell
+        glyphs.setClip(x, (k * lineHeight), maxWidth, lineHeight);
+                                  // don't let characters spill into others
+        glyphs.drawString(Character.toString((char) i), (x + charShifts[i]),
+          ((k * lineHeight) + lineAscent));
+      }
+    }
+    glyphs.dispose();             // release graphics resources
+
+  } // end of makeGlyphs() method
+
+
 /*
   makeVisible() method
 
@@ -3301,7 +10141,7 @@ class HexEdit2Text extends JPanel
   with keyboard commands.  (The mouse can only select visible positions, except
   in one unusual circumstance.)
 */
-  void makeVisible(int nibbleIndex)
+  void makeVisible(long nibbleIndex)
   {
     if (nibbleIndex < (panelOffset * 2)) // is nibble before start of display?
     {
@@ -3476,27 +10316,33 @@ class HexEdit2Text extends JPanel
   or two lines in the display.
 
   The mouse wheel listener has no interaction with the other mouse listeners
-  above.
+  above.  We move the panel offset directly, instead of going through the
+  scroll bar, because one scroll bar position may be many rows in big files.
 */
   public void mouseWheelMoved(MouseWheelEvent event)
   {
+    int i = Math.max(1, (panelRows - 1)); // maximum rows to scroll
     switch (event.getScrollType()) // different mice scroll differently
     {
       case (MouseWheelEvent.WHEEL_BLOCK_SCROLL):
-        HexEdit2.textScroll.setValue(HexEdit2.textScroll.getValue()
-          + (event.getWheelRotation() * Math.max(1, (panelRows - 1))));
+        i *= event.getWheelRotation(); // scroll by pages
         break;
 
       case (MouseWheelEvent.WHEEL_UNIT_SCROLL):
-        int i = Math.max(1, (panelRows - 1)); // maximum rows to scroll
         i = Math.max((-i), Math.min(i, event.getUnitsToScroll())); // limits
-        HexEdit2.textScroll.setValue(HexEdit2.textScroll.getValue() + i);
                                   // scroll using limited local preferences
         break;
 
       default:                    // ignore anything that we don't recognize
+        i = 0;
         break;
     }
+    if (i != 0)                   // did the wheel ask for any scrolling?
+    {
+      panelOffset += ((long) i) * panelDumpWidth; // convert rows to bytes
+      adjustScrollBar();          // limit offset, adjust scroll bar to match
+      repaint();                  // redraw text display as necessary
+    }
   } // end of mouseWheelMoved() method
 
 
@@ -3526,17 +10372,21 @@ class HexEdit2Text extends JPanel
     context.fillRect(0, 0, this.getWidth(), this.getHeight());
 
     /* Recalculate panel sizes if any of the following have changed: font name,
-    input bytes per dump line, panel height, panel width. */
+    input bytes per dump line, digits in file offsets, panel height, panel
+    width. */
 
     if ((HexEdit2.dumpWidth != panelDumpWidth)
       || (HexEdit2.fontName.equals(panelFontName) == false)
+      || (HexEdit2.offsetDigits != panelOffsetDigits)
       || (this.getWidth() != panelWidth))
     {
       /* We need to find a good font size whenever there is a change to the
-      dump width (input bytes per line), font name, or panel width. */
+      dump width (input bytes per line), font name, offset digits, or panel
+      width. */
 
       panelDumpWidth = HexEdit2.dumpWidth; // save current input bytes per line
       panelFontName = HexEdit2.fontName; // save name of current font
+      panelOffsetDigits = HexEdit2.offsetDigits; // save digits in file offsets
       panelHeight = this.getHeight(); // save current panel height in pixels
       panelWidth = this.getWidth(); // save current panel width in pixels
 
@@ -3545,13 +10395,14 @@ class HexEdit2Text extends JPanel
       first need to know how many monospaced text positions are required for
       one complete dump line. */
 
-      panelColumns = HexEdit2.OFFSET_DIGITS // digits in file offset
+      panelColumns = panelOffsetDigits // digits in file offset
         + 1                       // space between offset and hex bytes
         + (panelDumpWidth * 3)    // two hex digits per input byte, one space
         + 2                       // two spaces between hex and ASCII text
         + 1                       // left marker for ASCII text
         + panelDumpWidth          // ASCII text corresponding to hex bytes
         + 1;                      // right marker for ASCII text
+      panelChars = new char[panelColumns]; // reused for each row of text
 
       /* Look for the biggest font size that doesn't overflow the panel width.
       We do this with a binary search starting at the mid-range of our allowed
@@ -3595,10 +10446,18 @@ class HexEdit2Text extends JPanel
 
       /* Since not all fonts will be monospaced, calculate how many pixels to
       shift each character right so that it will be centered in the width of
-      the widest character. */
+      the widest character.  A font that really is monospaced needs no shifts,
+      and whole rows can be drawn at once, without copying characters from an
+      image. */
 
+      panelMonospace = true;      // assume all characters have same width
       for (i = HexEdit2.FIRST_CHAR; i <= HexEdit2.LAST_CHAR; i ++)
+      {
         charShifts[i] = (maxWidth - charWidths[i]) / 2;
+        if (charWidths[i] != maxWidth) // is this character narrower?
+          panelMonospace = false; // yes, must center each character
+      }
+      glyphImage = null;          // characters must be drawn again if needed
 
       /* Recalculate how many complete rows (lines) of text can be displayed
       inside this panel with the specified margins. */
@@ -3626,13 +10485,13 @@ class HexEdit2Text extends JPanel
     always, avoid repeating the same calculations, in an effort to speed up the
     display. */
 
-    int panelNibbleBegin = panelOffset * 2; // nibble index starting first row
-    int panelNibbleEnd = panelNibbleBegin + ((panelRows + 1) * panelDumpWidth
+    long panelNibbleBegin = panelOffset * 2; // nibble index starting first row
+    long panelNibbleEnd = panelNibbleBegin + ((panelRows + 1) * panelDumpWidth
       * 2);                       // after last digit on incomplete final row
 
-    int selectBegin = Math.max(panelNibbleBegin, Math.min(cursorDot,
+    long selectBegin = Math.max(panelNibbleBegin, Math.min(cursorDot,
       cursorMark));               // intersect with display
-    int selectEnd = Math.min(panelNibbleEnd, Math.max(cursorDot, cursorMark));
+    long selectEnd = Math.min(panelNibbleEnd, Math.max(cursorDot, cursorMark));
     if (selectBegin < selectEnd)  // only work hard if selection is visible
     {
       /* First draw the selection background for the hex dump. */
@@ -3640,20 +10499,20 @@ class HexEdit2Text extends JPanel
       context.setColor(cursorOnText ? SHADOW_SELECT : ACTIVE_SELECT);
                                   // set correct color, if cursor active here
 
-      row = ((selectBegin / 2) - panelOffset) / panelDumpWidth;
+      row = (int) (((selectBegin / 2) - panelOffset) / panelDumpWidth);
                                   // calculate starting row index
       int thisRowY = PANEL_MARGIN + (row * lineHeight);
                                   // convert index to vertical co-ordinate
 
       int rowNibbleCount = panelDumpWidth * 2; // repeatedly used inside loop
-      int nibble = selectBegin % rowNibbleCount;
+      int nibble = (int) (selectBegin % rowNibbleCount);
                                   // calculate nibble index (half byte)
-      int rowFirstDumpX = PANEL_MARGIN + maxWidth * (HexEdit2.OFFSET_DIGITS + 2);
+      int rowFirstDumpX = PANEL_MARGIN + maxWidth * (panelOffsetDigits + 2);
                                   // horizontal position first nibble, each row
       int thisColumnX = rowFirstDumpX + (maxWidth * (nibble + (nibble / 2)));
                                   // starting horizontal for first selected
 
-      int nibbleIndex = selectBegin; // start nibbling away at this index
+      long nibbleIndex = selectBegin; // start nibbling away at this index
       while (nibbleIndex < selectEnd) // draw one background per each nibble
       {
         context.fillRect(thisColumnX, thisRowY, maxWidth, lineHeight);
@@ -3683,14 +10542,14 @@ class HexEdit2Text extends JPanel
       context.setColor(cursorOnText ? ACTIVE_SELECT : SHADOW_SELECT);
                                   // set correct color, if cursor active here
 
-      row = ((selectBegin / 2) - panelOffset) / panelDumpWidth;
+      row = (int) (((selectBegin / 2) - panelOffset) / panelDumpWidth);
                                   // calculate starting row index
       thisRowY = PANEL_MARGIN + (row * lineHeight);
                                   // convert index to vertical co-ordinate
 
-      column = (selectBegin % (panelDumpWidth * 2)) / 2;
+      column = (int) ((selectBegin % (panelDumpWidth * 2)) / 2);
                                   // calculate column index (full byte)
-      int rowFirstTextX = PANEL_MARGIN + maxWidth * (HexEdit2.OFFSET_DIGITS + (3
+      int rowFirstTextX = PANEL_MARGIN + maxWidth * (panelOffsetDigits + (3
         * panelDumpWidth) + 4);   // horizontal for first column on each row
       thisColumnX = rowFirstTextX + (maxWidth * column);
                                   // starting horizontal for first selected
@@ -3714,21 +10573,55 @@ class HexEdit2Text extends JPanel
       }
     }
 
+    /* A font that isn't monospaced needs an image of centered characters,
+    made again if the font has changed, or if the panel is now on a different
+    device or with a different scale (such as a window dragged to another
+    monitor). */
+
+    if ((panelMonospace == false) && ((glyphImage == null)
+      || (((Graphics2D) context).getDeviceConfiguration().equals(glyphConfig)
+      == false) || (((Graphics2D) context).getTransform().getScaleX()
+      != glyphScaleX) || (((Graphics2D) context).getTransform().getScaleY()
+      != glyphScaleY)))
+    {
+      makeGlyphs(context);        // draw centered characters once
+    }
+
+    /* Draw the file offsets, hex dump, and ASCII text, after fetching all
+    displayed nibbles at once.  A monospaced font is drawn one row at a time.
+    Other fonts need each character centered in its column. */
+
+    int nibbleLimit = (int) Math.max(0, Math.min(((panelRows + 1)
+      * panelDumpWidth * 2), (HexEdit2.nibbleCount - panelNibbleBegin)));
+                                  // number of nibbles that we can display
+    if (panelNibbles.length < nibbleLimit) // do we need a bigger array?
+      panelNibbles = new int[nibbleLimit];
+    if (nibbleLimit > 0)          // fetch all displayed nibbles at once
+      HexEdit2.nibbleData.getRange(panelNibbleBegin, panelNibbles, 0,
+        nibbleLimit);
+    if (panelMonospace)           // can we draw whole rows at once?
+      paintRows(context, nibbleLimit);
+    else                          // no, copy centered characters one by one
+      paintGlyphs(context, nibbleLimit, selectBegin, selectEnd);
+
     /* Draw the active cursor (either hex dump or ASCII text) and a mirrored
-    shadow cursor (on the opposite side), if visible. */
+    shadow cursor (on the opposite side), if visible.  The cursor goes on top
+    of the characters, since paintGlyphs() copies each character's cell with
+    its background. */
 
     if ((cursorDot >= panelNibbleBegin) && (cursorDot < panelNibbleEnd))
     {
       /* First draw the cursor for the hex dump. */
 
-      int cursorY = (cursorDot - panelNibbleBegin) / (panelDumpWidth * 2);
+      int cursorY = (int) ((cursorDot - panelNibbleBegin) / (panelDumpWidth
+        * 2));
                                   // calculate row index
       cursorY = PANEL_MARGIN + (cursorY * lineHeight);
                                   // convert index to vertical co-ordinate
 
-      int cursorX = (cursorDot % (panelDumpWidth * 2)) / 2;
+      int cursorX = (int) ((cursorDot % (panelDumpWidth * 2)) / 2);
                                   // calculate column index (full byte)
-      cursorX = PANEL_MARGIN + maxWidth * (HexEdit2.OFFSET_DIGITS + (3 * cursorX)
+      cursorX = PANEL_MARGIN + maxWidth * (panelOffsetDigits + (3 * cursorX)
         + 2);                     // convert index to horizontal co-ordinate
 
       if ((cursorDot % 2) > 0)    // shift right if second nibble in byte
@@ -3751,9 +10644,9 @@ class HexEdit2Text extends JPanel
       above.  We don't try to be fancy and indicate half a byte if the active
       cursor is between two hex digits in a byte pair (above). */
 
-      cursorX = (cursorDot % (panelDumpWidth * 2)) / 2;
+      cursorX = (int) ((cursorDot % (panelDumpWidth * 2)) / 2);
                                   // calculate column index (full byte)
-      cursorX = PANEL_MARGIN + maxWidth * (HexEdit2.OFFSET_DIGITS + (3
+      cursorX = PANEL_MARGIN + maxWidth * (panelOffsetDigits + (3
         * panelDumpWidth) + cursorX + 4);
                                   // convert index to horizontal co-ordinate
 
@@ -3770,12 +10663,28 @@ class HexEdit2Text extends JPanel
         context.fillRect((cursorX - 1), cursorY,
           ((panelFontSize > 24) ? 3 : 2), lineHeight);
     }
+  } // end of paintComponent() method
 
-    /* All text on the panel has the same color and font.  Only the background
-    color changes, or the addition of a cursor (above). */
 
-    context.setColor(TEXT_COLOR);
-    context.setFont(panelFont);
+/*
+  paintGlyphs() method
+
+  Draw the file offsets, hex dump, and ASCII text for a font that isn't
+  monospaced, by copying characters from <glyphImage>, which are already
+  centered in their cells.  Called by paintComponent() after the background
+  and selection have been drawn, and before the cursor.
+*/
+  void paintGlyphs(Graphics context, int nibbleLimit, long selectBegin,
+    long selectEnd)
+  {
+    int column, row;              // index variables
+    int i;                        // index variable
+
+    /* All text on the panel has the same color and font, and is copied from
+    the characters drawn by makeGlyphs().  Only the background color changes,
+    or the addition of a cursor (later).  Positions are the left side and top
+    of each character's cell, since centering and the baseline are already in
+    the copied characters. */
 
     /* Draw the file byte offsets on the left side and the ASCII text markers
     on the right side.  Although the overall difference in speed may be small,
@@ -3784,39 +10693,38 @@ class HexEdit2Text extends JPanel
     the user has somewhere to insert text at the end of the file.  There is
     always at least one file offset, even if the file is empty. */
 
-    int maxOffset = HexEdit2.nibbleCount / 2;
+    long maxOffset = HexEdit2.nibbleCount / 2;
                                   // don't display offsets past this value
-    int rowLastDigitX = PANEL_MARGIN + (HexEdit2.OFFSET_DIGITS - 1) * maxWidth;
+    int rowLastDigitX = PANEL_MARGIN + (panelOffsetDigits - 1) * maxWidth;
                                   // all rows put low-order offset digit here
-    int rowLeftMarkerX = PANEL_MARGIN + maxWidth * ((HexEdit2.OFFSET_DIGITS + 3
-      + (3 * panelDumpWidth))) + charShifts[HexEdit2.MARKER_CHAR];
-                                  // all rows put left text marker here
+    int rowLeftMarkerX = PANEL_MARGIN + maxWidth * ((panelOffsetDigits + 3
+      + (3 * panelDumpWidth)));   // all rows put left text marker here
     int rowRightMarkerX = rowLeftMarkerX + maxWidth * (panelDumpWidth + 1);
                                   // all rows put right text marker here
-    int rowY = PANEL_MARGIN + lineAscent; // vertical baseline for first row
-    int thisOffset = panelOffset; // byte offset for first row
+    int rowY = PANEL_MARGIN;      // vertical top of first row
+    long thisOffset = panelOffset; // byte offset for first row
 
     for (row = 0; row <= panelRows; row ++) // allow incomplete final row
     {
       if (thisOffset > maxOffset) // have we gone too far? (">" is correct)
         break;                    // yes, escape early from <for> loop
-      int shiftedOffset = thisOffset; // copy offset so as to extract digits
+      long shiftedOffset = thisOffset; // copy offset so as to extract digits
       int thisDigitX = rowLastDigitX; // horizontal start for low-order digit
-      for (i = HexEdit2.OFFSET_DIGITS; i > 0; i --)
+      for (i = panelOffsetDigits; i > 0; i --)
                                   // extract digits from low-order end
       {
-        char ch = HexEdit2.HEX_DIGITS[shiftedOffset & HexEdit2.NIBBLE_MASK];
+        char ch = HexEdit2.HEX_DIGITS[(int) (shiftedOffset
+          & HexEdit2.NIBBLE_MASK)];
                                   // convert nibble to hex text digit
-        context.drawString(Character.toString(ch), (thisDigitX
-          + charShifts[ch]), rowY); // center this character onto the screen
+        drawGlyph(context, ch, 0, thisDigitX, rowY); // centered character
         shiftedOffset = shiftedOffset >> HexEdit2.NIBBLE_SHIFT;
                                   // shift down next higher-order nibble
         thisDigitX -= maxWidth;   // back up for next higher-order digit
       }
-      context.drawString(HexEdit2.MARKER_STRING, rowLeftMarkerX, rowY);
-                                  // left text marker with centering shift
-      context.drawString(HexEdit2.MARKER_STRING, rowRightMarkerX, rowY);
-                                  // right text marker with centering shift
+      drawGlyph(context, HexEdit2.MARKER_CHAR, 0, rowLeftMarkerX, rowY);
+                                  // left text marker
+      drawGlyph(context, HexEdit2.MARKER_CHAR, 0, rowRightMarkerX, rowY);
+                                  // right text marker
       rowY += lineHeight;         // vertical position for next row
       thisOffset += panelDumpWidth; // byte offset for next row
     }
@@ -3826,12 +10734,16 @@ class HexEdit2Text extends JPanel
     or if the display is only big enough for one row and we are at the end of a
     file that exactly filled the previous row. */
 
-    int nibbleIndex = panelOffset * 2; // index of first data nibble, first row
-    int rowFirstDumpX = PANEL_MARGIN + maxWidth * (HexEdit2.OFFSET_DIGITS + 2);
+    long nibbleIndex = panelOffset * 2; // index of first data nibble, first row
+    int nibbleUsed = 0;           // index of next nibble in <panelNibbles>
+    int dumpShade = cursorOnText ? 2 : 1; // background for selected hex digits
+    int textShade = cursorOnText ? 1 : 2; // background for selected text
+    long textBegin = selectBegin - (selectBegin % 2); // selected text bytes
+    int rowFirstDumpX = PANEL_MARGIN + maxWidth * (panelOffsetDigits + 2);
                                   // horizontal position first nibble, each row
     int rowFirstTextX = rowFirstDumpX + maxWidth * ((3 * panelDumpWidth) + 2);
                                   // horizontal position first text, each row
-    rowY = PANEL_MARGIN + lineAscent; // vertical baseline for first row
+    rowY = PANEL_MARGIN;          // vertical top of first row
 
     for (row = 0; row <= panelRows; row ++) // allow incomplete final row
     {
@@ -3841,14 +10753,18 @@ class HexEdit2Text extends JPanel
       {
         /* first nibble of two */
 
-        if (nibbleIndex >= HexEdit2.nibbleCount) // have we gone too far?
+        if (nibbleUsed >= nibbleLimit) // have we gone too far?
           break;                  // yes, escape early from <for> loop
-        int thisNibble = HexEdit2.nibbleData.get(nibbleIndex ++);
+        long thisIndex = nibbleIndex + nibbleUsed; // data index of nibble
+        int thisNibble = panelNibbles[nibbleUsed ++];
                                   // get value of this nibble as integer
         char ch = HexEdit2.HEX_DIGITS[thisNibble & HexEdit2.NIBBLE_MASK];
                                   // convert nibble to hex text digit
-        context.drawString(Character.toString(ch), (thisDumpX
-          + charShifts[ch]), rowY); // center this hex digit onto screen
+        drawGlyph(context, ch, (((thisIndex >= selectBegin) && (thisIndex
+          < selectEnd)) ? dumpShade : 0), thisDumpX, rowY);
+                                  // centered hex digit
+        int thisShade = ((thisIndex >= textBegin) && (thisIndex < selectEnd))
+          ? textShade : 0;        // background for text character
         thisDumpX += maxWidth;    // horizontal position for next hex digit
 
         int byteValue = thisNibble << HexEdit2.NIBBLE_SHIFT;
@@ -3856,14 +10772,15 @@ class HexEdit2Text extends JPanel
 
         /* second nibble of two (may be missing) */
 
-        if (nibbleIndex < HexEdit2.nibbleCount) // is there a second nibble?
+        if (nibbleUsed < nibbleLimit) // is there a second nibble?
         {
-          thisNibble = HexEdit2.nibbleData.get(nibbleIndex ++);
+          thisNibble = panelNibbles[nibbleUsed ++];
                                   // get value of this nibble as integer
           ch = HexEdit2.HEX_DIGITS[thisNibble & HexEdit2.NIBBLE_MASK];
                                   // convert nibble to hex text digit
-          context.drawString(Character.toString(ch), (thisDumpX
-            + charShifts[ch]), rowY); // center this hex digit onto screen
+          drawGlyph(context, ch, ((((thisIndex + 1) >= selectBegin)
+            && ((thisIndex + 1) < selectEnd)) ? dumpShade : 0), thisDumpX,
+            rowY);                // centered hex digit
           thisDumpX += maxWidth;  // horizontal position for next hex digit
 
           byteValue |= thisNibble; // insert second nibble into byte value
@@ -3877,13 +10794,102 @@ class HexEdit2Text extends JPanel
 
         if ((byteValue < HexEdit2.FIRST_CHAR) || (byteValue > HexEdit2.LAST_CHAR))
           byteValue = HexEdit2.REPLACE_CHAR; // replace unprintable character
-        context.drawString(Character.toString((char) byteValue), (thisTextX
-          + charShifts[byteValue]), rowY); // draw character onto screen
+        drawGlyph(context, byteValue, thisShade, thisTextX, rowY);
+                                  // centered character
         thisTextX += maxWidth;    // horizontal position for next text char
       }
       rowY += lineHeight;         // vertical position for next row
     }
-  } // end of paintComponent() method
+  } // end of paintGlyphs() method
+
+
+/*
+  paintRows() method
+
+  Draw the file offsets, hex dump, and ASCII text for a monospaced font.  Each
+  row is put together in <panelChars> and drawn with one call to drawChars(),
+  because every character already has the width of one column.  Spaces take
+  the place of missing data, and draw nothing.  Called by paintComponent()
+  after the background and selection have been drawn, and before the cursor.
+*/
+  void paintRows(Graphics context, int nibbleLimit)
+  {
+    int byteValue;                // value of one complete byte, or -1
+    int column, row;              // index variables
+    int dumpIndex, textIndex;     // indexes into <panelChars> for dump, text
+    int i;                        // index variable
+    long maxOffset;               // don't display offsets past this value
+    int nibbleUsed;               // index of next nibble in <panelNibbles>
+    int rowY;                     // vertical baseline for each row
+    long shiftedOffset;           // copy offset so as to extract digits
+    int thisNibble;               // value of one nibble as integer
+    long thisOffset;              // byte offset for each row
+
+    context.setColor(TEXT_COLOR); // all text has the same color and font
+    context.setFont(panelFont);
+    Arrays.fill(panelChars, ' '); // spaces between columns never change
+    maxOffset = HexEdit2.nibbleCount / 2;
+    nibbleUsed = 0;
+    rowY = PANEL_MARGIN + lineAscent; // vertical baseline of first row
+    thisOffset = panelOffset;     // byte offset for first row
+
+    for (row = 0; row <= panelRows; row ++) // allow incomplete final row
+    {
+      if (thisOffset > maxOffset) // have we gone too far? (">" is correct)
+        break;                    // yes, escape early from <for> loop
+      shiftedOffset = thisOffset; // copy offset so as to extract digits
+      for (i = panelOffsetDigits - 1; i >= 0; i --)
+                                  // extract digits from low-order end
+      {
+        panelChars[i] = HexEdit2.HEX_DIGITS[(int) (shiftedOffset
+          & HexEdit2.NIBBLE_MASK)];
+        shiftedOffset = shiftedOffset >> HexEdit2.NIBBLE_SHIFT;
+      }
+      dumpIndex = panelOffsetDigits + 2; // first hex digit on this row
+      textIndex = dumpIndex + (3 * panelDumpWidth) + 2; // first text char
+      panelChars[textIndex - 1] = HexEdit2.MARKER_CHAR; // left text marker
+      panelChars[panelColumns - 1] = HexEdit2.MARKER_CHAR; // right marker
+
+      for (column = 0; column < panelDumpWidth; column ++)
+      {
+        if (nibbleUsed < nibbleLimit) // is there a first nibble?
+        {
+          thisNibble = panelNibbles[nibbleUsed ++];
+          panelChars[dumpIndex] = HexEdit2.HEX_DIGITS[thisNibble
+            & HexEdit2.NIBBLE_MASK];
+          byteValue = thisNibble << HexEdit2.NIBBLE_SHIFT;
+          if (nibbleUsed < nibbleLimit) // is there a second nibble?
+          {
+            thisNibble = panelNibbles[nibbleUsed ++];
+            panelChars[dumpIndex + 1] = HexEdit2.HEX_DIGITS[thisNibble
+              & HexEdit2.NIBBLE_MASK];
+            byteValue |= thisNibble; // insert second nibble into byte value
+          }
+          else
+          {
+            panelChars[dumpIndex + 1] = ' '; // no second nibble
+            byteValue = -1;       // don't try to display incomplete bytes
+          }
+          if ((byteValue < HexEdit2.FIRST_CHAR)
+            || (byteValue > HexEdit2.LAST_CHAR))
+          {
+            byteValue = HexEdit2.REPLACE_CHAR; // replace unprintable character
+          }
+          panelChars[textIndex] = (char) byteValue;
+        }
+        else                      // no data left for this column
+        {
+          panelChars[dumpIndex] = panelChars[dumpIndex + 1] = ' ';
+          panelChars[textIndex] = ' ';
+        }
+        dumpIndex += 3;           // two hex digits and one space
+        textIndex ++;             // one text character
+      }
+      context.drawChars(panelChars, 0, panelColumns, PANEL_MARGIN, rowY);
+      rowY += lineHeight;         // vertical position for next row
+      thisOffset += panelDumpWidth; // byte offset for next row
+    }
+  } // end of paintRows() method
 
 
 /*
@@ -3898,10 +10904,11 @@ class HexEdit2Text extends JPanel
     if (panelDumpWidth > 1)       // are we ready to handle this yet?
     {
       int scroll = HexEdit2.textScroll.getValue(); // scroll bar row position
-      int newOffset = scroll * panelDumpWidth; // convert rows to input bytes
-      if (newOffset != panelOffset) // has drawing position truly changed?
+      if (scroll != ((panelOffset / panelDumpWidth) / scrollScale))
+                                  // has drawing position truly changed?
       {
-        panelOffset = newOffset;  // yes, remember new starting offset
+        panelOffset = scroll * scrollScale * panelDumpWidth;
+                                  // yes, convert rows to input bytes
         repaint();                // redraw text display as necessary
       }
     }
@@ -3918,7 +10925,8 @@ class HexEdit2Text extends JPanel
   static methods in the main class.
 */
 
-class HexEdit2User implements ActionListener, Transferable
+class HexEdit2User implements ActionListener, DocumentListener,
+  ListSelectionListener, Runnable, Transferable
 {
   /* empty constructor */
 
@@ -3955,6 +10963,38 @@ class HexEdit2User implements ActionListener, Transferable
     return(flavor.equals(DataFlavor.stringFlavor));
   }
 
+  /* document listener for search as you type */
+
+  public void changedUpdate(DocumentEvent event)
+  {
+    HexEdit2.searchTextChanged();
+  }
+
+  public void insertUpdate(DocumentEvent event)
+  {
+    HexEdit2.searchTextChanged();
+  }
+
+  public void removeUpdate(DocumentEvent event)
+  {
+    HexEdit2.searchTextChanged();
+  }
+
+  /* list selection listener for "Find All" results */
+
+  public void valueChanged(ListSelectionEvent event)
+  {
+    if (event.getValueIsAdjusting() == false) // ignore mouse dragging
+      HexEdit2.showResultsMatch();
+  }
+
+  /* background search has finished */
+
+  public void run()
+  {
+    HexEdit2.searchFinished();
+  }
+
 } // end of HexEdit2User class
 
 /* Copyright (c) 2008 by Keith Fenske.  Apache License or GNU GPL. */